@@ -86,6 +86,11 @@ android {
     }
     ndkVersion = "28.0.13004108"
 
+    androidResources {
+        // store dictionaries uncompressed, so they can be memory-mapped directly from the APK instead of being extracted
+        noCompress += "dict"
+    }
+
     packaging {
         jniLibs {
             // shrinks APK by 3 MB, zipped size unchanged
@@ -124,6 +129,12 @@ android {
     }
 }
 
+tasks.withType<Test>().configureEach {
+    // see ManualBenchmark in the tests
+    if (!project.hasProperty("manualBenchmarks"))
+        useJUnit { excludeCategories("helium314.keyboard.ManualBenchmark") }
+}
+
 dependencies {
     // androidx
     implementation("androidx.core:core-ktx:1.17.0") // 1.18.0 requires minSdk 23
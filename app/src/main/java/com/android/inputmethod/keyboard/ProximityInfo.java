@@ -15,7 +15,9 @@ import helium314.keyboard.keyboard.Key;
 import helium314.keyboard.keyboard.internal.TouchPositionCorrection;
 import helium314.keyboard.latin.common.Constants;
 import helium314.keyboard.latin.utils.JniUtils;
+import helium314.keyboard.latin.utils.NativeHandles;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -71,7 +73,8 @@ public class ProximityInfo {
         }
         computeNearestNeighbors();
         try {
-            mNativeProximityInfo = createNativeProximityInfo(touchPositionCorrection);
+            mNativeHandle = createNativeProximityInfo(touchPositionCorrection);
+            mNativeProximityInfo = mNativeHandle == null ? 0 : mNativeHandle.getHandle();
         } catch (Throwable e) {
             Log.e(TAG, "could not create proximity info", e);
             mNativeProximityInfo = 0;
@@ -79,6 +82,7 @@ public class ProximityInfo {
     }
 
     private long mNativeProximityInfo;
+    private NativeHandles.Handle mNativeHandle;
     static {
         JniUtils.loadNativeLibrary();
     }
@@ -90,7 +94,7 @@ public class ProximityInfo {
             int[] keyWidths, int[] keyHeights, int[] keyCharCodes, float[] sweetSpotCenterXs,
             float[] sweetSpotCenterYs, float[] sweetSpotRadii);
 
-    private static native void releaseProximityInfoNative(long nativeProximityInfo);
+    static native void releaseProximityInfoNative(long nativeProximityInfo);
 
     public static boolean needsProximityInfo(final Key key) {
         // Don't include special keys into ProximityInfo.
@@ -107,7 +111,7 @@ public class ProximityInfo {
         return count;
     }
 
-    private long createNativeProximityInfo(@NonNull final TouchPositionCorrection touchPositionCorrection) {
+    private NativeHandles.Handle createNativeProximityInfo(@NonNull final TouchPositionCorrection touchPositionCorrection) {
         final int[] proximityCharsArray = new int[mGridSize * MAX_PROXIMITY_CHARS_SIZE];
         Arrays.fill(proximityCharsArray, Constants.NOT_A_CODE);
         for (int i = 0; i < mGridSize; ++i) {
@@ -213,27 +217,55 @@ public class ProximityInfo {
             }
         }
 
+        final ByteBuffer key = new ProximityInfoRegistry.KeyBuilder()
+                .add(mKeyboardMinWidth).add(mKeyboardHeight).add(mGridWidth).add(mGridHeight)
+                .add(mMostCommonKeyWidth).add(mMostCommonKeyHeight).add(proximityCharsArray).add(keyCount)
+                .add(keyXCoordinates).add(keyYCoordinates).add(keyWidths).add(keyHeights).add(keyCharCodes)
+                .add(sweetSpotCenterXs).add(sweetSpotCenterYs).add(sweetSpotRadii)
+                .build();
         // TODO: Stop passing proximityCharsArray
-        return setProximityInfoNative(mKeyboardMinWidth, mKeyboardHeight, mGridWidth, mGridHeight,
-                mMostCommonKeyWidth, mMostCommonKeyHeight, proximityCharsArray, keyCount,
-                keyXCoordinates, keyYCoordinates, keyWidths, keyHeights, keyCharCodes,
-                sweetSpotCenterXs, sweetSpotCenterYs, sweetSpotRadii);
+        final long nativeSizeBytes = (long) proximityCharsArray.length * 4 + keyCount * 8 * 4;
+        final String description = keyCount + " keys, " + mKeyboardMinWidth + "x" + mKeyboardHeight;
+        return ProximityInfoRegistry.acquire(this, key, nativeSizeBytes, description, () -> setProximityInfoNative(mKeyboardMinWidth,
+                mKeyboardHeight, mGridWidth, mGridHeight, mMostCommonKeyWidth, mMostCommonKeyHeight,
+                proximityCharsArray, keyCount, keyXCoordinates, keyYCoordinates, keyWidths, keyHeights,
+                keyCharCodes, sweetSpotCenterXs, sweetSpotCenterYs, sweetSpotRadii));
     }
 
     public long getNativeProximityInfo() {
         return mNativeProximityInfo;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            if (mNativeProximityInfo != 0) {
-                releaseProximityInfoNative(mNativeProximityInfo);
-                mNativeProximityInfo = 0;
-            }
-        } finally {
-            super.finalize();
+    /**
+     * Releases this instance's reference to the native proximity info, which is freed when no other instance
+     * shares it. Must only be called when nothing uses this instance any more, otherwise the native proximity
+     * info is released once this instance is unreachable.
+     */
+    public void close() {
+        if (mNativeHandle == null) return;
+        mNativeProximityInfo = 0;
+        mNativeHandle.release();
+        mNativeHandle = null;
+    }
+
+    /** Rough estimate of the memory used by the neighbor grid of this instance, in bytes. */
+    public int getEstimatedSizeBytes() {
+        int neighborCount = 0;
+        for (final List<Key> neighbors : mGridNeighbors) {
+            if (neighbors != null) neighborCount += neighbors.size();
         }
+        // list object and array per cell, plus a reference per neighbor
+        return mGridSize * 32 + neighborCount * 4;
+    }
+
+    /**
+     * Rough estimate of the memory used by the native proximity info, in bytes. It may be shared with other
+     * instances, see {@link #getNativeProximityInfo}.
+     */
+    public int getEstimatedNativeSizeBytes() {
+        if (mNativeProximityInfo == 0) return 0;
+        // proximity chars for each cell, and coordinates, sizes, codes and sweet spots for each key
+        return mGridSize * MAX_PROXIMITY_CHARS_SIZE * 4 + mSortedKeys.size() * 8 * 4;
     }
 
     private void computeNearestNeighbors() {
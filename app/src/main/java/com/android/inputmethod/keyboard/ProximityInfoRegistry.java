@@ -0,0 +1,132 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package com.android.inputmethod.keyboard;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import helium314.keyboard.latin.utils.NativeHandles;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Shares native proximity info between {@link ProximityInfo} instances with the same geometry and key codes,
+ * e.g. the shifted alphabet keyboards, or the same layout in several languages.
+ * Native proximity info is reference counted, and released when each ProximityInfo using it is closed or
+ * unreachable, see {@link NativeHandles}.
+ */
+final class ProximityInfoRegistry {
+    private ProximityInfoRegistry() { }
+
+    interface NativeCreator {
+        long create();
+    }
+
+    private static final class Entry {
+        final long mHandle;
+        // must not reference the owner, as entries are reachable until released
+        final NativeHandles.Releaser mReleaser;
+        int mRefCount;
+
+        Entry(final long handle, final NativeHandles.Releaser releaser) {
+            mHandle = handle;
+            mReleaser = releaser;
+        }
+    }
+
+    private static final HashMap<ByteBuffer, Entry> sEntries = new HashMap<>();
+
+    /**
+     * Returns the native proximity info for the given key, created by the creator if there is none, or null if
+     * creating failed. The proximity info is released once the owner and all other owners of the same key have
+     * released the returned handle or are unreachable.
+     */
+    @Nullable
+    static NativeHandles.Handle acquire(@NonNull final Object owner, @NonNull final ByteBuffer key, final long sizeBytes,
+            @NonNull final String description, @NonNull final NativeCreator creator) {
+        return acquire(owner, key, sizeBytes, description, creator, ProximityInfo::releaseProximityInfoNative);
+    }
+
+    // the releaser can be replaced for testing
+    @Nullable
+    static NativeHandles.Handle acquire(@NonNull final Object owner, @NonNull final ByteBuffer key, final long sizeBytes,
+            @NonNull final String description, @NonNull final NativeCreator creator,
+            @NonNull final NativeHandles.Releaser releaser) {
+        Entry entry;
+        synchronized (sEntries) {
+            entry = sEntries.get(key);
+            if (entry != null) entry.mRefCount++;
+        }
+        if (entry == null) {
+            // creating is slow, and must not block other keyboards
+            final long newHandle = creator.create();
+            if (newHandle == 0) return null;
+            synchronized (sEntries) {
+                entry = sEntries.get(key);
+                if (entry == null) {
+                    entry = new Entry(newHandle, releaser);
+                    sEntries.put(key, entry);
+                }
+                entry.mRefCount++;
+            }
+            // another thread created the same proximity info in the meantime
+            if (entry.mHandle != newHandle) releaser.release(newHandle);
+        }
+        return NativeHandles.register(owner, "ProximityInfo", entry.mHandle, sizeBytes, description, false,
+                (releasedHandle) -> release(key));
+    }
+
+    private static void release(@NonNull final ByteBuffer key) {
+        final Entry entry;
+        synchronized (sEntries) {
+            entry = sEntries.get(key);
+            if (entry == null || --entry.mRefCount > 0) return;
+            sEntries.remove(key);
+        }
+        entry.mReleaser.release(entry.mHandle);
+    }
+
+    /** Digest of everything passed to native when creating the proximity info. */
+    static final class KeyBuilder {
+        private final MessageDigest mDigest;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(4);
+
+        KeyBuilder() {
+            try {
+                mDigest = MessageDigest.getInstance("SHA-256");
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // SHA-256 is always available
+            }
+        }
+
+        KeyBuilder add(final int value) {
+            mBuffer.clear();
+            mDigest.update(mBuffer.putInt(value).array());
+            return this;
+        }
+
+        KeyBuilder add(final int[] values) {
+            if (values == null) return add(-1);
+            add(values.length);
+            final ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+            bytes.asIntBuffer().put(values);
+            mDigest.update(bytes.array());
+            return this;
+        }
+
+        KeyBuilder add(final float[] values) {
+            if (values == null) return add(-1);
+            add(values.length);
+            final ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+            bytes.asFloatBuffer().put(values);
+            mDigest.update(bytes.array());
+            return this;
+        }
+
+        ByteBuffer build() {
+            return ByteBuffer.wrap(mDigest.digest());
+        }
+    }
+}
@@ -14,6 +14,7 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 
 import helium314.keyboard.latin.dictionary.Dictionary;
+import helium314.keyboard.latin.dictionary.SuggestionResultBuffer;
 import helium314.keyboard.latin.NgramContext;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
@@ -28,6 +29,7 @@ import helium314.keyboard.latin.makedict.WordProperty;
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion;
 import com.android.inputmethod.latin.utils.BinaryDictionaryUtils;
 import helium314.keyboard.latin.utils.JniUtils;
+import helium314.keyboard.latin.utils.NativeHandles;
 import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import java.io.File;
@@ -77,6 +79,7 @@ public final class BinaryDictionary extends Dictionary {
     public static final String DIR_NAME_SUFFIX_FOR_RECORD_MIGRATION = ".migrating";
 
     private long mNativeDict;
+    private NativeHandles.Handle mNativeDictHandle;
     private final long mDictSize;
     private final String mDictFilePath;
     private final boolean mUseFullEditDistance;
@@ -146,6 +149,7 @@ public final class BinaryDictionary extends Dictionary {
             index++;
         }
         mNativeDict = createOnMemoryNative(formatVersion, locale.toString(), keyArray, valueArray);
+        registerNativeDict("on memory");
     }
 
 
@@ -209,6 +213,13 @@ public final class BinaryDictionary extends Dictionary {
             final long length, final boolean isUpdatable) {
         mHasUpdated = false;
         mNativeDict = openNative(path, startOffset, length, isUpdatable);
+        registerNativeDict(new File(path).getName());
+    }
+
+    private void registerNativeDict(final String source) {
+        if (mNativeDict == 0) return;
+        mNativeDictHandle = NativeHandles.register(this, "BinaryDictionary", mNativeDict, mDictSize,
+                mDictType + ", " + mLocale + ", " + source, true, BinaryDictionary::closeNative);
     }
 
     // TODO: Check isCorrupted() for main dictionaries.
@@ -254,26 +265,79 @@ public final class BinaryDictionary extends Dictionary {
             final SettingsValuesForSuggestion settingsValuesForSuggestion,
             final int sessionId, final float weightForLocale,
             final float[] inOutWeightOfLangModelVsSpatialModel) {
+        final SuggestionResultBuffer results = searchSuggestions(composedData, ngramContext,
+                proximityInfoHandle, settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel);
+        if (results == null) {
+            return null;
+        }
+        final int count = results.getCount();
+        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
+        for (int j = 0; j < count; ++j) {
+            final int len = results.getWordLength(j);
+            if (len > 0) {
+                suggestions.add(results.createSuggestedWordInfo(j, len, weightForLocale, this));
+            }
+        }
+        return suggestions;
+    }
+
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionCollector collector) {
+        final SuggestionResultBuffer results = searchSuggestions(composedData, ngramContext,
+                proximityInfoHandle, settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel);
+        if (results != null) {
+            results.collectSuggestions(weightForLocale, this, collector);
+        }
+    }
+
+    /**
+     * Runs the native search and returns the results, which are owned by the traverse session
+     * and only valid until the next search in the same session.
+     */
+    private SuggestionResultBuffer searchSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel) {
         if (!isValidDictionary()) {
             return null;
         }
         final DicTraverseSession session = getTraverseSession(sessionId);
+        final SuggestionResultBuffer results = session.mResults;
+        results.clear();
         Arrays.fill(session.mInputCodePoints, Constants.NOT_A_CODE);
         ngramContext.outputToArray(session.mPrevWordCodePointArrays,
                 session.mIsBeginningOfSentenceArray);
         final InputPointers inputPointers = composedData.mInputPointers;
         final boolean isGesture = composedData.mIsBatchMode;
         final int inputSize;
+        boolean resumeTypingSearch = false;
         if (!isGesture) {
             inputSize =
                     composedData.copyCodePointsExceptTrailingSingleQuotesAndReturnCodePointCount(
                         session.mInputCodePoints);
             if (inputSize < 0) {
+                session.resetPreviousInput();
                 return null;
             }
+            // Predictions (empty input) don't use the dic nodes cache, so they don't affect resuming.
+            if (inputSize > 0) {
+                resumeTypingSearch = session.updateTypingInputAndCheckResumable(inputSize,
+                        ngramContext, proximityInfoHandle, weightForLocale,
+                        composedData.mExtendsPreviousInput);
+            }
         } else {
             inputSize = inputPointers.getPointerSize();
+            session.resetPreviousInput();
         }
+        session.mNativeSuggestOptions.setResumeTypingSearch(resumeTypingSearch);
         session.mNativeSuggestOptions.setUseFullEditDistance(mUseFullEditDistance);
         session.mNativeSuggestOptions.setIsGesture(isGesture);
         if (isGesture)
@@ -294,37 +358,15 @@ public final class BinaryDictionary extends Dictionary {
                 inputPointers.getPointerIds(), session.mInputCodePoints, inputSize,
                 session.mNativeSuggestOptions.getOptions(), session.mPrevWordCodePointArrays,
                 session.mIsBeginningOfSentenceArray, ngramContext.getPrevWordCount(),
-                session.mOutputSuggestionCount, session.mOutputCodePoints, session.mOutputScores,
-                session.mSpaceIndices, session.mOutputTypes,
-                session.mOutputAutoCommitFirstWordConfidence,
+                results.mOutputSuggestionCount, results.mOutputCodePoints, results.mOutputScores,
+                results.mSpaceIndices, results.mOutputTypes,
+                results.mOutputAutoCommitFirstWordConfidence,
                 session.mInputOutputWeightOfLangModelVsSpatialModel);
         if (inOutWeightOfLangModelVsSpatialModel != null) {
             inOutWeightOfLangModelVsSpatialModel[0] =
                     session.mInputOutputWeightOfLangModelVsSpatialModel[0];
         }
-        final int count = session.mOutputSuggestionCount[0];
-        final ArrayList<SuggestedWordInfo> suggestions = new ArrayList<>();
-        for (int j = 0; j < count; ++j) {
-            final int start = j * DICTIONARY_MAX_WORD_LENGTH;
-            int len = 0;
-            while (len < DICTIONARY_MAX_WORD_LENGTH
-                    && session.mOutputCodePoints[start + len] != 0) {
-                ++len;
-            }
-            if (len > 0) {
-                SuggestedWordInfo info = new SuggestedWordInfo(
-                    new String(session.mOutputCodePoints, start, len),
-                    "" /* prevWordsContext */,
-                    (int)(session.mOutputScores[j] * weightForLocale),
-                    session.mOutputTypes[j],
-                    this /* sourceDict */,
-                    session.mSpaceIndices[j] /* indexOfTouchPointOfSecondWord */,
-                    session.mOutputAutoCommitFirstWordConfidence[0]);
-                info.mOriginalScore = session.mOutputScores[j]; // no locale weight!
-                suggestions.add(info);
-            }
-        }
-        return suggestions;
+        return results;
     }
 
     public boolean isValidDictionary() {
@@ -516,6 +558,22 @@ public final class BinaryDictionary extends Dictionary {
         }
     }
 
+    /**
+     * Like {@link #updateEntriesForInputEvents}, but returns when GC is needed instead of running it.
+     * @return the number of events that have been processed, including the first startIndex
+     *  events, or a value <= 0 if the events could not be processed
+     */
+    public int updateEntriesForInputEventsUntilGC(
+            final WordInputEventForPersonalization[] inputEvents, final int startIndex) {
+        if (!isValidDictionary()) {
+            return 0;
+        }
+        final int processedEventCount = updateEntriesForInputEventsNative(mNativeDict,
+                inputEvents, startIndex);
+        mHasUpdated = true;
+        return processedEventCount;
+    }
+
     private void reopen() {
         close();
         final File dictFile = new File(mDictFilePath);
@@ -548,6 +606,19 @@ public final class BinaryDictionary extends Dictionary {
         return true;
     }
 
+    // Flush to dict file without reopening, so the dictionary can still be used while the
+    // written file is opened as a new dictionary. Does not modify the dictionary.
+    public boolean flushWithoutReopening() {
+        if (!isValidDictionary()) {
+            return false;
+        }
+        return flushNative(mNativeDict, mDictFilePath);
+    }
+
+    public boolean hasUpdated() {
+        return mHasUpdated;
+    }
+
     // Run GC and flush to dict file.
     public boolean flushWithGC() {
         if (!isValidDictionary()) {
@@ -641,7 +712,8 @@ public final class BinaryDictionary extends Dictionary {
 
     private synchronized void closeInternalLocked() {
         if (mNativeDict != 0) {
-            closeNative(mNativeDict);
+            mNativeDictHandle.release();
+            mNativeDictHandle = null;
             mNativeDict = 0;
         }
     }
@@ -659,14 +731,4 @@ public final class BinaryDictionary extends Dictionary {
             mDictFileHash = "";
         return mDictFileHash;
     }
-
-    // TODO: Manage BinaryDictionary instances without using WeakReference or something.
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            closeInternalLocked();
-        } finally {
-            super.finalize();
-        }
-    }
 }
@@ -6,9 +6,12 @@
 
 package com.android.inputmethod.latin;
 
+import helium314.keyboard.latin.NgramContext;
 import helium314.keyboard.latin.common.NativeSuggestOptions;
 import helium314.keyboard.latin.define.DecoderSpecificConstants;
+import helium314.keyboard.latin.dictionary.SuggestionResultBuffer;
 import helium314.keyboard.latin.utils.JniUtils;
+import helium314.keyboard.latin.utils.NativeHandles;
 
 import java.util.Locale;
 
@@ -18,34 +21,53 @@ public final class DicTraverseSession {
     }
     // Must be equal to MAX_RESULTS in native/jni/src/defines.h
     private static final int MAX_RESULTS = 18;
+    // Must be equal to the values in native DicTraverseSession and DicNodesCache
+    private static final long DICTIONARY_SIZE_THRESHOLD_TO_USE_LARGE_CACHE = 256 * 1024;
+    private static final int LARGE_PRIORITY_QUEUE_CAPACITY = 310;
+    private static final int SMALL_PRIORITY_QUEUE_CAPACITY = 100;
+    // rough size of a native DicNode
+    private static final int DIC_NODE_BYTES = 400;
     public final int[] mInputCodePoints =
             new int[DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH];
     public final int[][] mPrevWordCodePointArrays =
             new int[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM][];
     public final boolean[] mIsBeginningOfSentenceArray =
             new boolean[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM];
-    public final int[] mOutputSuggestionCount = new int[1];
-    public final int[] mOutputCodePoints =
-            new int[DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH * MAX_RESULTS];
-    public final int[] mSpaceIndices = new int[MAX_RESULTS];
-    public final int[] mOutputScores = new int[MAX_RESULTS];
-    public final int[] mOutputTypes = new int[MAX_RESULTS];
-    // Only one result is ever used
-    public final int[] mOutputAutoCommitFirstWordConfidence = new int[1];
+    // Reused for every search, so the results are only valid until the next search.
+    public final SuggestionResultBuffer mResults = new SuggestionResultBuffer(MAX_RESULTS,
+            DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH);
     public final float[] mInputOutputWeightOfLangModelVsSpatialModel = new float[1];
 
     public final NativeSuggestOptions mNativeSuggestOptions = new NativeSuggestOptions();
 
+    // Input of the last typing search run in this session, used to decide whether the native
+    // search may resume from its cached dic nodes instead of starting again at the root.
+    private final int[] mPreviousInputCodePoints =
+            new int[DecoderSpecificConstants.DICTIONARY_MAX_WORD_LENGTH];
+    private int mPreviousInputSize = 0;
+    private NgramContext mPreviousNgramContext = null;
+    private long mPreviousProximityInfo = 0;
+    private float mPreviousWeightForLocale = 0f;
+
     private static native long setDicTraverseSessionNative(String locale, long dictSize);
     private static native void initDicTraverseSessionNative(long nativeDicTraverseSession,
             long dictionary, int[] previousWord, int previousWordLength);
     private static native void releaseDicTraverseSessionNative(long nativeDicTraverseSession);
 
     private long mNativeDicTraverseSession;
+    private NativeHandles.Handle mNativeHandle;
 
     public DicTraverseSession(Locale locale, long dictionary, long dictSize) {
-        mNativeDicTraverseSession = createNativeDicTraverseSession(
-                locale != null ? locale.toString() : "", dictSize);
+        final String localeString = locale != null ? locale.toString() : "";
+        mNativeDicTraverseSession = createNativeDicTraverseSession(localeString, dictSize);
+        if (mNativeDicTraverseSession != 0) {
+            // three queues for the search, and one for the results
+            final int capacity = dictSize >= DICTIONARY_SIZE_THRESHOLD_TO_USE_LARGE_CACHE
+                    ? LARGE_PRIORITY_QUEUE_CAPACITY : SMALL_PRIORITY_QUEUE_CAPACITY;
+            mNativeHandle = NativeHandles.register(this, "DicTraverseSession", mNativeDicTraverseSession,
+                    (long) (3 * capacity + MAX_RESULTS) * DIC_NODE_BYTES, localeString, true,
+                    DicTraverseSession::releaseDicTraverseSessionNative);
+        }
         initSession(dictionary);
     }
 
@@ -62,27 +84,56 @@ public final class DicTraverseSession {
                 mNativeDicTraverseSession, dictionary, previousWord, previousWordLength);
     }
 
-    private static long createNativeDicTraverseSession(String locale, long dictSize) {
-        return setDicTraverseSessionNative(locale, dictSize);
+    /**
+     * Records the typing input that is about to be searched and returns whether the native search
+     * may resume from the dic nodes cached by the previous search in this session.
+     * This is only the case if the caller reports that the input extends the previous input, and
+     * the input searched last in this session actually is a prefix of the new input, with the same
+     * ngram context, proximity info and locale weight.
+     * Must be called after the input code points are copied to {@link #mInputCodePoints}.
+     */
+    public boolean updateTypingInputAndCheckResumable(final int inputSize,
+            final NgramContext ngramContext, final long proximityInfo,
+            final float weightForLocale, final boolean extendsPreviousInput) {
+        final boolean resumable = extendsPreviousInput
+                && mPreviousInputSize > 0
+                && inputSize > mPreviousInputSize
+                && proximityInfo == mPreviousProximityInfo
+                && weightForLocale == mPreviousWeightForLocale
+                && ngramContext.equals(mPreviousNgramContext)
+                && startsWithPreviousInput();
+        System.arraycopy(mInputCodePoints, 0, mPreviousInputCodePoints, 0, inputSize);
+        mPreviousInputSize = inputSize;
+        mPreviousNgramContext = ngramContext;
+        mPreviousProximityInfo = proximityInfo;
+        mPreviousWeightForLocale = weightForLocale;
+        return resumable;
     }
 
-    private void closeInternal() {
-        if (mNativeDicTraverseSession != 0) {
-            releaseDicTraverseSessionNative(mNativeDicTraverseSession);
-            mNativeDicTraverseSession = 0;
+    private boolean startsWithPreviousInput() {
+        for (int i = 0; i < mPreviousInputSize; i++) {
+            if (mInputCodePoints[i] != mPreviousInputCodePoints[i]) {
+                return false;
+            }
         }
+        return true;
     }
 
-    public void close() {
-        closeInternal();
+    /** Forgets the previous typing input, so the next typing search starts at the root. */
+    public void resetPreviousInput() {
+        mPreviousInputSize = 0;
+        mPreviousNgramContext = null;
+    }
+
+    private static long createNativeDicTraverseSession(String locale, long dictSize) {
+        return setDicTraverseSessionNative(locale, dictSize);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            closeInternal();
-        } finally {
-            super.finalize();
+    public void close() {
+        if (mNativeDicTraverseSession != 0) {
+            mNativeHandle.release();
+            mNativeHandle = null;
+            mNativeDicTraverseSession = 0;
         }
     }
 }
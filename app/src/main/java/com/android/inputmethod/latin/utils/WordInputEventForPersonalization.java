@@ -30,14 +30,16 @@ public final class WordInputEventForPersonalization {
             new int[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM][];
     public final boolean[] mIsPrevWordBeginningOfSentenceArray =
             new boolean[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM];
+    public final boolean mIsValid;
     // Time stamp in seconds.
     public final int mTimestamp;
 
     public WordInputEventForPersonalization(final CharSequence targetWord,
-            final NgramContext ngramContext, final int timestamp) {
+            final NgramContext ngramContext, final boolean isValid, final int timestamp) {
         mTargetWord = StringUtils.toCodePointArray(targetWord);
         mPrevWordsCount = ngramContext.getPrevWordCount();
         ngramContext.outputToArray(mPrevWordArray, mIsPrevWordBeginningOfSentenceArray);
+        mIsValid = isValid;
         mTimestamp = timestamp;
     }
 
@@ -90,6 +92,7 @@ public final class WordInputEventForPersonalization {
         if (locale == null) {
             return null;
         }
-        return new WordInputEventForPersonalization(targetWord, ngramContext, timestamp);
+        return new WordInputEventForPersonalization(targetWord, ngramContext, true /* isValid */,
+                timestamp);
     }
 }
@@ -15,8 +15,9 @@ import java.util.Locale
  * Bengali Khipro combiner – faithful to the published m17n spec (bn-khipro.mim).
  *
  * The engine parses the bundled m17n file at runtime into a small instruction set
- * and re-evaluates the full composing buffer after every keystroke to provide
- * deterministic, longest-match behavior.
+ * and evaluates the composing buffer after every keystroke to provide deterministic,
+ * longest-match behavior. Only the part of the buffer that may convert differently
+ * with the new keystroke is evaluated again.
  */
 class BnKhiproCombiner(
     private val engine: KhiproEngine = Companion.engine
@@ -147,19 +148,39 @@ private sealed interface Condition {
 /**
  * Parses the bn-khipro.mim file and performs streaming conversion with greedy longest-match
  * respecting per-state matcher ordering.
+ *
+ * The maps used by each state are compiled into a trie at load time, so finding the longest match is a single
+ * walk over the input. Conversion is incremental: the state before the first step that may still change when
+ * more input is added is kept, and the next conversion resumes from there if its input starts with all the text
+ * that was looked at by the steps before.
  */
 class KhiproEngine(specText: String) {
-    private val maps: Map<String, List<MapEntry>>
     private val states: Map<String, StateDef>
+    private val tries: Map<String, TrieNode>
     private var currentStateName: String = "init"
     private var vars: VarMap = mutableMapOf()
 
+    // conversion state, the text may be changed at any position by actions
+    private val out = StringBuilder()
+    private var cursor = 0
+
+    // state before the first step that could change with more input
+    private var checkpointIndex = 0
+    // input up to the furthest char looked at by the steps before the checkpoint, which may be beyond checkpointIndex
+    private var checkpointInput = ""
+    private var checkpointState = "init"
+    private var checkpointVars: Map<String, Int> = emptyMap()
+    private var checkpointOut = ""
+    private var checkpointCursor = 0
+    private var lastInput: String? = null
+    private var lastOutput = ""
+
     init {
         val parser = SexpParser(specText)
         val root = parser.parse()
         val (m, s) = SpecBuilder.fromSexp(root)
-        maps = m
         states = s
+        tries = s.mapValues { (_, state) -> TrieNode.build(state, m) }
         resetState()
     }
 
@@ -167,18 +188,65 @@ class KhiproEngine(specText: String) {
         currentStateName = "init"
         vars = mutableMapOf()
         applyEntryActions()
+        out.setLength(0)
+        cursor = 0
+        checkpointIndex = 0
+        checkpointInput = ""
+        checkpointState = currentStateName
+        checkpointVars = HashMap(vars)
+        checkpointOut = ""
+        checkpointCursor = 0
+        lastInput = null
     }
 
+    /** Converts the input, resuming from the previous conversion if the input starts with the same text. */
     fun convert(input: String): String {
-        // Restart state machine for each full recomputation
+        if (input == lastInput) return lastOutput
+        val start = if (input.startsWith(checkpointInput)) {
+            currentStateName = checkpointState
+            vars = HashMap(checkpointVars)
+            out.setLength(0)
+            out.append(checkpointOut)
+            cursor = checkpointCursor
+            checkpointIndex
+        } else {
+            resetState()
+            0
+        }
+        lastOutput = convertFrom(input, start)
+        lastInput = input
+        return lastOutput
+    }
+
+    /** Converts the input without using results of previous conversions. */
+    fun convertFully(input: String): String {
         resetState()
-        val out = StringBuilder()
-        var cursor = 0 // cursor within out
-        var i = 0
+        lastOutput = convertFrom(input, 0)
+        lastInput = input
+        return lastOutput
+    }
+
+    private fun convertFrom(input: String, start: Int): String {
+        var checkpointSet = false
+        // steps before start were final in the previous conversion, and looked at the chars in checkpointInput
+        var examinedEnd = if (start == 0) 0 else checkpointInput.length
+        var i = start
         while (i < input.length) {
-            val state = states[currentStateName] ?: break
-            val match = findMatch(state, input, i)
-            if (match == null) {
+            val trie = tries[currentStateName] ?: break
+            val match = trie.findLongestMatch(input, i)
+            if (!checkpointSet) {
+                if (match.reachedEnd) {
+                    // a longer key may match once more input is added, so following steps are not final
+                    setCheckpoint(input, i, examinedEnd)
+                    checkpointSet = true
+                } else {
+                    // the result of this step depends on all chars it looked at, not only on the matched key
+                    examinedEnd = maxOf(examinedEnd, match.examinedEnd)
+                }
+            }
+            val entry = match.entry
+            val rule = match.rule
+            if (entry == null || rule == null) {
                 // no match -> emit raw char, move to init if not already
                 out.insert(cursor, input[i])
                 cursor += 1
@@ -190,39 +258,35 @@ class KhiproEngine(specText: String) {
                 continue
             }
 
-            val (entry, rule) = match
-            executeActions(entry.actions, out, setCursorFactory(cursorRef = { cursor }, cursorSetter = { cursor = it }))
-            executeActions(rule.actions, out, setCursorFactory(cursorRef = { cursor }, cursorSetter = { cursor = it }))
+            executeActions(entry.actions, out)
+            executeActions(rule.actions, out)
             cursor = cursor.coerceIn(0, out.length)
 
             i += entry.key.length
         }
+        if (!checkpointSet) setCheckpoint(input, input.length, examinedEnd)
         return out.toString()
     }
 
-    private fun applyEntryActions() {
-        val state = states[currentStateName] ?: return
-        var cursor = 0
-        executeActions(state.entryActions, StringBuilder(), setCursorFactory(cursorRef = { cursor }, cursorSetter = { cursor = it }))
+    private fun setCheckpoint(input: String, index: Int, examinedEnd: Int) {
+        checkpointIndex = index
+        checkpointInput = input.substring(0, maxOf(index, examinedEnd))
+        checkpointState = currentStateName
+        checkpointVars = HashMap(vars)
+        checkpointOut = out.toString()
+        checkpointCursor = cursor
     }
 
-    private fun findMatch(state: StateDef, input: String, index: Int): Pair<MapEntry, StateRule>? {
-        var best: Pair<MapEntry, StateRule>? = null
-        var bestLen = -1
-        for (rule in state.rules) {
-            val entries = maps[rule.mapName] ?: continue
-            for (entry in entries) {
-                if (entry.key.length <= bestLen) continue
-                if (input.regionMatches(index, entry.key, 0, entry.key.length, ignoreCase = false)) {
-                    best = entry to rule
-                    bestLen = entry.key.length
-                }
-            }
-        }
-        return best
+    private fun applyEntryActions() {
+        val state = states[currentStateName] ?: return
+        // entry actions don't change the converted text
+        val cursorBefore = cursor
+        cursor = 0
+        executeActions(state.entryActions, StringBuilder())
+        cursor = cursorBefore
     }
 
-    private fun executeActions(actions: List<Action>, out: StringBuilder, cursorAccessor: CursorAccessor) {
+    private fun executeActions(actions: List<Action>, out: StringBuilder) {
         for (action in actions) {
             when (action) {
                 is Action.Set -> {
@@ -230,33 +294,30 @@ class KhiproEngine(specText: String) {
                     vars[action.variable] = v
                 }
                 is Action.Insert -> {
-                    val pos = cursorAccessor.get()
-                    out.insert(pos, action.text)
-                    cursorAccessor.set(pos + action.text.length)
+                    out.insert(cursor, action.text)
+                    cursor += action.text.length
                 }
                 is Action.Delete -> {
-                    val pos = cursorAccessor.get()
-                    val start = (pos - action.count).coerceAtLeast(0)
-                    if (start < pos && start < out.length) {
-                        val end = pos.coerceAtMost(out.length)
-                        out.delete(start, end)
-                        cursorAccessor.set(start)
+                    val start = (cursor - action.count).coerceAtLeast(0)
+                    if (start < cursor && start < out.length) {
+                        out.delete(start, cursor.coerceAtMost(out.length))
+                        cursor = start
                     }
                 }
                 is Action.Move -> {
-                    val newPos = if (action.toEnd) out.length else (cursorAccessor.get() + (action.delta ?: 0))
-                    cursorAccessor.set(newPos.coerceIn(0, out.length))
+                    val newPos = if (action.toEnd) out.length else (cursor + (action.delta ?: 0))
+                    cursor = newPos.coerceIn(0, out.length)
                 }
                 is Action.Shift -> {
                     currentStateName = action.state
                     applyEntryActions()
                 }
                 is Action.Commit -> { /* no-op for recomputation model */ }
-                is Action.Cond -> if (evalCond(action.condition)) executeActions(action.actions, out, cursorAccessor)
+                is Action.Cond -> if (evalCond(action.condition)) executeActions(action.actions, out)
                 is Action.CondBranch -> {
                     for ((cond, acts) in action.branches) {
                         if (evalCond(cond)) {
-                            executeActions(acts, out, cursorAccessor)
+                            executeActions(acts, out)
                             break
                         }
                     }
@@ -273,6 +334,71 @@ class KhiproEngine(specText: String) {
     }
 }
 
+/** [examinedEnd] is the index after the last char of the input that was looked at for finding the match. */
+private class Match(val entry: MapEntry?, val rule: StateRule?, val reachedEnd: Boolean, val examinedEnd: Int)
+
+/**
+ * Trie of the keys of all maps used by a state. If several entries have the same key, the one found first by
+ * checking rules in order and entries in map order is used, like when scanning all entries.
+ */
+private class TrieNode {
+    private var keys = CharArray(0)
+    private var children = emptyArray<TrieNode>()
+    private var entry: MapEntry? = null
+    private var rule: StateRule? = null
+
+    fun findLongestMatch(input: String, index: Int): Match {
+        var node = this
+        var bestEntry: MapEntry? = null
+        var bestRule: StateRule? = null
+        var i = index
+        while (i < input.length) {
+            node = node.child(input[i]) ?: return Match(bestEntry, bestRule, false, i + 1)
+            i++
+            if (node.entry != null) {
+                bestEntry = node.entry
+                bestRule = node.rule
+            }
+        }
+        return Match(bestEntry, bestRule, node.keys.isNotEmpty(), i)
+    }
+
+    private fun child(c: Char): TrieNode? {
+        val index = keys.binarySearch(c)
+        return if (index < 0) null else children[index]
+    }
+
+    private fun getOrAddChild(c: Char): TrieNode {
+        val index = keys.binarySearch(c)
+        if (index >= 0) return children[index]
+        val insertAt = -index - 1
+        val node = TrieNode()
+        keys = CharArray(keys.size + 1) { if (it < insertAt) keys[it] else if (it == insertAt) c else keys[it - 1] }
+        val oldChildren = children
+        children = Array(oldChildren.size + 1) { if (it < insertAt) oldChildren[it] else if (it == insertAt) node else oldChildren[it - 1] }
+        return node
+    }
+
+    companion object {
+        fun build(state: StateDef, maps: Map<String, List<MapEntry>>): TrieNode {
+            val root = TrieNode()
+            for (rule in state.rules) {
+                val entries = maps[rule.mapName] ?: continue
+                for (entry in entries) {
+                    if (entry.key.isEmpty()) continue
+                    var node = root
+                    for (c in entry.key) node = node.getOrAddChild(c)
+                    if (node.entry == null) {
+                        node.entry = entry
+                        node.rule = rule
+                    }
+                }
+            }
+            return root
+        }
+    }
+}
+
 // ------------ Parsing helpers ------------
 
 private class SexpParser(private val text: String) {
@@ -491,13 +617,3 @@ private object SpecBuilder {
         }
     }
 }
-
-private fun setCursorFactory(cursorRef: () -> Int, cursorSetter: (Int) -> Unit): CursorAccessor = object : CursorAccessor {
-    override fun get(): Int = cursorRef()
-    override fun set(pos: Int) = cursorSetter(pos)
-}
-
-private interface CursorAccessor {
-    fun get(): Int
-    fun set(pos: Int)
-}
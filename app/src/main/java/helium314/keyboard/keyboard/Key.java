@@ -856,6 +856,11 @@ public class Key implements Comparable<Key> {
         mLocked = locked;
     }
 
+    /** Changes whenever the pressed, enabled or locked state changes, which all affect how the key is drawn. */
+    public int getDrawState() {
+        return (mPressed ? 1 : 0) | (mEnabled ? 2 : 0) | (mLocked ? 4 : 0);
+    }
+
     @NonNull
     public Rect getHitBox() {
         return mHitBox;
@@ -6,6 +6,8 @@
 
 package helium314.keyboard.keyboard;
 
+import androidx.annotation.VisibleForTesting;
+
 /**
  * This class handles key detection.
  */
@@ -13,6 +15,8 @@ public class KeyDetector {
     private final int mKeyHysteresisDistanceSquared;
     private final int mKeyHysteresisDistanceForSlidingModifierSquared;
 
+    private static boolean sHitMapEnabled = true;
+
     private Keyboard mKeyboard;
     private int mCorrectionX;
     private int mCorrectionY;
@@ -64,6 +68,11 @@ public class KeyDetector {
         return mKeyboard;
     }
 
+    @VisibleForTesting
+    public static void setHitMapEnabled(final boolean enabled) {
+        sHitMapEnabled = enabled;
+    }
+
     public boolean alwaysAllowsKeySelectionByDraggingFinger() {
         return false;
     }
@@ -82,6 +91,14 @@ public class KeyDetector {
         final int touchX = getTouchX(x);
         final int touchY = getTouchY(y);
 
+        final KeyHitMap hitMap = sHitMapEnabled ? mKeyboard.getHitMap() : null;
+        if (hitMap != null) {
+            final int index = hitMap.getKeyIndex(touchX, touchY);
+            if (index >= 0) return hitMap.getKey(index);
+            if (index == KeyHitMap.NO_KEY) return null;
+            // hitboxes overlap, choose by distance below
+        }
+
         int minDistance = Integer.MAX_VALUE;
         Key primaryKey = null;
         for (final Key key: mKeyboard.getNearestKeys(touchX, touchY)) {
@@ -0,0 +1,98 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Finds the key whose hitbox contains a touch point without checking all nearby keys.
+ * The keyboard is split into horizontal bands in which the same hitboxes are hit, and each band into runs
+ * of x coordinates hitting the same key, so a lookup is two binary searches over a few ints.
+ * Hitboxes already contain the enlargement of edge keys. Where hitboxes overlap, the run is marked as
+ * {@link #AMBIGUOUS}, and the key must be chosen by distance.
+ */
+final class KeyHitMap {
+    static final int NO_KEY = -1;
+    static final int AMBIGUOUS = -2;
+
+    private final Key[] mKeys;
+    // band i covers y from mBandTops[i] (inclusive) to mBandTops[i + 1] (exclusive)
+    private final int[] mBandTops;
+    // run j of band i covers x from mRunStarts[i][j] (inclusive) to mRunStarts[i][j + 1] (exclusive)
+    private final int[][] mRunStarts;
+    private final int[][] mRunKeys;
+
+    KeyHitMap(final List<Key> sortedKeys) {
+        final ArrayList<Key> keys = new ArrayList<>(sortedKeys.size());
+        final TreeSet<Integer> ys = new TreeSet<>();
+        for (final Key key : sortedKeys) {
+            // spacers are never hit, see ProximityInfo
+            if (key.isSpacer() || key.getHitBox().isEmpty()) continue;
+            keys.add(key);
+            ys.add(key.getHitBox().top);
+            ys.add(key.getHitBox().bottom);
+        }
+        mKeys = keys.toArray(new Key[0]);
+        mBandTops = toIntArray(ys);
+        final int bandCount = Math.max(mBandTops.length - 1, 0);
+        mRunStarts = new int[bandCount][];
+        mRunKeys = new int[bandCount][];
+        for (int band = 0; band < bandCount; band++) {
+            final int top = mBandTops[band];
+            final int bottom = mBandTops[band + 1];
+            final TreeSet<Integer> xs = new TreeSet<>();
+            for (final Key key : mKeys) {
+                final Rect hitBox = key.getHitBox();
+                if (hitBox.top > top || hitBox.bottom < bottom) continue;
+                xs.add(hitBox.left);
+                xs.add(hitBox.right);
+            }
+            final int[] runStarts = toIntArray(xs);
+            final int[] runKeys = new int[Math.max(runStarts.length - 1, 0)];
+            Arrays.fill(runKeys, NO_KEY);
+            for (int i = 0; i < mKeys.length; i++) {
+                final Rect hitBox = mKeys[i].getHitBox();
+                if (hitBox.top > top || hitBox.bottom < bottom) continue;
+                for (int run = Arrays.binarySearch(runStarts, hitBox.left); runStarts[run] < hitBox.right; run++) {
+                    runKeys[run] = runKeys[run] == NO_KEY ? i : AMBIGUOUS;
+                }
+            }
+            mRunStarts[band] = runStarts;
+            mRunKeys[band] = runKeys;
+        }
+    }
+
+    /** Returns the index of the key whose hitbox contains the point, {@link #NO_KEY} or {@link #AMBIGUOUS}. */
+    int getKeyIndex(final int x, final int y) {
+        final int band = findRun(mBandTops, y);
+        if (band < 0) return NO_KEY;
+        final int run = findRun(mRunStarts[band], x);
+        if (run < 0) return NO_KEY;
+        return mRunKeys[band][run];
+    }
+
+    Key getKey(final int index) {
+        return mKeys[index];
+    }
+
+    // index of the run containing the value, i.e. the last boundary not larger than the value, or -1
+    private static int findRun(final int[] boundaries, final int value) {
+        if (boundaries.length < 2 || value < boundaries[0] || value >= boundaries[boundaries.length - 1])
+            return -1;
+        final int index = Arrays.binarySearch(boundaries, value);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static int[] toIntArray(final TreeSet<Integer> values) {
+        final int[] array = new int[values.size()];
+        int i = 0;
+        for (final int value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+}
@@ -91,6 +91,9 @@ public class Keyboard {
 
     private final boolean mProximityCharsCorrectionEnabled;
 
+    @Nullable
+    private final KeyHitMap mHitMap;
+
     public Keyboard(@NonNull final KeyboardParams params) {
         mId = params.mId;
         mThemeId = params.mThemeId;
@@ -115,6 +118,7 @@ public class Keyboard {
                 mOccupiedWidth, mOccupiedHeight, mMostCommonKeyWidth, mMostCommonKeyHeight,
                 mSortedKeys, params.mTouchPositionCorrection);
         mProximityCharsCorrectionEnabled = params.mProximityCharsCorrectionEnabled;
+        mHitMap = new KeyHitMap(mSortedKeys);
     }
 
     protected Keyboard(@NonNull final Keyboard keyboard) {
@@ -139,6 +143,8 @@ public class Keyboard {
 
         mProximityInfo = keyboard.mProximityInfo;
         mProximityCharsCorrectionEnabled = keyboard.mProximityCharsCorrectionEnabled;
+        // keyboards created from another keyboard may move their keys, see DynamicGridKeyboard
+        mHitMap = null;
     }
 
     public boolean hasProximityCharsCorrection(final int code) {
@@ -153,6 +159,12 @@ public class Keyboard {
         return canAssumeNativeHasProximityCharsInfoOfAllKeys || Character.isLetter(code);
     }
 
+    /** Map for finding the key at a point, or null if the keys of this keyboard can change. */
+    @Nullable
+    KeyHitMap getHitMap() {
+        return mHitMap;
+    }
+
     @NonNull
     public ProximityInfo getProximityInfo() {
         return mProximityInfo;
@@ -0,0 +1,167 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard
+
+import android.content.ComponentCallbacks2
+import java.util.Locale
+
+/**
+ * LRU cache for keyboards, bounded by the estimated memory used by the keys and proximity info.
+ * Pinned keyboards (alphabet and symbols of the layout set in use) are never evicted and don't count towards the
+ * size, as evicting other keyboards can't free their memory. Native proximity info may be shared by several
+ * keyboards, it's counted once, and only if no pinned keyboard uses it.
+ * Not thread safe, [KeyboardLayoutSet] synchronizes all access.
+ */
+class KeyboardCache(private val maxBytes: Int = DEFAULT_MAX_BYTES) {
+    private class Entry(val keyboard: Keyboard) {
+        val bytes = estimateBytes(keyboard)
+        val nativeHandle = keyboard.proximityInfo.nativeProximityInfo
+        val nativeBytes = keyboard.proximityInfo.estimatedNativeSizeBytes
+    }
+
+    // number of pinned and unpinned entries using each native proximity info
+    private class NativeRefs(val bytes: Int) {
+        var pinned = 0
+        var unpinned = 0
+    }
+
+    private val entries = LinkedHashMap<KeyboardId, Entry>(16, 0.75f, true)
+    private val nativeRefs = HashMap<Long, NativeRefs>()
+    private var pinnedIds = emptySet<KeyboardId>()
+    // memory that could be freed by evicting all keyboards that are not pinned
+    private var bytes = 0
+    private var pinnedBytes = 0
+
+    operator fun get(id: KeyboardId): Keyboard? {
+        val entry = entries[id]
+        if (entry == null) misses++ else hits++
+        return entry?.keyboard
+    }
+
+    fun put(id: KeyboardId, keyboard: Keyboard) {
+        val entry = Entry(keyboard)
+        val pinned = id in pinnedIds
+        if (entry.bytes + entry.nativeBytes > maxBytes && !pinned) return
+        entries.put(id, entry)?.let { removeBytes(it, pinned) }
+        addBytes(entry, pinned)
+        trimToSize(maxBytes)
+    }
+
+    /** Adds the keyboard unless there already is one for [id], returns the existing keyboard or null. */
+    fun putIfAbsent(id: KeyboardId, keyboard: Keyboard): Keyboard? {
+        entries[id]?.let { return it.keyboard }
+        put(id, keyboard)
+        return null
+    }
+
+    /** Keyboards with these ids are kept regardless of size and usage, replaces previously pinned ids. */
+    fun pin(ids: Set<KeyboardId>) {
+        if (ids == pinnedIds) return
+        for ((id, entry) in entries) {
+            val wasPinned = id in pinnedIds
+            if (wasPinned == id in ids) continue
+            removeBytes(entry, wasPinned)
+            addBytes(entry, !wasPinned)
+        }
+        pinnedIds = ids
+        trimToSize(maxBytes)
+    }
+
+    fun onTrimMemory(level: Int) {
+        val size = when (level) {
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> maxBytes / 2
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL, ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE -> 0
+            else -> return
+        }
+        trims++
+        trimToSize(size)
+    }
+
+    fun clear() {
+        entries.clear()
+        nativeRefs.clear()
+        bytes = 0
+        pinnedBytes = 0
+    }
+
+    fun size() = entries.size
+
+    private fun trimToSize(size: Int) {
+        val iterator = entries.entries.iterator()
+        while (bytes > size && iterator.hasNext()) {
+            val (id, entry) = iterator.next()
+            if (id in pinnedIds) continue
+            removeBytes(entry, false)
+            iterator.remove()
+            evictions++
+        }
+    }
+
+    private fun addBytes(entry: Entry, pinned: Boolean) {
+        if (pinned) pinnedBytes += entry.bytes else bytes += entry.bytes
+        if (entry.nativeHandle == 0L) return
+        val refs = nativeRefs.getOrPut(entry.nativeHandle) { NativeRefs(entry.nativeBytes) }
+        if (pinned) {
+            if (refs.pinned++ > 0) return
+            // from now on it can't be freed by evicting unpinned keyboards
+            pinnedBytes += refs.bytes
+            if (refs.unpinned > 0) bytes -= refs.bytes
+        } else if (refs.unpinned++ == 0 && refs.pinned == 0) {
+            bytes += refs.bytes
+        }
+    }
+
+    private fun removeBytes(entry: Entry, pinned: Boolean) {
+        if (pinned) pinnedBytes -= entry.bytes else bytes -= entry.bytes
+        if (entry.nativeHandle == 0L) return
+        val refs = nativeRefs[entry.nativeHandle] ?: return
+        if (pinned) {
+            if (--refs.pinned > 0) return
+            pinnedBytes -= refs.bytes
+            if (refs.unpinned > 0) bytes += refs.bytes
+        } else if (--refs.unpinned == 0 && refs.pinned == 0) {
+            bytes -= refs.bytes
+        }
+        if (refs.pinned == 0 && refs.unpinned == 0) nativeRefs.remove(entry.nativeHandle)
+    }
+
+    fun dumpStats(): String {
+        val lookups = hits + misses
+        val hitRate = if (lookups == 0L) 0.0 else hits * 100.0 / lookups
+        return String.format(Locale.ROOT,
+            "%d keyboards (%d pinned), %.1f of %d KiB, %.1f KiB pinned\n%d hits, %d misses (%.1f%% hit rate)\n%d evicted, %d times trimmed",
+            entries.size, entries.keys.count { it in pinnedIds }, bytes / 1024.0, maxBytes / 1024, pinnedBytes / 1024.0,
+            hits, misses, hitRate, evictions, trims)
+    }
+
+    fun resetStats() {
+        hits = 0
+        misses = 0
+        evictions = 0
+        trims = 0
+    }
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    private var trims = 0L
+
+    companion object {
+        // enough for a few keyboards that are not pinned, e.g. for another subtype or the number pad
+        private const val DEFAULT_MAX_BYTES = 1024 * 1024
+
+        // rough estimates of the shallow size of the objects, the exact numbers depend on the runtime
+        private const val KEYBOARD_BYTES = 512
+        private const val KEY_BYTES = 320
+        private const val POPUP_KEY_BYTES = 64
+
+        /** Memory used only by this keyboard, i.e. without the native proximity info that may be shared. */
+        fun estimateBytes(keyboard: Keyboard): Int {
+            var size = KEYBOARD_BYTES + keyboard.proximityInfo.estimatedSizeBytes
+            for (key in keyboard.sortedKeys) {
+                size += KEY_BYTES + (key.popupKeys?.size ?: 0) * POPUP_KEY_BYTES
+            }
+            return size
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package helium314.keyboard.keyboard
 
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.text.InputType
 import android.view.inputmethod.EditorInfo
@@ -20,13 +21,17 @@ import helium314.keyboard.latin.RichInputMethodSubtype.Companion.emojiSubtype
 import helium314.keyboard.latin.RichInputMethodSubtype.Companion.noLanguageSubtype
 import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.DictionaryInfoUtils.getLocalesWithEmojiDicts
+import helium314.keyboard.latin.utils.ExecutorUtils
 import helium314.keyboard.latin.utils.InputTypeUtils
 import helium314.keyboard.latin.utils.Log
 import helium314.keyboard.latin.utils.ResourceUtils
 import helium314.keyboard.latin.utils.ScriptUtils
 import helium314.keyboard.latin.utils.ScriptUtils.script
+import helium314.keyboard.latin.utils.StartupTrace
 import helium314.keyboard.latin.utils.SubtypeLocaleUtils.clearSubtypeDisplayNameCache
-import java.lang.ref.SoftReference
+import java.util.Locale
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
 
 /**
  * This class represents a set of keyboard layouts. Each of them represents a different keyboard
@@ -46,6 +51,16 @@ class KeyboardLayoutSet internal constructor(private val mContext: Context, priv
     data class InternalAction(val code: Int, val label: String)
 
     fun getKeyboard(baseKeyboardLayoutSetElement: KeyboardElement): Keyboard {
+        val id = getKeyboardId(baseKeyboardLayoutSetElement)
+        try {
+            return getKeyboard(id, false)
+        } catch (e: RuntimeException) {
+            Log.e(TAG, "Can't create keyboard: $id", e)
+            throw KeyboardLayoutSetException(e, id)
+        }
+    }
+
+    private fun getKeyboardId(baseKeyboardLayoutSetElement: KeyboardElement): KeyboardId {
         val keyboardLayoutSetElementId = when (mParams.mode) {
             KeyboardMode.PHONE -> {
                 if (baseKeyboardLayoutSetElement == KeyboardElement.SYMBOLS) KeyboardElement.PHONE_SYMBOLS
@@ -59,51 +74,91 @@ class KeyboardLayoutSet internal constructor(private val mContext: Context, priv
         // attribute in a keyboard_layout_set XML file. Also each keyboard layout XML resource is
         // specified as an elementKeyboard attribute in the file.
         // The KeyboardId is an internal key for a Keyboard object.
-        val id = KeyboardId(keyboardLayoutSetElementId, mParams)
-        try {
-            return getKeyboard(id)
-        } catch (e: RuntimeException) {
-            Log.e(TAG, "Can't create keyboard: $id", e)
-            throw KeyboardLayoutSetException(e, id)
-        }
+        return KeyboardId(keyboardLayoutSetElementId, mParams)
+    }
+
+    /**
+     * Builds the keyboards the user is likely to switch to in the background, most likely first, so the
+     * first switch to shift or symbols doesn't need to wait for the keyboard to be built.
+     * Does nothing if already called for this layout set.
+     */
+    fun prebuildKeyboards() {
+        if (prebuildFuture != null || mParams.isSpellChecker) return
+        val ids = PREBUILD_ELEMENTS.map { getKeyboardId(it) }.distinct()
+        prebuildFuture = ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).schedule(Runnable {
+            for (id in ids) {
+                if (prebuildCancelled) return@Runnable
+                try {
+                    getKeyboard(id, true)
+                } catch (e: RuntimeException) {
+                    Log.w(TAG, "could not prebuild keyboard $id", e)
+                }
+            }
+        }, PREBUILD_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+    }
+
+    /** Stops building keyboards in the background, a keyboard that is currently being built is still finished. */
+    fun cancelPrebuilding() {
+        prebuildCancelled = true
+        prebuildFuture?.cancel(false)
+    }
+
+    /**
+     * Keeps the alphabet and symbols keyboards of this layout set in the cache, regardless of memory use,
+     * until another layout set is pinned.
+     */
+    fun pinKeyboards() {
+        if (mParams.isSpellChecker) return
+        synchronized(keyboardCache) { keyboardCache.pin(pinnedIds) }
     }
 
-    private fun getKeyboard(id: KeyboardId): Keyboard {
-        val ref = keyboardCache[id]
-        val cachedKeyboard = ref?.get()
-        if (cachedKeyboard != null) {
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "keyboard cache size=${keyboardCache.size}: HIT  id=$id")
+    private val pinnedIds by lazy { PINNED_ELEMENTS.mapTo(HashSet()) { getKeyboardId(it) } }
+
+    // Cache lookups don't wait for keyboards being built, so a switch to a prebuilt keyboard is not blocked by
+    // prebuilding the next one. Builds are serialized on buildLock, as the key data parsed by LayoutParser and the
+    // unique keys are shared between builds and modified while building.
+    // The spell checker keeps its keyboards itself and closes them when unbound, so they are not cached.
+    private fun getKeyboard(id: KeyboardId, isPrebuild: Boolean): Keyboard {
+        if (mParams.isSpellChecker) return synchronized(buildLock) { buildKeyboard(id) }
+        getCachedKeyboard(id, isPrebuild)?.let { return it }
+        synchronized(buildLock) {
+            // the keyboard may have been built while waiting for the lock
+            getCachedKeyboard(id, isPrebuild)?.let { return it }
+            val keyboard = buildKeyboard(id)
+            synchronized(keyboardCache) {
+                if (isPrebuild) prebuiltKeyboards++
+                else coldSwitches++
+                val cachedKeyboard = keyboardCache.putIfAbsent(id, keyboard)
+                if (DEBUG_CACHE) {
+                    Log.d(TAG, "keyboard cache size=${keyboardCache.size()}: LOAD id=$id")
+                }
+                return cachedKeyboard ?: keyboard
             }
-            return cachedKeyboard
         }
+    }
 
+    private fun buildKeyboard(id: KeyboardId): Keyboard = StartupTrace.trace("KeyboardBuilder ${id.element}") {
         val builder = KeyboardBuilder(mContext, KeyboardParams(uniqueKeysCache))
         uniqueKeysCache.setEnabled(id.element.isAlphabet)
         builder.load(id)
         if (mParams.disableTouchPositionCorrectionDataForTest) {
             builder.disableTouchPositionCorrectionDataForTest()
         }
-        val keyboard = builder.build()
-        keyboardCache[id] = SoftReference<Keyboard>(keyboard)
-        if (!mParams.isSpellChecker
-            && (id.element == KeyboardElement.ALPHABET || id.element == KeyboardElement.ALPHABET_AUTOMATIC_SHIFTED)
-        ) {
-            // We only forcibly cache the primary, "ALPHABET", layouts.
-            for (i in forcibleKeyboardCache.size - 1 downTo 1) {
-                forcibleKeyboardCache[i] = forcibleKeyboardCache[i - 1]
-            }
-            forcibleKeyboardCache[0] = keyboard
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "forcing caching of keyboard with id=$id")
-            }
-        }
+        builder.build()
+    }
+
+    private fun getCachedKeyboard(id: KeyboardId, isPrebuild: Boolean): Keyboard? = synchronized(keyboardCache) {
+        val cachedKeyboard = keyboardCache[id] ?: return null
         if (DEBUG_CACHE) {
-            Log.d(TAG, ("keyboard cache size=${keyboardCache.size}: ${(if (ref == null) "LOAD" else "GCed")} id=$id"))
+            Log.d(TAG, "keyboard cache size=${keyboardCache.size()}: HIT  id=$id")
         }
-        return keyboard
+        if (!isPrebuild) warmSwitches++
+        return cachedKeyboard
     }
 
+    private var prebuildFuture: Future<*>? = null
+    @Volatile private var prebuildCancelled = false
+
     class Params {
         var mode = KeyboardMode.TEXT
         var disableTouchPositionCorrectionDataForTest: Boolean = false // remove
@@ -252,33 +307,83 @@ class KeyboardLayoutSet internal constructor(private val mContext: Context, priv
 
         class KeyboardLayoutSetException(cause: Throwable, val keyboardId: KeyboardId) : RuntimeException(cause)
 
-        // How many layouts we forcibly keep in cache. This only includes ALPHABET (default) and
-        // ALPHABET_AUTOMATIC_SHIFTED layouts - other layouts may stay in memory in the map of
-        // soft-references, but we forcibly cache this many alphabetic/auto-shifted layouts.
-        private const val FORCIBLE_CACHE_SIZE = 4
-
-        // By construction of soft references, anything that is also referenced somewhere else
-        // will stay in the cache. So we forcibly keep some references in an array to prevent
-        // them from disappearing from sKeyboardCache.
-        private val forcibleKeyboardCache = arrayOfNulls<Keyboard>(FORCIBLE_CACHE_SIZE)
-        private val keyboardCache = HashMap<KeyboardId, SoftReference<Keyboard>>()
+        private val keyboardCache = KeyboardCache()
+        // taken before the keyboardCache lock when both are needed
+        private val buildLock = Any()
         private val uniqueKeysCache = UniqueKeysCache.newInstance()
 
         fun onSystemLocaleChanged() {
-            clearKeyboardCache()
-            LocaleKeyboardInfos.clearCache()
+            synchronized(buildLock) {
+                clearKeyboardCache()
+                LocaleKeyboardInfos.clearCache()
+            }
             clearSubtypeDisplayNameCache()
         }
 
+        /** Evicts keyboards that are not pinned, and clears parser caches if memory is critical. */
+        fun onTrimMemory(level: Int) {
+            synchronized(keyboardCache) { keyboardCache.onTrimMemory(level) }
+            if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                synchronized(buildLock) {
+                    uniqueKeysCache.clear()
+                    LayoutParser.clearCache()
+                    LocaleKeyboardInfos.clearCache()
+                }
+            }
+        }
+
         fun onKeyboardThemeChanged() {
             clearKeyboardCache()
         }
 
         private fun clearKeyboardCache() {
-            keyboardCache.clear()
-            uniqueKeysCache.clear()
-            LayoutParser.clearCache()
-            needsReload = true
+            // keyboards that are currently being built would be outdated, so wait for them before clearing
+            synchronized(buildLock) {
+                synchronized(keyboardCache) { keyboardCache.clear() }
+                uniqueKeysCache.clear()
+                LayoutParser.clearCache()
+                needsReload = true
+            }
+        }
+
+        // in order of how likely the user switches to them, automatic shift is often needed right away
+        private val PREBUILD_ELEMENTS = listOf(
+            KeyboardElement.ALPHABET_AUTOMATIC_SHIFTED,
+            KeyboardElement.SYMBOLS,
+            KeyboardElement.ALPHABET_MANUAL_SHIFTED,
+            KeyboardElement.SYMBOLS_SHIFTED,
+            KeyboardElement.ALPHABET_SHIFT_LOCKED,
+            KeyboardElement.NUMPAD,
+        )
+        // kept in the cache while the layout set is in use
+        private val PINNED_ELEMENTS = listOf(
+            KeyboardElement.ALPHABET,
+            KeyboardElement.ALPHABET_AUTOMATIC_SHIFTED,
+            KeyboardElement.ALPHABET_MANUAL_SHIFTED,
+            KeyboardElement.ALPHABET_SHIFT_LOCKED,
+            KeyboardElement.SYMBOLS,
+            KeyboardElement.SYMBOLS_SHIFTED,
+        )
+        // start after the keyboard is shown, so prebuilding doesn't compete with the first draw
+        private const val PREBUILD_DELAY_MILLIS = 300L
+
+        // keyboards requested for display, which were already in the cache (warm) or had to be built (cold)
+        private var warmSwitches = 0
+        private var coldSwitches = 0
+        private var prebuiltKeyboards = 0
+
+        fun dumpCacheStats(): String = synchronized(keyboardCache) {
+            val switches = warmSwitches + coldSwitches
+            val warmRate = if (switches == 0) 0.0 else warmSwitches * 100.0 / switches
+            keyboardCache.dumpStats() + String.format(Locale.ROOT, "\n%d warm, %d cold keyboard switches (%.1f%% warm)\n%d keyboards prebuilt",
+                warmSwitches, coldSwitches, warmRate, prebuiltKeyboards)
+        }
+
+        fun resetCacheStats() = synchronized(keyboardCache) {
+            warmSwitches = 0
+            coldSwitches = 0
+            prebuiltKeyboards = 0
+            keyboardCache.resetStats()
         }
 
         // used for testing keyboard layout files without actually creating a keyboard
@@ -59,6 +59,7 @@ import helium314.keyboard.latin.utils.Log;
 import helium314.keyboard.latin.utils.RecapitalizeMode;
 import helium314.keyboard.latin.utils.ResourceUtils;
 import helium314.keyboard.latin.utils.ScriptUtils;
+import helium314.keyboard.latin.utils.StartupTrace;
 import helium314.keyboard.latin.utils.SubtypeUtilsAdditional;
 import helium314.keyboard.latin.utils.ToolbarMode;
 
@@ -154,10 +155,15 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
     public void loadKeyboard(final EditorInfo editorInfo, final SettingsValues settingsValues,
             final int currentAutoCapsState, @Nullable final RecapitalizeMode currentRecapitalizeState,
             KeyboardLayoutSet.InternalAction internalAction) {
+        final long traceStart = StartupTrace.begin("KeyboardSwitcher.loadKeyboard");
         final KeyboardLayoutSet.Builder builder = new KeyboardLayoutSet.Builder(
                 mThemeContext, editorInfo);
         final int keyboardWidth = ResourceUtils.getKeyboardWidth(mThemeContext, settingsValues);
         final int keyboardHeight = ResourceUtils.getKeyboardHeight(mThemeContext.getResources(), settingsValues);
+        if (mKeyboardLayoutSet != null) {
+            // keyboards for the previous editor are not needed any more
+            mKeyboardLayoutSet.cancelPrebuilding();
+        }
         mKeyboardLayoutSet = builder.setKeyboardGeometry(keyboardWidth, keyboardHeight)
                 .setSubtype(mRichImm.getCurrentSubtype())
                 .setVoiceInputKeyEnabled(settingsValues.mShowsVoiceInputKey)
@@ -188,6 +194,7 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
                 Log.e(TAG, "even fallback to defaults failed: " + e2.getKeyboardId(), e2.getCause());
             }
         }
+        StartupTrace.end("KeyboardSwitcher.loadKeyboard", traceStart);
     }
 
     public void saveKeyboardState() {
@@ -226,6 +233,10 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
                                     && (currentSettingsValues.mInlineEmojiSearch || currentSettingsValues.mSuggestEmojis)) {
             EmojiParserKt.loadEmojiDefaultVersionsAndPopupSpecs(mThemeContext);
         }
+        if (keyboardElement.isAlphabet()) {
+            mKeyboardLayoutSet.pinKeyboards();
+            mKeyboardLayoutSet.prebuildKeyboards();
+        }
     }
 
     @Nullable public Keyboard getKeyboard() {
@@ -15,17 +15,20 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
+import android.graphics.Picture;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import helium314.keyboard.keyboard.emoji.EmojiPageKeyboardView;
 import helium314.keyboard.keyboard.internal.KeyDrawParams;
@@ -39,9 +42,12 @@ import helium314.keyboard.latin.common.StringUtilsKt;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.suggestions.MoreSuggestions;
 import helium314.keyboard.latin.suggestions.MoreSuggestionsView;
+import helium314.keyboard.latin.utils.StartupTrace;
 import helium314.keyboard.latin.utils.TypefaceUtils;
 
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
 
 /** A view that renders a virtual {@link Keyboard}. */
 // todo: this ThemeStyle-dependent stuff really should not be in here!
@@ -95,6 +101,24 @@ public class KeyboardView extends View {
     /** The canvas for the above mutable keyboard bitmap */
     @NonNull
     private final Canvas mOffscreenCanvas = new Canvas();
+    /**
+     * Recorded drawing of each key for hardware accelerated drawing, where all keys are drawn on every invalidate.
+     * Pictures are kept for each keyboard, so e.g. toggling shift back and forth doesn't need to record the keys
+     * again, and are dropped together with the keyboard. Keys are compared by identity, as equal keys can be on
+     * keyboards with different key sizes.
+     */
+    private final WeakHashMap<Keyboard, IdentityHashMap<Key, KeyPicture>> mKeyPictures = new WeakHashMap<>();
+    // drawing Picture on a hardware accelerated canvas is supported only since Android 6
+    private boolean mKeyPicturesEnabled = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    /** Label positions and text attributes of each key, so drawing a key doesn't need to measure text. */
+    private final WeakHashMap<Keyboard, IdentityHashMap<Key, KeyLabelLayout>> mLabelLayouts = new WeakHashMap<>();
+    @NonNull
+    private final Paint mLabelLayoutPaint = new Paint();
+    // settings used for the key pictures and label layouts, which are not specific to a keyboard
+    private boolean mKeyDrawShowsHints;
+    private float mKeyDrawIconScaleFactor;
+    private float mKeyDrawFontSizeMultiplier;
+    private float mKeyDrawHintFontSizeMultiplier;
     @NonNull
     private final Paint mPaint = new Paint();
     private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
@@ -147,6 +171,7 @@ public class KeyboardView extends View {
         keyAttr.recycle();
 
         mPaint.setAntiAlias(true);
+        mLabelLayoutPaint.setAntiAlias(true);
         setFitsSystemWindows(true);
     }
 
@@ -190,7 +215,10 @@ public class KeyboardView extends View {
         int scaledKeySize = (int) (scale * mKeyScaleForText);
         mKeyDrawParams.updateParams(scaledKeySize, mKeyVisualAttributes);
         mKeyDrawParams.updateParams(scaledKeySize, keyboard.mKeyVisualAttributes);
-        invalidateAllKeys();
+        // key pictures are still valid, they are checked against the keyboard when drawing
+        mInvalidatedKeys.clear();
+        mInvalidateAllKeys = true;
+        invalidate();
         requestLayout();
         mFontSizeMultiplier = mKeyboard.mId.getElement().isEmojiLayout()
                 // In the case of EmojiKeyFit, the size of emojis is taken care of by the size of the keys
@@ -238,6 +266,9 @@ public class KeyboardView extends View {
     @Override
     protected void onDraw(@NonNull final Canvas canvas) {
         super.onDraw(canvas);
+        if (mKeyboard != null && !StartupTrace.isFrozen()) {
+            StartupTrace.onKeyboardDrawn();
+        }
         if (canvas.isHardwareAccelerated()) {
             onDrawKeyboard(canvas);
             return;
@@ -294,7 +325,21 @@ public class KeyboardView extends View {
         final boolean drawAllKeys = mInvalidateAllKeys || mInvalidatedKeys.isEmpty();
         final boolean isHardwareAccelerated = canvas.isHardwareAccelerated();
         // TODO: Confirm if it's really required to draw all keys when hardware acceleration is on.
-        if (drawAllKeys || isHardwareAccelerated) {
+        if (mKeyDrawShowsHints != mShowsHints || mKeyDrawIconScaleFactor != mIconScaleFactor
+                || mKeyDrawFontSizeMultiplier != mFontSizeMultiplier
+                || mKeyDrawHintFontSizeMultiplier != mHintFontSizeMultiplier) {
+            mKeyPictures.clear();
+            mLabelLayouts.clear();
+            mKeyDrawShowsHints = mShowsHints;
+            mKeyDrawIconScaleFactor = mIconScaleFactor;
+            mKeyDrawFontSizeMultiplier = mFontSizeMultiplier;
+            mKeyDrawHintFontSizeMultiplier = mHintFontSizeMultiplier;
+        }
+        if (isHardwareAccelerated && mKeyPicturesEnabled) {
+            for (final Key key : keyboard.getSortedKeys()) {
+                onDrawKeyPicture(key, keyboard, canvas, paint);
+            }
+        } else if (drawAllKeys || isHardwareAccelerated) {
             if (!isHardwareAccelerated && background != null) {
                 // Need to draw keyboard background on {@link #mOffscreenBuffer}.
                 canvas.drawColor(Color.BLACK, PorterDuff.Mode.CLEAR);
@@ -328,6 +373,30 @@ public class KeyboardView extends View {
         mInvalidateAllKeys = false;
     }
 
+    private void onDrawKeyPicture(@NonNull final Key key, @NonNull final Keyboard keyboard,
+            @NonNull final Canvas canvas, @NonNull final Paint paint) {
+        IdentityHashMap<Key, KeyPicture> keyPictures = mKeyPictures.get(keyboard);
+        if (keyPictures == null) {
+            keyPictures = new IdentityHashMap<>();
+            mKeyPictures.put(keyboard, keyPictures);
+        }
+        KeyPicture keyPicture = keyPictures.get(key);
+        if (keyPicture == null || keyPicture.mDrawState != key.getDrawState()) {
+            if (keyPicture == null) {
+                keyPicture = new KeyPicture();
+                keyPictures.put(key, keyPicture);
+            }
+            keyPicture.mDrawState = key.getDrawState();
+            // recorded in view coordinates, parts of the key like background padding may be outside the key
+            final Canvas pictureCanvas = keyPicture.mPicture.beginRecording(
+                    keyboard.mOccupiedWidth + getPaddingLeft() + getPaddingRight(),
+                    keyboard.mOccupiedHeight + getPaddingTop() + getPaddingBottom());
+            onDrawKey(key, pictureCanvas, paint);
+            keyPicture.mPicture.endRecording();
+        }
+        canvas.drawPicture(keyPicture.mPicture);
+    }
+
     private void onDrawKey(@NonNull final Key key, @NonNull final Canvas canvas,
             @NonNull final Paint paint) {
         final int keyDrawX = key.getDrawX() + getPaddingLeft();
@@ -354,20 +423,15 @@ public class KeyboardView extends View {
             @NonNull final Drawable background) {
         final int keyWidth = key.getDrawWidth();
         final int keyHeight = key.getHeight();
-        final int bgWidth, bgHeight, bgX, bgY;
-        if (key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)
-                // HACK: To disable expanding normal/functional key background.
-                && !key.hasCustomActionLabel()) {
-            bgWidth = (int) (background.getIntrinsicWidth() * mIconScaleFactor);
-            bgHeight = (int) (background.getIntrinsicHeight() * mIconScaleFactor);
+        final int bgWidth = getKeyBackgroundWidth(key, background);
+        final int bgHeight = getKeyBackgroundHeight(key, background);
+        final int bgX, bgY;
+        if (keepsBackgroundAspectRatio(key)) {
             bgX = (keyWidth - bgWidth) / 2;
             bgY = (keyHeight - bgHeight) / 2;
         } else {
-            final Rect padding = mKeyBackgroundPadding;
-            bgWidth = keyWidth + padding.left + padding.right;
-            bgHeight = keyHeight + padding.top + padding.bottom;
-            bgY = -padding.top;
-            bgX = -padding.left;
+            bgY = -mKeyBackgroundPadding.top;
+            bgX = -mKeyBackgroundPadding.left;
         }
         background.setBounds(0, 0, bgWidth, bgHeight);
         canvas.translate(bgX, bgY);
@@ -375,6 +439,24 @@ public class KeyboardView extends View {
         canvas.translate(-bgX, -bgY);
     }
 
+    private boolean keepsBackgroundAspectRatio(@NonNull final Key key) {
+        return key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)
+                // HACK: To disable expanding normal/functional key background.
+                && !key.hasCustomActionLabel();
+    }
+
+    private int getKeyBackgroundWidth(@NonNull final Key key, @NonNull final Drawable background) {
+        if (keepsBackgroundAspectRatio(key))
+            return (int) (background.getIntrinsicWidth() * mIconScaleFactor);
+        return key.getDrawWidth() + mKeyBackgroundPadding.left + mKeyBackgroundPadding.right;
+    }
+
+    private int getKeyBackgroundHeight(@NonNull final Key key, @NonNull final Drawable background) {
+        if (keepsBackgroundAspectRatio(key))
+            return (int) (background.getIntrinsicHeight() * mIconScaleFactor);
+        return key.getHeight() + mKeyBackgroundPadding.top + mKeyBackgroundPadding.bottom;
+    }
+
     // Draw key top visuals.
     protected void onDrawKeyTopVisuals(@NonNull final Key key, @NonNull final Canvas canvas,
             @NonNull final Paint paint, @NonNull final KeyDrawParams params) {
@@ -387,47 +469,18 @@ public class KeyboardView extends View {
         final Keyboard keyboard = getKeyboard();
         final Drawable icon = (keyboard == null) ? null
                 : key.getIcon(keyboard.mIconsSet, params.mAnimAlpha);
-        float labelX = centerX;
-        float labelBaseline = centerY;
+        final KeyLabelLayout layout = getLabelLayout(key, keyboard, params);
+        final float labelX = layout.mLabelX;
+        final float labelBaseline = layout.mLabelBaseline;
         final String label = key.getLabel();
         if (label != null) {
-            paint.setTypeface(KeyboardTypeface.resolve(label, key.selectTypeface(params)));
-            paint.setTextSize(key.selectTextSize(params) * mFontSizeMultiplier);
-            final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
-            final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
-
-            // Vertical label text alignment.
-            labelBaseline = centerY + labelCharHeight / 2.0f;
-
-            // Horizontal label text alignment
-            if (key.isAlignLabelOffCenter() && mShowsHints) {
-                // The label is placed off center of the key. Currently used only on "phone number" layout
-                // to have letter hints shown nicely. We don't want to align it off center if hints are off.
-                // use a non-negative number to avoid label starting left of the letter for high keyboard scale on holo phone layout
-                labelX = Math.max(0f, centerX + params.mLabelOffCenterRatio * labelCharWidth);
-                paint.setTextAlign(Align.LEFT);
-            } else {
-                labelX = centerX;
-                paint.setTextAlign(Align.CENTER);
-            }
-            if (key.needsAutoXScale()) {
-                final int width;
-                if (key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)) {
-                    // make sure the text stays inside bounds of background drawable
-                    Drawable bg = key.selectBackgroundDrawable(mKeyBackground, mFunctionalKeyBackground, mSpacebarBackground, mActionKeyBackground);
-                    width = Math.min(bg.getBounds().bottom, bg.getBounds().right);
-                } else width = keyWidth;
-                final float ratio = Math.min(1.0f, (width * MAX_LABEL_RATIO) / TypefaceUtils.getStringWidth(label, paint));
-                if (key.needsAutoScale()) {
-                    final float autoSize = paint.getTextSize() * ratio;
-                    paint.setTextSize(autoSize);
-                } else {
-                    paint.setTextScaleX(ratio);
-                }
-            }
+            paint.setTypeface(layout.mLabelTypeface);
+            paint.setTextSize(layout.mLabelTextSize);
+            paint.setTextScaleX(layout.mLabelTextScaleX);
+            paint.setTextAlign(layout.mLabelAlign);
 
             if (key.isEnabled()) {
-                if (StringUtilsKt.isEmoji(label))
+                if (layout.mLabelIsEmoji)
                     paint.setColor(key.selectTextColor(params) | 0xFF000000); // ignore alpha for emojis (though actually color isn't applied anyway and we could just set white)
                 else if (key.hasActionKeyBackground())
                     paint.setColor(mColors.get(ColorType.ACTION_KEY_ICON));
@@ -460,50 +513,12 @@ public class KeyboardView extends View {
         Drawable hintIcon = (keyboard == null || !mShowsHints || hintLabel != null) ? null
                         : key.getHintIcon(keyboard.mIconsSet, params.mAnimAlpha);
         if (hintLabel != null && mShowsHints) {
-            paint.setTextSize(key.selectHintTextSize(params) * mHintFontSizeMultiplier);
+            paint.setTypeface(layout.mHintTypeface);
+            paint.setTextSize(layout.mHintTextSize);
+            paint.setTextAlign(layout.mHintAlign);
             paint.setColor(key.selectHintTextColor(params));
-            // TODO: Should add a way to specify type face for hint letters
-            paint.setTypeface(KeyboardTypeface.resolve(hintLabel, Typeface.DEFAULT_BOLD));
             blendAlpha(paint, params.mAnimAlpha);
-            final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
-            final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
-            final boolean isFunctionalKeyAndRoundedStyle = mColors.getThemeStyle().equals(STYLE_ROUNDED) && key.hasFunctionalBackground();
-            final float hintX, hintBaseline;
-            if (key.hasHintLabel()) {
-                // The hint label is placed just right of the key label. Used mainly on
-                // "phone number" layout.
-                hintX = labelX + params.mHintLabelOffCenterRatio * labelCharWidth;
-                if (key.isAlignHintLabelToBottom(mDefaultKeyLabelFlags)) {
-                    hintBaseline = labelBaseline;
-                } else {
-                    hintBaseline = centerY + labelCharHeight / 2.0f;
-                }
-                paint.setTextAlign(Align.LEFT);
-                // shrink hint label before it's off the key
-                // looks bad, but still better than the alternative
-                final float ratio = Math.min(1.0f, (keyWidth - hintX) * 0.95f / TypefaceUtils.getStringWidth(hintLabel, paint));
-                final float autoSize = paint.getTextSize() * ratio;
-                paint.setTextSize(autoSize);
-            } else if (key.hasShiftedLetterHint()) {
-                // The hint label is placed at top-right corner of the key. Used mainly on tablet.
-                hintX = keyWidth - mKeyShiftedLetterHintPadding - labelCharWidth / 2.0f;
-                paint.getFontMetrics(mFontMetrics);
-                hintBaseline = -mFontMetrics.top;
-                paint.setTextAlign(Align.CENTER);
-            } else { // key.hasHintLetter()
-                // The hint letter is placed at top-right corner of the key. Used mainly on phone.
-                final float hintDigitWidth = TypefaceUtils.getReferenceDigitWidth(paint);
-                final float hintLabelWidth = TypefaceUtils.getStringWidth(hintLabel, paint);
-                hintBaseline = -paint.ascent();
-                hintX = isFunctionalKeyAndRoundedStyle
-                        ? keyWidth - hintBaseline
-                        : keyWidth - mKeyHintLetterPadding - Math.max(hintDigitWidth, hintLabelWidth) / 2.0f;
-                paint.setTextAlign(Align.CENTER);
-            }
-            final float adjustmentY = isFunctionalKeyAndRoundedStyle
-                    ? hintBaseline * 0.5f
-                    : params.mHintLabelVerticalAdjustment * labelCharHeight;
-            canvas.drawText(hintLabel, 0, hintLabel.length(), hintX, hintBaseline + adjustmentY, paint);
+            canvas.drawText(hintLabel, 0, hintLabel.length(), layout.mHintX, layout.mHintBaseline, paint);
         } else if (hintIcon != null) {
             int iconSize = (int) (key.selectHintTextSize(params) * mHintFontSizeMultiplier);
             boolean isFunctionalKeyAndRoundedStyle = mColors.getThemeStyle().equals(STYLE_ROUNDED) && (key.hasFunctionalBackground() || key.hasActionKeyBackground());
@@ -549,6 +564,138 @@ public class KeyboardView extends View {
         }
     }
 
+    /**
+     * Returns the label layout of the key, computing and storing it if the key wasn't laid out for this keyboard.
+     * Only the first draw of a key on a keyboard needs to measure text. Like key pictures, layouts are stored
+     * per keyboard and by key identity.
+     */
+    @NonNull
+    private KeyLabelLayout getLabelLayout(@NonNull final Key key, @Nullable final Keyboard keyboard,
+            @NonNull final KeyDrawParams params) {
+        if (keyboard == null) {
+            return computeLabelLayout(key, params);
+        }
+        IdentityHashMap<Key, KeyLabelLayout> layouts = mLabelLayouts.get(keyboard);
+        if (layouts == null) {
+            layouts = new IdentityHashMap<>();
+            mLabelLayouts.put(keyboard, layouts);
+        }
+        KeyLabelLayout layout = layouts.get(key);
+        if (layout == null) {
+            layout = computeLabelLayout(key, params);
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    @NonNull
+    private KeyLabelLayout computeLabelLayout(@NonNull final Key key, @NonNull final KeyDrawParams params) {
+        final KeyLabelLayout layout = new KeyLabelLayout();
+        final Paint paint = mLabelLayoutPaint;
+        final int keyWidth = key.getDrawWidth();
+        final int keyHeight = key.getHeight();
+        final float centerX = keyWidth * 0.5f;
+        final float centerY = keyHeight * 0.5f;
+
+        float labelX = centerX;
+        float labelBaseline = centerY;
+        final String label = key.getLabel();
+        if (label != null) {
+            paint.setTypeface(KeyboardTypeface.resolve(label, key.selectTypeface(params)));
+            paint.setTextSize(key.selectTextSize(params) * mFontSizeMultiplier);
+            paint.setTextScaleX(1.0f);
+            final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
+            final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
+
+            // Vertical label text alignment.
+            labelBaseline = centerY + labelCharHeight / 2.0f;
+
+            // Horizontal label text alignment
+            if (key.isAlignLabelOffCenter() && mShowsHints) {
+                // The label is placed off center of the key. Currently used only on "phone number" layout
+                // to have letter hints shown nicely. We don't want to align it off center if hints are off.
+                // use a non-negative number to avoid label starting left of the letter for high keyboard scale on holo phone layout
+                labelX = Math.max(0f, centerX + params.mLabelOffCenterRatio * labelCharWidth);
+                layout.mLabelAlign = Align.LEFT;
+            } else {
+                labelX = centerX;
+                layout.mLabelAlign = Align.CENTER;
+            }
+            if (key.needsAutoXScale()) {
+                final int width;
+                if (key.needsToKeepBackgroundAspectRatio(mDefaultKeyLabelFlags)) {
+                    // make sure the text stays inside bounds of background drawable
+                    final Drawable bg = key.selectBackgroundDrawable(mKeyBackground, mFunctionalKeyBackground, mSpacebarBackground, mActionKeyBackground);
+                    width = Math.min(getKeyBackgroundWidth(key, bg), getKeyBackgroundHeight(key, bg));
+                } else width = keyWidth;
+                final float ratio = Math.min(1.0f, (width * MAX_LABEL_RATIO) / TypefaceUtils.getStringWidth(label, paint));
+                if (key.needsAutoScale()) {
+                    final float autoSize = paint.getTextSize() * ratio;
+                    paint.setTextSize(autoSize);
+                } else {
+                    paint.setTextScaleX(ratio);
+                }
+            }
+            layout.mLabelTypeface = paint.getTypeface();
+            layout.mLabelTextSize = paint.getTextSize();
+            layout.mLabelTextScaleX = paint.getTextScaleX();
+            layout.mLabelIsEmoji = StringUtilsKt.isEmoji(label);
+            paint.setTextScaleX(1.0f);
+        }
+        layout.mLabelX = labelX;
+        layout.mLabelBaseline = labelBaseline;
+
+        final String hintLabel = key.getHintLabel();
+        if (hintLabel != null && mShowsHints) {
+            paint.setTextSize(key.selectHintTextSize(params) * mHintFontSizeMultiplier);
+            // TODO: Should add a way to specify type face for hint letters
+            paint.setTypeface(KeyboardTypeface.resolve(hintLabel, Typeface.DEFAULT_BOLD));
+            final float labelCharHeight = TypefaceUtils.getReferenceCharHeight(paint);
+            final float labelCharWidth = TypefaceUtils.getReferenceCharWidth(paint);
+            final boolean isFunctionalKeyAndRoundedStyle = mColors.getThemeStyle().equals(STYLE_ROUNDED) && key.hasFunctionalBackground();
+            final float hintX, hintBaseline;
+            if (key.hasHintLabel()) {
+                // The hint label is placed just right of the key label. Used mainly on
+                // "phone number" layout.
+                hintX = labelX + params.mHintLabelOffCenterRatio * labelCharWidth;
+                if (key.isAlignHintLabelToBottom(mDefaultKeyLabelFlags)) {
+                    hintBaseline = labelBaseline;
+                } else {
+                    hintBaseline = centerY + labelCharHeight / 2.0f;
+                }
+                layout.mHintAlign = Align.LEFT;
+                // shrink hint label before it's off the key
+                // looks bad, but still better than the alternative
+                final float ratio = Math.min(1.0f, (keyWidth - hintX) * 0.95f / TypefaceUtils.getStringWidth(hintLabel, paint));
+                final float autoSize = paint.getTextSize() * ratio;
+                paint.setTextSize(autoSize);
+            } else if (key.hasShiftedLetterHint()) {
+                // The hint label is placed at top-right corner of the key. Used mainly on tablet.
+                hintX = keyWidth - mKeyShiftedLetterHintPadding - labelCharWidth / 2.0f;
+                paint.getFontMetrics(mFontMetrics);
+                hintBaseline = -mFontMetrics.top;
+                layout.mHintAlign = Align.CENTER;
+            } else { // key.hasHintLetter()
+                // The hint letter is placed at top-right corner of the key. Used mainly on phone.
+                final float hintDigitWidth = TypefaceUtils.getReferenceDigitWidth(paint);
+                final float hintLabelWidth = TypefaceUtils.getStringWidth(hintLabel, paint);
+                hintBaseline = -paint.ascent();
+                hintX = isFunctionalKeyAndRoundedStyle
+                        ? keyWidth - hintBaseline
+                        : keyWidth - mKeyHintLetterPadding - Math.max(hintDigitWidth, hintLabelWidth) / 2.0f;
+                layout.mHintAlign = Align.CENTER;
+            }
+            final float adjustmentY = isFunctionalKeyAndRoundedStyle
+                    ? hintBaseline * 0.5f
+                    : params.mHintLabelVerticalAdjustment * labelCharHeight;
+            layout.mHintTypeface = paint.getTypeface();
+            layout.mHintTextSize = paint.getTextSize();
+            layout.mHintX = hintX;
+            layout.mHintBaseline = hintBaseline + adjustmentY;
+        }
+        return layout;
+    }
+
     // Draw popup hint "..." at the center or bottom right corner of the key, depending on style.
     protected void drawKeyPopupHint(@NonNull final Key key, @NonNull final Canvas canvas,
             @NonNull final Paint paint, @NonNull final KeyDrawParams params) {
@@ -605,6 +752,7 @@ public class KeyboardView extends View {
      * @see #invalidateKey(Key)
      */
     public void invalidateAllKeys() {
+        mKeyPictures.clear();
         mInvalidatedKeys.clear();
         mInvalidateAllKeys = true;
         invalidate();
@@ -618,7 +766,14 @@ public class KeyboardView extends View {
      * @see #invalidateAllKeys
      */
     public void invalidateKey(@Nullable final Key key) {
-        if (mInvalidateAllKeys || key == null) {
+        if (key == null) {
+            return;
+        }
+        // also for keys that are not displayed, as their picture is kept
+        for (final IdentityHashMap<Key, KeyPicture> keyPictures : mKeyPictures.values()) {
+            keyPictures.remove(key);
+        }
+        if (mInvalidateAllKeys) {
             return;
         }
         mInvalidatedKeys.add(key);
@@ -635,6 +790,35 @@ public class KeyboardView extends View {
 
     public void deallocateMemory() {
         freeOffscreenBuffer();
+        mKeyPictures.clear();
+        mLabelLayouts.clear();
+    }
+
+    @VisibleForTesting
+    public void setKeyPicturesEnabled(final boolean enabled) {
+        mKeyPicturesEnabled = enabled;
+        mKeyPictures.clear();
+    }
+
+    private static final class KeyPicture {
+        final Picture mPicture = new Picture();
+        int mDrawState;
+    }
+
+    private static final class KeyLabelLayout {
+        // label position is also used for positioning hint icons, so it's set even if there is no label
+        float mLabelX;
+        float mLabelBaseline;
+        Typeface mLabelTypeface;
+        float mLabelTextSize;
+        float mLabelTextScaleX = 1.0f;
+        Align mLabelAlign = Align.CENTER;
+        boolean mLabelIsEmoji;
+        Typeface mHintTypeface;
+        float mHintTextSize;
+        Align mHintAlign = Align.CENTER;
+        float mHintX;
+        float mHintBaseline;
     }
 
     private void setKeyIconColor(Key key, Drawable icon, Keyboard keyboard) {
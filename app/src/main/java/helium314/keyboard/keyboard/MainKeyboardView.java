@@ -55,6 +55,7 @@ import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.settings.DebugSettings;
 import helium314.keyboard.latin.settings.Defaults;
 import helium314.keyboard.latin.settings.Settings;
+import helium314.keyboard.latin.utils.InputLatency;
 import helium314.keyboard.latin.utils.KtxKt;
 import helium314.keyboard.latin.utils.LanguageOnSpacebarUtils;
 import helium314.keyboard.latin.utils.Log;
@@ -418,6 +419,10 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         }
     }
 
+    public void setGestureTrailRenderThreadEnabled(final boolean enabled) {
+        mGestureTrailsDrawingPreview.setRenderThreadEnabled(enabled);
+    }
+
     private void setGesturePreviewMode(final boolean isGestureTrailEnabled,
             final boolean isGestureFloatingPreviewTextEnabled) {
         mGestureFloatingTextDrawingPreview.setPreviewEnabled(isGestureFloatingPreviewTextEnabled);
@@ -473,6 +478,8 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        // also stops the gesture trail render thread
+        mDrawingPreviewPlacerView.deallocateMemory();
         mDrawingPreviewPlacerView.removeAllViews();
     }
 
@@ -584,6 +591,7 @@ public final class MainKeyboardView extends KeyboardView implements DrawingProxy
         if (getKeyboard() == null) {
             return false;
         }
+        InputLatency.onTouchEvent(event.getEventTime());
         if (mNonDistinctMultitouchHelper != null) {
             if (event.getPointerCount() > 1 && mTimerHandler.isInKeyRepeat()) {
                 // Key repeating timer will be canceled if 2 or popup keys are in action.
@@ -7,9 +7,9 @@
 package helium314.keyboard.keyboard.internal;
 
 import android.graphics.Canvas;
-import android.view.View;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import helium314.keyboard.keyboard.MainKeyboardView;
 import helium314.keyboard.keyboard.PointerTracker;
@@ -20,7 +20,7 @@ import helium314.keyboard.keyboard.PointerTracker;
  * SlidingKeyInputDrawingPreview.
  */
 public abstract class AbstractDrawingPreview {
-    private View mDrawingView;
+    private DrawingPreviewPlacerView mDrawingView;
     private boolean mPreviewEnabled;
     private boolean mHasValidGeometry;
 
@@ -29,6 +29,11 @@ public abstract class AbstractDrawingPreview {
         drawingView.addPreview(this);
     }
 
+    @Nullable
+    protected final DrawingPreviewPlacerView getDrawingView() {
+        return mDrawingView;
+    }
+
     protected void invalidateDrawingView() {
         if (mDrawingView != null) {
             mDrawingView.invalidate();
@@ -71,6 +71,37 @@ public final class GestureStrokeDrawingPoints {
         }
     }
 
+    /**
+     * Starts a stroke with points that were already sampled by another instance, see
+     * {@link GestureTrailRenderer}.
+     */
+    public void onSampledDownEvent(final int x, final int y, final int elapsedTimeSinceFirstDown) {
+        reset();
+        onSampledMoveEvent(x, y, elapsedTimeSinceFirstDown);
+    }
+
+    public void onSampledMoveEvent(final int x, final int y, final int elapsedTimeSinceFirstDown) {
+        mPreviewEventTimes.add(elapsedTimeSinceFirstDown);
+        mPreviewXCoordinates.add(x);
+        mPreviewYCoordinates.add(y);
+    }
+
+    public int getPreviewSize() {
+        return mPreviewEventTimes.getLength();
+    }
+
+    public int getPreviewEventTime(final int index) {
+        return mPreviewEventTimes.get(index);
+    }
+
+    public int getPreviewX(final int index) {
+        return mPreviewXCoordinates.get(index);
+    }
+
+    public int getPreviewY(final int index) {
+        return mPreviewYCoordinates.get(index);
+    }
+
     /**
      * Append sampled preview points.
      *
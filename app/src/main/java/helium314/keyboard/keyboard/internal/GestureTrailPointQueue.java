@@ -0,0 +1,81 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free queue of sampled gesture trail points from the thread handling touch events to the thread
+ * drawing gesture trails. There must be only one thread adding and one thread taking points.
+ * If the queue is full, points are not added and should be offered again later, so the thread handling
+ * touch events never waits for drawing.
+ */
+final class GestureTrailPointQueue {
+    /** Down time for points that continue the current stroke of the pointer. */
+    static final long CONTINUE_STROKE = -1;
+
+    interface PointConsumer {
+        /**
+         * @param downTime the down time of the stroke started by this point, or {@link #CONTINUE_STROKE}
+         */
+        void onPoint(int pointerId, int x, int y, int time, long downTime);
+    }
+
+    private final int mMask;
+    private final int[] mPointerIds;
+    private final int[] mXCoordinates;
+    private final int[] mYCoordinates;
+    private final int[] mTimes;
+    private final long[] mDownTimes;
+    // Counters only grow and may overflow, only their difference is used.
+    // Written by the producer, the lazySet publishes the point written before.
+    private final AtomicInteger mTail = new AtomicInteger();
+    // Written by the consumer, the lazySet frees the slot of the point read before.
+    private final AtomicInteger mHead = new AtomicInteger();
+
+    /** @param capacity the maximum number of points in the queue, rounded up to a power of 2 */
+    GestureTrailPointQueue(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mMask = size - 1;
+        mPointerIds = new int[size];
+        mXCoordinates = new int[size];
+        mYCoordinates = new int[size];
+        mTimes = new int[size];
+        mDownTimes = new long[size];
+    }
+
+    int getCapacity() {
+        return mMask + 1;
+    }
+
+    /** Adds a point, returns false if the queue is full. Must only be called by the producer thread. */
+    boolean offer(final int pointerId, final int x, final int y, final int time, final long downTime) {
+        final int tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        final int index = tail & mMask;
+        mPointerIds[index] = pointerId;
+        mXCoordinates[index] = x;
+        mYCoordinates[index] = y;
+        mTimes[index] = time;
+        mDownTimes[index] = downTime;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Passes all points added so far to the consumer in the order they were added, and returns the number
+     * of points. Must only be called by the consumer thread.
+     */
+    int drain(final PointConsumer consumer) {
+        final int head = mHead.get();
+        final int tail = mTail.get();
+        for (int i = head; i != tail; i++) {
+            final int index = i & mMask;
+            consumer.onPoint(mPointerIds[index], mXCoordinates[index], mYCoordinates[index], mTimes[index],
+                    mDownTimes[index]);
+        }
+        mHead.lazySet(tail);
+        return tail - head;
+    }
+}
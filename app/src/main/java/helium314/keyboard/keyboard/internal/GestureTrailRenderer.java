@@ -0,0 +1,323 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.SparseArray;
+import android.view.Choreographer;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+
+import helium314.keyboard.keyboard.PointerTracker;
+import helium314.keyboard.latin.utils.Log;
+import helium314.keyboard.latin.utils.ViewLayoutUtils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws gesture trails on a separate thread into a {@link TextureView} placed over the keyboard, so neither
+ * drawing nor the fade-out animation delays touch event handling on the UI thread.
+ * Sampled points are passed through a {@link GestureTrailPointQueue}, and are interpolated and drawn on the
+ * render thread. The texture view needs hardware acceleration, until its surface is available
+ * {@link #isReady()} returns false and trails should be drawn by {@link GestureTrailsDrawingPreview}.
+ */
+final class GestureTrailRenderer implements TextureView.SurfaceTextureListener, Choreographer.FrameCallback,
+        GestureTrailPointQueue.PointConsumer {
+    private static final String TAG = GestureTrailRenderer.class.getSimpleName();
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // state of the strokes added to the queue, only used on the UI thread
+    private static final class QueuedStroke {
+        int mStrokeId = -1;
+        int mQueuedSize;
+    }
+
+    // only used on the render thread
+    private static final class RenderedTrail {
+        final GestureStrokeDrawingPoints mStroke;
+        final GestureTrailDrawingPoints mTrail = new GestureTrailDrawingPoints();
+        long mDownTime;
+        boolean mHasNewPoints;
+
+        RenderedTrail(final GestureStrokeDrawingParams strokeParams) {
+            mStroke = new GestureStrokeDrawingPoints(strokeParams);
+        }
+
+        void flushPoints() {
+            if (!mHasNewPoints) return;
+            mTrail.addStroke(mStroke, mDownTime);
+            mHasNewPoints = false;
+        }
+    }
+
+    private final GestureTrailDrawingParams mDrawingParams;
+    private final GestureStrokeDrawingParams mStrokeParams;
+    private final GestureTrailPointQueue mQueue = new GestureTrailPointQueue(QUEUE_CAPACITY);
+    private final AtomicBoolean mPointsPending = new AtomicBoolean();
+    private final HandlerThread mRenderThread;
+    private final Handler mRenderHandler;
+    private final TextureView mTextureView;
+    private volatile boolean mReady;
+
+    // UI thread
+    private final SparseArray<QueuedStroke> mQueuedStrokes = new SparseArray<>();
+    private int mViewX;
+    private int mViewY;
+    private int mViewWidth;
+    private int mViewHeight;
+
+    // render thread
+    private final SparseArray<RenderedTrail> mTrails = new SparseArray<>();
+    private Choreographer mChoreographer;
+    private Surface mSurface;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+    private int mOffscreenOffsetY;
+    private Bitmap mOffscreenBuffer;
+    private final Canvas mOffscreenCanvas = new Canvas();
+    private final Paint mGesturePaint = new Paint();
+    private final Paint mTransferPaint = new Paint();
+    private final Rect mDirtyRect = new Rect();
+    private final Rect mSurfaceDirtyRect = new Rect();
+    private final Rect mGestureTrailBoundsRect = new Rect(); // per trail
+
+    private final Runnable mScheduleFrame = () -> {
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();
+        }
+        // new points replace a delayed fade-out frame
+        mChoreographer.removeFrameCallback(this);
+        mChoreographer.postFrameCallback(this);
+    };
+
+    GestureTrailRenderer(@NonNull final Context context, @NonNull final GestureTrailDrawingParams drawingParams,
+            @NonNull final GestureStrokeDrawingParams strokeParams) {
+        mDrawingParams = drawingParams;
+        mStrokeParams = strokeParams;
+        mGesturePaint.setAntiAlias(true);
+        mGesturePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        mTransferPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        mRenderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+        mTextureView = new TextureView(context);
+        mTextureView.setOpaque(false);
+        mTextureView.setSurfaceTextureListener(this);
+    }
+
+    boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * Places the texture view over the keyboard view, with space for trails above the keyboard.
+     * Called on the UI thread whenever a gesture trail is shown, so it does nothing if the geometry is unchanged.
+     */
+    void setKeyboardViewGeometry(@NonNull final ViewGroup placerView, final int originX, final int originY,
+            final int width, final int height, final int offscreenOffsetY) {
+        final int viewY = originY - offscreenOffsetY;
+        final int viewHeight = height + offscreenOffsetY;
+        final boolean attached = mTextureView.getParent() == placerView;
+        if (attached && mViewX == originX && mViewY == viewY && mViewWidth == width && mViewHeight == viewHeight) {
+            return;
+        }
+        if (!attached) {
+            if (mTextureView.getParent() instanceof ViewGroup parent) {
+                parent.removeView(mTextureView);
+            }
+            placerView.addView(mTextureView, ViewLayoutUtils.newLayoutParam(placerView, width, viewHeight));
+        }
+        mViewX = originX;
+        mViewY = viewY;
+        mViewWidth = width;
+        mViewHeight = viewHeight;
+        ViewLayoutUtils.placeViewAt(mTextureView, originX, viewY, width, viewHeight);
+        mTextureView.requestLayout();
+        mRenderHandler.post(() -> {
+            if (mOffscreenOffsetY == offscreenOffsetY) return;
+            mOffscreenOffsetY = offscreenOffsetY;
+            freeOffscreenBuffer();
+        });
+    }
+
+    /** Adds the points sampled since the last call to the queue. Called on the UI thread. */
+    void addStroke(@NonNull final PointerTracker tracker) {
+        final GestureStrokeDrawingPoints stroke = tracker.getGestureStrokeDrawingPoints();
+        QueuedStroke queued = mQueuedStrokes.get(tracker.mPointerId);
+        if (queued == null) {
+            queued = new QueuedStroke();
+            mQueuedStrokes.put(tracker.mPointerId, queued);
+        }
+        if (queued.mStrokeId != stroke.getGestureStrokeId()) {
+            queued.mStrokeId = stroke.getGestureStrokeId();
+            queued.mQueuedSize = 0;
+        }
+        final int size = stroke.getPreviewSize();
+        int index = queued.mQueuedSize;
+        for (; index < size; index++) {
+            final long downTime = index == 0 ? tracker.getDownTime() : GestureTrailPointQueue.CONTINUE_STROKE;
+            if (!mQueue.offer(tracker.mPointerId, stroke.getPreviewX(index), stroke.getPreviewY(index),
+                    stroke.getPreviewEventTime(index), downTime)) {
+                break; // queue is full, remaining points are added with the next move event
+            }
+        }
+        if (index == queued.mQueuedSize) return;
+        queued.mQueuedSize = index;
+        if (!mPointsPending.getAndSet(true)) {
+            mRenderHandler.post(mScheduleFrame);
+        }
+    }
+
+    /** Removes the texture view and stops the render thread once the surface is released. */
+    void release() {
+        mReady = false;
+        if (mTextureView.getParent() instanceof ViewGroup parent) {
+            parent.removeView(mTextureView);
+        }
+        mRenderHandler.post(this::freeOffscreenBuffer);
+        mRenderThread.quitSafely();
+    }
+
+    @Override
+    public void onPoint(final int pointerId, final int x, final int y, final int time, final long downTime) {
+        RenderedTrail trail = mTrails.get(pointerId);
+        if (trail == null) {
+            trail = new RenderedTrail(mStrokeParams);
+            mTrails.put(pointerId, trail);
+        }
+        if (downTime == GestureTrailPointQueue.CONTINUE_STROKE) {
+            trail.mStroke.onSampledMoveEvent(x, y, time);
+        } else {
+            // points of the previous stroke must be added before the stroke is reset
+            trail.flushPoints();
+            trail.mStroke.onSampledDownEvent(x, y, time);
+            trail.mDownTime = downTime;
+        }
+        trail.mHasNewPoints = true;
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        // reset before draining, so points added while drawing schedule another frame
+        mPointsPending.set(false);
+        mQueue.drain(this);
+        final int trailsCount = mTrails.size();
+        for (int index = 0; index < trailsCount; index++) {
+            mTrails.valueAt(index).flushPoints();
+        }
+        if (mSurface == null) return;
+        if (drawGestureTrails()) {
+            mChoreographer.postFrameCallbackDelayed(this, mDrawingParams.mUpdateInterval);
+        }
+    }
+
+    // same as GestureTrailsDrawingPreview, but only the changed part is copied to the surface
+    private boolean drawGestureTrails() {
+        mayAllocateOffscreenBuffer();
+        final Paint paint = mGesturePaint;
+        // Clear previous dirty rectangle, it must be copied to the surface too.
+        mSurfaceDirtyRect.set(mDirtyRect);
+        if (!mDirtyRect.isEmpty()) {
+            paint.setColor(Color.TRANSPARENT);
+            paint.setStyle(Paint.Style.FILL);
+            mOffscreenCanvas.drawRect(mDirtyRect, paint);
+        }
+        mDirtyRect.setEmpty();
+        boolean needsUpdatingGestureTrail = false;
+        final int trailsCount = mTrails.size();
+        for (int index = 0; index < trailsCount; index++) {
+            needsUpdatingGestureTrail |= mTrails.valueAt(index).mTrail.drawGestureTrail(mOffscreenCanvas, paint,
+                    mGestureTrailBoundsRect, mDrawingParams);
+            mDirtyRect.union(mGestureTrailBoundsRect);
+        }
+        mSurfaceDirtyRect.union(mDirtyRect);
+        mSurfaceDirtyRect.offset(0, mOffscreenOffsetY);
+        if (!mSurfaceDirtyRect.intersect(0, 0, mSurfaceWidth, mSurfaceHeight)) {
+            return needsUpdatingGestureTrail;
+        }
+        try {
+            // the surface may extend the dirty rectangle, which is fine as the offscreen buffer is complete
+            final Canvas canvas = mSurface.lockCanvas(mSurfaceDirtyRect);
+            try {
+                canvas.drawBitmap(mOffscreenBuffer, mSurfaceDirtyRect, mSurfaceDirtyRect, mTransferPaint);
+            } finally {
+                mSurface.unlockCanvasAndPost(canvas);
+            }
+        } catch (final IllegalArgumentException | IllegalStateException | Surface.OutOfResourcesException e) {
+            Log.w(TAG, "could not draw gesture trail", e);
+        }
+        return needsUpdatingGestureTrail;
+    }
+
+    private void mayAllocateOffscreenBuffer() {
+        if (mOffscreenBuffer != null && mOffscreenBuffer.getWidth() == mSurfaceWidth
+                && mOffscreenBuffer.getHeight() == mSurfaceHeight) {
+            return;
+        }
+        freeOffscreenBuffer();
+        mOffscreenBuffer = Bitmap.createBitmap(mSurfaceWidth, mSurfaceHeight, Bitmap.Config.ARGB_8888);
+        mOffscreenCanvas.setBitmap(mOffscreenBuffer);
+        mOffscreenCanvas.translate(0, mOffscreenOffsetY);
+        // whole surface needs to be drawn
+        mDirtyRect.set(0, -mOffscreenOffsetY, mSurfaceWidth, mSurfaceHeight - mOffscreenOffsetY);
+    }
+
+    private void freeOffscreenBuffer() {
+        mOffscreenCanvas.setBitmap(null);
+        mOffscreenCanvas.setMatrix(null);
+        if (mOffscreenBuffer != null) {
+            mOffscreenBuffer.recycle();
+            mOffscreenBuffer = null;
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(@NonNull final SurfaceTexture surfaceTexture, final int width,
+            final int height) {
+        mRenderHandler.post(() -> {
+            mSurface = new Surface(surfaceTexture);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+        });
+        mReady = true;
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(@NonNull final SurfaceTexture surfaceTexture, final int width,
+            final int height) {
+        mRenderHandler.post(() -> {
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+        });
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(@NonNull final SurfaceTexture surfaceTexture) {
+        mReady = false;
+        // the render thread may still be drawing, so it releases the surface texture
+        final boolean posted = mRenderHandler.post(() -> {
+            if (mSurface != null) {
+                mSurface.release();
+                mSurface = null;
+            }
+            surfaceTexture.release();
+        });
+        return !posted;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(@NonNull final SurfaceTexture surfaceTexture) { }
+}
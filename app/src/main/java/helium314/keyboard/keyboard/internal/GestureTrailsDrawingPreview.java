@@ -20,6 +20,7 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 
 import helium314.keyboard.keyboard.PointerTracker;
+import helium314.keyboard.latin.common.CoordinateUtils;
 
 /**
  * Draw preview graphics of multiple gesture trails during gesture input.
@@ -39,8 +40,16 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
 
     private final Handler mDrawingHandler = new Handler();
 
+    private final GestureStrokeDrawingParams mStrokeDrawingParams;
+    private boolean mRenderThreadEnabled;
+    private GestureTrailRenderer mRenderer;
+    private final int[] mOriginCoords = CoordinateUtils.newInstance();
+    private int mWidth;
+    private int mHeight;
+
     public GestureTrailsDrawingPreview(final TypedArray mainKeyboardViewAttr) {
         mDrawingParams = new GestureTrailDrawingParams(mainKeyboardViewAttr);
+        mStrokeDrawingParams = new GestureStrokeDrawingParams(mainKeyboardViewAttr);
         final Paint gesturePaint = new Paint();
         gesturePaint.setAntiAlias(true);
         gesturePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
@@ -55,11 +64,57 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
                 * GestureStrokeRecognitionPoints.EXTRA_GESTURE_TRAIL_AREA_ABOVE_KEYBOARD_RATIO);
         mOffscreenWidth = width;
         mOffscreenHeight = mOffscreenOffsetY + height;
+        CoordinateUtils.copy(mOriginCoords, originCoords);
+        mWidth = width;
+        mHeight = height;
+        placeRenderer();
+    }
+
+    /**
+     * Draws gesture trails on a separate thread, see {@link GestureTrailRenderer}.
+     * The renderer is created with the first trail, and released with the memory of the preview, so its thread
+     * does not keep running while the keyboard is hidden.
+     * Trails are still drawn on the UI thread while the renderer is not ready, e.g. without hardware acceleration.
+     */
+    public void setRenderThreadEnabled(final boolean enabled) {
+        mRenderThreadEnabled = enabled;
+        if (!enabled) {
+            releaseRenderer();
+        }
+    }
+
+    private void mayCreateRenderer() {
+        if (!mRenderThreadEnabled || mRenderer != null) {
+            return;
+        }
+        final DrawingPreviewPlacerView drawingView = getDrawingView();
+        if (drawingView == null) {
+            return;
+        }
+        mRenderer = new GestureTrailRenderer(drawingView.getContext(), mDrawingParams, mStrokeDrawingParams);
+        placeRenderer();
+    }
+
+    private void releaseRenderer() {
+        if (mRenderer != null) {
+            mRenderer.release();
+            mRenderer = null;
+        }
+    }
+
+    private void placeRenderer() {
+        final DrawingPreviewPlacerView drawingView = getDrawingView();
+        if (mRenderer == null || drawingView == null || mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        mRenderer.setKeyboardViewGeometry(drawingView, CoordinateUtils.x(mOriginCoords),
+                CoordinateUtils.y(mOriginCoords), mWidth, mHeight, mOffscreenOffsetY);
     }
 
     @Override
     public void onDeallocateMemory() {
         freeOffscreenBuffer();
+        releaseRenderer();
     }
 
     private void freeOffscreenBuffer() {
@@ -150,6 +205,11 @@ public final class GestureTrailsDrawingPreview extends AbstractDrawingPreview im
         if (!isPreviewEnabled()) {
             return;
         }
+        mayCreateRenderer();
+        if (mRenderer != null && mRenderer.isReady()) {
+            mRenderer.addStroke(tracker);
+            return;
+        }
         GestureTrailDrawingPoints trail;
         synchronized (mGestureTrails) {
             trail = mGestureTrails.get(tracker.mPointerId);
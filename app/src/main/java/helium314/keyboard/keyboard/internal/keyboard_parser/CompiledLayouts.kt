@@ -0,0 +1,246 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal.keyboard_parser
+
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.AbstractKeyData
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.AutoTextKeyData
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.CaseSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.CharWidthSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KanaSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyData
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyType
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyboardStateSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.LayoutDirectionSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.MultiTextKeyData
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.PopupSet
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.ShiftStateSelector
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.SimplePopups
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.TextKeyData
+import helium314.keyboard.keyboard.internal.keyboard_parser.floris.VariationSelector
+import helium314.keyboard.latin.BuildConfig
+import helium314.keyboard.latin.utils.ExecutorUtils
+import helium314.keyboard.latin.utils.LayoutUtilsCustom
+import helium314.keyboard.latin.utils.Log
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * Stores parsed layouts in a compact binary format in the cache dir, so layouts don't need to be parsed again
+ * after the process is restarted. Files are named after the layout, a hash of the layout file content and the
+ * app version, so changed layout files or parser changes in an app update never read an outdated compiled layout.
+ * The key data still contains selectors, as these depend on the keyboard they are used for.
+ */
+object CompiledLayouts {
+    private const val TAG = "CompiledLayouts"
+    private const val DIR_NAME = "compiled_layouts"
+    private const val MAGIC = 0x48424c43 // HBLC
+    // increase when changing the format or the key data classes
+    private const val VERSION = 1
+    // compiled layouts of other app versions may differ even if the format is the same, e.g. in default popups
+    private val BUILD_ID = "v${BuildConfig.VERSION_CODE}.$VERSION"
+
+    class CompiledLayout(val isJson: Boolean, val rows: List<List<AbstractKeyData>>)
+
+    @Volatile private var dir: File? = null
+    @Volatile private var removedOtherBuilds = false
+
+    /** Returns the compiled layout if it exists and [content] did not change since it was written, null otherwise. */
+    fun load(cacheDir: File, name: String, content: String): CompiledLayout? {
+        val file = File(getDir(cacheDir), fileName(name, content))
+        if (!file.exists()) return null
+        return try {
+            RandomAccessFile(file, "r").use {
+                decode(it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length()))
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "could not read compiled layout $name", e)
+            file.delete()
+            null
+        }
+    }
+
+    /** Writes the compiled layout in background, and removes compiled layouts for older content of [name]. */
+    fun save(cacheDir: File, name: String, content: String, layout: CompiledLayout) {
+        val dir = getDir(cacheDir)
+        val fileName = fileName(name, content)
+        ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD).execute {
+            try {
+                dir.mkdirs()
+                if (!removedOtherBuilds) {
+                    removedOtherBuilds = true
+                    dir.listFiles { f -> !f.name.removeSuffix(".tmp").endsWith(".$BUILD_ID") }?.forEach { it.delete() }
+                }
+                // outdated versions of the layout, but not files that are currently being written
+                dir.listFiles { f -> f.name.startsWith("$name.") && f.name != fileName && !f.name.endsWith(".tmp") }
+                    ?.forEach { it.delete() }
+                val tempFile = File(dir, "$fileName.tmp")
+                tempFile.writeBytes(encode(layout))
+                if (!tempFile.renameTo(File(dir, fileName))) {
+                    tempFile.delete()
+                    Log.w(TAG, "could not rename compiled layout $name")
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "could not write compiled layout $name", e)
+            }
+        }
+    }
+
+    /** Removes compiled custom layouts, which may belong to layouts that were deleted. */
+    fun onLayoutFileChanged() {
+        val dir = dir ?: return
+        dir.listFiles { f -> f.name.contains(LayoutUtilsCustom.CUSTOM_LAYOUT_PREFIX) }?.forEach { it.delete() }
+    }
+
+    private fun getDir(cacheDir: File) = dir ?: File(cacheDir, DIR_NAME).also { dir = it }
+
+    private fun fileName(name: String, content: String): String {
+        val crc = CRC32()
+        crc.update(content.toByteArray())
+        return "$name.${crc.value.toString(16)}.${content.length}.$BUILD_ID"
+    }
+
+    fun encode(layout: CompiledLayout): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeBoolean(layout.isJson)
+            out.writeInt(layout.rows.size)
+            layout.rows.forEach { row ->
+                out.writeInt(row.size)
+                row.forEach { out.writeKeyData(it) }
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    fun decode(buffer: ByteBuffer): CompiledLayout {
+        if (buffer.int != MAGIC || buffer.int != VERSION)
+            throw IllegalStateException("unknown compiled layout format")
+        val isJson = buffer.get() != 0.toByte()
+        val rows = List(buffer.int) {
+            List(buffer.int) { buffer.readKeyData()!! }
+        }
+        return CompiledLayout(isJson, rows)
+    }
+
+    private fun DataOutputStream.writeKeyData(data: AbstractKeyData?) {
+        when (data) {
+            null -> writeByte(0)
+            is TextKeyData -> { writeByte(1); writeKeyFields(data) }
+            is AutoTextKeyData -> { writeByte(2); writeKeyFields(data) }
+            is MultiTextKeyData -> {
+                writeByte(3)
+                writeInt(data.codePoints.size)
+                data.codePoints.forEach { writeInt(it) }
+                writeKeyFields(data)
+            }
+            is CaseSelector -> { writeByte(4); writeKeyData(data.lower); writeKeyData(data.upper) }
+            is ShiftStateSelector -> {
+                writeByte(5)
+                listOf(data.unshifted, data.shifted, data.shiftedManual, data.shiftedAutomatic, data.capsLock,
+                    data.default, data.manualOrLocked).forEach { writeKeyData(it) }
+            }
+            is VariationSelector -> {
+                writeByte(6)
+                listOf(data.default, data.email, data.uri, data.normal, data.password, data.date, data.time,
+                    data.datetime).forEach { writeKeyData(it) }
+            }
+            is KeyboardStateSelector -> {
+                writeByte(7)
+                listOf(data.emojiKeyEnabled, data.languageKeyEnabled, data.symbols, data.moreSymbols, data.dpad,
+                    data.alphabet, data.default, data.emojiSearchAvailable).forEach { writeKeyData(it) }
+            }
+            is LayoutDirectionSelector -> { writeByte(8); writeKeyData(data.ltr); writeKeyData(data.rtl) }
+            is CharWidthSelector -> { writeByte(9); writeKeyData(data.full); writeKeyData(data.half) }
+            is KanaSelector -> { writeByte(10); writeKeyData(data.hira); writeKeyData(data.kata) }
+            else -> throw IllegalArgumentException("can't compile ${data::class.simpleName}")
+        }
+    }
+
+    private fun DataOutputStream.writeKeyFields(data: KeyData) {
+        writeByte(data.type?.ordinal ?: -1)
+        writeInt(data.code)
+        writeString(data.label)
+        writeInt(data.groupId)
+        val popup = data.popup
+        if (popup is SimplePopups) {
+            writeByte(0)
+            writeStrings(popup.popupKeys)
+        } else {
+            writeByte(1)
+            writeKeyData(popup.main)
+            val relevant = popup.relevant
+            writeInt(relevant?.size ?: -1)
+            relevant?.forEach { writeKeyData(it) }
+        }
+        writeFloat(data.width)
+        writeInt(data.labelFlags)
+    }
+
+    private fun DataOutputStream.writeString(string: String) {
+        writeInt(string.length)
+        writeChars(string)
+    }
+
+    private fun DataOutputStream.writeStrings(strings: Collection<String>?) {
+        writeInt(strings?.size ?: -1)
+        strings?.forEach { writeString(it) }
+    }
+
+    private fun ByteBuffer.readKeyData(): AbstractKeyData? = when (val tag = get().toInt()) {
+        0 -> null
+        1 -> readKeyFields { type, code, label, groupId, popup, width, labelFlags ->
+            TextKeyData(type, code, label, groupId, popup, width, labelFlags)
+        }
+        2 -> readKeyFields { type, code, label, groupId, popup, width, labelFlags ->
+            AutoTextKeyData(type, code, label, groupId, popup, width, labelFlags)
+        }
+        3 -> {
+            val codePoints = IntArray(int) { int }
+            readKeyFields { type, _, label, groupId, popup, width, labelFlags ->
+                MultiTextKeyData(type, codePoints, label, groupId, popup, width, labelFlags)
+            }
+        }
+        4 -> CaseSelector(readKeyData()!!, readKeyData()!!)
+        5 -> ShiftStateSelector(readKeyData(), readKeyData(), readKeyData(), readKeyData(), readKeyData(),
+            readKeyData(), readKeyData())
+        6 -> VariationSelector(readKeyData(), readKeyData(), readKeyData(), readKeyData(), readKeyData(),
+            readKeyData(), readKeyData(), readKeyData())
+        7 -> KeyboardStateSelector(readKeyData(), readKeyData(), readKeyData(), readKeyData(), readKeyData(),
+            readKeyData(), readKeyData(), readKeyData())
+        8 -> LayoutDirectionSelector(readKeyData()!!, readKeyData()!!)
+        9 -> CharWidthSelector(readKeyData(), readKeyData())
+        10 -> KanaSelector(readKeyData()!!, readKeyData()!!)
+        else -> throw IllegalStateException("unknown key data type $tag")
+    }
+
+    private inline fun <T> ByteBuffer.readKeyFields(
+        create: (KeyType?, Int, String, Int, PopupSet<out AbstractKeyData>, Float, Int) -> T
+    ): T {
+        val type = get().toInt().let { if (it < 0) null else KeyType.entries[it] }
+        val code = int
+        val label = readString()
+        val groupId = int
+        val popup = if (get().toInt() == 0) {
+            SimplePopups(readStrings())
+        } else {
+            val main = readKeyData()
+            val relevantCount = int
+            val relevant = if (relevantCount < 0) null else List(relevantCount) { readKeyData()!! }
+            PopupSet(main, relevant)
+        }
+        return create(type, code, label, groupId, popup, float, int)
+    }
+
+    private fun ByteBuffer.readString() = String(CharArray(int) { char })
+
+    private fun ByteBuffer.readStrings(): List<String>? {
+        val size = int
+        return if (size < 0) null else List(size) { readString() }
+    }
+}
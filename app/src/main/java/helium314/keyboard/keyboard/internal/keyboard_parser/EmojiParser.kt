@@ -15,6 +15,7 @@ import helium314.keyboard.latin.common.splitOnWhitespace
 import helium314.keyboard.latin.settings.Defaults
 import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.ResourceUtils
+import helium314.keyboard.latin.utils.StartupTrace
 import helium314.keyboard.latin.utils.prefs
 import java.util.Collections
 import kotlin.let
@@ -107,6 +108,7 @@ private fun loadEmojiDefaultVersionsAndPopupSpecs(context: Context, category2Emo
         return
     }
 
+    val traceStart = StartupTrace.begin("loadEmojiDefaultVersionsAndPopupSpecs")
     defaultSkinTone = defaultTone
     emojiDefaultVersions.clear()
     emojiNeutralVersions.clear()
@@ -127,6 +129,7 @@ private fun loadEmojiDefaultVersionsAndPopupSpecs(context: Context, category2Emo
         split.drop(1).filterNot { SupportedEmojis.isUnsupported(it) }
             .takeIf { it.isNotEmpty() }?.joinToString(",")?.let { emojiPopupSpecs[split.first()] = it }
     }
+    StartupTrace.end("loadEmojiDefaultVersionsAndPopupSpecs", traceStart)
 }
 
 private fun getEmojiFileName(category: KeyboardElement) = when (category) {
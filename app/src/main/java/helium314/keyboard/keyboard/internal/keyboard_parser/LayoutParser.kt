@@ -27,10 +27,12 @@ import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.modules.SerializersModule
 import kotlinx.serialization.modules.polymorphic
+import java.util.concurrent.ConcurrentHashMap
 
 object LayoutParser {
     private const val TAG = "LayoutParser"
-    private val layoutCache = hashMapOf<String, (KeyboardParams) -> MutableList<MutableList<KeyData>>>()
+    // accessed from the threads building keyboards, getOrPut on a ConcurrentMap doesn't replace existing values
+    private val layoutCache = ConcurrentHashMap<String, (KeyboardParams) -> MutableList<MutableList<KeyData>>>()
 
     fun clearCache() = layoutCache.clear()
 
@@ -77,21 +79,23 @@ object LayoutParser {
 
     private fun createCacheLambda(layoutType: LayoutType, layoutName: String, context: Context):
                 (KeyboardParams) -> MutableList<MutableList<KeyData>> {
-        val layoutFileContent = getLayoutFileContent(layoutType, layoutName.substringBefore("+"), context).trimStart()
-        if (layoutFileContent.startsWith("[") || (LayoutUtilsCustom.isCustomLayout(layoutName) && layoutFileContent.startsWith("//"))) {
-            try {
-                val florisKeyData = parseJsonString(layoutFileContent, false)
-                return { params ->
-                    florisKeyData.mapTo(mutableListOf()) { row ->
-                        row.mapNotNullTo(mutableListOf()) { it.compute(params) }
-                    }
+        val fileLayoutName = layoutName.substringBefore("+")
+        val layoutFileContent = getLayoutFileContent(layoutType, fileLayoutName, context).trimStart()
+        val compiledName = layoutType.name + "." + fileLayoutName
+        val compiledLayout = CompiledLayouts.load(context.cacheDir, compiledName, layoutFileContent)
+            ?: compileLayout(layoutFileContent, layoutName).also {
+                CompiledLayouts.save(context.cacheDir, compiledName, layoutFileContent, it)
+            }
+        if (compiledLayout.isJson) {
+            val florisKeyData = compiledLayout.rows
+            return { params ->
+                florisKeyData.mapTo(mutableListOf()) { row ->
+                    row.mapNotNullTo(mutableListOf()) { it.compute(params) }
                 }
-            } catch (e: Exception) {
-                Log.w(TAG, "could not parse json layout for $layoutName, falling back to simple layout parsing", e)
             }
         }
-        // not a json, or invalid json
-        val simpleKeyData = parseSimpleString(layoutFileContent)
+        @Suppress("UNCHECKED_CAST") // simple layouts only contain KeyData
+        val simpleKeyData = compiledLayout.rows as List<List<KeyData>>
         return { params ->
             simpleKeyData.mapIndexedTo(mutableListOf()) { i, row ->
                 val newRow = row.toMutableList()
@@ -102,6 +106,18 @@ object LayoutParser {
         }
     }
 
+    private fun compileLayout(layoutFileContent: String, layoutName: String): CompiledLayouts.CompiledLayout {
+        if (layoutFileContent.startsWith("[") || (LayoutUtilsCustom.isCustomLayout(layoutName) && layoutFileContent.startsWith("//"))) {
+            try {
+                return CompiledLayouts.CompiledLayout(true, parseJsonString(layoutFileContent, false))
+            } catch (e: Exception) {
+                Log.w(TAG, "could not parse json layout for $layoutName, falling back to simple layout parsing", e)
+            }
+        }
+        // not a json, or invalid json
+        return CompiledLayouts.CompiledLayout(false, parseSimpleString(layoutFileContent))
+    }
+
     private fun getLayoutFileContent(layoutType: LayoutType, layoutName: String, context: Context): String {
         if (LayoutUtilsCustom.isCustomLayout(layoutName))
             LayoutUtilsCustom.getLayoutFiles(layoutType, context)
@@ -10,6 +10,7 @@ import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.utils.FoldableUtils
 import helium314.keyboard.latin.utils.LayoutUtilsCustom
 import helium314.keyboard.latin.utils.Log
+import helium314.keyboard.latin.utils.StartupTrace
 import helium314.keyboard.latin.utils.SubtypeSettings
 import helium314.keyboard.latin.utils.prefs
 import helium314.keyboard.latin.utils.upgradeToolbarPrefs
@@ -22,12 +23,12 @@ class App : Application() {
         super.onCreate()
         DebugFlags.init(this)
         FoldableUtils.init(this)
-        Settings.init(this)
-        SubtypeSettings.init(this)
+        StartupTrace.trace("Settings.init") { Settings.init(this) }
+        StartupTrace.trace("SubtypeSettings.init") { SubtypeSettings.init(this) }
 
         val scope = CoroutineScope(Dispatchers.Default)
         scope.launch { // do some uncritical work in background for faster startup
-            SupportedEmojis.load(this@App)
+            StartupTrace.trace("SupportedEmojis.load") { SupportedEmojis.load(this@App) }
             LayoutUtilsCustom.removeMissingLayouts(this@App)
             val packageInfo = packageManager.getPackageInfo(packageName, 0)
             @Suppress("DEPRECATION")
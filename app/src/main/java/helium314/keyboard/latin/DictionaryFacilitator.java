@@ -124,6 +124,12 @@ public interface DictionaryFacilitator {
             @NonNull final NgramContext ngramContext, final long timeStampInSeconds,
             final boolean blockPotentiallyOffensive);
 
+    /**
+     * Sets a listener that is called on a background thread after words added by {@link #addToUserHistory}
+     * were applied to the user history dictionary, as this happens some time later.
+     */
+    void setOnUserHistoryAppliedListener(@Nullable final Runnable listener);
+
     /** adjust confidences for multilingual typing */
     void adjustConfidences(final String word, final boolean wasAutoCapitalized);
 
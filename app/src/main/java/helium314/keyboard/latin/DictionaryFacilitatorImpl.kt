@@ -24,6 +24,7 @@ import helium314.keyboard.latin.dictionary.AppsBinaryDictionary
 import helium314.keyboard.latin.dictionary.ContactsBinaryDictionary
 import helium314.keyboard.latin.dictionary.Dictionary
 import helium314.keyboard.latin.dictionary.DictionaryFactory
+import helium314.keyboard.latin.dictionary.DictionaryLookupStats
 import helium314.keyboard.latin.dictionary.DictionaryStats
 import helium314.keyboard.latin.dictionary.ExpandableBinaryDictionary
 import helium314.keyboard.latin.dictionary.UserBinaryDictionary
@@ -31,7 +32,9 @@ import helium314.keyboard.latin.permissions.PermissionsUtil
 import helium314.keyboard.latin.personalization.UserHistoryDictionary
 import helium314.keyboard.latin.settings.Settings
 import helium314.keyboard.latin.settings.SettingsValuesForSuggestion
+import helium314.keyboard.latin.utils.ExecutorUtils
 import helium314.keyboard.latin.utils.Log
+import helium314.keyboard.latin.utils.StartupTrace
 import helium314.keyboard.latin.utils.SubtypeSettings
 import helium314.keyboard.latin.utils.SuggestionResults
 import helium314.keyboard.latin.utils.getSecondaryLocales
@@ -39,13 +42,17 @@ import helium314.keyboard.latin.utils.locale
 import helium314.keyboard.latin.utils.prefs
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
 import kotlinx.coroutines.launch
 import java.io.File
 import java.io.IOException
 import java.util.Locale
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * Facilitates interaction with different kinds of dictionaries. Provides APIs
@@ -79,6 +86,25 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
     private var mValidSpellingWordWriteCache: LruCache<String, Boolean>? = null
 
     private val scope = CoroutineScope(Dispatchers.Default)
+    // dictionaries currently looking up suggestions in parallel, see GroupLookup.collectInParallel
+    private val busyDictionaries = ConcurrentHashMap<Dictionary, DictionaryLookup>()
+    // lookup objects of the last call of getSuggestionResults, to be reused by the next call
+    private val idleLookup = AtomicReference<Lookup?>()
+    private val otherGroupsExecutor = Dispatchers.Default.asExecutor()
+
+    @Volatile
+    private var onUserHistoryAppliedListener: Runnable? = null
+    // passed with each learned word, the same instance for all words so it runs once per applied batch
+    private val userHistoryApplied = Runnable { onUserHistoryAppliedListener?.run() }
+
+    // public for testing
+    fun setMainDictionariesForTests(mainDictionaries: List<Dictionary>) {
+        dictionaryGroups = mainDictionaries.map { DictionaryGroup(it.mLocale, it) }
+    }
+
+    override fun setOnUserHistoryAppliedListener(listener: Runnable?) {
+        onUserHistoryAppliedListener = listener
+    }
 
     override fun setValidSpellingWordReadCache(cache: LruCache<String, Boolean>) {
         mValidSpellingWordReadCache = cache
@@ -136,6 +162,7 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
         listener: DictionaryInitializationListener?
     ) {
         Log.i(TAG, "resetDictionaries, force reloading main dictionary: $forceReloadMainDictionary")
+        val traceStart = StartupTrace.begin("DictionaryFacilitatorImpl.resetDictionaries")
 
         val locales = getUsedLocales(newLocale, context)
 
@@ -172,6 +199,7 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
 
         mValidSpellingWordWriteCache?.evictAll()
         mValidSpellingWordReadCache?.evictAll()
+        StartupTrace.end("DictionaryFacilitatorImpl.resetDictionaries", traceStart)
     }
 
     /** creates dictionaryGroups for [newLocales] with given [newSubDictTypes], trying to re-use existing dictionaries.
@@ -245,7 +273,9 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
                         return@mapNotNull null // This should never happen
                     }
                     if (dictionaryGroup.getDict(Dictionary.TYPE_MAIN)?.isInitialized == true) null
-                    else dictionaryGroup to DictionaryFactory.createMainDictionaryCollection(context, it, useEmojiDict)
+                    else dictionaryGroup to StartupTrace.trace("DictionaryFactory.createMainDictionaryCollection $it") {
+                        DictionaryFactory.createMainDictionaryCollection(context, it, useEmojiDict)
+                    }
                 }
                 synchronized(this) {
                     dictGroupsWithNewMainDict.forEach { (dictGroup, mainDict) ->
@@ -387,7 +417,8 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
         // We demote unrecognized words (frequency <= 0) by specifying them as "invalid".
         // We don't add words with 0-frequency (assuming they would be profanity etc.).
         val isValid = mainFreq > 0
-        UserHistoryDictionary.addToDictionary(userHistoryDictionary, ngramContext, wordToUse, isValid, timeStampInSeconds)
+        UserHistoryDictionary.addToDictionary(userHistoryDictionary, ngramContext, wordToUse, isValid, timeStampInSeconds,
+            userHistoryApplied)
     }
 
     private fun addToPersonalDictionaryIfInvalidButInHistory(word: String) {
@@ -486,77 +517,322 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
         composedData: ComposedData, ngramContext: NgramContext, keyboard: Keyboard,
         settingsValuesForSuggestion: SettingsValuesForSuggestion, sessionId: Int, inputStyle: Int
     ): SuggestionResults {
-        val proximityInfoHandle = keyboard.proximityInfo.nativeProximityInfo
-        val weightOfLangModelVsSpatialModel = floatArrayOf(Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL)
-
-        val waitForOtherDicts = if (dictionaryGroups.size == 1) null else CountDownLatch(dictionaryGroups.size - 1)
-        val suggestionsArray = Array<List<SuggestedWordInfo>?>(dictionaryGroups.size) { null }
-        for (i in 1..dictionaryGroups.lastIndex) {
-            scope.launch {
-                suggestionsArray[i] = getSuggestions(composedData, ngramContext, settingsValuesForSuggestion, sessionId,
-                    proximityInfoHandle, weightOfLangModelVsSpatialModel, dictionaryGroups[i])
-                waitForOtherDicts?.countDown()
-            }
+        val groups = dictionaryGroups
+        val lookup = idleLookup.getAndSet(null) ?: Lookup()
+        lookup.start(groups, composedData, ngramContext, keyboard.proximityInfo.nativeProximityInfo,
+            settingsValuesForSuggestion, sessionId)
+        if (settingsValuesForSuggestion.mParallelDictionaryLookup)
+            lookup.executor = ExecutorUtils.getSuggestionsExecutor(countDictionaries(groups))
+        for (i in 1..groups.lastIndex) {
+            otherGroupsExecutor.execute(lookup.groupLookups[i])
         }
-        suggestionsArray[0] = getSuggestions(composedData, ngramContext, settingsValuesForSuggestion, sessionId,
-            proximityInfoHandle, weightOfLangModelVsSpatialModel, dictionaryGroups[0])
+        lookup.groupLookups[0].run()
+        lookup.otherGroupsDone.acquireUninterruptibly(groups.size - 1)
+
+        // a new instance, as the results may be kept by the caller
         val suggestionResults = SuggestionResults(
             SuggestedWords.MAX_SUGGESTIONS, ngramContext.isBeginningOfSentenceContext, false
         )
-        waitForOtherDicts?.await()
+        for (groupLookup in lookup.groupLookups) {
+            val suggestions = groupLookup.collector.suggestions
+            suggestionResults.addAll(suggestions)
+            suggestions.mRawSuggestions?.let { suggestionResults.mRawSuggestions?.addAll(it) }
+        }
+        includeAtLeastTwoWordSuggestions(suggestionResults, lookup, composedData.mTypedWord)
 
-        suggestionsArray.forEach {
-            if (it == null) return@forEach
-            suggestionResults.addAll(it)
-            suggestionResults.mRawSuggestions?.addAll(it)
+        // a dictionary that timed out may still add to the collectors, so they can't be reused
+        if (!lookup.timedOut) {
+            lookup.finish()
+            idleLookup.set(lookup)
         }
+        return suggestionResults
+    }
 
-        includeAtLeastTwoWordSuggestions(suggestionResults, suggestionsArray, composedData.mTypedWord)
+    // one thread for each dictionary is needed for parallel lookup
+    private fun countDictionaries(groups: List<DictionaryGroup>): Int {
+        var count = 0
+        for (group in groups) {
+            for (dictType in DictionaryFacilitator.ALL_DICTIONARY_TYPES) {
+                if (group.getDict(dictType) != null) count++
+            }
+        }
+        return count
+    }
 
-        return suggestionResults
+    /**
+     * The collectors and synchronizers for one call of [getSuggestionResults], which are reused by later calls so
+     * they are not created on every key press. There is one [GroupLookup] for each dictionary group.
+     */
+    private inner class Lookup {
+        var groupLookups = emptyArray<GroupLookup>()
+        // released by the groups except the first one, whose lookup runs on the calling thread
+        val otherGroupsDone = Semaphore(0)
+        // best word suggestions of all groups, for includeAtLeastTwoWordSuggestions
+        val allWordSuggestions = SuggestionResults(Int.MAX_VALUE, false, false)
+        val weightOfLangModelVsSpatialModel = FloatArray(1)
+        @Volatile var timedOut = false
+
+        // the query, set by start
+        var groups: List<DictionaryGroup> = emptyList()
+        var composedData: ComposedData? = null
+        var ngramContext: NgramContext? = null
+        var proximityInfoHandle = 0L
+        var settingsValuesForSuggestion: SettingsValuesForSuggestion? = null
+        var sessionId = 0
+        // for parallel lookup
+        var executor: Executor? = null
+
+        fun start(
+            groups: List<DictionaryGroup>, composedData: ComposedData, ngramContext: NgramContext,
+            proximityInfoHandle: Long, settingsValuesForSuggestion: SettingsValuesForSuggestion, sessionId: Int
+        ) {
+            if (groupLookups.size != groups.size)
+                groupLookups = Array(groups.size) { GroupLookup(this, it) }
+            this.groups = groups
+            this.composedData = composedData
+            this.ngramContext = ngramContext
+            this.proximityInfoHandle = proximityInfoHandle
+            this.settingsValuesForSuggestion = settingsValuesForSuggestion
+            this.sessionId = sessionId
+            weightOfLangModelVsSpatialModel[0] = Dictionary.NOT_A_WEIGHT_OF_LANG_MODEL_VS_SPATIAL_MODEL
+            for (i in groups.indices) {
+                groupLookups[i].group = groups[i]
+                groupLookups[i].collector.reset(composedData.mTypedWord, composedData.mIsBatchMode)
+            }
+            allWordSuggestions.clear()
+        }
+
+        // don't keep the query and dictionaries alive while idle
+        fun finish() {
+            groups = emptyList()
+            composedData = null
+            ngramContext = null
+            settingsValuesForSuggestion = null
+            executor = null
+            for (groupLookup in groupLookups) {
+                groupLookup.finish()
+            }
+        }
+    }
+
+    /** Collects the suggestions of all dictionaries of one group, reused with its [Lookup]. */
+    private inner class GroupLookup(val lookup: Lookup, private val index: Int) : Runnable {
+        val collector = GroupSuggestionCollector()
+        var group: DictionaryGroup? = null
+        // for parallel lookup, one for each dictionary type, created when first needed
+        private var dictionaryLookups: Array<DictionaryLookup>? = null
+        val dictionariesDone = Semaphore(0)
+
+        override fun run() {
+            try {
+                collectSuggestions()
+            } finally {
+                if (index > 0) lookup.otherGroupsDone.release()
+            }
+        }
+
+        private fun collectSuggestions() {
+            val group = group!!
+            val weightForLocale = group.getWeightForLocale(lookup.groups, lookup.composedData!!.mIsBatchMode)
+            val settingsValues = lookup.settingsValuesForSuggestion!!
+            val timeoutMillis = settingsValues.mDictionaryLookupTimeoutMillis.toLong()
+            if (settingsValues.mParallelDictionaryLookup) {
+                collectInParallel(group, weightForLocale, timeoutMillis)
+                return
+            }
+            for (dictType in DictionaryFacilitator.ALL_DICTIONARY_TYPES) {
+                val dictionary = group.getDict(dictType) ?: continue
+                // a timed out parallel lookup may still be running after parallel lookup was disabled
+                val busyLookup = busyDictionaries[dictionary]
+                if (busyLookup != null && !busyLookup.awaitIdle(timeoutMillis)) {
+                    DictionaryLookupStats.recordSkipped(dictType)
+                    continue
+                }
+                collector.setDictionary(dictType, dictionary)
+                val start = System.nanoTime()
+                dictionary.collectSuggestions(lookup.composedData, lookup.ngramContext, lookup.proximityInfoHandle,
+                    lookup.settingsValuesForSuggestion, lookup.sessionId, weightForLocale,
+                    lookup.weightOfLangModelVsSpatialModel, collector
+                )
+                DictionaryLookupStats.recordLookup(dictType, System.nanoTime() - start)
+            }
+        }
+
+        /**
+         * Queries all dictionaries of the group at the same time, and adds the results of those that finish
+         * before the timeout to [collector]. Dictionaries still busy with a timed out lookup are skipped, as
+         * the traverse sessions of a dictionary must not be used concurrently.
+         * Each lookup gets its own copy of the weight of language model vs spatial model, and like in sequential
+         * lookup the value set by the last dictionary that changed it is written back.
+         */
+        private fun collectInParallel(group: DictionaryGroup, weightForLocale: Float, timeoutMillis: Long) {
+            val dictionaryLookups = dictionaryLookups
+                ?: Array(DictionaryFacilitator.ALL_DICTIONARY_TYPES.size) {
+                    DictionaryLookup(this, DictionaryFacilitator.ALL_DICTIONARY_TYPES[it])
+                }.also { dictionaryLookups = it }
+            val initialWeight = lookup.weightOfLangModelVsSpatialModel[0]
+            var started = 0
+            for (dictionaryLookup in dictionaryLookups) {
+                dictionaryLookup.started = false
+                val dictionary = group.getDict(dictionaryLookup.dictType) ?: continue
+                if (busyDictionaries.putIfAbsent(dictionary, dictionaryLookup) != null) {
+                    DictionaryLookupStats.recordSkipped(dictionaryLookup.dictType)
+                    continue
+                }
+                dictionaryLookup.start(dictionary, weightForLocale, initialWeight)
+                lookup.executor!!.execute(dictionaryLookup)
+                started++
+            }
+            if (!dictionariesDone.tryAcquire(started, timeoutMillis, TimeUnit.MILLISECONDS))
+                lookup.timedOut = true
+            for (dictionaryLookup in dictionaryLookups) {
+                if (!dictionaryLookup.started) continue
+                if (!dictionaryLookup.collector.finished) {
+                    DictionaryLookupStats.recordTimeout(dictionaryLookup.dictType)
+                    continue
+                }
+                collector.addAll(dictionaryLookup.collector)
+                val weight = dictionaryLookup.weightOfLangModelVsSpatialModel[0]
+                if (weight != initialWeight)
+                    lookup.weightOfLangModelVsSpatialModel[0] = weight
+            }
+        }
+
+        fun finish() {
+            group = null
+            dictionaryLookups?.forEach { it.finish() }
+        }
     }
 
-    private fun getSuggestions(
-        composedData: ComposedData, ngramContext: NgramContext,
-        settingsValuesForSuggestion: SettingsValuesForSuggestion, sessionId: Int,
-        proximityInfoHandle: Long, weightOfLangModelVsSpatialModel: FloatArray, dictGroup: DictionaryGroup
-    ): List<SuggestedWordInfo> {
-        val suggestions = ArrayList<SuggestedWordInfo>()
-        val weightForLocale = dictGroup.getWeightForLocale(dictionaryGroups, composedData.mIsBatchMode)
-        for (dictType in DictionaryFacilitator.ALL_DICTIONARY_TYPES) {
-            val dictionary = dictGroup.getDict(dictType) ?: continue
-            val dictionarySuggestions = dictionary.getSuggestions(composedData, ngramContext, proximityInfoHandle,
-                settingsValuesForSuggestion, sessionId, weightForLocale, weightOfLangModelVsSpatialModel
-            ) ?: continue
+    /** Looks up suggestions in a single dictionary for parallel lookup, reused with its [GroupLookup]. */
+    private inner class DictionaryLookup(private val groupLookup: GroupLookup, val dictType: String) : Runnable {
+        val collector = GroupSuggestionCollector()
+        val weightOfLangModelVsSpatialModel = FloatArray(1)
+        var started = false
+        private var dictionary: Dictionary? = null
+        private var weightForLocale = 1f
+        // held while the lookup is running
+        private val running = Semaphore(1)
+
+        fun start(dictionary: Dictionary, weightForLocale: Float, weightOfLangModelVsSpatialModel: Float) {
+            val composedData = groupLookup.lookup.composedData!!
+            running.acquireUninterruptibly() // never blocks, a running lookup is never reused
+            started = true
+            this.dictionary = dictionary
+            this.weightForLocale = weightForLocale
+            this.weightOfLangModelVsSpatialModel[0] = weightOfLangModelVsSpatialModel
+            collector.reset(composedData.mTypedWord, composedData.mIsBatchMode)
+            collector.setDictionary(dictType, dictionary)
+        }
+
+        override fun run() {
+            val dictionary = dictionary!!
+            val lookup = groupLookup.lookup
+            try {
+                val start = System.nanoTime()
+                dictionary.collectSuggestions(lookup.composedData, lookup.ngramContext, lookup.proximityInfoHandle,
+                    lookup.settingsValuesForSuggestion, lookup.sessionId, weightForLocale,
+                    weightOfLangModelVsSpatialModel, collector
+                )
+                DictionaryLookupStats.recordLookup(dictType, System.nanoTime() - start)
+                collector.finished = true
+            } finally {
+                busyDictionaries.remove(dictionary)
+                running.release()
+                groupLookup.dictionariesDone.release()
+            }
+        }
 
+        /**
+         * Waits until this lookup is done, as the dictionary must not be used by two lookups at the same time.
+         * Returns false if it's still running after [timeoutMillis].
+         */
+        fun awaitIdle(timeoutMillis: Long): Boolean {
+            if (!running.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) return false
+            running.release()
+            return true
+        }
+
+        fun finish() {
+            dictionary = null
+        }
+    }
+
+    /**
+     * Collects the suggestions of one dictionary group. Only suggestions that may end up in the
+     * final results are kept, so the dictionaries don't need to create the others.
+     */
+    private inner class GroupSuggestionCollector : Dictionary.SuggestionCollector {
+        val suggestions = SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, false, false)
+        // Best suggestions that are neither emoji nor the typed word, for includeAtLeastTwoWordSuggestions.
+        // It needs two words that are not in the suggestions, and skips any number of words only differing in
+        // case from the first one. As many as in the suggestions are kept, so no candidate that could be picked
+        // is dropped in practice, and hardly any candidate is created only for this.
+        val wordSuggestions = SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, false, false)
+        private var typedWord = ""
+        private var isBatchMode = false
+        private var dictType = ""
+        private var dictionary: Dictionary? = null
+        private var checkForGarbage = false
+        @Volatile var finished = false
+
+        /** Prepares the collector for the next lookup. */
+        fun reset(typedWord: String, isBatchMode: Boolean) {
+            this.typedWord = typedWord
+            this.isBatchMode = isBatchMode
+            dictType = ""
+            dictionary = null
+            checkForGarbage = false
+            finished = false
+            suggestions.clear()
+            suggestions.mRawSuggestions?.clear()
+            wordSuggestions.clear()
+        }
+
+        fun setDictionary(dictType: String, dictionary: Dictionary) {
+            this.dictType = dictType
+            this.dictionary = dictionary
             // For some reason "garbage" words are produced when glide typing. For user history
             // and main dictionaries we can filter them out by checking whether the dictionary
             // actually contains the word. But personal and addon dictionaries may contain shortcuts,
             // which do not pass an isInDictionary check (e.g. emojis).
             // (if the main dict contains shortcuts to non-words, this will break!)
-            val checkForGarbage = composedData.mIsBatchMode && (dictType == Dictionary.TYPE_USER_HISTORY || dictType == Dictionary.TYPE_MAIN)
+            checkForGarbage = isBatchMode && (dictType == Dictionary.TYPE_USER_HISTORY || dictType == Dictionary.TYPE_MAIN)
+        }
 
-            for (info in dictionarySuggestions) {
-                val word = info.word
-                if (isBlacklisted(word) || SupportedEmojis.isUnsupported(word)) // don't add blacklisted words and unsupported emojis
-                    continue
-                if (checkForGarbage
-                    // consider the user might use custom main dictionary containing shortcuts
-                    //  assume this is unlikely to happen, and take care about common shortcuts that are not actual words (emoji, symbols)
-                    && word.length > 2 // should exclude most symbol shortcuts
-                    && info.mSourceDict.mDictType == dictType // dictType is always main, but info.mSourceDict.mDictType contains the actual dict (main dict is a dictionary group)
-                    && !mightBeEmoji(word) // simplified check for performance reasons
-                    && !dictionary.isInDictionary(word)
-                )
-                    continue
+        /** Adds the suggestions of another collector, which have already been filtered. */
+        fun addAll(other: GroupSuggestionCollector) {
+            suggestions.addAll(other.suggestions)
+            other.suggestions.mRawSuggestions?.let { suggestions.mRawSuggestions?.addAll(it) }
+            wordSuggestions.addAll(other.wordSuggestions)
+        }
 
-                if (word.length == 1 && info.mSourceDict.mDictType == Dictionary.TYPE_EMOJI && !StringUtils.mightBeEmoji(word[0].code))
-                    continue
+        override fun wouldAdd(sourceDict: Dictionary, score: Int): Boolean =
+            suggestions.mRawSuggestions != null || suggestions.canAdd(score)
+                || (sourceDict.mDictType != Dictionary.TYPE_EMOJI && wordSuggestions.canAdd(score))
+
+        override fun add(info: SuggestedWordInfo) {
+            val word = info.word
+            if (isBlacklisted(word) || SupportedEmojis.isUnsupported(word)) // don't add blacklisted words and unsupported emojis
+                return
+            if (checkForGarbage
+                // consider the user might use custom main dictionary containing shortcuts
+                //  assume this is unlikely to happen, and take care about common shortcuts that are not actual words (emoji, symbols)
+                && word.length > 2 // should exclude most symbol shortcuts
+                && info.mSourceDict.mDictType == dictType // dictType is always main, but info.mSourceDict.mDictType contains the actual dict (main dict is a dictionary group)
+                && !mightBeEmoji(word) // simplified check for performance reasons
+                && dictionary?.isInDictionary(word) == false
+            )
+                return
 
-                suggestions.add(info)
-            }
+            if (word.length == 1 && info.mSourceDict.mDictType == Dictionary.TYPE_EMOJI && !StringUtils.mightBeEmoji(word[0].code))
+                return
+
+            suggestions.mRawSuggestions?.add(info)
+            suggestions.add(info)
+            if (wordSuggestions.canAdd(info.mScore) && !isEmojiOrTypedWord(info, typedWord))
+                wordSuggestions.add(info)
         }
-        return suggestions
     }
 
     // Spell checker is using this, and has its own instance of DictionaryFacilitatorImpl,
@@ -580,7 +856,14 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
         return dictionariesToCheck.any { dictionaryGroup.getDict(it)?.isValidWord(word) == true }
     }
 
-    private fun isBlacklisted(word: String): Boolean = dictionaryGroups.any { it.isBlacklisted(word) }
+    // called for every suggestion, so it doesn't create an iterator
+    private fun isBlacklisted(word: String): Boolean {
+        val groups = dictionaryGroups
+        for (i in groups.indices) {
+            if (groups[i].isBlacklisted(word)) return true
+        }
+        return false
+    }
 
     override fun removeWord(word: String) {
         for (dictionaryGroup in dictionaryGroups) {
@@ -665,7 +948,7 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
         /** Include at least two non-emoji, non-typed word results if possible, so that the first two shown suggestions can be non-emoji */
         private fun includeAtLeastTwoWordSuggestions(
             suggestionResults: SuggestionResults,
-            suggestionsArray: Array<List<SuggestedWordInfo>?>,
+            lookup: Lookup,
             typedWord: String
         ) {
             if (suggestionResults.size <= 2) return
@@ -675,10 +958,9 @@ class DictionaryFacilitatorImpl : DictionaryFacilitator {
                 ++nonEmojiNonTypedWordCount
                 if (nonEmojiNonTypedWordCount >= 2) return
             }
-            val allResults = SuggestionResults(Int.MAX_VALUE, false, false)
-            suggestionsArray.forEach {
-                if (it == null) return@forEach
-                allResults.addAll(it)
+            val allResults = lookup.allWordSuggestions
+            for (groupLookup in lookup.groupLookups) {
+                allResults.addAll(groupLookup.collector.wordSuggestions)
             }
             var addedWord: String? = null
             for (i in 0 until 2 - nonEmojiNonTypedWordCount) {
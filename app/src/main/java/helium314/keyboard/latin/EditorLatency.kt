@@ -0,0 +1,144 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.content.Context
+import androidx.core.content.edit
+import helium314.keyboard.latin.common.Constants
+import helium314.keyboard.latin.settings.Settings
+import helium314.keyboard.latin.utils.Log
+import helium314.keyboard.latin.utils.prefs
+import java.util.EnumSet
+import java.util.Locale
+
+/**
+ * How long reading from the input connection of an editor takes, as an exponentially weighted moving average
+ * for each of the operations measured in [RichInputConnection]. Averages are stored per editor package, so they
+ * are known when input starts in the same editor again, and [Strategy]s for avoiding slow reads are chosen from them.
+ * A strategy is used once the average reaches its threshold, and only dropped when it's below half the threshold.
+ */
+class EditorLatency private constructor(
+    private val packageName: String?,
+    private val averages: FloatArray,
+    private val samples: IntArray,
+) {
+    enum class Strategy(val description: String) {
+        DEFER_WRITES("send writes at most once per frame"),
+        SKIP_RECORRECTION("don't look up the word at the cursor"),
+        KEEP_TEXT_ON_CURSOR_MOVE("don't reload text when the cursor moves left"),
+        SMALL_RELOADS("reload $SMALL_RELOAD_SIZE instead of ${Constants.EDITOR_CONTENTS_CACHE_SIZE} chars"),
+    }
+
+    @Volatile private var strategies: Set<Strategy> = chooseStrategies(EnumSet.noneOf(Strategy::class.java))
+    private var unsavedSamples = 0
+
+    fun uses(strategy: Strategy) = strategy in strategies
+
+    /** Number of chars to read when reloading the text before the cursor. */
+    fun reloadSize() = if (uses(Strategy.SMALL_RELOADS)) SMALL_RELOAD_SIZE else Constants.EDITOR_CONTENTS_CACHE_SIZE
+
+    /** Adds a measurement for [operation], one of the OPERATION_* constants in [RichInputConnection]. */
+    @Synchronized
+    fun record(context: Context, operation: Int, millis: Long) {
+        averages[operation] = if (samples[operation] == 0) millis.toFloat()
+            else averages[operation] + ALPHA * (millis - averages[operation])
+        if (samples[operation] < MAX_SAMPLES) samples[operation]++
+        val previous = strategies
+        strategies = chooseStrategies(previous)
+        if (strategies != previous)
+            Log.i(TAG, "strategies for $packageName changed to $strategies")
+        if (strategies != previous || ++unsavedSamples >= SAVE_INTERVAL)
+            save(context)
+    }
+
+    private fun chooseStrategies(previous: Set<Strategy>): Set<Strategy> {
+        fun exceeds(strategy: Strategy, thresholdMillis: Float, operations: Iterable<Int>) = operations.any {
+            samples[it] >= MIN_SAMPLES
+                    && (averages[it] >= thresholdMillis || strategy in previous && averages[it] >= thresholdMillis / 2)
+        }
+        val result = EnumSet.noneOf(Strategy::class.java)
+        if (exceeds(Strategy.DEFER_WRITES, 25f, averages.indices))
+            result.add(Strategy.DEFER_WRITES)
+        if (exceeds(Strategy.SKIP_RECORRECTION, 50f, listOf(RichInputConnection.OPERATION_GET_TEXT_AFTER_CURSOR,
+                RichInputConnection.OPERATION_GET_WORD_RANGE_AT_CURSOR)))
+            result.add(Strategy.SKIP_RECORRECTION)
+        if (exceeds(Strategy.KEEP_TEXT_ON_CURSOR_MOVE, 50f, listOf(RichInputConnection.OPERATION_RELOAD_TEXT_CACHE)))
+            result.add(Strategy.KEEP_TEXT_ON_CURSOR_MOVE)
+        if (exceeds(Strategy.SMALL_RELOADS, 100f, listOf(RichInputConnection.OPERATION_RELOAD_TEXT_CACHE)))
+            result.add(Strategy.SMALL_RELOADS)
+        return result
+    }
+
+    private fun save(context: Context) {
+        unsavedSamples = 0
+        if (packageName.isNullOrEmpty()) return
+        context.prefs().edit { putString(Settings.PREF_EDITOR_LATENCY_PREFIX + packageName, toPref()) }
+    }
+
+    @Synchronized
+    private fun toPref() = averages.indices.joinToString(",") { "${averages[it]}:${samples[it]}" }
+
+    @Synchronized
+    private fun describe() = averages.indices.joinToString("\n") {
+        String.format(Locale.ROOT, "  %s: %.1f ms (%d)", RichInputConnection.OPERATION_NAMES[it], averages[it], samples[it])
+    } + "\n  " + (strategies.takeIf { it.isNotEmpty() }?.joinToString("\n  ") { it.description } ?: "no strategies")
+
+    companion object {
+        private val TAG = EditorLatency::class.java.simpleName
+        private const val ALPHA = 0.2f
+        private const val MIN_SAMPLES = 5
+        private const val MAX_SAMPLES = 1000
+        private const val SAVE_INTERVAL = 32
+        const val SMALL_RELOAD_SIZE = 256
+
+        // the model of the current editor, so it's shown with its latest values in dump
+        @Volatile private var current: EditorLatency? = null
+
+        /** Returns the model for the editor in [packageName], with the stored averages if there are any. */
+        @JvmStatic
+        fun forEditor(context: Context, packageName: String?): EditorLatency =
+            load(context, packageName).also { current = it }
+
+        private fun load(context: Context, packageName: String?): EditorLatency {
+            val averages = FloatArray(RichInputConnection.OPERATION_NAMES.size)
+            val samples = IntArray(averages.size)
+            val pref = if (packageName.isNullOrEmpty()) null
+                else context.prefs().getString(Settings.PREF_EDITOR_LATENCY_PREFIX + packageName, null)
+            try {
+                pref?.split(",")?.forEachIndexed { i, value ->
+                    if (i >= averages.size) return@forEachIndexed
+                    averages[i] = value.substringBefore(":").toFloat()
+                    samples[i] = value.substringAfter(":").toInt()
+                }
+            } catch (e: NumberFormatException) {
+                Log.w(TAG, "invalid stored latencies for $packageName: $pref")
+                averages.fill(0f)
+                samples.fill(0)
+            }
+            return EditorLatency(packageName, averages, samples)
+        }
+
+        /** Averages and chosen strategies for all editors that have stored averages. */
+        fun dump(context: Context): String {
+            val current = current
+            val stored = context.prefs().all.keys.filter { it.startsWith(Settings.PREF_EDITOR_LATENCY_PREFIX) }
+                .map { it.substring(Settings.PREF_EDITOR_LATENCY_PREFIX.length) }
+            val packageNames = (stored + listOfNotNull(current?.packageName?.takeIf { it.isNotEmpty() })).distinct().sorted()
+            if (packageNames.isEmpty()) return "no measurements"
+            return packageNames.joinToString("\n\n") {
+                val model = if (it == current?.packageName) current else load(context, it)
+                "$it\n${model.describe()}"
+            }
+        }
+
+        fun reset(context: Context) {
+            context.prefs().edit {
+                context.prefs().all.keys.filter { it.startsWith(Settings.PREF_EDITOR_LATENCY_PREFIX) }.forEach { remove(it) }
+            }
+            current?.let { synchronized(it) {
+                it.averages.fill(0f)
+                it.samples.fill(0)
+                it.strategies = EnumSet.noneOf(Strategy::class.java)
+            } }
+        }
+    }
+}
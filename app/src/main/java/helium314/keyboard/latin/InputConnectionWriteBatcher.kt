@@ -0,0 +1,155 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.text.SpannableStringBuilder
+import android.text.style.CharacterStyle
+import android.view.KeyEvent
+import android.view.inputmethod.InputConnection
+import helium314.keyboard.latin.common.UnicodeSurrogate
+import helium314.keyboard.latin.utils.InputLatency
+
+/**
+ * Collects writes to an [InputConnection] and sends them with as few calls as possible when [flush] is called.
+ * Each call is an IPC to the editor, which can take tens of milliseconds in slow editors.
+ *
+ * Consecutive writes are merged if the result in the editor is the same:
+ * - [setComposingText] and [commitText] replace a pending [setComposingText], as both replace the composing text
+ * - [commitText] is appended to a pending [commitText]
+ * - [deleteTextBeforeCursor] is added to a pending [deleteTextBeforeCursor], or removes the end of a pending
+ *   [commitText] if that is long enough
+ *
+ * Other writes are sent in order, without merging.
+ * Pending writes must be sent before reading from the input connection, or before other writes to it.
+ * Reading may happen on the InputLogicHandler thread, so all methods are synchronized, and writes are sent
+ * while holding the lock.
+ */
+class InputConnectionWriteBatcher {
+    private sealed interface Write
+    private class ComposingText(val text: CharSequence, val newCursorPosition: Int) : Write
+    private class CommitText(val text: SpannableStringBuilder, val newCursorPosition: Int) : Write
+    private class DeleteBefore(var length: Int) : Write
+    private class SendKeyEvent(val keyEvent: KeyEvent) : Write
+    private object FinishComposingText : Write
+
+    private val pending = ArrayList<Write>()
+    private var target: InputConnection? = null
+
+    /** Number of writes that were merged into other writes, for debugging. */
+    @Volatile var mergedWrites = 0L
+        private set
+
+    @Synchronized
+    fun hasPendingWrites() = pending.isNotEmpty()
+
+    /** The [text] must not be changed afterwards. */
+    @Synchronized
+    fun setComposingText(ic: InputConnection, text: CharSequence, newCursorPosition: Int) {
+        if (replacesLastComposingText(ic)) pending[pending.lastIndex] = ComposingText(text, newCursorPosition)
+        else add(ic, ComposingText(text, newCursorPosition))
+    }
+
+    @Synchronized
+    fun commitText(ic: InputConnection, text: CharSequence, newCursorPosition: Int) {
+        val last = lastWrite(ic)
+        if (last is CommitText && last.newCursorPosition == 1 && newCursorPosition == 1) {
+            last.text.append(text)
+            mergedWrites++
+        } else if (replacesLastComposingText(ic)) {
+            pending[pending.lastIndex] = CommitText(SpannableStringBuilder(text), newCursorPosition)
+        } else {
+            add(ic, CommitText(SpannableStringBuilder(text), newCursorPosition))
+        }
+    }
+
+    @Synchronized
+    fun deleteTextBeforeCursor(ic: InputConnection, length: Int) {
+        val last = lastWrite(ic)
+        if (last is DeleteBefore) {
+            last.length += length
+            mergedWrites++
+        } else if (last is CommitText && last.newCursorPosition == 1 && length <= last.text.length) {
+            last.text.delete(last.text.length - length, last.text.length)
+            mergedWrites++
+        } else {
+            add(ic, DeleteBefore(length))
+        }
+    }
+
+    @Synchronized
+    fun sendKeyEvent(ic: InputConnection, keyEvent: KeyEvent) = add(ic, SendKeyEvent(keyEvent))
+
+    @Synchronized
+    fun finishComposingText(ic: InputConnection) = add(ic, FinishComposingText)
+
+    /** Drops the pending writes without sending them, returns whether there were any. */
+    @Synchronized
+    fun discard(): Boolean {
+        target = null
+        if (pending.isEmpty()) return false
+        pending.clear()
+        return true
+    }
+
+    /**
+     * Sends the pending writes.
+     * @param inBatchEdit whether a batch edit is already in progress, otherwise multiple writes are sent in a new one
+     */
+    @Synchronized
+    fun flush(inBatchEdit: Boolean) {
+        val ic = target ?: return
+        target = null
+        if (pending.isEmpty()) return
+        val batchEdit = !inBatchEdit && pending.size > 1
+        if (batchEdit) ic.beginBatchEdit()
+        for (write in pending) {
+            val startNanos = InputLatency.start()
+            when (write) {
+                is ComposingText -> ic.setComposingText(write.text, write.newCursorPosition)
+                is CommitText -> ic.commitText(fixSpansAtSurrogates(write.text), write.newCursorPosition)
+                is DeleteBefore -> ic.deleteSurroundingText(write.length, 0)
+                is SendKeyEvent -> ic.sendKeyEvent(write.keyEvent)
+                FinishComposingText -> ic.finishComposingText()
+            }
+            InputLatency.end(InputLatency.Stage.INPUT_CONNECTION, startNanos)
+            if (write is ComposingText || write is CommitText) InputLatency.onTextSent()
+        }
+        if (batchEdit) ic.endBatchEdit()
+        pending.clear()
+    }
+
+    private fun lastWrite(ic: InputConnection) = if (ic === target) pending.lastOrNull() else null
+
+    private fun replacesLastComposingText(ic: InputConnection): Boolean {
+        val last = lastWrite(ic)
+        if (last !is ComposingText || last.newCursorPosition != 1) return false
+        mergedWrites++
+        return true
+    }
+
+    private fun add(ic: InputConnection, write: Write) {
+        if (ic !== target) {
+            flush(false)
+            target = ic
+        }
+        pending.add(write)
+    }
+
+    private fun fixSpansAtSurrogates(text: SpannableStringBuilder): SpannableStringBuilder {
+        for (span in text.getSpans(0, text.length, CharacterStyle::class.java)) {
+            val spanStart = text.getSpanStart(span)
+            val spanEnd = text.getSpanEnd(span)
+            val spanFlags = text.getSpanFlags(span)
+            // We have to adjust the end of the span to include an additional character.
+            // This is to avoid splitting a unicode surrogate pair.
+            // See helium314.keyboard.latin.common.Constants.UnicodeSurrogate
+            // See https://b.corp.google.com/issues/19255233
+            if (spanEnd in 1..<text.length) {
+                val spanEndChar = text[spanEnd - 1]
+                val nextChar = text[spanEnd]
+                if (UnicodeSurrogate.isLowSurrogate(spanEndChar) && UnicodeSurrogate.isHighSurrogate(nextChar))
+                    text.setSpan(span, spanStart, spanEnd + 1, spanFlags)
+            }
+        }
+        return text
+    }
+}
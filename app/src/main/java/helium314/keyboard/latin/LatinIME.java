@@ -80,8 +80,11 @@ import helium314.keyboard.latin.utils.JniUtils;
 import helium314.keyboard.latin.utils.KtxKt;
 import helium314.keyboard.latin.utils.LeakGuardHandlerWrapper;
 import helium314.keyboard.latin.utils.Log;
+import helium314.keyboard.latin.utils.InputLatency;
+import helium314.keyboard.latin.utils.NativeHandles;
 import helium314.keyboard.latin.utils.BackgroundGatheringCache;
 import helium314.keyboard.latin.utils.RecapitalizeMode;
+import helium314.keyboard.latin.utils.StartupTrace;
 import helium314.keyboard.latin.utils.StatsUtils;
 import helium314.keyboard.latin.utils.StatsUtilsManager;
 import helium314.keyboard.latin.utils.SubtypeLocaleUtils;
@@ -538,6 +541,7 @@ public class LatinIME extends InputMethodService implements
 
     @Override
     public void onCreate() {
+        final long traceStart = StartupTrace.begin("LatinIME.onCreate");
         mSettings.startListener();
         KeyboardIconsSet.Companion.getInstance().loadIcons(this);
         mRichImm = RichInputMethodManager.getInstance();
@@ -581,6 +585,7 @@ public class LatinIME extends InputMethodService implements
         registerReceiver(mRestartAfterDeviceUnlockReceiver, restartAfterUnlockFilter);
 
         StatsUtils.onCreate(mSettings.getCurrent(), mRichImm);
+        StartupTrace.end("LatinIME.onCreate", traceStart);
     }
 
     private void loadSettings() {
@@ -588,7 +593,10 @@ public class LatinIME extends InputMethodService implements
         final EditorInfo editorInfo = getCurrentInputEditorInfo();
         final InputAttributes inputAttributes = new InputAttributes(
                 editorInfo, isFullscreenMode(), getPackageName());
+        final SettingsValues previousSettingsValues = mSettings.getCurrent();
+        final long traceStart = StartupTrace.begin("Settings.loadSettings");
         mSettings.loadSettings(this, locale, inputAttributes);
+        StartupTrace.end("Settings.loadSettings", traceStart);
         final SettingsValues currentSettingsValues = mSettings.getCurrent();
         AudioAndHapticFeedbackManager.getInstance().onSettingsChanged(currentSettingsValues);
         // This method is called on startup and language switch, before the new layout has
@@ -598,7 +606,12 @@ public class LatinIME extends InputMethodService implements
             resetDictionaryFacilitatorIfNecessary();
         }
         refreshPersonalizationDictionarySession(currentSettingsValues);
-        mInputLogic.mSuggest.clearNextWordSuggestionsCache();
+        // Next word suggestions are kept when switching input fields. Changes of locales, dictionaries or
+        // personalization reset the dictionary facilitator, which clears them, and learned words only
+        // invalidate their contexts. The offensive word filter is the only other setting they depend on.
+        if (previousSettingsValues == null || previousSettingsValues.mSettingsValuesForSuggestion.mBlockPotentiallyOffensive
+                != currentSettingsValues.mSettingsValuesForSuggestion.mBlockPotentiallyOffensive)
+            mInputLogic.mSuggest.clearNextWordSuggestionsCache();
         mInputLogic.updateEmojiDictionary(locale);
         mStatsUtilsManager.onLoadSettings(this, currentSettingsValues);
     }
@@ -615,6 +628,8 @@ public class LatinIME extends InputMethodService implements
     // Note that this method is called from a non-UI thread.
     @Override
     public void onUpdateMainDictionaryAvailability(final boolean isMainDictionaryAvailable) {
+        // suggestions may have been cached while the main dictionary was not loaded yet
+        mInputLogic.mSuggest.clearNextWordSuggestionsCache();
         final MainKeyboardView mainKeyboardView = mKeyboardSwitcher.getMainKeyboardView();
         if (mainKeyboardView != null) {
             mainKeyboardView.setMainDictionaryAvailability(isMainDictionaryAvailable);
@@ -669,6 +684,7 @@ public class LatinIME extends InputMethodService implements
             // this should not happen, but in case it does we at least want to show a keyboard
             Log.e(TAG, "Could not reset dictionary facilitator, please fix ASAP", e);
         }
+        mInputLogic.mSuggest.clearNextWordSuggestionsCache();
         mInputLogic.mSuggest.setAutoCorrectionThreshold(settingsValues.mAutoCorrectionThreshold);
     }
 
@@ -680,6 +696,7 @@ public class LatinIME extends InputMethodService implements
         mDictionaryFacilitator.resetDictionaries(this, mDictionaryFacilitator.getMainLocale(),
                 settingsValues.mUseContactsDictionary, settingsValues.mUseAppsDictionary,
                 settingsValues.mUsePersonalizedDicts, true, "", this);
+        mInputLogic.mSuggest.clearNextWordSuggestionsCache();
         mKeyboardSwitcher.setThemeNeedsReload(); // necessary for emoji search
         EmojiPalettesView.closeDictionaryFacilitator();
         EmojiSearchActivity.Companion.closeDictionaryFacilitator();
@@ -992,6 +1009,7 @@ public class LatinIME extends InputMethodService implements
         mainKeyboardView.setMainDictionaryAvailability(mDictionaryFacilitator.hasAtLeastOneInitializedMainDictionary());
         mainKeyboardView.setKeyPreviewPopupEnabled(currentSettingsValues.mKeyPreviewPopupOn);
         mainKeyboardView.setSlidingKeyInputPreviewEnabled(currentSettingsValues.mSlidingKeyInputPreviewEnabled);
+        mainKeyboardView.setGestureTrailRenderThreadEnabled(currentSettingsValues.mGestureTrailRenderThread);
         mainKeyboardView.setGestureHandlingEnabledByUser(
                 currentSettingsValues.mGestureInputEnabled,
                 currentSettingsValues.mGestureTrailEnabled,
@@ -1414,10 +1432,12 @@ public class LatinIME extends InputMethodService implements
         if (KeyCode.VOICE_INPUT == event.getKeyCode()) {
             mRichImm.switchToShortcutIme(this);
         }
+        final long startNanos = InputLatency.start();
         final InputTransaction completeInputTransaction =
                 mInputLogic.onCodeInput(mSettings.getCurrent(), event,
                         mKeyboardSwitcher.getKeyboardCapsMode(),
                         mKeyboardSwitcher.getCurrentKeyboardScript(), mHandler);
+        InputLatency.end(InputLatency.Stage.INPUT_LOGIC, startNanos);
         updateStateAfterInputTransaction(completeInputTransaction);
         mKeyboardSwitcher.onEvent(event, getCurrentAutoCapsState(), getCurrentRecapitalizeState());
     }
@@ -1523,6 +1543,7 @@ public class LatinIME extends InputMethodService implements
         // Cache the auto-correction in accessibility code so we can speak it if the user
         // touches a key that will insert it.
         AccessibilityUtils.Companion.getInstance().setAutoCorrection(suggestedWords);
+        InputLatency.onSuggestionsShown();
     }
 
     @Override
@@ -1588,6 +1609,7 @@ public class LatinIME extends InputMethodService implements
     @Override
     public void removeSuggestion(final String word) {
         mDictionaryFacilitator.removeWord(word);
+        mInputLogic.mSuggest.clearNextWordSuggestionsCache();
     }
 
     @Override
@@ -1851,11 +1873,10 @@ public class LatinIME extends InputMethodService implements
     @Override
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
+        KeyboardLayoutSet.Companion.onTrimMemory(level); // keeps keyboards of the current layout set
+        NativeHandles.releaseUnreachable();
         switch (level) {
-            case TRIM_MEMORY_RUNNING_LOW, TRIM_MEMORY_RUNNING_CRITICAL, TRIM_MEMORY_COMPLETE -> {
-                KeyboardLayoutSet.Companion.onSystemLocaleChanged(); // clears caches, nothing else
-                mKeyboardSwitcher.trimMemory();
-            }
+            case TRIM_MEMORY_RUNNING_LOW, TRIM_MEMORY_RUNNING_CRITICAL, TRIM_MEMORY_COMPLETE -> mKeyboardSwitcher.trimMemory();
             // deallocateMemory always called on hiding, and should not be called when showing
         }
     }
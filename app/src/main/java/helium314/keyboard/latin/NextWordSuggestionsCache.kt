@@ -0,0 +1,132 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.utils.SuggestionResults
+import java.lang.ref.WeakReference
+import java.util.Locale
+
+/**
+ * LRU cache for next word suggestions, bounded by the estimated memory used by the cached suggestions.
+ * Entries are invalidated when the user history for their context changes, and again when the change has been applied
+ * to the dictionary, as learned words are applied with a delay.
+ * All methods are synchronized, as the cache is used on the InputLogicHandler thread, but invalidated
+ * from the UI thread.
+ */
+class NextWordSuggestionsCache(private val maxBytes: Int = DEFAULT_MAX_BYTES) {
+    private class Entry(val results: SuggestionResults, val bytes: Int)
+
+    private val entries = LinkedHashMap<NgramContext, Entry>(16, 0.75f, true)
+    private var bytes = 0
+    // contexts invalidated since the user history was last applied, suggestions fetched meanwhile may be outdated
+    private val invalidatedContexts = HashSet<NgramContext>()
+    private var tooManyInvalidatedContexts = false
+
+    init {
+        latestInstance = WeakReference(this)
+    }
+
+    @Synchronized
+    operator fun get(ngramContext: NgramContext): SuggestionResults? {
+        val entry = entries[ngramContext]
+        if (entry == null) misses++ else hits++
+        return entry?.results
+    }
+
+    @Synchronized
+    operator fun contains(ngramContext: NgramContext) = entries.containsKey(ngramContext)
+
+    @Synchronized
+    fun put(ngramContext: NgramContext, results: SuggestionResults) {
+        val entry = Entry(results, estimateBytes(ngramContext, results))
+        if (entry.bytes > maxBytes) return
+        entries.put(ngramContext, entry)?.let { bytes -= it.bytes }
+        bytes += entry.bytes
+        val iterator = entries.values.iterator()
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes
+            iterator.remove()
+            evictions++
+        }
+    }
+
+    /** Removes suggestions for the context, because a word was learned or unlearned in this context. */
+    @Synchronized
+    fun invalidate(ngramContext: NgramContext) {
+        if (invalidatedContexts.size < MAX_INVALIDATED_CONTEXTS) invalidatedContexts.add(ngramContext)
+        else tooManyInvalidatedContexts = true
+        remove(ngramContext)
+    }
+
+    /** Invalidates the contexts again after learned words were applied to the user history dictionary. */
+    @Synchronized
+    fun onUserHistoryApplied() {
+        if (tooManyInvalidatedContexts) clear()
+        else invalidatedContexts.forEach { remove(it) }
+        invalidatedContexts.clear()
+        tooManyInvalidatedContexts = false
+    }
+
+    private fun remove(ngramContext: NgramContext) {
+        val entry = entries.remove(ngramContext) ?: return
+        bytes -= entry.bytes
+        invalidations++
+    }
+
+    @Synchronized
+    fun clear() {
+        if (entries.isNotEmpty()) clears++
+        entries.clear()
+        bytes = 0
+    }
+
+    @Synchronized
+    fun size() = entries.size
+
+    @Synchronized
+    fun dumpStats(): String {
+        val lookups = hits + misses
+        val hitRate = if (lookups == 0L) 0.0 else hits * 100.0 / lookups
+        return String.format(Locale.ROOT,
+            "%d entries, %.1f of %d KiB\n%d hits, %d misses (%.1f%% hit rate)\n%d evicted, %d invalidated, %d times cleared",
+            entries.size, bytes / 1024.0, maxBytes / 1024, hits, misses, hitRate, evictions, invalidations, clears)
+    }
+
+    @Synchronized
+    fun resetStats() {
+        hits = 0
+        misses = 0
+        evictions = 0
+        invalidations = 0
+        clears = 0
+    }
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    private var invalidations = 0L
+    private var clears = 0L
+
+    companion object {
+        private const val DEFAULT_MAX_BYTES = 128 * 1024
+        private const val MAX_INVALIDATED_CONTEXTS = 64
+
+        private var latestInstance = WeakReference<NextWordSuggestionsCache>(null)
+
+        /** The cache used by the keyboard, for showing stats in debug settings. */
+        fun current(): NextWordSuggestionsCache? = latestInstance.get()
+
+        // rough estimates of the shallow size of the objects, the exact numbers depend on the runtime
+        private const val ENTRY_BYTES = 128
+        private const val WORD_INFO_BYTES = 96
+        private const val STRING_BYTES = 24
+
+        private fun estimateBytes(ngramContext: NgramContext, results: SuggestionResults): Int {
+            var size = ENTRY_BYTES + ngramContext.prevWordCount * (WORD_INFO_BYTES + STRING_BYTES)
+            for (info in results) {
+                size += WORD_INFO_BYTES + 2 * (STRING_BYTES + 2 * info.mWord.length)
+            }
+            results.mRawSuggestions?.let { size += it.size * WORD_INFO_BYTES }
+            return size
+        }
+    }
+}
@@ -224,12 +224,17 @@ public class NgramContext {
 
     @Override
     public int hashCode() {
+        // Only words up to the first missing one are used, because equals() treats missing words
+        // at the end like absent ones. The word is hashed as String, as other CharSequences may not
+        // implement hashCode based on the content.
         int hashValue = 0;
-        for (final WordInfo wordInfo : mPrevWordsInfo) {
-            if (!WordInfo.EMPTY_WORD_INFO.equals(wordInfo)) {
+        for (int i = 0; i < mPrevWordsCount; i++) {
+            final WordInfo wordInfo = mPrevWordsInfo[i];
+            if (wordInfo == null || !wordInfo.isValid()) {
                 break;
             }
-            hashValue ^= wordInfo.hashCode();
+            hashValue = 31 * hashValue + wordInfo.mWord.toString().hashCode()
+                    + (wordInfo.mIsBeginningOfSentence ? 1 : 0);
         }
         return hashValue;
     }
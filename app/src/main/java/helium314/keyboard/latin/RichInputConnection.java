@@ -12,16 +12,16 @@ import android.content.Context;
 import android.inputmethodservice.InputMethodService;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.SystemClock;
-import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
-import android.text.style.CharacterStyle;
 
 import helium314.keyboard.keyboard.KeyboardSwitcher;
 import helium314.keyboard.latin.common.ConstantsKt;
 import helium314.keyboard.latin.define.DebugFlags;
 import helium314.keyboard.latin.settings.Settings;
 import helium314.keyboard.latin.utils.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.CorrectionInfo;
@@ -39,10 +39,8 @@ import androidx.core.view.inputmethod.InputContentInfoCompat;
 import helium314.keyboard.latin.common.Constants;
 import helium314.keyboard.latin.common.StringUtils;
 import helium314.keyboard.latin.common.StringUtilsKt;
-import helium314.keyboard.latin.common.UnicodeSurrogate;
 import helium314.keyboard.latin.inputlogic.PrivateCommandPerformer;
 import helium314.keyboard.latin.settings.SpacingAndPunctuations;
-import helium314.keyboard.latin.utils.CapsModeUtils;
 import helium314.keyboard.latin.utils.DebugLogUtils;
 import helium314.keyboard.latin.utils.NgramContextUtils;
 import helium314.keyboard.latin.utils.StatsUtils;
@@ -78,11 +76,11 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      */
     private static final long SLOW_INPUT_CONNECTION_ON_PARTIAL_RELOAD_MS = 200;
 
-    private static final int OPERATION_GET_TEXT_BEFORE_CURSOR = 0;
-    private static final int OPERATION_GET_TEXT_AFTER_CURSOR = 1;
-    private static final int OPERATION_GET_WORD_RANGE_AT_CURSOR = 2;
-    private static final int OPERATION_RELOAD_TEXT_CACHE = 3;
-    private static final String[] OPERATION_NAMES = new String[] {
+    static final int OPERATION_GET_TEXT_BEFORE_CURSOR = 0;
+    static final int OPERATION_GET_TEXT_AFTER_CURSOR = 1;
+    static final int OPERATION_GET_WORD_RANGE_AT_CURSOR = 2;
+    static final int OPERATION_RELOAD_TEXT_CACHE = 3;
+    static final String[] OPERATION_NAMES = new String[] {
             "GET_TEXT_BEFORE_CURSOR",
             "GET_TEXT_AFTER_CURSOR",
             "GET_WORD_RANGE_AT_CURSOR",
@@ -110,33 +108,45 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     private int mExpectedSelEnd = INVALID_CURSOR_POSITION; // in chars, not code points
     /**
      * This contains the committed text immediately preceding the cursor and the composing
-     * text, if any. It is refreshed when the cursor moves by calling upon the TextView.
+     * text, as LatinIME thinks the TextView is seeing it. It is refreshed when the cursor moves
+     * by calling upon the TextView. Reading it does not copy the text, and it may also be read
+     * from the worker thread.
      */
-    private final StringBuilder mCommittedTextBeforeComposingText = new StringBuilder();
-    /**
-     * This contains the currently composing text, as LatinIME thinks the TextView is seeing it.
-     */
-    private final StringBuilder mComposingText = new StringBuilder();
-
-    /**
-     * This variable is a temporary object used in {@link #commitText(CharSequence,int)}
-     * to avoid object creation.
-     */
-    private final SpannableStringBuilder mTempObjectForCommitText = new SpannableStringBuilder();
+    private final TextMirror mTextBeforeCursor = new TextMirror();
 
     private final InputMethodService mParent;
     private InputConnection mIC;
     private int mNestLevel;
+    /**
+     * The InputConnection in which a batch edit was started, null if none. The editor batch edit
+     * is only started when something is actually sent to the editor during our batch edit.
+     */
+    @Nullable private InputConnection mBatchEditIC;
+    /**
+     * Text changes not yet sent to the editor. They are sent when the batch edit ends, before any
+     * other call to the InputConnection, or in the next frame if the InputConnection is slow.
+     */
+    private final InputConnectionWriteBatcher mPendingWrites = new InputConnectionWriteBatcher();
+    private boolean mPendingWritesScheduled;
+    private final Choreographer.FrameCallback mSendPendingWritesCallback = frameTimeNanos -> {
+        mPendingWritesScheduled = false;
+        if (mNestLevel == 0) mPendingWrites.flush(false);
+    };
 
     /**
      * The timestamp of the last slow InputConnection operation
      */
     private long mLastSlowInputConnectionTime = -SLOW_INPUTCONNECTION_PERSIST_MS;
+    /**
+     * Average durations of the operations in the current editor, and the strategies chosen from them
+     */
+    private EditorLatency mEditorLatency;
 
     public RichInputConnection(final InputMethodService parent) {
         mParent = parent;
         mIC = null;
         mNestLevel = 0;
+        mEditorLatency = EditorLatency.forEditor(parent, null);
     }
 
     public boolean isConnected() {
@@ -152,8 +162,65 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                         <= SLOW_INPUTCONNECTION_PERSIST_MS;
     }
 
+    /**
+     * Returns whether looking up the word at the cursor for recorrection should be skipped, because
+     * the InputConnection is slow now, or usually is slow for reading text around the cursor.
+     */
+    public boolean shouldSkipRecorrectionLookups() {
+        return hasSlowInputConnection()
+                || mEditorLatency.uses(EditorLatency.Strategy.SKIP_RECORRECTION);
+    }
+
     public void onStartInput() {
+        sendPendingWrites();
         mLastSlowInputConnectionTime = -SLOW_INPUTCONNECTION_PERSIST_MS;
+        final EditorInfo editorInfo = mParent.getCurrentInputEditorInfo();
+        mEditorLatency = EditorLatency.forEditor(mParent, editorInfo == null ? null : editorInfo.packageName);
+    }
+
+    /** Sends text changes that are waiting for the next frame to the editor now. */
+    public void sendPendingWrites() {
+        if (mNestLevel == 0) mPendingWrites.flush(false);
+    }
+
+    /**
+     * Drops text changes that were not sent to the editor yet. This is for cursor moves not caused
+     * by us: the changes were made for the old cursor position, and sending them now would put
+     * them where the cursor was moved to. The cached text contains the changes, so it's cleared
+     * and read from the editor again.
+     */
+    public void discardPendingWrites() {
+        if (mPendingWrites.discard()) mTextBeforeCursor.clear();
+    }
+
+    // must be called before any call to mIC that is not a write handled by mPendingWrites
+    private void flushPendingWrites() {
+        if (!mPendingWrites.hasPendingWrites()) return;
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // reading on the InputLogicHandler thread, batch edits are only handled on the UI thread
+            mPendingWrites.flush(false);
+            return;
+        }
+        startEditorBatchEdit();
+        mPendingWrites.flush(mBatchEditIC != null);
+    }
+
+    // must be called before any write that is not handled by mPendingWrites
+    private void flushPendingWritesBeforeWrite() {
+        startEditorBatchEdit();
+        flushPendingWrites();
+    }
+
+    // called after adding a write to mPendingWrites
+    private void onPendingWriteAdded() {
+        if (mNestLevel == 0 && !mPendingWritesScheduled) mPendingWrites.flush(false);
+    }
+
+    private void startEditorBatchEdit() {
+        if (mNestLevel > 0 && mBatchEditIC == null && isConnected()) {
+            mBatchEditIC = mIC;
+            mIC.beginBatchEdit();
+        }
     }
 
     private void checkConsistencyForDebug() {
@@ -162,21 +229,19 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         r.hintMaxLines = 0;
         r.token = 1;
         r.flags = 0;
+        flushPendingWrites();
         final ExtractedText et = mIC.getExtractedText(r, 0);
         final CharSequence beforeCursor = getTextBeforeCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE,
                 0);
-        final StringBuilder internal = new StringBuilder(mCommittedTextBeforeComposingText)
-                .append(mComposingText);
         if (null == et || null == beforeCursor) return;
-        final int actualLength = Math.min(beforeCursor.length(), internal.length());
-        if (internal.length() > actualLength) {
-            internal.delete(0, internal.length() - actualLength);
-        }
+        final TextMirror.Snapshot cached = mTextBeforeCursor.snapshot();
+        final int actualLength = Math.min(beforeCursor.length(), cached.length());
+        final String internal = cached.takeLast(actualLength).toString();
         final String reference = (beforeCursor.length() <= actualLength) ? beforeCursor.toString()
                 : beforeCursor.subSequence(beforeCursor.length() - actualLength,
                         beforeCursor.length()).toString();
         if (et.selectionStart != mExpectedSelStart
-                || !(reference.equals(internal.toString()))) {
+                || !(reference.equals(internal))) {
             final String context = "Expected selection start = " + mExpectedSelStart
                     + "\nActual selection start = " + et.selectionStart
                     + "\nExpected text = " + internal.length() + " " + internal
@@ -190,10 +255,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     public void beginBatchEdit() {
         if (++mNestLevel == 1) {
+            // the batch edit in the editor is started when something is sent
             mIC = mParent.getCurrentInputConnection();
-            if (isConnected()) {
-                mIC.beginBatchEdit();
-            }
         } else {
             if (DBG) {
                 throw new RuntimeException("Nest level too deep");
@@ -206,8 +269,23 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     public void endBatchEdit() {
         if (mNestLevel <= 0) Log.e(TAG, "Batch edit not in progress!"); // TODO: exception instead
-        if (--mNestLevel == 0 && isConnected()) {
-            mIC.endBatchEdit();
+        if (--mNestLevel == 0) {
+            if (mBatchEditIC != null) {
+                mPendingWrites.flush(true);
+                mBatchEditIC.endBatchEdit();
+                mBatchEditIC = null;
+            } else if (mPendingWrites.hasPendingWrites()) {
+                if (hasSlowInputConnection()
+                        || mEditorLatency.uses(EditorLatency.Strategy.DEFER_WRITES)) {
+                    // merge with the writes of further events that arrive before the next frame
+                    if (!mPendingWritesScheduled) {
+                        mPendingWritesScheduled = true;
+                        Choreographer.getInstance().postFrameCallback(mSendPendingWritesCallback);
+                    }
+                } else {
+                    mPendingWrites.flush(false);
+                }
+            }
         }
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
     }
@@ -230,24 +308,57 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      */
     public boolean resetCachesUponCursorMoveAndReturnSuccess(final int newSelStart,
             final int newSelEnd, final boolean shouldFinishComposition) {
-        mComposingText.setLength(0);
-        final boolean didReloadTextSuccessfully = reloadTextCache();
-        if (!didReloadTextSuccessfully) {
-            Log.d(TAG, "Will try to retrieve text later.");
-            // selection is set to INVALID_CURSOR_POSITION if reloadTextCache return false
-            return false;
-        }
-        if (mExpectedSelStart != newSelStart || mExpectedSelEnd != newSelEnd) {
-            mExpectedSelStart = newSelStart;
-            mExpectedSelEnd = newSelEnd;
-            reloadTextCache();
+        if (!keepTextBeforeCursorOnMoveLeft(newSelStart, newSelEnd)) {
+            mTextBeforeCursor.setComposing("");
+            final boolean didReloadTextSuccessfully = reloadTextCache();
+            if (!didReloadTextSuccessfully) {
+                Log.d(TAG, "Will try to retrieve text later.");
+                // selection is set to INVALID_CURSOR_POSITION if reloadTextCache return false
+                return false;
+            }
             if (mExpectedSelStart != newSelStart || mExpectedSelEnd != newSelEnd) {
-                Log.i(TAG, "resetCachesUponCursorMove: tried to set "+newSelStart+"/"+newSelEnd+", but input field has "+mExpectedSelStart+"/"+mExpectedSelEnd);
+                mExpectedSelStart = newSelStart;
+                mExpectedSelEnd = newSelEnd;
+                reloadTextCache();
+                if (mExpectedSelStart != newSelStart || mExpectedSelEnd != newSelEnd) {
+                    Log.i(TAG, "resetCachesUponCursorMove: tried to set "+newSelStart+"/"+newSelEnd+", but input field has "+mExpectedSelStart+"/"+mExpectedSelEnd);
+                }
             }
         }
         if (isConnected() && shouldFinishComposition) {
-            mIC.finishComposingText();
+            mPendingWrites.finishComposingText(mIC);
+            onPendingWriteAdded();
+        }
+        return true;
+    }
+
+    /**
+     * If the editor is slow to reload text, and the cursor moved left without selection, the text
+     * before the new cursor position is already known: it's the cached text without the last chars.
+     * The text is not checked, but if the editor changed it, the next read from the editor will
+     * find the inconsistency and reload the text.
+     *
+     * @return whether the cached text was kept, so no reload is necessary.
+     */
+    private boolean keepTextBeforeCursorOnMoveLeft(final int newSelStart, final int newSelEnd) {
+        if (!mEditorLatency.uses(EditorLatency.Strategy.KEEP_TEXT_ON_CURSOR_MOVE)
+                || newSelStart != newSelEnd || mExpectedSelStart != mExpectedSelEnd
+                || mExpectedSelStart == INVALID_CURSOR_POSITION || newSelStart >= mExpectedSelStart) {
+            return false;
+        }
+        final int cachedLength = mTextBeforeCursor.snapshot().length();
+        final int remainingLength = cachedLength - (mExpectedSelStart - newSelStart);
+        // the cached text must actually end at the cursor, and enough text must be left to avoid
+        // reading it from the editor on the next input anyway
+        if (cachedLength > mExpectedSelStart
+                || remainingLength < Math.min(newSelStart, NUM_CHARS_TO_GET_BEFORE_CURSOR)) {
+            return false;
         }
+        mIC = mParent.getCurrentInputConnection();
+        mTextBeforeCursor.finishComposing();
+        mTextBeforeCursor.truncateCommitted(remainingLength);
+        mExpectedSelStart = newSelStart;
+        mExpectedSelEnd = newSelEnd;
         return true;
     }
 
@@ -257,18 +368,17 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      * @return true if successful
      */
     private boolean reloadTextCache() {
-        mCommittedTextBeforeComposingText.setLength(0);
         // Clearing composing text was not in original AOSP and OpenBoard, but why? should actually
-        // be necessary when reloading text. Only when called by setSelection, mComposingText isn't
+        // be necessary when reloading text. Only when called by setSelection, the composing text isn't
         // always empty, but looks like things still work normally
-        mComposingText.setLength(0);
+        mTextBeforeCursor.clear();
         mIC = mParent.getCurrentInputConnection();
         // Call upon the inputconnection directly since our own method is using the cache, and
         // we want to refresh it.
         final CharSequence textBeforeCursor = getTextBeforeCursorAndDetectLaggyConnection(
                 OPERATION_RELOAD_TEXT_CACHE,
                 SLOW_INPUT_CONNECTION_ON_FULL_RELOAD_MS,
-                Constants.EDITOR_CONTENTS_CACHE_SIZE,
+                mEditorLatency.reloadSize(),
                 0 /* flags */);
         if (null == textBeforeCursor) {
             // For some reason the app thinks we are not connected to it. This looks like a
@@ -278,12 +388,13 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             Log.e(TAG, "Unable to connect to the editor to retrieve text.");
             return false;
         }
-        mCommittedTextBeforeComposingText.append(textBeforeCursor);
+        mTextBeforeCursor.appendCommitted(textBeforeCursor);
         return true;
     }
 
     private void reloadCursorPosition() {
         if (!isConnected()) return;
+        flushPendingWrites();
         final ExtractedText et = mIC.getExtractedText(new ExtractedTextRequest(), 0);
         if (et == null) return;
         mExpectedSelStart = et.selectionStart + et.startOffset;
@@ -304,10 +415,10 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // TODO: this is not correct! The cursor is not necessarily after the composing text.
         // In the practice right now this is only called when input ends so it will be reset so
         // it works, but it's wrong and should be fixed.
-        mCommittedTextBeforeComposingText.append(mComposingText);
-        mComposingText.setLength(0);
+        mTextBeforeCursor.finishComposing();
         if (isConnected()) {
-            mIC.finishComposingText();
+            mPendingWrites.finishComposingText(mIC);
+            onPendingWriteAdded();
         }
     }
 
@@ -326,42 +437,23 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
         if (DebugFlags.DEBUG_ENABLED)
             Log.d(TAG, "committing "+text.length()+" characters");
-        mCommittedTextBeforeComposingText.append(text);
         // TODO: the following is exceedingly error-prone. Right now when the cursor is in the
-        //  middle of the composing word mComposingText only holds the part of the composing text
+        //  middle of the composing word the composing text only holds the part of the composing text
         //  that is before the cursor, so this actually works, but it's terribly confusing. Fix this.
-        mExpectedSelStart += text.length() - mComposingText.length();
+        mExpectedSelStart += text.length() - mTextBeforeCursor.composingLength();
         mExpectedSelEnd = mExpectedSelStart;
-        mComposingText.setLength(0);
+        mTextBeforeCursor.commit(text);
         if (isConnected()) {
-            mTempObjectForCommitText.clear();
-            mTempObjectForCommitText.append(text);
-            final CharacterStyle[] spans = mTempObjectForCommitText.getSpans(
-                    0, text.length(), CharacterStyle.class);
-            for (final CharacterStyle span : spans) {
-                final int spanStart = mTempObjectForCommitText.getSpanStart(span);
-                final int spanEnd = mTempObjectForCommitText.getSpanEnd(span);
-                final int spanFlags = mTempObjectForCommitText.getSpanFlags(span);
-                // We have to adjust the end of the span to include an additional character.
-                // This is to avoid splitting a unicode surrogate pair.
-                // See helium314.keyboard.latin.common.Constants.UnicodeSurrogate
-                // See https://b.corp.google.com/issues/19255233
-                if (0 < spanEnd && spanEnd < mTempObjectForCommitText.length()) {
-                    final char spanEndChar = mTempObjectForCommitText.charAt(spanEnd - 1);
-                    final char nextChar = mTempObjectForCommitText.charAt(spanEnd);
-                    if (UnicodeSurrogate.isLowSurrogate(spanEndChar)
-                            && UnicodeSurrogate.isHighSurrogate(nextChar)) {
-                        mTempObjectForCommitText.setSpan(span, spanStart, spanEnd + 1, spanFlags);
-                    }
-                }
-            }
-            mIC.commitText(mTempObjectForCommitText, newCursorPosition);
+            mPendingWrites.commitText(mIC, text, newCursorPosition);
+            onPendingWriteAdded();
         }
     }
 
     @Nullable
     public CharSequence getSelectedText(final int flags) {
-        return isConnected() ?  mIC.getSelectedText(flags) : null;
+        if (!isConnected()) return null;
+        flushPendingWrites();
+        return mIC.getSelectedText(flags);
     }
 
     public boolean canDeleteCharacters() {
@@ -394,7 +486,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return Constants.TextUtils.CAP_MODE_OFF;
         }
-        if (!TextUtils.isEmpty(mComposingText)) {
+        if (mTextBeforeCursor.composingLength() > 0) {
             if (hasSpaceBefore) {
                 // If we have some composing text and a space before, then we should have
                 // MODE_CHARACTERS and MODE_WORDS on.
@@ -408,40 +500,35 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         //  heavy pressing of delete, for example DEFAULT_TEXT_CACHE_SIZE - 5 times or so.
         //  getCapsMode should be updated to be able to return a "not enough info" result so that
         //  we can get more context only when needed.
-        if (TextUtils.isEmpty(mCommittedTextBeforeComposingText) && 0 != mExpectedSelStart) {
+        if (mTextBeforeCursor.committedLength() == 0 && 0 != mExpectedSelStart) {
             if (!reloadTextCache()) {
                 Log.w(TAG, "Unable to connect to the editor. "
                         + "Setting caps mode without knowing text.");
             }
         }
-        // This never calls InputConnection#getCapsMode - in fact, it's a static method that
-        // never blocks or initiates IPC.
-        // TODO: don't call #toString() here. Instead, all accesses to
-        //  mCommittedTextBeforeComposingText should be done on the main thread.
-        return CapsModeUtils.getCapsMode(mCommittedTextBeforeComposingText.toString(), inputType,
-                spacingAndPunctuations, hasSpaceBefore);
+        // This never calls InputConnection#getCapsMode, it only uses the cached text and never
+        // blocks or initiates IPC. The result is kept until the text changes.
+        return mTextBeforeCursor.snapshot().capsMode(inputType, spacingAndPunctuations,
+                hasSpaceBefore);
     }
 
     public int getCodePointBeforeCursor() {
-        final CharSequence text = mComposingText.length() == 0 ? mCommittedTextBeforeComposingText : mComposingText;
+        final TextMirror.Snapshot text = mTextBeforeCursor.snapshot();
         final int length = text.length();
         if (length < 1) return Constants.NOT_A_CODE;
         return Character.codePointBefore(text, length);
     }
 
     public int getCharBeforeBeforeCursor() {
-        if (mComposingText.length() >= 2) return mComposingText.charAt(mComposingText.length() - 2);
-        final int length = mCommittedTextBeforeComposingText.length();
-        if (mComposingText.length() == 1) {
-            if (length < 1) return Constants.NOT_A_CODE;
-            return mCommittedTextBeforeComposingText.charAt(length - 1);
-        }
+        final TextMirror.Snapshot text = mTextBeforeCursor.snapshot();
+        final int length = text.length();
         if (length < 2) return Constants.NOT_A_CODE;
-        return mCommittedTextBeforeComposingText.charAt(length - 2);
+        return text.charAt(length - 2);
     }
 
     @Nullable public CharSequence getTextBeforeCursor(final int n, final int flags) {
-        final int cachedLength = mCommittedTextBeforeComposingText.length() + mComposingText.length();
+        final TextMirror.Snapshot cached = mTextBeforeCursor.snapshot();
+        final int cachedLength = cached.length();
         // If we have enough characters to satisfy the request, or if we have all characters in
         // the text field, then we can return the cached version right away.
         // However, if we don't have an expected cursor position, then we should always
@@ -449,19 +536,11 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // test for this explicitly)
         if (INVALID_CURSOR_POSITION != mExpectedSelStart
                 && (cachedLength >= n || cachedLength >= mExpectedSelStart)) {
-            final StringBuilder s = new StringBuilder(mCommittedTextBeforeComposingText.toString());
-            // We call #toString() here to create a temporary object.
             // In some situations, this method is called on a worker thread, and it's possible
-            // the main thread touches the contents of mComposingText while this worker thread
-            // is suspended, because mComposingText is a StringBuilder. This may lead to crashes,
-            // so we call #toString() on it. That will result in the return value being strictly
-            // speaking wrong, but since this is used for basing bigram probability off, and
-            // it's only going to matter for one getSuggestions call, it's fine in the practice.
-            s.append(mComposingText.toString());
-            if (s.length() > n) {
-                s.delete(0, s.length() - n);
-            }
-            return s;
+            // the main thread changes the text while this worker thread is suspended. The snapshot
+            // is not affected by this, so the return value may be outdated but is consistent, and
+            // since this is used for basing bigram probability off, that's fine in the practice.
+            return cached.takeLast(n);
         }
         return getTextBeforeCursorAndDetectLaggyConnection(
                 OPERATION_GET_TEXT_BEFORE_CURSOR,
@@ -475,12 +554,13 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return null;
         }
+        flushPendingWrites();
         final long startTime = SystemClock.uptimeMillis();
         final CharSequence result = mIC.getTextBeforeCursor(n, flags);
         detectLaggyConnection(operation, timeout, startTime);
 
         // only do the consistency check if we actually have text (i.e. we're not coming from some reload / reset)
-        if ((mCommittedTextBeforeComposingText.length() > 0 || mComposingText.length() > 0)
+        if (mTextBeforeCursor.snapshot().length() > 0
                 && result != null && !checkTextBeforeCursorConsistency(result)) {
             // inconsistent state can occur for (at least) two reasons
             // 1. the app actively changes text field content, e.g. joplin when deleting list markers like "2."
@@ -502,22 +582,14 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         final int lastIndex = textField.length() - 1;
         if (lastIndex == -1) return true;
         final char lastChar = textField.charAt(lastIndex);
-        final int composingLength = mComposingText.length();
+        final TextMirror.Snapshot cached = mTextBeforeCursor.snapshot();
+        final int cachedLastIndex = cached.length() - 1;
         for (int i = 0; i <= lastIndex; i++) {
             // get last minus i character and compare
             final char currentTextFieldChar = textField.charAt(lastIndex - i);
-            final char currentCachedChar;
-            if (i < composingLength) {
-                // take char from composing text
-                currentCachedChar = mComposingText.charAt(composingLength - 1 - i);
-            } else {
-                // take last char from mCommittedTextBeforeComposingText, consider composing length
-                final int index = mCommittedTextBeforeComposingText.length() - 1 - (i - composingLength);
-                if (index < mCommittedTextBeforeComposingText.length() && index >= 0)
-                    // todo: this can still cause an exception if mCommittedTextBeforeComposingText changes just at the right time (different threads!)
-                    currentCachedChar = mCommittedTextBeforeComposingText.charAt(index);
-                else return lastIndex > 100; // still let it pass if the same character is repeated many times, but cached text too short
-            }
+            if (i > cachedLastIndex)
+                return lastIndex > 100; // still let it pass if the same character is repeated many times, but cached text too short
+            final char currentCachedChar = cached.charAt(cachedLastIndex - i);
 
             if (currentTextFieldChar != currentCachedChar)
                 // different character -> inconsistent
@@ -543,6 +615,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return null;
         }
+        flushPendingWrites();
         final long startTime = SystemClock.uptimeMillis();
         final CharSequence result = mIC.getTextAfterCursor(n, flags);
         detectLaggyConnection(operation, timeout, startTime);
@@ -551,6 +624,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     private void detectLaggyConnection(final int operation, final long timeout, final long startTime) {
         final long duration = SystemClock.uptimeMillis() - startTime;
+        mEditorLatency.record(mParent, operation, duration);
         if (duration >= timeout) {
             final String operationName = OPERATION_NAMES[operation];
             Log.w(TAG, "Slow InputConnection: " + operationName + " took " + duration + " ms.");
@@ -570,15 +644,13 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         //  come here in this case, but we need to fix this.
         if (DebugFlags.DEBUG_ENABLED)
             Log.d(TAG, "deleting "+beforeLength+" characters before cursor");
-        final int remainingChars = mComposingText.length() - beforeLength;
+        final int remainingChars = mTextBeforeCursor.composingLength() - beforeLength;
         if (remainingChars >= 0) {
-            mComposingText.setLength(remainingChars);
+            mTextBeforeCursor.truncateComposing(remainingChars);
         } else {
-            mComposingText.setLength(0);
+            mTextBeforeCursor.setComposing("");
             // Never cut under 0
-            final int len = Math.max(mCommittedTextBeforeComposingText.length()
-                    + remainingChars, 0);
-            mCommittedTextBeforeComposingText.setLength(len);
+            mTextBeforeCursor.truncateCommitted(mTextBeforeCursor.committedLength() + remainingChars);
         }
         if (mExpectedSelStart > beforeLength) {
             mExpectedSelStart -= beforeLength;
@@ -590,7 +662,8 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             mExpectedSelStart = 0;
         }
         if (isConnected()) {
-            mIC.deleteSurroundingText(beforeLength, 0);
+            mPendingWrites.deleteTextBeforeCursor(mIC, beforeLength);
+            onPendingWriteAdded();
         }
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
     }
@@ -598,6 +671,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     public void performEditorAction(final int actionId) {
         mIC = mParent.getCurrentInputConnection();
         if (isConnected()) {
+            flushPendingWritesBeforeWrite();
             mIC.performEditorAction(actionId);
         }
     }
@@ -616,19 +690,15 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             // mistakenly catch them to do some stuff.
             switch (keyEvent.getKeyCode()) {
             case KeyEvent.KEYCODE_ENTER:
-                mCommittedTextBeforeComposingText.append("\n");
+                mTextBeforeCursor.appendCommitted("\n");
                 mExpectedSelStart += 1;
                 mExpectedSelEnd = mExpectedSelStart;
                 break;
             case KeyEvent.KEYCODE_DEL:
-                if (0 == mComposingText.length()) {
-                    if (mCommittedTextBeforeComposingText.length() > 0) {
-                        mCommittedTextBeforeComposingText.delete(
-                                mCommittedTextBeforeComposingText.length() - 1,
-                                mCommittedTextBeforeComposingText.length());
-                    }
+                if (0 == mTextBeforeCursor.composingLength()) {
+                    mTextBeforeCursor.truncateCommitted(mTextBeforeCursor.committedLength() - 1);
                 } else {
-                    mComposingText.delete(mComposingText.length() - 1, mComposingText.length());
+                    mTextBeforeCursor.truncateComposing(mTextBeforeCursor.composingLength() - 1);
                 }
                 if (mExpectedSelStart > 0 && mExpectedSelStart == mExpectedSelEnd) {
                     // TODO: Handle surrogate pairs.
@@ -638,7 +708,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 break;
             case KeyEvent.KEYCODE_UNKNOWN:
                 if (null != keyEvent.getCharacters()) {
-                    mCommittedTextBeforeComposingText.append(keyEvent.getCharacters());
+                    mTextBeforeCursor.appendCommitted(keyEvent.getCharacters());
                     mExpectedSelStart += keyEvent.getCharacters().length();
                     mExpectedSelEnd = mExpectedSelStart;
                 }
@@ -648,14 +718,15 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 if (Character.isISOControl(codePoint))
                     break; // don't append text if there is no actual text
                 final String text = StringUtils.newSingleCodePointString(codePoint);
-                mCommittedTextBeforeComposingText.append(text);
+                mTextBeforeCursor.appendCommitted(text);
                 mExpectedSelStart += text.length();
                 mExpectedSelEnd = mExpectedSelStart;
                 break;
             }
         }
         if (isConnected()) {
-            mIC.sendKeyEvent(keyEvent);
+            mPendingWrites.sendKeyEvent(mIC, keyEvent);
+            onPendingWriteAdded();
         }
     }
 
@@ -665,22 +736,20 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         final int moveBy = mExpectedSelStart - start; // determine now, as mExpectedSelStart may change in getTextBeforeCursor
         final CharSequence textBeforeCursor =
                 getTextBeforeCursor(Constants.EDITOR_CONTENTS_CACHE_SIZE + (end - start), 0);
-        mCommittedTextBeforeComposingText.setLength(0);
-        // also clear composing text, otherwise we may append existing text
-        // this can happen when we're a little out of sync with the editor
-        mComposingText.setLength(0);
         if (!TextUtils.isEmpty(textBeforeCursor)) {
             // The cursor is not necessarily at the end of the composing text, but we have its
             // position in mExpectedSelStart and mExpectedSelEnd. In this case we want the start
             // of the text, so we should use mExpectedSelStart. In other words, the composing
             // text starts (mExpectedSelStart - start) characters before the end of textBeforeCursor
             final int indexOfStartOfComposingText = Math.max(textBeforeCursor.length() - moveBy, 0);
-            mComposingText.append(textBeforeCursor.subSequence(indexOfStartOfComposingText,
-                    textBeforeCursor.length()));
-            mCommittedTextBeforeComposingText.append(
-                    textBeforeCursor.subSequence(0, indexOfStartOfComposingText));
+            mTextBeforeCursor.set(textBeforeCursor, textBeforeCursor.length() - indexOfStartOfComposingText);
+        } else {
+            // also clear composing text, otherwise we may append existing text
+            // this can happen when we're a little out of sync with the editor
+            mTextBeforeCursor.clear();
         }
         if (isConnected()) {
+            flushPendingWritesBeforeWrite();
             mIC.setComposingRegion(start, end);
         }
     }
@@ -690,21 +759,22 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     public boolean setComposingText(final CharSequence text, final int newCursorPosition) {
         if (DEBUG_BATCH_NESTING) checkBatchEdit();
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
-        mExpectedSelStart += text.length() - mComposingText.length();
+        mExpectedSelStart += text.length() - mTextBeforeCursor.composingLength();
         mExpectedSelEnd = mExpectedSelStart;
-        mComposingText.setLength(0);
-        mComposingText.append(text);
+        mTextBeforeCursor.setComposing(text);
         // TODO: support values of newCursorPosition != 1. At this time, this is never called with
         //  newCursorPosition != 1.
         if (isConnected()) {
             if (DebugFlags.DEBUG_ENABLED)
                 Log.d(TAG, "setting composing text of length "+text.length()); // don't log actual text
-            mIC.setComposingText(text, newCursorPosition);
+            mPendingWrites.setComposingText(mIC, text, newCursorPosition);
+            onPendingWriteAdded();
             if (!Settings.getValues().mInputAttributes.mShouldShowSuggestions && text.length() > 0) {
                 // We have a field that disables suggestions, but still committed text is set.
                 // This might lead to weird bugs (e.g. https://github.com/HeliBorg/HeliBoard/issues/225), so better do
                 // a sanity check whether the wanted text has been set.
                 // Note that the check may also fail because the text field is not yet updated, so we don't want to check everything!
+                flushPendingWrites();
                 final CharSequence lastChar = mIC.getTextBeforeCursor(1, 0);
                 if (lastChar == null || lastChar.length() == 0 || text.charAt(text.length() - 1) != lastChar.charAt(0)) {
                     Log.w(TAG, "did set " + text + ", but got " + mIC.getTextBeforeCursor(text.length(), 0) + " as last character");
@@ -744,6 +814,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             mExpectedSelEnd = end;
         }
         if (isConnected()) {
+            flushPendingWritesBeforeWrite();
             final boolean isIcValid = mIC.setSelection(start, end);
             if (!isIcValid) {
                 return false;
@@ -754,6 +825,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     public void selectAll() {
         if (!isConnected()) return;
+        flushPendingWritesBeforeWrite();
         if (mExpectedSelStart != mExpectedSelEnd && mExpectedSelStart == 0 && !hasTextAfterCursor()) { // all text already selected
             mIC.setSelection(mExpectedSelEnd, mExpectedSelEnd);
         } else mIC.performContextMenuAction(android.R.id.selectAll);
@@ -761,6 +833,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
 
     public void selectWord(final SpacingAndPunctuations spacingAndPunctuations, final String script) {
         if (!isConnected()) return;
+        flushPendingWritesBeforeWrite();
         if (mExpectedSelStart != mExpectedSelEnd) { // already something selected
             mIC.setSelection(mExpectedSelEnd, mExpectedSelEnd);
             return;
@@ -781,6 +854,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             final ExtractedTextRequest etr = new ExtractedTextRequest();
             etr.flags = InputConnection.GET_TEXT_WITH_STYLES;
             etr.hintMaxChars = Integer.MAX_VALUE;
+            flushPendingWrites();
             final ExtractedText et = mIC.getExtractedText(etr, 0);
             if (et == null) return;
             text = et.text;
@@ -799,6 +873,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // This has no effect on the text field and does not change its content. It only makes
         // TextView flash the text for a second based on indices contained in the argument.
         if (isConnected()) {
+            flushPendingWritesBeforeWrite();
             mIC.commitCorrection(correctionInfo);
         }
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
@@ -812,11 +887,11 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             Log.d(TAG, "committing completion of length "+text.length()); // don't log actual text
         // text should never be null, but just in case, it's better to insert nothing than to crash
         if (null == text) text = "";
-        mCommittedTextBeforeComposingText.append(text);
-        mExpectedSelStart += text.length() - mComposingText.length();
+        mExpectedSelStart += text.length() - mTextBeforeCursor.composingLength();
         mExpectedSelEnd = mExpectedSelStart;
-        mComposingText.setLength(0);
+        mTextBeforeCursor.commit(text);
         if (isConnected()) {
+            flushPendingWritesBeforeWrite();
             mIC.commitCompletion(completionInfo);
         }
         if (DEBUG_PREVIOUS_TEXT) checkConsistencyForDebug();
@@ -829,19 +904,29 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return NgramContext.EMPTY_PREV_WORDS_INFO;
         }
+        if (INVALID_CURSOR_POSITION != mExpectedSelStart && !DEBUG_PREVIOUS_TEXT) {
+            // Usually the words are known from the cached text without splitting it again. If the
+            // text before the cursor is not completely cached, the words must not reach the start
+            // of the cached text.
+            final TextMirror.Snapshot cached = mTextBeforeCursor.snapshot();
+            final String[] words = cached.lastLineWords(n, cached.length() >= mExpectedSelStart);
+            if (words != null) {
+                return NgramContextUtils.getNgramContextFromNthPreviousWord(words,
+                        spacingAndPunctuations, n);
+            }
+        }
         final CharSequence prev = getTextBeforeCursor(NUM_CHARS_TO_GET_BEFORE_CURSOR, 0);
         if (DEBUG_PREVIOUS_TEXT && null != prev) {
             final int checkLength = NUM_CHARS_TO_GET_BEFORE_CURSOR - 1;
             final String reference = prev.length() <= checkLength ? prev.toString()
                     : prev.subSequence(prev.length() - checkLength, prev.length()).toString();
-            // TODO: right now the following works because mComposingText holds the part of the
-            //  composing text that is before the cursor, but this is very confusing. We should
+            // TODO: right now the following works because the composing text only holds the part of
+            //  the composing text that is before the cursor, but this is very confusing. We should
             //  fix it.
-            final StringBuilder internal = new StringBuilder()
-                    .append(mCommittedTextBeforeComposingText).append(mComposingText);
-            if (internal.length() > checkLength) {
-                internal.delete(0, internal.length() - checkLength);
-                if (!(reference.equals(internal.toString()))) {
+            final TextMirror.Snapshot cached = mTextBeforeCursor.snapshot();
+            if (cached.length() > checkLength) {
+                final String internal = cached.takeLast(checkLength).toString();
+                if (!(reference.equals(internal))) {
                     final String context = "Expected text = " + internal + "\nActual text = " + reference;
                     ((LatinIME)mParent).debugDumpStateAndCrashWithException(context);
                 }
@@ -885,11 +970,12 @@ public final class RichInputConnection implements PrivateCommandPerformer {
             // If what's after the cursor is a word character, then we're touching a word.
             return true;
         }
-        if (mComposingText.length() > 0) {
+        final TextMirror.Snapshot text = mTextBeforeCursor.snapshot();
+        if (text.composingLength() > 0) {
             // a composing region should always count as a word
             return true;
         }
-        return StringUtilsKt.endsWithWordCodepoint(mCommittedTextBeforeComposingText.toString(), spacingAndPunctuations);
+        return StringUtilsKt.endsWithWordCodepoint(text, spacingAndPunctuations);
     }
 
     public boolean isCursorFollowedByWordCharacter(
@@ -986,9 +1072,9 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         // This update is "belated" if we are expecting it. That is, mExpectedSelStart and
         // mExpectedSelEnd match the new values that the TextView is updating TO.
         if (mExpectedSelStart == newSelStart && mExpectedSelEnd == newSelEnd) {
-            if (composingSpanEnd - composingSpanStart < mComposingText.length()) {
+            if (composingSpanEnd - composingSpanStart < mTextBeforeCursor.composingLength()) {
                 // composing span is smaller than expected, maybe changed by the app (see #1141)
-                // larger composing span is ok, because mComposingText only contains the word up to the cursor
+                // larger composing span is ok, because the composing text only contains the word up to the cursor
                 return false;
             }
             return true;
@@ -1016,15 +1102,15 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      * does not matter too much in the practice.
      */
     public boolean textBeforeCursorLooksLikeURL() {
-        return StringUtils.lastPartLooksLikeURL(mCommittedTextBeforeComposingText);
+        return StringUtils.lastPartLooksLikeURL(mTextBeforeCursor.snapshot().committed());
     }
 
     public boolean nonWordCodePointAndNoSpaceBeforeCursor(final SpacingAndPunctuations spacingAndPunctuations) {
-        return StringUtilsKt.nonWordCodePointAndNoSpaceBeforeCursor(mCommittedTextBeforeComposingText, spacingAndPunctuations);
+        return StringUtilsKt.nonWordCodePointAndNoSpaceBeforeCursor(mTextBeforeCursor.snapshot().committed(), spacingAndPunctuations);
     }
 
     public boolean spaceBeforeCursor() {
-        return mCommittedTextBeforeComposingText.indexOf(" ") != -1;
+        return TextUtils.indexOf(mTextBeforeCursor.snapshot().committed(), ' ') != -1;
     }
 
     public int getCharCountToDeleteBeforeCursor() {
@@ -1038,18 +1124,20 @@ public final class RichInputConnection implements PrivateCommandPerformer {
     }
 
     public boolean hasLetterBeforeLastSpaceBeforeCursor() {
-        return StringUtilsKt.hasLetterBeforeLastSpaceBeforeCursor(mCommittedTextBeforeComposingText);
+        return StringUtilsKt.hasLetterBeforeLastSpaceBeforeCursor(mTextBeforeCursor.snapshot().committed());
     }
 
     public boolean wordBeforeCursorMayBeEmail() {
-        return mCommittedTextBeforeComposingText.lastIndexOf(" ") < mCommittedTextBeforeComposingText.lastIndexOf("@");
+        final TextMirror.Snapshot text = mTextBeforeCursor.snapshot().committed();
+        return TextUtils.lastIndexOf(text, ' ') < TextUtils.lastIndexOf(text, '@');
     }
 
     public CharSequence textBeforeCursorUntilLastWhitespaceOrDoubleSlash() {
+        final TextMirror.Snapshot text = mTextBeforeCursor.snapshot().committed();
         int startIndex = 0;
         boolean previousWasSlash = false;
-        for (int i = mCommittedTextBeforeComposingText.length() - 1; i >= 0; i--) {
-            final char c = mCommittedTextBeforeComposingText.charAt(i);
+        for (int i = text.length() - 1; i >= 0; i--) {
+            final char c = text.charAt(i);
             if (Character.isWhitespace(c)) {
                 startIndex = i + 1;
                 break;
@@ -1064,7 +1152,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
                 previousWasSlash = false;
             }
         }
-        return mCommittedTextBeforeComposingText.subSequence(startIndex, mCommittedTextBeforeComposingText.length());
+        return text.subSequence(startIndex, text.length());
     }
 
     /**
@@ -1075,7 +1163,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
      * long enough for this use.
      */
     public boolean isInsideDoubleQuoteOrAfterDigit() {
-        return StringUtils.isInsideDoubleQuoteOrAfterDigit(mCommittedTextBeforeComposingText);
+        return StringUtils.isInsideDoubleQuoteOrAfterDigit(mTextBeforeCursor.snapshot().committed());
     }
 
     /**
@@ -1094,7 +1182,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         mIC = mParent.getCurrentInputConnection();
         final CharSequence textBeforeCursor = getTextBeforeCursor(
                 Constants.EDITOR_CONTENTS_CACHE_SIZE, 0);
-        final CharSequence selectedText = isConnected() ? mIC.getSelectedText(0 /* flags */) : null;
+        final CharSequence selectedText = getSelectedText(0 /* flags */);
         if (null == textBeforeCursor ||
                 (!TextUtils.isEmpty(selectedText) && mExpectedSelEnd == mExpectedSelStart)) {
             // If textBeforeCursor is null, we have no idea what kind of text field we have or if
@@ -1139,6 +1227,7 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         if (!isConnected()) {
             return false;
         }
+        flushPendingWritesBeforeWrite();
         return mIC.performPrivateCommand(action, data);
     }
 
@@ -1179,13 +1268,15 @@ public final class RichInputConnection implements PrivateCommandPerformer {
         }
         final int cursorUpdateMode = (enableMonitor ? InputConnection.CURSOR_UPDATE_MONITOR : 0)
             | (requestImmediateCallback ? InputConnection.CURSOR_UPDATE_IMMEDIATE : 0);
+        flushPendingWrites();
         return mIC.requestCursorUpdates(cursorUpdateMode);
     }
 
     // doesn't work in many apps that support normal clipboard pasting, possibly just because they don't have mime types in editorInfo
     public void commitContent(InputContentInfoCompat contentInfo, @NonNull EditorInfo editorInfo) {
         mIC = mParent.getCurrentInputConnection();
-        if (isConnected())
-            InputConnectionCompat.commitContent(mIC, editorInfo, contentInfo, InputConnectionCompat.INPUT_CONTENT_GRANT_READ_URI_PERMISSION, null);
+        if (!isConnected()) return;
+        flushPendingWritesBeforeWrite();
+        InputConnectionCompat.commitContent(mIC, editorInfo, contentInfo, InputConnectionCompat.INPUT_CONTENT_GRANT_READ_URI_PERMISSION, null);
     }
 }
@@ -120,6 +120,8 @@ class SingleDictionaryFacilitator(private val dict: Dictionary) : DictionaryFaci
         timeStampInSeconds: Long, blockPotentiallyOffensive: Boolean
     ) {}
 
+    override fun setOnUserHistoryAppliedListener(listener: Runnable?) {}
+
     override fun adjustConfidences(word: String, wasAutoCapitalized: Boolean) {}
 
     override fun unlearnFromUserHistory(word: String, ngramContext: NgramContext,
@@ -14,6 +14,7 @@ import helium314.keyboard.latin.common.ComposedData
 import helium314.keyboard.latin.common.Constants
 import helium314.keyboard.latin.common.InputPointers
 import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.common.splitOnWhitespace
 import helium314.keyboard.latin.define.DebugFlags
 import helium314.keyboard.latin.define.DecoderSpecificConstants.SHOULD_AUTO_CORRECT_USING_NON_WHITE_LISTED_SUGGESTION
 import helium314.keyboard.latin.define.DecoderSpecificConstants.SHOULD_REMOVE_PREVIOUSLY_REJECTED_SUGGESTION
@@ -38,11 +39,35 @@ import kotlin.math.min
 class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
     private var mAutoCorrectionThreshold = 0f
     private val mPlausibilityThreshold = 0f
-    private val nextWordSuggestionsCache = HashMap<NgramContext, SuggestionResults>()
+    private val nextWordSuggestionsCache = NextWordSuggestionsCache()
 
-    // cache cleared whenever LatinIME.loadSettings is called, notably on changing layout and switching input fields
+    // last typed word and ngram context used for getting typing suggestions, to tell the dictionaries
+    // whether they can resume the previous search
+    private var previousTypedWord = ""
+    private var previousTypingNgramContext: NgramContext? = null
+
+    init {
+        // learned words are applied to the dictionary with a delay, suggestions cached meanwhile may be outdated
+        mDictionaryFacilitator.setOnUserHistoryAppliedListener { nextWordSuggestionsCache.onUserHistoryApplied() }
+    }
+
+    // cache cleared whenever the dictionaries or the settings used for suggestions change
     fun clearNextWordSuggestionsCache() = nextWordSuggestionsCache.clear()
 
+    /**
+     * Called when [word] is learned or unlearned after [ngramContext]. Next word suggestions are outdated for this
+     * context, and for the contexts ending with the word, which may have been prefetched before the word was learned.
+     */
+    fun onUserHistoryChanged(ngramContext: NgramContext, word: String) {
+        nextWordSuggestionsCache.invalidate(ngramContext)
+        var context = ngramContext
+        for (w in word.splitOnWhitespace()) {
+            if (w.isEmpty()) continue
+            context = context.getNextNgramContext(NgramContext.WordInfo(w))
+            nextWordSuggestionsCache.invalidate(context)
+        }
+    }
+
     /**
      * Set the normalized-score threshold for a suggestion to be considered strong enough that we
      * will auto-correct to this.
@@ -77,8 +102,8 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         val resultsArePredictions = !wordComposer.isComposingWord
         val suggestionResults = if (typedWordString.isEmpty())
                 getNextWordSuggestions(ngramContext, keyboard, inputStyleIfNotPrediction, settingsValuesForSuggestion)
-            else mDictionaryFacilitator.getSuggestionResults(wordComposer.composedDataSnapshot, ngramContext, keyboard,
-                settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyleIfNotPrediction)
+            else mDictionaryFacilitator.getSuggestionResults(getComposedDataForTyping(wordComposer, ngramContext),
+                ngramContext, keyboard, settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyleIfNotPrediction)
         val trailingSingleQuotesCount = StringUtils.getTrailingSingleQuotesCount(typedWordString)
         val capsMode = getCapsModeForTyping(wordComposer, keyboard)
         val suggestionsContainer = ArrayList(suggestionResults)
@@ -154,6 +179,22 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
             isTypedWordValid, hasAutoCorrection || correctToCapitalizedWord, false, inputStyle, sequenceNumber)
     }
 
+    /**
+     * Returns the composed data for the typed word, flagged as extending the previous input if the word only
+     * appends to the previously typed word in the same ngram context. Dictionaries then don't need to
+     * search the whole trie again, but can resume from the previous search.
+     */
+    // public for testing
+    fun getComposedDataForTyping(wordComposer: WordComposer, ngramContext: NgramContext): ComposedData {
+        val composedData = wordComposer.composedDataSnapshot
+        val typedWord = composedData.mTypedWord
+        val extendsPreviousInput = previousTypedWord.isNotEmpty() && typedWord.length > previousTypedWord.length
+                && typedWord.startsWith(previousTypedWord) && ngramContext == previousTypingNgramContext
+        previousTypedWord = typedWord
+        previousTypingNgramContext = ngramContext
+        return if (extendsPreviousInput) composedData.asExtensionOfPreviousInput() else composedData
+    }
+
     // returns [allowsToBeAutoCorrected, hasAutoCorrection]
     // public for testing
     // todo: now we can do better tests, maybe make it private again and test via getSuggestedWords (and simplify if possible)
@@ -273,6 +314,8 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         settingsValuesForSuggestion: SettingsValuesForSuggestion,
         inputStyle: Int, isCorrectionEnabled: Boolean, sequenceNumber: Int
     ): SuggestedWords {
+        // typing and gesture share the session, so the next typing search can't resume
+        previousTypedWord = ""
         val suggestionResults = mDictionaryFacilitator.getSuggestionResults(
             wordComposer.composedDataSnapshot, ngramContext, keyboard,
             settingsValuesForSuggestion, SESSION_ID_GESTURE, inputStyle
@@ -353,15 +396,43 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
 
     /** get suggestions based on the current ngram context, with an empty typed word (that's what next word suggestions do)  */
     private fun getNextWordSuggestions(ngramContext: NgramContext, keyboard: Keyboard, inputStyle: Int,
-                                       settingsValuesForSuggestion: SettingsValuesForSuggestion): SuggestionResults {
+                                       settingsValuesForSuggestion: SettingsValuesForSuggestion,
+                                       sessionId: Int = SESSION_ID_TYPING): SuggestionResults {
         val cachedResults = nextWordSuggestionsCache[ngramContext]
         if (cachedResults != null) return cachedResults
         val newResults = mDictionaryFacilitator.getSuggestionResults(ComposedData(InputPointers(1),
-            false, ""), ngramContext, keyboard, settingsValuesForSuggestion, SESSION_ID_TYPING, inputStyle)
-        nextWordSuggestionsCache[ngramContext] = newResults
+            false, ""), ngramContext, keyboard, settingsValuesForSuggestion, sessionId, inputStyle)
+        nextWordSuggestionsCache.put(ngramContext, newResults)
         return newResults
     }
 
+    /**
+     * Fills the next word suggestions cache for the case that the typed word or the best suggestion
+     * gets committed, so next word suggestions can be shown without waiting for the dictionaries.
+     * [isCancelled] is checked before each lookup, so outdated work can be dropped early.
+     * This runs on a background thread at the same time as lookups for typing, so it uses its own session.
+     */
+    fun prefetchNextWordSuggestions(suggestedWords: SuggestedWords, ngramContext: NgramContext, keyboard: Keyboard,
+                                    settingsValuesForSuggestion: SettingsValuesForSuggestion, isCancelled: () -> Boolean) {
+        if (suggestedWords.isEmpty) return
+        // the word that is committed on space comes first
+        val candidates = if (suggestedWords.mWillAutoCorrect && suggestedWords.size() > SuggestedWords.INDEX_OF_AUTO_CORRECTION)
+                listOf(suggestedWords.getWord(SuggestedWords.INDEX_OF_AUTO_CORRECTION),
+                    suggestedWords.getWord(SuggestedWords.INDEX_OF_TYPED_WORD))
+            else listOf(suggestedWords.getWord(SuggestedWords.INDEX_OF_TYPED_WORD))
+        // parallel lookup marks the dictionaries as busy, and lookups for typing would skip them
+        val settings = if (!settingsValuesForSuggestion.mParallelDictionaryLookup) settingsValuesForSuggestion
+            else SettingsValuesForSuggestion(settingsValuesForSuggestion.mBlockPotentiallyOffensive,
+                settingsValuesForSuggestion.mSpaceAwareGesture, false, settingsValuesForSuggestion.mDictionaryLookupTimeoutMillis)
+        for (word in candidates.take(PREFETCH_CANDIDATE_COUNT)) {
+            if (isCancelled()) return
+            if (word.isEmpty()) continue
+            val nextNgramContext = ngramContext.getNextNgramContext(NgramContext.WordInfo(word))
+            if (nextNgramContext in nextWordSuggestionsCache) continue
+            getNextWordSuggestions(nextNgramContext, keyboard, SuggestedWords.INPUT_STYLE_TYPING, settings, SESSION_ID_PREFETCH)
+        }
+    }
+
     companion object {
         private val TAG: String = Suggest::class.java.simpleName
 
@@ -369,6 +440,10 @@ class Suggest(private val mDictionaryFacilitator: DictionaryFacilitator) {
         // We are sharing the same ID between typing and gesture to save RAM footprint.
         const val SESSION_ID_TYPING = 0
         const val SESSION_ID_GESTURE = 0
+        // Prefetching runs concurrently with typing, and must not use the same traverse session.
+        const val SESSION_ID_PREFETCH = 1
+
+        private const val PREFETCH_CANDIDATE_COUNT = 2
 
         // Close to -2**31
         private const val SUPPRESS_SUGGEST_THRESHOLD = -2000000000
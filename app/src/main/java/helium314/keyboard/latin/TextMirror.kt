@@ -0,0 +1,178 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.settings.SpacingAndPunctuations
+import helium314.keyboard.latin.utils.CapsModeUtils
+
+/**
+ * The text before the cursor as [RichInputConnection] expects it in the editor: the committed text, followed by
+ * the composing text (only the part before the cursor).
+ *
+ * The text is modified only by the thread handling input, but [snapshot] may be called from any thread.
+ * A [Snapshot] is an immutable view that shares the char array with the mirror, so reading the text does not copy it.
+ * This works because chars in the array are never changed once they are visible in a snapshot: committed text
+ * is only appended, and if the committed text was shortened before, the array is copied before appending.
+ * The composing text is short and replaced as a whole, so it's kept as a separate [String].
+ * Each snapshot also has the [TextState] of its committed text, which is updated with the changed chars only.
+ */
+class TextMirror {
+    private var chars = CharArray(INITIAL_CAPACITY)
+    // committed text of all snapshots taken from the current array ends at or before this index
+    private var sharedLength = 0
+    @Volatile private var current = Snapshot(chars, 0, 0, "", null)
+
+    /** Current text, may be used from any thread. */
+    fun snapshot(): Snapshot = current
+
+    fun committedLength() = current.committedLength()
+
+    fun composingLength() = current.composingLength()
+
+    fun clear() = publish(0, "", null)
+
+    fun appendCommitted(text: CharSequence) {
+        if (text.isEmpty()) return
+        val s = current
+        publish(s.committedLength() + text.length, s.composing(), writeCommitted(s, text))
+    }
+
+    /** Replaces the composing text with [text] and commits it, in a single step for other threads. */
+    fun commit(text: CharSequence) {
+        val s = current
+        publish(s.committedLength() + text.length, "", writeCommitted(s, text))
+    }
+
+    /** Shortens the committed text to [length] chars, does nothing if it's not longer. */
+    fun truncateCommitted(length: Int) {
+        val s = current
+        if (length >= s.committedLength()) return
+        val newLength = length.coerceAtLeast(0)
+        publish(newLength, s.composing(), s.knownTextState()?.truncate(newLength))
+    }
+
+    fun setComposing(text: CharSequence) {
+        val s = current
+        publish(s.committedLength(), text.toString(), s.knownTextState())
+    }
+
+    /** Shortens the composing text to [length] chars, does nothing if it's not longer. */
+    fun truncateComposing(length: Int) {
+        val s = current
+        if (length < s.composingLength())
+            publish(s.committedLength(), s.composing().substring(0, length.coerceAtLeast(0)), s.knownTextState())
+    }
+
+    /** Appends the composing text to the committed text. */
+    fun finishComposing() {
+        val s = current
+        if (s.composingLength() > 0) commit(s.composing())
+    }
+
+    /** Replaces the text, the last [composingLength] chars of [text] become the composing text. */
+    fun set(text: CharSequence, composingLength: Int) {
+        val committedLength = text.length - composingLength
+        ensureWritable(0, committedLength)
+        for (i in 0 until committedLength) chars[i] = text[i]
+        publish(committedLength, text.subSequence(committedLength, text.length).toString(), null)
+    }
+
+    // writes text after the committed text of s, and returns the text state including it
+    private fun writeCommitted(s: Snapshot, text: CharSequence): TextState? {
+        if (text.isEmpty()) return s.knownTextState()
+        val length = s.committedLength()
+        ensureWritable(length, length + text.length)
+        for (i in text.indices) chars[length + i] = text[i]
+        return s.knownTextState()?.append(chars, length + text.length)
+    }
+
+    // makes sure chars from start until end can be written without changing existing snapshots
+    private fun ensureWritable(start: Int, end: Int) {
+        if (start >= sharedLength && end <= chars.size) return
+        val newChars = CharArray(if (end <= chars.size) chars.size else maxOf(end, chars.size * 2))
+        System.arraycopy(chars, 0, newChars, 0, start)
+        chars = newChars
+        sharedLength = 0
+    }
+
+    private fun publish(committedLength: Int, composing: String, textState: TextState?) {
+        if (committedLength > sharedLength) sharedLength = committedLength
+        current = Snapshot(chars, 0, committedLength, composing, textState)
+    }
+
+    /**
+     * Immutable text: the chars of [chars] from [start] until [committedEnd], followed by [composing].
+     * Sub-sequences are snapshots too, so they don't copy the text either.
+     * The [TextState] is created by scanning the text if it was not derived from the previous snapshot.
+     */
+    class Snapshot internal constructor(
+        private val chars: CharArray,
+        private val start: Int,
+        private val committedEnd: Int,
+        private val composing: String,
+        @Volatile private var textState: TextState?,
+    ) : CharSequence {
+        // arguments and result of the last capsMode call
+        private class CapsMode(val reqModes: Int, val spacingAndPunctuations: SpacingAndPunctuations,
+                val hasSpaceBefore: Boolean, val result: Int)
+        @Volatile private var lastCapsMode: CapsMode? = null
+
+        override val length get() = committedEnd - start + composing.length
+
+        override fun get(index: Int): Char {
+            if (index < 0) throw IndexOutOfBoundsException("index $index, length $length")
+            val arrayIndex = start + index
+            return if (arrayIndex < committedEnd) chars[arrayIndex] else composing[arrayIndex - committedEnd]
+        }
+
+        override fun subSequence(startIndex: Int, endIndex: Int): Snapshot {
+            if (startIndex < 0 || endIndex > length || startIndex > endIndex)
+                throw IndexOutOfBoundsException("start $startIndex, end $endIndex, length $length")
+            val committedLength = committedLength()
+            return when {
+                endIndex <= committedLength -> Snapshot(chars, start + startIndex, start + endIndex, "", null)
+                startIndex >= committedLength -> Snapshot(chars, committedEnd, committedEnd,
+                    composing.substring(startIndex - committedLength, endIndex - committedLength), null)
+                else -> Snapshot(chars, start + startIndex, committedEnd, composing.substring(0, endIndex - committedLength), null)
+            }
+        }
+
+        /** The last [n] chars, or the whole text if it's not longer. */
+        fun takeLast(n: Int): Snapshot = if (length <= n) this else subSequence(length - n, length)
+
+        fun committed(): Snapshot = if (composing.isEmpty()) this else Snapshot(chars, start, committedEnd, "", textState)
+
+        fun committedLength() = committedEnd - start
+
+        fun composing(): String = composing
+
+        fun composingLength() = composing.length
+
+        internal fun knownTextState() = textState
+
+        /**
+         * The words of the last line, see [TextState.lastLineWords].
+         * @param knowsTextStart whether this text starts at the start of the text in the editor
+         */
+        fun lastLineWords(n: Int, knowsTextStart: Boolean): Array<String>? {
+            val state = textState ?: TextState.scan(chars, start, committedEnd).also { textState = it }
+            return state.lastLineWords(chars, composing, n, knowsTextStart)
+        }
+
+        /** [CapsModeUtils.getCapsMode] for this text, the result is kept for calls with the same arguments. */
+        fun capsMode(reqModes: Int, spacingAndPunctuations: SpacingAndPunctuations, hasSpaceBefore: Boolean): Int {
+            val last = lastCapsMode
+            if (last != null && last.reqModes == reqModes && last.spacingAndPunctuations === spacingAndPunctuations
+                    && last.hasSpaceBefore == hasSpaceBefore)
+                return last.result
+            val result = CapsModeUtils.getCapsMode(this, reqModes, spacingAndPunctuations, hasSpaceBefore)
+            lastCapsMode = CapsMode(reqModes, spacingAndPunctuations, hasSpaceBefore, result)
+            return result
+        }
+
+        override fun toString() = StringBuilder(length).append(chars, start, committedEnd - start).append(composing).toString()
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 256
+    }
+}
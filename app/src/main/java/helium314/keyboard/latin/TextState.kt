@@ -0,0 +1,145 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.define.DecoderSpecificConstants
+import helium314.keyboard.latin.utils.NgramContextUtils
+
+/**
+ * Positions of the last words in the committed text of a [TextMirror.Snapshot], so the previous words can be found
+ * without splitting the text again on each keystroke. Like in [NgramContextUtils], words are split on whitespace,
+ * and only taken from the last line that is not empty.
+ *
+ * A state is immutable. When text is added or removed at the end, the new state is derived from the previous one
+ * by looking at the changed chars only. Where this is not possible, e.g. after the text is reloaded from the editor,
+ * the state is created by scanning the text backwards from the end when it's needed.
+ */
+class TextState private constructor(
+    // array indices of the tracked words, oldest first
+    private val starts: IntArray,
+    private val ends: IntArray,
+    // index of the first char of the last line, only used if complete
+    private val lineStart: Int,
+    // whether all words of the last line are tracked
+    private val complete: Boolean,
+    // whether the last line starts at the start of the text, and not after a line break
+    private val reachesTextStart: Boolean,
+    // whether the text ends with line breaks, which only start a new line once something follows
+    private val endsWithLineBreak: Boolean,
+    private val end: Int,
+) {
+    /** State after appending the chars from the current end until [newEnd] in [chars]. */
+    fun append(chars: CharArray, newEnd: Int): TextState {
+        val starts = starts.copyOf(MAX_WORDS)
+        val ends = ends.copyOf(MAX_WORDS)
+        var count = this.starts.size
+        var lineStart = lineStart
+        var complete = complete
+        var reachesTextStart = reachesTextStart
+        var endsWithLineBreak = endsWithLineBreak
+        for (i in end until newEnd) {
+            val c = chars[i]
+            if (isLineBreak(c)) {
+                endsWithLineBreak = true
+                continue
+            }
+            if (endsWithLineBreak) {
+                count = 0
+                lineStart = i
+                complete = true
+                reachesTextStart = false
+                endsWithLineBreak = false
+            }
+            if (isSpace(c)) continue
+            if (count > 0 && ends[count - 1] == i) {
+                ends[count - 1] = i + 1
+                continue
+            }
+            if (count == MAX_WORDS) {
+                System.arraycopy(starts, 1, starts, 0, MAX_WORDS - 1)
+                System.arraycopy(ends, 1, ends, 0, MAX_WORDS - 1)
+                count--
+                complete = false
+                reachesTextStart = false
+            }
+            starts[count] = i
+            ends[count] = i + 1
+            count++
+        }
+        return TextState(starts.copyOf(count), ends.copyOf(count), lineStart, complete, reachesTextStart,
+            endsWithLineBreak, newEnd)
+    }
+
+    /** State after shortening the text to end at [newEnd], or null if the text needs to be scanned again. */
+    fun truncate(newEnd: Int): TextState? {
+        if (newEnd >= end) return this
+        if (endsWithLineBreak || !complete && starts.size < MAX_WORDS || complete && newEnd <= lineStart) return null
+        var count = starts.size
+        while (count > 0 && starts[count - 1] >= newEnd) count--
+        if (!complete && count < MAX_WORDS) return null
+        val ends = ends.copyOf(count)
+        if (count > 0 && ends[count - 1] > newEnd) ends[count - 1] = newEnd
+        return TextState(starts.copyOf(count), ends, lineStart, complete, reachesTextStart, false, newEnd)
+    }
+
+    /**
+     * The words of the last line of the committed text in [chars] followed by [composing], as they would be split by
+     * [NgramContextUtils]. Returns null if this can't be determined from the tracked words for the [n]th previous
+     * word, or if the words may continue before the start of the text and [knowsTextStart] is false.
+     */
+    fun lastLineWords(chars: CharArray, composing: String, n: Int, knowsTextStart: Boolean): Array<String>? {
+        if (composing.any { isSpace(it) || isLineBreak(it) }) return null
+        val count = starts.size
+        val newLine = endsWithLineBreak && composing.isNotEmpty()
+        if (n + DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM > MAX_WORDS
+                || !newLine && reachesTextStart && !knowsTextStart)
+            return null
+        if (newLine) return arrayOf(composing)
+        val continuesLastWord = composing.isNotEmpty() && count > 0 && ends[count - 1] == end
+        val size = if (composing.isEmpty() || continuesLastWord) count else count + 1
+        return Array(size) {
+            when {
+                it < count - 1 || it == count - 1 && !continuesLastWord -> String(chars, starts[it], ends[it] - starts[it])
+                it == count - 1 -> String(chars, starts[it], ends[it] - starts[it]) + composing
+                else -> composing
+            }
+        }
+    }
+
+    companion object {
+        // enough for the previous words needed by NgramContextUtils for the n = 1 and n = 2 used when typing
+        private const val MAX_WORDS = 8
+
+        /** Creates the state for the chars from [start] until [end] in [chars], by scanning backwards from the end. */
+        fun scan(chars: CharArray, start: Int, end: Int): TextState {
+            var i = end
+            while (i > start && isLineBreak(chars[i - 1])) i--
+            val endsWithLineBreak = i < end
+            val starts = IntArray(MAX_WORDS)
+            val ends = IntArray(MAX_WORDS)
+            var count = 0
+            var complete = true
+            while (i > start && !isLineBreak(chars[i - 1])) {
+                if (isSpace(chars[i - 1])) {
+                    i--
+                    continue
+                }
+                if (count == MAX_WORDS) {
+                    complete = false
+                    break
+                }
+                val wordEnd = i
+                while (i > start && !isSpace(chars[i - 1]) && !isLineBreak(chars[i - 1])) i--
+                count++
+                starts[MAX_WORDS - count] = i
+                ends[MAX_WORDS - count] = wordEnd
+            }
+            return TextState(starts.copyOfRange(MAX_WORDS - count, MAX_WORDS), ends.copyOfRange(MAX_WORDS - count, MAX_WORDS),
+                i, complete, complete && i == start, endsWithLineBreak, end)
+        }
+
+        // the line breaks and whitespace used by the patterns in NgramContextUtils
+        private fun isLineBreak(c: Char) = c == '\n' || c == '\r'
+
+        private fun isSpace(c: Char) = c == ' ' || c == '\t' || c == '\u000B' || c == '\u000C'
+    }
+}
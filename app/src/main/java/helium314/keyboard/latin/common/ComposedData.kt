@@ -8,11 +8,16 @@ package helium314.keyboard.latin.common
 import helium314.keyboard.latin.WordComposer
 import kotlin.random.Random
 
-/** An immutable class that encapsulates a snapshot of word composition data. */
-class ComposedData(
+/**
+ * An immutable class that encapsulates a snapshot of word composition data.
+ * [mExtendsPreviousInput] is set if the typed word only appends code points to the typed word of the
+ * previous typing query in the same ngram context, which allows dictionaries to resume their search.
+ */
+class ComposedData @JvmOverloads constructor(
     @JvmField val mInputPointers: InputPointers,
     @JvmField val mIsBatchMode: Boolean,
-    @JvmField val mTypedWord: String
+    @JvmField val mTypedWord: String,
+    @JvmField val mExtendsPreviousInput: Boolean = false
 ) {
     /**
      * Copy the code points in the typed word to a destination array of ints.
@@ -43,6 +48,9 @@ class ComposedData(
         )
     }
 
+    /** Returns a copy of this snapshot that is flagged as extending the previous typing input. */
+    fun asExtensionOfPreviousInput() = ComposedData(mInputPointers, mIsBatchMode, mTypedWord, true)
+
     companion object {
         fun createForWord(word: String): ComposedData {
             val codePoints = StringUtils.toCodePointArray(word)
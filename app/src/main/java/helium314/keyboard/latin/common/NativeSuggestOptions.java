@@ -13,7 +13,8 @@ public class NativeSuggestOptions {
     private static final int BLOCK_OFFENSIVE_WORDS = 2;
     private static final int SPACE_AWARE_GESTURE_ENABLED = 3;
     private static final int WEIGHT_FOR_LOCALE_IN_THOUSANDS = 4;
-    private static final int OPTIONS_SIZE = 5;
+    private static final int RESUME_TYPING_SEARCH = 5;
+    private static final int OPTIONS_SIZE = 6;
 
     private final int[] mOptions;
 
@@ -37,6 +38,10 @@ public class NativeSuggestOptions {
         setBooleanOption(BLOCK_OFFENSIVE_WORDS, value);
     }
 
+    public void setResumeTypingSearch(final boolean value) {
+        setBooleanOption(RESUME_TYPING_SEARCH, value);
+    }
+
     public void setWeightForLocale(final float value) {
         // We're passing this option as a fixed point value, in thousands. This is decoded in
         // native code by SuggestOptions#weightForLocale().
@@ -74,7 +74,7 @@ fun getFullEmojiAtEnd(text: CharSequence): String {
  *  Returns whether the [text] ends with word codepoint, ignoring all word connectors.
  *  If the [text] is empty (after ignoring word connectors), the method returns false.
  */
-fun endsWithWordCodepoint(text: String, spacingAndPunctuations: SpacingAndPunctuations): Boolean {
+fun endsWithWordCodepoint(text: CharSequence, spacingAndPunctuations: SpacingAndPunctuations): Boolean {
     if (text.isEmpty()) return false
     var codePoint = Constants.NOT_A_CODE
     loopOverCodePointsBackwards(text) { cp, _ ->
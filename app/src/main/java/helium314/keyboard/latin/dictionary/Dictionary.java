@@ -83,6 +83,40 @@ public abstract class Dictionary {
             final int sessionId, final float weightForLocale,
             final float[] inOutWeightOfLangModelVsSpatialModel);
 
+    /**
+     * Receives suggestions from {@link #collectSuggestions}.
+     */
+    public interface SuggestionCollector {
+        /**
+         * Returns whether a suggestion from the given dictionary with the given score may be
+         * added. Dictionaries use this to avoid creating suggestions that would be discarded
+         * anyway, so it must not return false for a suggestion that {@link #add} would keep.
+         */
+        boolean wouldAdd(final Dictionary sourceDict, final int score);
+
+        void add(final SuggestedWordInfo info);
+    }
+
+    /**
+     * Searches for suggestions like {@link #getSuggestions}, but passes them to the collector.
+     * Dictionaries backed by a native dictionary override this and only create the suggestions
+     * that the collector would add.
+     */
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionCollector collector) {
+        final ArrayList<SuggestedWordInfo> suggestions = getSuggestions(composedData, ngramContext,
+                proximityInfoHandle, settingsValuesForSuggestion, sessionId, weightForLocale,
+                inOutWeightOfLangModelVsSpatialModel);
+        if (suggestions == null) return;
+        for (final SuggestedWordInfo info : suggestions) {
+            collector.add(info);
+        }
+    }
+
     /**
      * Checks if the given word has to be treated as a valid word. Please note that some
      * dictionaries have entries that should be treated as invalid words.
@@ -62,6 +62,22 @@ public final class DictionaryCollection extends Dictionary {
         return suggestions;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionCollector collector) {
+        final ArrayList<Dictionary> dictionaries = mDictionaries;
+        final int length = dictionaries.size();
+        for (int i = 0; i < length; ++i) {
+            dictionaries.get(i).collectSuggestions(composedData, ngramContext, proximityInfoHandle,
+                    settingsValuesForSuggestion, sessionId, weightForLocale * mWeights[i],
+                    inOutWeightOfLangModelVsSpatialModel, collector);
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         for (int i = mDictionaries.size() - 1; i >= 0; --i)
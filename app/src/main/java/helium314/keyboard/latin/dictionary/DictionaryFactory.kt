@@ -10,6 +10,7 @@ import helium314.keyboard.latin.common.LocaleUtils
 import helium314.keyboard.latin.utils.DictionaryInfoUtils
 import helium314.keyboard.latin.utils.Log
 import java.io.File
+import java.io.IOException
 import java.util.LinkedList
 import java.util.Locale
 
@@ -39,6 +40,12 @@ object DictionaryFactory {
         nonExtracted.forEach { filename ->
             val type = filename.substringBefore("_")
             if (dictList.any { it.mDictType == type }) return@forEach
+            val assetsDictionary = getAssetsDictionary(context, filename, type, locale)
+            if (assetsDictionary != null) {
+                dictList.add(assetsDictionary)
+                return@forEach
+            }
+            // fall back to extracting, e.g. if the dictionary is stored compressed
             val extractedFile = DictionaryInfoUtils.extractAssetsDictionary(filename, locale, context) ?: return@forEach
             checkAndAddDictionaryToListIfNewType(extractedFile, dictList, locale)
         }
@@ -95,17 +102,45 @@ object DictionaryFactory {
         )
 
         if (readOnlyBinaryDictionary.isValidDictionary) {
-            if (locale.language == "ko") {
-                // Use KoreanDictionary for Korean locale
-                return KoreanDictionary(readOnlyBinaryDictionary)
-            }
-            return readOnlyBinaryDictionary
+            return wrapForLocale(readOnlyBinaryDictionary, locale)
         }
         readOnlyBinaryDictionary.close()
         killDictionary(file)
         return null
     }
 
+    /**
+     * Opens a dictionary from assets directly inside the APK, so it doesn't need to be extracted.
+     * Returns null if the asset can't be memory-mapped because it's compressed (see noCompress in build.gradle.kts),
+     * or if the dictionary is not valid.
+     */
+    private fun getAssetsDictionary(context: Context, filename: String, dictType: String, locale: Locale): Dictionary? {
+        val (offset, length) = try {
+            context.assets.openFd(DictionaryInfoUtils.ASSETS_DICTIONARY_FOLDER + File.separator + filename).use {
+                it.startOffset to it.length
+            }
+        } catch (_: IOException) {
+            return null
+        }
+        val readOnlyBinaryDictionary = ReadOnlyBinaryDictionary(
+            context.applicationInfo.sourceDir, offset, length, false, locale, dictType
+        )
+        if (readOnlyBinaryDictionary.isValidDictionary) {
+            return wrapForLocale(readOnlyBinaryDictionary, locale)
+        }
+        Log.w("DictionaryFactory", "could not load dictionary $filename from APK")
+        readOnlyBinaryDictionary.close()
+        return null
+    }
+
+    private fun wrapForLocale(dictionary: ReadOnlyBinaryDictionary, locale: Locale): Dictionary {
+        if (locale.language == "ko") {
+            // Use KoreanDictionary for Korean locale
+            return KoreanDictionary(dictionary)
+        }
+        return dictionary
+    }
+
     private fun killDictionary(file: File) {
         Log.e("DictionaryFactory", "could not load dictionary ${file.parentFile?.name}/${file.name}, deleting")
         file.delete()
@@ -0,0 +1,57 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.dictionary
+
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Latency counters of suggestion lookups for each dictionary type, shown in debug settings.
+ * Recording does not lock, as lookups in parallel record from multiple threads at the same time.
+ */
+object DictionaryLookupStats {
+    private class Counter {
+        val lookups = AtomicLong()
+        val totalNanos = AtomicLong()
+        val maxNanos = AtomicLong()
+        val timeouts = AtomicLong()
+        val skipped = AtomicLong()
+    }
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+
+    private fun counter(dictType: String) = counters[dictType] ?: counters.computeIfAbsent(dictType) { Counter() }
+
+    fun recordLookup(dictType: String, nanos: Long) {
+        val counter = counter(dictType)
+        counter.lookups.incrementAndGet()
+        counter.totalNanos.addAndGet(nanos)
+        var max = counter.maxNanos.get()
+        while (nanos > max && !counter.maxNanos.compareAndSet(max, nanos))
+            max = counter.maxNanos.get()
+    }
+
+    /** The lookup did not finish before the deadline, and its results were not used. */
+    fun recordTimeout(dictType: String) {
+        counter(dictType).timeouts.incrementAndGet()
+    }
+
+    /** The lookup was not started because the dictionary was still busy with a timed out lookup. */
+    fun recordSkipped(dictType: String) {
+        counter(dictType).skipped.incrementAndGet()
+    }
+
+    fun reset() {
+        counters.clear()
+    }
+
+    fun dump(): String {
+        if (counters.isEmpty()) return "no lookups"
+        return counters.entries.sortedBy { it.key }.joinToString("\n") { (dictType, c) ->
+            val lookups = c.lookups.get()
+            val average = if (lookups == 0L) 0.0 else c.totalNanos.get().toDouble() / lookups / 1000000
+            String.format(Locale.ROOT, "%s: %d lookups, avg %.2f ms, max %.2f ms, %d timed out, %d skipped",
+                dictType, lookups, average, c.maxNanos.get() / 1000000.0, c.timeouts.get(), c.skipped.get())
+        }
+    }
+}
@@ -14,6 +14,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.inputmethod.latin.BinaryDictionary;
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.common.ComposedData;
@@ -33,6 +34,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -74,6 +76,9 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     /**
      * The binary dictionary generated dynamically from the fusion dictionary. This is used to
      * answer unigram and bigram queries.
+     * It's only modified by tasks on {@link #mUpdateExecutor}, which also need the write lock, as
+     * reading happens on other threads. When it's flushed, it's replaced by a new
+     * instance instead of being reopened, see {@link #flushAndReplaceBinaryDictionary(boolean)}.
      */
     private BinaryDictionary mBinaryDictionary;
 
@@ -94,6 +99,23 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
 
     private final ReentrantReadWriteLock mLock;
 
+    /** Runs the tasks modifying or flushing the dictionary in the order they are submitted. */
+    private final Executor mUpdateExecutor = ExecutorUtils.newSerialExecutor(ExecutorUtils.KEYBOARD);
+
+    /** Incremented by every task that modifies the dictionary, guarded by the write lock. */
+    private int mModificationCount;
+
+    private final Object mFlushLock = new Object();
+
+    /** Number of GC results discarded in a row because of modifications, guarded by mFlushLock. */
+    private int mDiscardedGCCount;
+
+    /**
+     * After this many discarded GC results, GC runs while holding the write lock, so it's not
+     * delayed indefinitely while the dictionary is modified often.
+     */
+    private static final int MAX_DISCARDED_GC_COUNT = 3;
+
     /* A extension for a binary dictionary file. */
     protected static final String DICT_FILE_EXTENSION = ".dict";
 
@@ -151,7 +173,15 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     private void asyncExecuteTaskWithWriteLock(final Runnable task) {
-        asyncExecuteTaskWithLock(mLock.writeLock(), task);
+        mUpdateExecutor.execute(() -> {
+            mLock.writeLock().lock();
+            try {
+                mModificationCount++;
+                task.run();
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        });
     }
 
     private static void asyncExecuteTaskWithLock(final Lock lock, final Runnable task) {
@@ -240,11 +270,11 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      * Check whether GC is needed and run GC if required.
      */
     public void runGCIfRequired(final boolean mindsBlockByGC) {
-        asyncExecuteTaskWithWriteLock(() -> {
+        mUpdateExecutor.execute(() -> {
             if (getBinaryDictionary() == null) {
                 return;
             }
-            runGCIfRequiredLocked(mindsBlockByGC);
+            runGCIfRequiredWithoutBlockingReads(mindsBlockByGC);
         });
     }
 
@@ -254,14 +284,120 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         }
     }
 
+    /**
+     * Same as {@link #runGCIfRequiredLocked(boolean)}, but GC runs on a copy of the dictionary, so
+     * reading from the dictionary is not blocked meanwhile.
+     * Must be called on the keyboard executor, without holding the lock.
+     */
+    private void runGCIfRequiredWithoutBlockingReads(final boolean mindsBlockByGC) {
+        final boolean needsToRunGC;
+        mLock.readLock().lock();
+        try {
+            needsToRunGC = mBinaryDictionary != null && mBinaryDictionary.needsToRunGC(mindsBlockByGC);
+        } finally {
+            mLock.readLock().unlock();
+        }
+        if (needsToRunGC) {
+            flushAndReplaceBinaryDictionary(true /* withGC */);
+        }
+    }
+
+    /**
+     * Writes the dictionary to its file and replaces the binary dictionary by one that is opened
+     * from the written file, running GC on it if requested.
+     * Readers are only blocked while replacing the dictionary: writing the file does not modify
+     * the dictionary, so it only needs the read lock, and GC modifies only the new dictionary.
+     * Must be called without holding the lock. If the dictionary is modified after being written,
+     * the new dictionary is discarded, as it doesn't contain the modification. If this happens
+     * repeatedly when running GC, GC runs on the dictionary itself and blocks reading instead.
+     */
+    private void flushAndReplaceBinaryDictionary(final boolean withGC) {
+        // the file must only be written by one thread at a time
+        synchronized (mFlushLock) {
+            if (!withGC) {
+                flushAndReplaceBinaryDictionaryLocked(false);
+                return;
+            }
+            if (mDiscardedGCCount < MAX_DISCARDED_GC_COUNT) {
+                if (flushAndReplaceBinaryDictionaryLocked(true)) {
+                    mDiscardedGCCount = 0;
+                    return;
+                }
+                mDiscardedGCCount++;
+                Log.i(TAG, "Discarded GC result for " + mDictName + ", attempt " + mDiscardedGCCount);
+                return;
+            }
+            mDiscardedGCCount = 0;
+            mLock.writeLock().lock();
+            try {
+                if (mBinaryDictionary != null) {
+                    mBinaryDictionary.flushWithGC();
+                }
+            } finally {
+                mLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** Returns whether the dictionary was replaced by the flushed one. */
+    private boolean flushAndReplaceBinaryDictionaryLocked(final boolean withGC) {
+        final BinaryDictionary oldBinaryDictionary;
+        final int modificationCount;
+        mLock.readLock().lock();
+        try {
+            oldBinaryDictionary = mBinaryDictionary;
+            modificationCount = mModificationCount;
+            if (oldBinaryDictionary == null || !oldBinaryDictionary.flushWithoutReopening()) {
+                return false;
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        final BinaryDictionary newBinaryDictionary = new BinaryDictionary(
+                mDictFile.getAbsolutePath(), 0 /* offset */, mDictFile.length(),
+                true /* useFullEditDistance */, mLocale, mDictType, true /* isUpdatable */);
+        if (withGC) {
+            newBinaryDictionary.flushWithGC();
+        }
+        if (!newBinaryDictionary.isValidDictionary()) {
+            // keep using the old dictionary, it will be written again on the next flush
+            Log.e(TAG, "Can't open flushed dictionary " + mDictFile.getName());
+            newBinaryDictionary.close();
+            return false;
+        }
+        mLock.writeLock().lock();
+        try {
+            if (mBinaryDictionary != oldBinaryDictionary || mModificationCount != modificationCount) {
+                // modified or replaced meanwhile, keep the current dictionary
+                newBinaryDictionary.close();
+                return false;
+            }
+            mBinaryDictionary = newBinaryDictionary;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        // no reader can be using the old dictionary anymore
+        oldBinaryDictionary.close();
+        return true;
+    }
+
     private void updateDictionaryWithWriteLock(@NonNull final Runnable updateTask) {
         reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
+        mUpdateExecutor.execute(() -> {
             if (getBinaryDictionary() == null) {
                 return;
             }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            updateTask.run();
+            runGCIfRequiredWithoutBlockingReads(true /* mindsBlockByGC */);
+            mLock.writeLock().lock();
+            try {
+                if (getBinaryDictionary() == null) {
+                    return;
+                }
+                mModificationCount++;
+                updateTask.run();
+            } finally {
+                mLock.writeLock().unlock();
+            }
         });
     }
 
@@ -288,14 +424,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      * Dynamically remove the unigram entry from the dictionary.
      */
     public void removeUnigramEntryDynamically(final String word) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
-            final BinaryDictionary binaryDictionary = getBinaryDictionary();
-            if (binaryDictionary == null) {
-                return;
-            }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            if (!binaryDictionary.removeUnigramEntry(word)) {
+        updateDictionaryWithWriteLock(() -> {
+            if (!getBinaryDictionary().removeUnigramEntry(word)) {
                 if (DEBUG) {
                     Log.i(TAG, "Cannot remove unigram entry: " + word);
                 }
@@ -308,14 +438,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     public void addNgramEntry(@NonNull final NgramContext ngramContext, final String word,
             final int frequency, final int timestamp) {
-        reloadDictionaryIfRequired();
-        asyncExecuteTaskWithWriteLock(() -> {
-            if (getBinaryDictionary() == null) {
-                return;
-            }
-            runGCIfRequiredLocked(true /* mindsBlockByGC */);
-            addNgramEntryLocked(ngramContext, word, frequency, timestamp);
-        });
+        updateDictionaryWithWriteLock(() ->
+                addNgramEntryLocked(ngramContext, word, frequency, timestamp));
     }
 
     protected void addNgramEntryLocked(@NonNull final NgramContext ngramContext, final String word,
@@ -334,11 +458,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     public void updateEntriesForWord(@NonNull final NgramContext ngramContext,
             final String word, final boolean isValidWord, final int count, final int timestamp) {
         updateDictionaryWithWriteLock(() -> {
-            final BinaryDictionary binaryDictionary = getBinaryDictionary();
-            if (binaryDictionary == null) {
-                return;
-            }
-            if (!binaryDictionary.updateEntriesForWordWithNgramContext(ngramContext, word,
+            if (!getBinaryDictionary().updateEntriesForWordWithNgramContext(ngramContext, word,
                     isValidWord, count, timestamp)) {
                 if (DEBUG) {
                     Log.e(TAG, "Cannot update counter. word: " + word
@@ -348,6 +468,45 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         });
     }
 
+    /**
+     * Update dictionary for multiple words at once, like {@link #updateEntriesForWord} with a count of 1.
+     * If GC is needed in between, it runs like for other updates, so it doesn't block reading.
+     * @param onApplied run on the background thread after the dictionary was updated, may be null
+     */
+    public void updateEntriesForInputEvents(
+            @NonNull final WordInputEventForPersonalization[] inputEvents,
+            @Nullable final Runnable onApplied) {
+        reloadDictionaryIfRequired();
+        mUpdateExecutor.execute(() -> {
+            int processedEventCount = 0;
+            while (processedEventCount < inputEvents.length) {
+                if (getBinaryDictionary() == null) {
+                    return;
+                }
+                runGCIfRequiredWithoutBlockingReads(true /* mindsBlockByGC */);
+                mLock.writeLock().lock();
+                try {
+                    final BinaryDictionary binaryDictionary = getBinaryDictionary();
+                    if (binaryDictionary == null) {
+                        return;
+                    }
+                    mModificationCount++;
+                    processedEventCount = binaryDictionary.updateEntriesForInputEventsUntilGC(
+                            inputEvents, processedEventCount);
+                } finally {
+                    mLock.writeLock().unlock();
+                }
+                if (processedEventCount <= 0) {
+                    Log.e(TAG, "Cannot update entries for input events in " + mDictName);
+                    return;
+                }
+            }
+            if (onApplied != null) {
+                onApplied.run();
+            }
+        });
+    }
+
     @Override
     public ArrayList<SuggestedWordInfo> getSuggestions(final ComposedData composedData,
             final NgramContext ngramContext, final long proximityInfoHandle,
@@ -383,6 +542,39 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         return null;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion, final int sessionId,
+            final float weightForLocale, final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionCollector collector) {
+        reloadDictionaryIfRequired();
+        boolean lockAcquired = false;
+        try {
+            lockAcquired = mLock.readLock().tryLock(
+                    TIMEOUT_FOR_READ_OPS_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (lockAcquired) {
+                if (mBinaryDictionary == null) {
+                    return;
+                }
+                mBinaryDictionary.collectSuggestions(composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, inOutWeightOfLangModelVsSpatialModel, collector);
+                if (mBinaryDictionary.isCorrupted()) {
+                    Log.i(TAG, "Dictionary (" + mDictName +") is corrupted. "
+                            + "Remove and regenerate it.");
+                    removeBinaryDictionary();
+                }
+            }
+        } catch (final InterruptedException e) {
+            Log.e(TAG, "Interrupted tryLock() in collectSuggestions().", e);
+        } finally {
+            if (lockAcquired) {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         reloadDictionaryIfRequired();
@@ -550,16 +742,19 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     @Override
     public void onFinishInput() {
-        asyncExecuteTaskWithWriteLock(() -> {
+        mUpdateExecutor.execute(() -> {
             final BinaryDictionary binaryDictionary = getBinaryDictionary();
-            if (binaryDictionary == null) {
+            if (binaryDictionary == null || !binaryDictionary.hasUpdated()) {
                 return;
             }
-            if (binaryDictionary.needsToRunGC(false /* mindsBlockByGC */)) {
-                binaryDictionary.flushWithGCIfHasUpdated();
-            } else {
-                binaryDictionary.flush();
+            final boolean needsToRunGC;
+            mLock.readLock().lock();
+            try {
+                needsToRunGC = binaryDictionary.needsToRunGC(false /* mindsBlockByGC */);
+            } finally {
+                mLock.readLock().unlock();
             }
+            flushAndReplaceBinaryDictionary(needsToRunGC);
         });
     }
 
@@ -48,7 +48,8 @@ public class KoreanDictionary extends Dictionary {
                   NgramContext ngramContext, long proximityInfoHandle, SettingsValuesForSuggestion settingsValuesForSuggestion,
                   int sessionId, float weightForLocale, float[] inOutWeightOfLangModelVsSpatialModel) {
         composedData = new ComposedData(composedData.mInputPointers,
-                composedData.mIsBatchMode, processInput(composedData.mTypedWord));
+                composedData.mIsBatchMode, processInput(composedData.mTypedWord),
+                composedData.mExtendsPreviousInput);
         ArrayList<SuggestedWords.SuggestedWordInfo> suggestions = mDictionary.getSuggestions(composedData,
                 ngramContext, proximityInfoHandle, settingsValuesForSuggestion, sessionId,
                 weightForLocale, inOutWeightOfLangModelVsSpatialModel);
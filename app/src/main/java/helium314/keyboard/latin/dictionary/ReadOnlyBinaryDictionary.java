@@ -61,6 +61,24 @@ public final class ReadOnlyBinaryDictionary extends Dictionary {
         return null;
     }
 
+    @Override
+    public void collectSuggestions(final ComposedData composedData,
+            final NgramContext ngramContext, final long proximityInfoHandle,
+            final SettingsValuesForSuggestion settingsValuesForSuggestion,
+            final int sessionId, final float weightForLocale,
+            final float[] inOutWeightOfLangModelVsSpatialModel,
+            final SuggestionCollector collector) {
+        if (mLock.readLock().tryLock()) {
+            try {
+                mBinaryDictionary.collectSuggestions(composedData, ngramContext,
+                        proximityInfoHandle, settingsValuesForSuggestion, sessionId,
+                        weightForLocale, inOutWeightOfLangModelVsSpatialModel, collector);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+    }
+
     @Override
     public boolean isInDictionary(final String word) {
         if (mLock.readLock().tryLock()) {
@@ -0,0 +1,90 @@
+// SPDX-License-Identifier: GPL-3.0-only
+
+package helium314.keyboard.latin.dictionary;
+
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
+
+/**
+ * Reusable output of a native suggestion search. The arrays are filled by the native side, and
+ * candidates are only turned into {@link SuggestedWordInfo} when they are actually needed, so a
+ * search whose candidates are all discarded does not allocate anything.
+ * Word code points are stored in slots of {@link #mMaxWordLength}, terminated by 0 if shorter.
+ */
+public final class SuggestionResultBuffer {
+    public final int mMaxResults;
+    public final int mMaxWordLength;
+    public final int[] mOutputSuggestionCount = new int[1];
+    public final int[] mOutputCodePoints;
+    public final int[] mOutputScores;
+    public final int[] mSpaceIndices;
+    public final int[] mOutputTypes;
+    // Only one result is ever used
+    public final int[] mOutputAutoCommitFirstWordConfidence = new int[1];
+
+    public SuggestionResultBuffer(final int maxResults, final int maxWordLength) {
+        mMaxResults = maxResults;
+        mMaxWordLength = maxWordLength;
+        mOutputCodePoints = new int[maxWordLength * maxResults];
+        mOutputScores = new int[maxResults];
+        mSpaceIndices = new int[maxResults];
+        mOutputTypes = new int[maxResults];
+    }
+
+    /** Clears the results, to be called before a search that may not fill the buffer. */
+    public void clear() {
+        mOutputSuggestionCount[0] = 0;
+    }
+
+    public int getCount() {
+        return Math.min(Math.max(mOutputSuggestionCount[0], 0), mMaxResults);
+    }
+
+    /** Returns the number of code points of the word at the given index, 0 for an empty word. */
+    public int getWordLength(final int index) {
+        final int start = index * mMaxWordLength;
+        int len = 0;
+        while (len < mMaxWordLength && mOutputCodePoints[start + len] != 0) {
+            ++len;
+        }
+        return len;
+    }
+
+    /** Returns the score of the word at the given index, weighted like in the created infos. */
+    public int getScore(final int index, final float weightForLocale) {
+        return (int) (mOutputScores[index] * weightForLocale);
+    }
+
+    /**
+     * Creates a {@link SuggestedWordInfo} for the word at the given index.
+     * @param len the word length as returned by {@link #getWordLength}, must be greater than 0.
+     */
+    public SuggestedWordInfo createSuggestedWordInfo(final int index, final int len,
+            final float weightForLocale, final Dictionary sourceDict) {
+        final SuggestedWordInfo info = new SuggestedWordInfo(
+                new String(mOutputCodePoints, index * mMaxWordLength, len),
+                "" /* prevWordsContext */,
+                getScore(index, weightForLocale),
+                mOutputTypes[index],
+                sourceDict,
+                mSpaceIndices[index] /* indexOfTouchPointOfSecondWord */,
+                mOutputAutoCommitFirstWordConfidence[0]);
+        info.mOriginalScore = mOutputScores[index]; // no locale weight!
+        return info;
+    }
+
+    /**
+     * Passes the words in this buffer to the given collector, creating {@link SuggestedWordInfo}
+     * only for words the collector would add.
+     */
+    public void collectSuggestions(final float weightForLocale, final Dictionary sourceDict,
+            final Dictionary.SuggestionCollector collector) {
+        final int count = getCount();
+        for (int j = 0; j < count; ++j) {
+            if (!collector.wouldAdd(sourceDict, getScore(j, weightForLocale))) continue;
+            final int len = getWordLength(j);
+            if (len > 0) {
+                collector.add(createSuggestedWordInfo(j, len, weightForLocale, sourceDict));
+            }
+        }
+    }
+}
@@ -58,6 +58,7 @@ import helium314.keyboard.latin.suggestions.SuggestionStripViewAccessor;
 import helium314.keyboard.latin.utils.AsyncResultHolder;
 import helium314.keyboard.latin.utils.DictionaryInfoUtils;
 import helium314.keyboard.latin.utils.GestureDataGatheringKt;
+import helium314.keyboard.latin.utils.InputLatency;
 import helium314.keyboard.latin.utils.InputTypeUtils;
 import helium314.keyboard.latin.utils.IntentUtils;
 import helium314.keyboard.latin.utils.Log;
@@ -221,6 +222,8 @@ public final class InputLogic {
         resetComposingState(true);
         mInputLogicHandler.reset();
         mSpaceState = SpaceState.NONE;
+        // don't wait for the next frame, the input connection may be gone by then
+        mConnection.sendPendingWrites();
     }
 
     /**
@@ -394,6 +397,8 @@ public final class InputLogic {
             // note that arrow keys are not considered, because for them isBelatedExpectedUpdate returns false
             return expectCursorMove;
         }
+        // the cursor was moved by something else, writes deferred on slow editors would end up at the wrong position
+        mConnection.discardPendingWrites();
 
         // if all text is gone, we treat it like onStartInput
         if (GestureDataGatheringKt.useBackgroundGathering && newSelStart == 0 && newSelEnd == 0 && !mConnection.hasTextAfterCursor())
@@ -524,7 +529,7 @@ public final class InputLogic {
         }
         // Try to record the word being corrected when the user enters a word character or
         // the backspace key.
-        if (!mConnection.hasSlowInputConnection() && !mWordComposer.isComposingWord()
+        if (!mConnection.shouldSkipRecorrectionLookups() && !mWordComposer.isComposingWord()
                 && (settingsValues.isWordCodePoint(processedEvent.getCodePoint())
                     || processedEvent.getKeyCode() == KeyCode.DELETE)
                 ) {
@@ -1089,7 +1094,7 @@ public final class InputLogic {
         // each time. We are already doing this for getTextBeforeCursor().
                 (!settingsValues.mSpacingAndPunctuations.mCurrentLanguageHasSpaces
                         || !mConnection.isCursorTouchingWord(settingsValues.mSpacingAndPunctuations,
-                                !mConnection.hasSlowInputConnection() /* checkTextAfter */)
+                                !mConnection.shouldSkipRecorrectionLookups() /* checkTextAfter */)
                         || isCursorAtStartOrAfterSeparator(settingsValues))) {
             // Reset entirely the composing state anyway, then start composing a new word unless
             // the character is a word connector. The idea here is, word connectors are not
@@ -1457,7 +1462,7 @@ public final class InputLogic {
                 unlearnWordBeingDeleted(
                         inputTransaction.getSettingsValues(), currentKeyboardScript);
             }
-            if (mConnection.hasSlowInputConnection()) {
+            if (mConnection.shouldSkipRecorrectionLookups()) {
                 mSuggestionStripViewAccessor.setNeutralSuggestionStrip();
             } else if (inputTransaction.getSettingsValues().needsToLookupSuggestions()
                     && inputTransaction.getSettingsValues().mSpacingAndPunctuations.mCurrentLanguageHasSpaces) {
@@ -1503,6 +1508,7 @@ public final class InputLogic {
     void unlearnWord(String word, SettingsValues settingsValues, DictionaryFacilitator.UnlearnEvent event) {
         NgramContext ngramContext = mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2);
         long timeStampInSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        mSuggest.onUserHistoryChanged(ngramContext, word);
         mDictionaryFacilitator.unlearnFromUserHistory(word, ngramContext, timeStampInSeconds, event);
     }
 
@@ -1718,6 +1724,8 @@ public final class InputLogic {
             return;
         }
         final int timeStampInSeconds = (int)TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        // invalidate before learning, as learning may modify the ngram context
+        mSuggest.onUserHistoryChanged(ngramContext, word);
         mDictionaryFacilitator.addToUserHistory(word, wasAutoCapitalized, ngramContext,
                 timeStampInSeconds, settingsValues.mBlockPotentiallyOffensive);
     }
@@ -1734,19 +1742,20 @@ public final class InputLogic {
         mLastComposedWord = LastComposedWord.NOT_A_COMPOSED_WORD; // avoid storing consecutive emojis
 
         // commit emoji to dictionary, so it ends up in history and can be suggested as next word
+        final NgramContext ngramContext = mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2);
+        mSuggest.onUserHistoryChanged(ngramContext, text);
         mDictionaryFacilitator.addToUserHistory(
             text,
             false,
-            mConnection.getNgramContextFromNthPreviousWord(settingsValues.mSpacingAndPunctuations, 2),
+            ngramContext,
             (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()),
             settingsValues.mBlockPotentiallyOffensive
         );
     }
 
     public void performUpdateSuggestionStripSync(final SettingsValues settingsValues, final int inputStyle) {
-        long startTimeMillis = 0;
+        final long startNanos = InputLatency.start();
         if (DebugFlags.DEBUG_ENABLED) {
-            startTimeMillis = SystemClock.elapsedRealtime();
             Log.d(TAG, "performUpdateSuggestionStripSync()");
         }
         // Check if we have a suggestion engine attached.
@@ -1797,8 +1806,9 @@ public final class InputLogic {
                 mSuggestionStripViewAccessor.showSuggestionStrip();
             }
         }
+        InputLatency.end(InputLatency.Stage.SUGGESTION_STRIP, startNanos);
         if (DebugFlags.DEBUG_ENABLED) {
-            long runTimeMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+            long runTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
             Log.d(TAG, "performUpdateSuggestionStripSync() : " + runTimeMillis + " ms to finish");
         }
     }
@@ -1825,7 +1835,9 @@ public final class InputLogic {
                 // If the cursor is not touching a word, or if there is a selection, return right away.
                 || mConnection.hasSelection()
                 // If we don't know the cursor location, return.
-                || mConnection.getExpectedSelectionStart() < 0) {
+                || mConnection.getExpectedSelectionStart() < 0
+                // If looking up the word at the cursor is slow in this editor, don't do it on every cursor move.
+                || mConnection.shouldSkipRecorrectionLookups()) {
             mSuggestionStripViewAccessor.setNeutralSuggestionStrip();
             return;
         }
@@ -2563,18 +2575,31 @@ public final class InputLogic {
         mWordComposer.adviseCapitalizedModeBeforeFetchingSuggestions(
                 getActualCapsMode(settingsValues, KeyboardSwitcher.getInstance().getKeyboardCapsMode()));
         try {
-            SuggestedWords suggestedWords = mSuggest.getSuggestedWords(mWordComposer.copy(),
-                    getNgramContextFromNthPreviousWordForSuggestion(
+            final NgramContext ngramContext = getNgramContextFromNthPreviousWordForSuggestion(
                     settingsValues.mSpacingAndPunctuations,
                     // Get the word on which we should search the bigrams. If we are composing
                     // a word, it's whatever is *before* the half-committed word in the buffer,
                     // hence 2; if we aren't, we should just skip whitespace if any, so 1.
-                    mWordComposer.isComposingWord() ? 2 : 1),
+                    mWordComposer.isComposingWord() ? 2 : 1);
+            final SuggestedWords suggestedWords = mSuggest.getSuggestedWords(mWordComposer.copy(),
+                    ngramContext,
                     keyboard,
                     settingsValues.mSettingsValuesForSuggestion,
                     settingsValues.mAutoCorrectEnabled,
                     inputStyle, sequenceNumber);
             callback.onGetSuggestedWords(suggestedWords);
+            if (inputStyle == SuggestedWords.INPUT_STYLE_TYPING && mWordComposer.isComposingWord()
+                    && settingsValues.mBigramPredictionEnabled) {
+                // next word suggestions will likely be needed soon, so get them while the user is not typing
+                mInputLogicHandler.schedulePrefetch(cancellationSignal -> {
+                    try {
+                        mSuggest.prefetchNextWordSuggestions(suggestedWords, ngramContext, keyboard,
+                                settingsValues.mSettingsValuesForSuggestion, cancellationSignal::isCanceled);
+                    } catch (Exception e) {
+                        Log.w(TAG, "Error prefetching next word suggestions", e);
+                    }
+                });
+            }
         } catch (Exception e) {
             // better go without suggestions than have the keyboard crash
             Log.e(TAG, "Error fetching suggested words, using empty words instead", e);
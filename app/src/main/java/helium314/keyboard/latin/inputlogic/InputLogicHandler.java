@@ -6,36 +6,53 @@
 
 package helium314.keyboard.latin.inputlogic;
 
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
 
 import helium314.keyboard.latin.LatinIME;
 import helium314.keyboard.latin.SuggestedWords;
 import helium314.keyboard.latin.common.InputPointers;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * A helper to manage deferred tasks for the input logic.
  */
 class InputLogicHandler implements Handler.Callback {
     final Handler mNonUIThreadHandler;
+    // Prefetching runs on its own thread at low priority, so it never delays getting suggestions.
+    private final Handler mPrefetchHandler;
     final LatinIME.UIHandler mLatinIMEHandler;
     final InputLogic mInputLogic;
     private final Object mLock = new Object();
     private boolean mInBatchInput; // synchronized using {@link #mLock}.
 
     private static final int MSG_GET_SUGGESTED_WORDS = 1;
+    private static final int MSG_PREFETCH_NEXT_WORD_SUGGESTIONS = 2;
+
+    // Wait a little before prefetching, so it doesn't delay suggestions while the user is still typing quickly.
+    private static final long PREFETCH_DELAY_MILLIS = 100;
+    // Signal of the scheduled or running prefetch, cancelled when it becomes outdated.
+    private final AtomicReference<CancellationSignal> mPrefetchCancellationSignal = new AtomicReference<>();
 
     public InputLogicHandler(final LatinIME.UIHandler latinIMEHandler, final InputLogic inputLogic) {
         final HandlerThread handlerThread = new HandlerThread(
                 InputLogicHandler.class.getSimpleName());
         handlerThread.start();
         mNonUIThreadHandler = new Handler(handlerThread.getLooper(), this);
+        final HandlerThread prefetchThread = new HandlerThread(
+                InputLogicHandler.class.getSimpleName() + "Prefetch", Process.THREAD_PRIORITY_BACKGROUND);
+        prefetchThread.start();
+        mPrefetchHandler = new Handler(prefetchThread.getLooper(), this);
         mLatinIMEHandler = latinIMEHandler;
         mInputLogic = inputLogic;
     }
 
     public void reset() {
+        cancelPrefetch(null);
         mNonUIThreadHandler.removeCallbacksAndMessages(null);
     }
 
@@ -43,10 +60,10 @@ class InputLogicHandler implements Handler.Callback {
      * Handle a message.
      * @see android.os.Handler.Callback#handleMessage(android.os.Message)
      */
-    // Called on the Non-UI handler thread by the Handler code.
+    // Called on the Non-UI handler thread or the prefetch thread by the Handler code.
     @Override
     public boolean handleMessage(final Message msg) {
-        if (msg.what == MSG_GET_SUGGESTED_WORDS)
+        if (msg.what == MSG_GET_SUGGESTED_WORDS || msg.what == MSG_PREFETCH_NEXT_WORD_SUGGESTIONS)
             ((Runnable)msg.obj).run();
         return true;
     }
@@ -158,6 +175,37 @@ class InputLogicHandler implements Handler.Callback {
     }
 
     public void getSuggestedWords(final Runnable callback) {
+        // any new request means the composing word or the cursor position changed
+        cancelPrefetch(null);
         mNonUIThreadHandler.obtainMessage(MSG_GET_SUGGESTED_WORDS, callback).sendToTarget();
     }
+
+    /**
+     * Schedule a prefetch of next word suggestions, replacing a previously scheduled one.
+     * The prefetch is cancelled by the next request for suggested words, and should check the
+     * cancellation signal to stop early. It runs on the prefetch thread, so a running prefetch
+     * does not delay the next request.
+     */
+    // Called on the Non-UI handler thread after getting suggestions for typing.
+    public void schedulePrefetch(final PrefetchTask task) {
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        cancelPrefetch(cancellationSignal);
+        final Runnable prefetch = () -> {
+            if (!cancellationSignal.isCanceled())
+                task.prefetch(cancellationSignal);
+        };
+        mPrefetchHandler.sendMessageDelayed(
+                mPrefetchHandler.obtainMessage(MSG_PREFETCH_NEXT_WORD_SUGGESTIONS, prefetch), PREFETCH_DELAY_MILLIS);
+    }
+
+    private void cancelPrefetch(final CancellationSignal newCancellationSignal) {
+        mPrefetchHandler.removeMessages(MSG_PREFETCH_NEXT_WORD_SUGGESTIONS);
+        final CancellationSignal previous = mPrefetchCancellationSignal.getAndSet(newCancellationSignal);
+        if (previous != null)
+            previous.cancel();
+    }
+
+    interface PrefetchTask {
+        void prefetch(CancellationSignal cancellationSignal);
+    }
 }
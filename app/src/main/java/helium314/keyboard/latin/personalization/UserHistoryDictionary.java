@@ -12,14 +12,20 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.inputmethod.latin.BinaryDictionary;
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization;
 import helium314.keyboard.latin.dictionary.Dictionary;
 import helium314.keyboard.latin.dictionary.ExpandableBinaryDictionary;
 import helium314.keyboard.latin.NgramContext;
 import helium314.keyboard.latin.makedict.DictionaryHeader;
+import helium314.keyboard.latin.utils.ExecutorUtils;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Locally gathers statistics about the words user types and various other signals like
@@ -29,6 +35,18 @@ import java.util.Map;
 public class UserHistoryDictionary extends ExpandableBinaryDictionary {
     static final String NAME = UserHistoryDictionary.class.getSimpleName();
 
+    // Learned words are applied in batches, so fast typing does not result in a dictionary update
+    // and GC check for every single word.
+    private static final int MAX_PENDING_INPUT_EVENTS = 8;
+    private static final long PENDING_INPUT_EVENTS_DELAY_MILLIS = 1000;
+
+    private final ArrayList<WordInputEventForPersonalization> mPendingInputEvents = new ArrayList<>();
+    @Nullable
+    private ScheduledFuture<?> mScheduledApplyInputEvents; // synchronized using mPendingInputEvents
+
+    // run after the pending input events were applied, synchronized using mPendingInputEvents
+    private final LinkedHashSet<Runnable> mPendingOnApplied = new LinkedHashSet<>();
+
     // TODO: Make this constructor private
     UserHistoryDictionary(final Context context, final Locale locale) {
         super(context, getUserHistoryDictName(NAME, locale, null), locale, Dictionary.TYPE_USER_HISTORY, null);
@@ -57,17 +75,101 @@ public class UserHistoryDictionary extends ExpandableBinaryDictionary {
      * @param word the word the user inputted
      * @param isValid whether the word is valid or not
      * @param timestamp the timestamp when the word has been inputted
+     * @param onApplied run on a background thread once the word was added to a {@link UserHistoryDictionary},
+     *                  which happens some time later, may be null
      */
     public static void addToDictionary(final ExpandableBinaryDictionary userHistoryDictionary,
             @NonNull final NgramContext ngramContext, final String word, final boolean isValid,
-            final int timestamp) {
+            final int timestamp, @Nullable final Runnable onApplied) {
         if (word.length() > BinaryDictionary.DICTIONARY_MAX_WORD_LENGTH) {
             return;
         }
+        if (userHistoryDictionary instanceof UserHistoryDictionary dictionary) {
+            if (!word.isEmpty()) {
+                dictionary.addPendingInputEvent(
+                        new WordInputEventForPersonalization(word, ngramContext, isValid, timestamp), onApplied);
+            }
+            return;
+        }
         userHistoryDictionary.updateEntriesForWord(ngramContext, word,
                 isValid, 1 /* count */, timestamp);
     }
 
+    private void addPendingInputEvent(final WordInputEventForPersonalization inputEvent,
+            @Nullable final Runnable onApplied) {
+        synchronized (mPendingInputEvents) {
+            mPendingInputEvents.add(inputEvent);
+            if (onApplied != null) {
+                mPendingOnApplied.add(onApplied);
+            }
+            if (mPendingInputEvents.size() >= MAX_PENDING_INPUT_EVENTS) {
+                applyPendingInputEvents();
+            } else if (mScheduledApplyInputEvents == null) {
+                mScheduledApplyInputEvents = ExecutorUtils.getBackgroundExecutor(ExecutorUtils.KEYBOARD)
+                        .schedule(this::applyPendingInputEvents, PENDING_INPUT_EVENTS_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Queues a dictionary update for all pending input events. Must be called before any other
+     * update of the dictionary, so the updates are applied in the correct order. Updates of a
+     * dictionary run one after another, so batches can't overtake each other.
+     */
+    private void applyPendingInputEvents() {
+        synchronized (mPendingInputEvents) {
+            if (mScheduledApplyInputEvents != null) {
+                mScheduledApplyInputEvents.cancel(false);
+                mScheduledApplyInputEvents = null;
+            }
+            if (mPendingInputEvents.isEmpty()) {
+                return;
+            }
+            final WordInputEventForPersonalization[] inputEvents =
+                    mPendingInputEvents.toArray(new WordInputEventForPersonalization[0]);
+            mPendingInputEvents.clear();
+            final Runnable[] onApplied = mPendingOnApplied.toArray(new Runnable[0]);
+            mPendingOnApplied.clear();
+            // queued while holding the lock, so batches taken by different threads are queued in order
+            updateEntriesForInputEvents(inputEvents, onApplied.length == 0 ? null : () -> {
+                for (final Runnable runnable : onApplied) {
+                    runnable.run();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void removeUnigramEntryDynamically(final String word) {
+        applyPendingInputEvents();
+        super.removeUnigramEntryDynamically(word);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mPendingInputEvents) {
+            if (mScheduledApplyInputEvents != null) {
+                mScheduledApplyInputEvents.cancel(false);
+                mScheduledApplyInputEvents = null;
+            }
+            mPendingInputEvents.clear();
+            mPendingOnApplied.clear();
+        }
+        super.clear();
+    }
+
+    @Override
+    public void onFinishInput() {
+        applyPendingInputEvents();
+        super.onFinishInput();
+    }
+
+    @Override
+    public void close() {
+        applyPendingInputEvents();
+        super.close();
+    }
+
     @Override
     protected Map<String, String> getHeaderAttributeMap() {
         final Map<String, String> attributeMap = super.getHeaderAttributeMap();
@@ -13,10 +13,20 @@ public final class DebugSettings {
     public static final String PREF_DEBUG_MODE = "debug_mode";
     public static final String PREF_FORCE_NON_DISTINCT_MULTITOUCH = "force_non_distinct_multitouch";
     public static final String PREF_SLIDING_KEY_INPUT_PREVIEW = "sliding_key_input_preview";
+    public static final String PREF_GESTURE_TRAIL_RENDER_THREAD = "gesture_trail_render_thread";
     public static final String PREF_SHOW_DEBUG_SETTINGS = "show_debug_settings";
     public static final String PREF_KEY_DUMP_DICT_PREFIX = "dump_dictionaries";
 
     public static final String PREF_SHOW_SUGGESTION_INFOS = "show_suggestion_infos";
+    public static final String PREF_PARALLEL_DICTIONARY_LOOKUP = "parallel_dictionary_lookup";
+    public static final String PREF_DICTIONARY_LOOKUP_TIMEOUT = "dictionary_lookup_timeout";
+    public static final String PREF_DICTIONARY_LOOKUP_STATS = "dictionary_lookup_stats";
+    public static final String PREF_INPUT_LATENCY = "input_latency";
+    public static final String PREF_EDITOR_LATENCY = "editor_latency";
+    public static final String PREF_NEXT_WORD_CACHE_STATS = "next_word_cache_stats";
+    public static final String PREF_STARTUP_TRACE = "startup_trace";
+    public static final String PREF_KEYBOARD_CACHE_STATS = "keyboard_cache_stats";
+    public static final String PREF_NATIVE_HANDLES = "native_handles";
     private DebugSettings() {
         // This class is not publicly instantiable.
     }
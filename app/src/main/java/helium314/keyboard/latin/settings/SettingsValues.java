@@ -113,6 +113,9 @@ public class SettingsValues {
     public final int mGestureFastTypingCooldown;
     public final int mGestureTrailFadeoutDuration;
     public final boolean mSlidingKeyInputPreviewEnabled;
+    public final boolean mGestureTrailRenderThread;
+    public final boolean mParallelDictionaryLookup;
+    public final int mDictionaryLookupTimeoutMillis;
     public final int mKeyLongpressTimeout;
     public final boolean mEnableEmojiAltPhysicalKey;
     public final boolean mIsSplitKeyboardEnabled;
@@ -198,6 +201,12 @@ public class SettingsValues {
         mKeyPreviewPopupOn = prefs.getBoolean(Settings.PREF_POPUP_ON, Defaults.PREF_POPUP_ON);
         mSlidingKeyInputPreviewEnabled = prefs.getBoolean(
                 DebugSettings.PREF_SLIDING_KEY_INPUT_PREVIEW, Defaults.PREF_SLIDING_KEY_INPUT_PREVIEW);
+        mGestureTrailRenderThread = prefs.getBoolean(
+                DebugSettings.PREF_GESTURE_TRAIL_RENDER_THREAD, Defaults.PREF_GESTURE_TRAIL_RENDER_THREAD);
+        mParallelDictionaryLookup = prefs.getBoolean(
+                DebugSettings.PREF_PARALLEL_DICTIONARY_LOOKUP, Defaults.PREF_PARALLEL_DICTIONARY_LOOKUP);
+        mDictionaryLookupTimeoutMillis = prefs.getInt(
+                DebugSettings.PREF_DICTIONARY_LOOKUP_TIMEOUT, Defaults.PREF_DICTIONARY_LOOKUP_TIMEOUT);
         mShowsVoiceInputKey = mInputAttributes.mShouldShowVoiceInputKey;
         String languagePref = prefs.getString(Settings.PREF_LANGUAGE_SWITCH_KEY, Defaults.PREF_LANGUAGE_SWITCH_KEY);
         mLanguageSwitchKeyToOtherImes = languagePref.equals("input_method") || languagePref.equals("both");
@@ -312,7 +321,9 @@ public class SettingsValues {
         mKeyGapScale = Settings.readKeyGapScale(prefs, isLandscape, isFolded);
         mSettingsValuesForSuggestion = new SettingsValuesForSuggestion(
                 mBlockPotentiallyOffensive,
-                prefs.getBoolean(Settings.PREF_GESTURE_SPACE_AWARE, Defaults.PREF_GESTURE_SPACE_AWARE)
+                prefs.getBoolean(Settings.PREF_GESTURE_SPACE_AWARE, Defaults.PREF_GESTURE_SPACE_AWARE),
+                mParallelDictionaryLookup,
+                mDictionaryLookupTimeoutMillis
         );
         mSpacingAndPunctuations = new SpacingAndPunctuations(res, mUrlDetectionEnabled);
         mBottomPaddingScale = mIsFloatingKeyboard ? 0f : Settings.readBottomPaddingScale(prefs, isLandscape, isFolded);
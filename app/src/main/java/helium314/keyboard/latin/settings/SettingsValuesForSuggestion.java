@@ -13,9 +13,24 @@ public class SettingsValuesForSuggestion {
             final boolean blockPotentiallyOffensive,
             final boolean spaceAwareGesture
             ) {
+        this(blockPotentiallyOffensive, spaceAwareGesture, false, Defaults.PREF_DICTIONARY_LOOKUP_TIMEOUT);
+    }
+
+    public SettingsValuesForSuggestion(
+            final boolean blockPotentiallyOffensive,
+            final boolean spaceAwareGesture,
+            final boolean parallelDictionaryLookup,
+            final int dictionaryLookupTimeoutMillis
+            ) {
         mBlockPotentiallyOffensive = blockPotentiallyOffensive;
         mSpaceAwareGesture = spaceAwareGesture;
+        mParallelDictionaryLookup = parallelDictionaryLookup;
+        mDictionaryLookupTimeoutMillis = dictionaryLookupTimeoutMillis;
     }
 
     public final boolean mSpaceAwareGesture;
+    // whether the dictionaries of a language are looked up at the same time
+    public final boolean mParallelDictionaryLookup;
+    // how long to wait for dictionaries, also for a dictionary still busy with a timed out lookup
+    public final int mDictionaryLookupTimeoutMillis;
 }
@@ -158,8 +158,11 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         try {
             sessionId = mSessionIdPool.poll();
             DictionaryFacilitator dictionaryFacilitatorForLocale = mDictionaryFacilitatorCache.get(locale);
+            // the keyboard may have been closed in onUnbind after it was obtained
+            final Keyboard openKeyboard = keyboard.getProximityInfo().getNativeProximityInfo() != 0
+                    ? keyboard : getKeyboardForLocale(locale);
             return dictionaryFacilitatorForLocale.getSuggestionResults(composedData, ngramContext,
-                    keyboard, mSettingsValuesForSuggestion,
+                    openKeyboard, mSettingsValuesForSuggestion,
                     sessionId, SuggestedWords.INPUT_STYLE_TYPING);
         } finally {
             if (sessionId != null) {
@@ -185,10 +188,14 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         mSemaphore.acquireUninterruptibly(MAX_NUM_OF_THREADS_READ_DICTIONARY);
         try {
             mDictionaryFacilitatorCache.closeDictionaries();
+            // the keyboards are not cached elsewhere, and no lookup is using them
+            for (final Keyboard keyboard : mKeyboardCache.values()) {
+                keyboard.getProximityInfo().close();
+            }
+            mKeyboardCache.clear();
         } finally {
             mSemaphore.release(MAX_NUM_OF_THREADS_READ_DICTIONARY);
         }
-        mKeyboardCache.clear();
         return false;
     }
 
@@ -6,8 +6,12 @@
 
 package helium314.keyboard.latin.utils;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -20,9 +24,13 @@ public class ExecutorUtils {
 
     public static final String KEYBOARD = "Keyboard";
     public static final String SPELLING = "Spelling";
+    // for looking up suggestions in multiple dictionaries at the same time
+    public static final String SUGGESTIONS = "Suggestions";
 
     private static ScheduledExecutorService sKeyboardExecutorService = newExecutorService(KEYBOARD);
     private static ScheduledExecutorService sSpellingExecutorService = newExecutorService(SPELLING);
+    // only created when parallel dictionary lookup is used, see getSuggestionsExecutor
+    private static ScheduledThreadPoolExecutor sSuggestionsExecutorService;
 
     private static ScheduledExecutorService newExecutorService(final String name) {
         // use more than a single thread, to reduce the occasional wait (mostly relevant when using multiple languages)
@@ -70,10 +78,35 @@ public class ExecutorUtils {
         return switch (name) {
             case KEYBOARD -> sKeyboardExecutorService;
             case SPELLING -> sSpellingExecutorService;
+            case SUGGESTIONS -> getSuggestionsExecutor(0);
             default -> throw new IllegalArgumentException("Invalid executor: " + name);
         };
     }
 
+    /**
+     * Returns the executor for looking up suggestions in multiple dictionaries at the same time,
+     * with one thread for each of the given number of lookups, so they don't wait for each other.
+     * It's created when first needed, and its threads stop when not used for a while.
+     *
+     * @param lookups the number of dictionaries looked up at the same time, or 0 to keep the size
+     */
+    public static synchronized ScheduledExecutorService getSuggestionsExecutor(final int lookups) {
+        if (sExecutorServiceForTests != null) {
+            return sExecutorServiceForTests;
+        }
+        final int threads = Math.max(lookups, 1);
+        if (sSuggestionsExecutorService == null) {
+            final ScheduledThreadPoolExecutor executor =
+                    new ScheduledThreadPoolExecutor(threads, new ExecutorFactory(SUGGESTIONS));
+            executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            sSuggestionsExecutorService = executor;
+        } else if (lookups > 0 && sSuggestionsExecutorService.getCorePoolSize() != threads) {
+            sSuggestionsExecutorService.setCorePoolSize(threads);
+        }
+        return sSuggestionsExecutorService;
+    }
+
     public static void killTasks(final String name) {
         final ScheduledExecutorService executorService = getBackgroundExecutor(name);
         executorService.shutdownNow();
@@ -94,11 +127,86 @@ public class ExecutorUtils {
             case SPELLING:
                 sSpellingExecutorService = newExecutorService(SPELLING);
                 break;
+            case SUGGESTIONS:
+                synchronized (ExecutorUtils.class) {
+                    sSuggestionsExecutorService = null;
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Invalid executor: " + name);
         }
     }
 
+    /**
+     * Returns an executor that runs its tasks one at a time and in the order they were submitted,
+     * on the background executor with the given name.
+     */
+    public static Executor newSerialExecutor(final String name) {
+        return new SerialExecutor(name);
+    }
+
+    private static class SerialExecutor implements Executor {
+        private final String mName;
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mRunning; // synchronized using mTasks
+
+        private SerialExecutor(final String name) {
+            mName = name;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            synchronized (mTasks) {
+                mTasks.add(task);
+                if (mRunning) {
+                    return;
+                }
+                mRunning = true;
+            }
+            try {
+                getBackgroundExecutor(mName).execute(this::runTasks);
+            } catch (RejectedExecutionException e) {
+                synchronized (mTasks) {
+                    mRunning = false;
+                }
+                throw e;
+            }
+        }
+
+        private void runTasks() {
+            while (true) {
+                final Runnable task;
+                synchronized (mTasks) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mRunning = false;
+                        return;
+                    }
+                }
+                boolean completed = false;
+                try {
+                    task.run();
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        // the exception ends this thread, the remaining tasks run on a new one
+                        continueOnNewThread();
+                    }
+                }
+            }
+        }
+
+        private void continueOnNewThread() {
+            synchronized (mTasks) {
+                if (mTasks.isEmpty()) {
+                    mRunning = false;
+                    return;
+                }
+            }
+            getBackgroundExecutor(mName).execute(this::runTasks);
+        }
+    }
+
     public static Runnable chain(final Runnable... runnables) {
         return new RunnableChain(runnables);
     }
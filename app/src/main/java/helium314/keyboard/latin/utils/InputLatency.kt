@@ -0,0 +1,178 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.utils
+
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Latency histograms for the stages of handling input, from the touch event to the text being sent to the editor
+ * and the suggestions being shown. Recording does not allocate or lock, so it's always enabled, also in release
+ * builds. Results are shown and can be exported in debug settings.
+ * Stages starting at a touch event are measured from the latest touch event, and only once per touch event.
+ */
+object InputLatency {
+    enum class Stage(val description: String) {
+        TOUCH_DISPATCH("touch event to keyboard view"),
+        TOUCH_TO_KEY("touch event to key code"),
+        INPUT_LOGIC("input logic"),
+        INPUT_CONNECTION("input connection write"),
+        TOUCH_TO_COMMIT("touch event to text sent"),
+        SUGGESTION_STRIP("suggestion strip update"),
+        TOUCH_TO_SUGGESTIONS("touch event to suggestions shown"),
+    }
+
+    /**
+     * Histogram of latencies in microseconds, with 8 buckets for each doubling of the latency,
+     * so percentiles are accurate to about 12%.
+     */
+    class Histogram {
+        private val buckets = AtomicLongArray(BUCKETS)
+        private val recorded = AtomicLong()
+        private val sumMicros = AtomicLong()
+        private val maxMicros = AtomicLong()
+
+        fun record(micros: Long) {
+            val value = micros.coerceAtLeast(0)
+            buckets.incrementAndGet(bucketIndex(value))
+            recorded.incrementAndGet()
+            sumMicros.addAndGet(value)
+            var max = maxMicros.get()
+            while (value > max && !maxMicros.compareAndSet(max, value))
+                max = maxMicros.get()
+        }
+
+        val count get() = recorded.get()
+        val max get() = maxMicros.get()
+        val mean get() = if (count == 0L) 0.0 else sumMicros.get().toDouble() / count
+
+        /** Upper bound of the bucket containing the percentile, but not more than the maximum. */
+        fun percentile(percent: Int): Long {
+            val total = count
+            if (total == 0L) return 0
+            val rank = (total * percent + 99) / 100
+            var seen = 0L
+            for (i in 0 until BUCKETS) {
+                seen += buckets.get(i)
+                if (seen >= rank) return (bucketLowerBound(i + 1) - 1).coerceAtMost(max)
+            }
+            return max
+        }
+
+        /** Non-empty buckets as pairs of lower bound in microseconds and count. */
+        fun buckets(): List<Pair<Long, Long>> =
+            (0 until BUCKETS).mapNotNull { i -> buckets.get(i).takeIf { it > 0 }?.let { bucketLowerBound(i) to it } }
+
+        fun reset() {
+            for (i in 0 until BUCKETS) buckets.set(i, 0)
+            recorded.set(0)
+            sumMicros.set(0)
+            maxMicros.set(0)
+        }
+    }
+
+    private const val SUB_BUCKET_BITS = 3
+    private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+    // up to about 2^35 µs, larger values are counted in the last bucket
+    private const val BUCKETS = 33 * SUB_BUCKETS
+    // touch events with older times are not used as start, e.g. if the event time uses a different clock
+    private const val MAX_DISPATCH_NANOS = 10_000_000_000L
+
+    private val histograms = Array(Stage.entries.size) { Histogram() }
+    // time of the latest touch event in System.nanoTime, 0 if the stage was already recorded for this event
+    private val touchToKeyStart = AtomicLong()
+    private val touchToCommitStart = AtomicLong()
+    private val touchToSuggestionsStart = AtomicLong()
+
+    private fun bucketIndex(micros: Long): Int {
+        if (micros < SUB_BUCKETS) return micros.toInt()
+        val exponent = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+        val subBucket = (micros ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+        return ((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket).coerceAtMost(BUCKETS - 1)
+    }
+
+    private fun bucketLowerBound(index: Int): Long {
+        if (index < SUB_BUCKETS) return index.toLong()
+        val exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1
+        return (SUB_BUCKETS + index % SUB_BUCKETS).toLong() shl (exponent - SUB_BUCKET_BITS)
+    }
+
+    @JvmStatic
+    fun histogram(stage: Stage) = histograms[stage.ordinal]
+
+    @JvmStatic
+    fun record(stage: Stage, nanos: Long) = histograms[stage.ordinal].record(nanos / 1000)
+
+    /** Returns the start time to pass to [end]. */
+    @JvmStatic
+    fun start() = System.nanoTime()
+
+    @JvmStatic
+    fun end(stage: Stage, startNanos: Long) = record(stage, System.nanoTime() - startNanos)
+
+    /**
+     * Called when the keyboard view receives a touch event.
+     * @param eventTimeMillis the time of the event in [android.os.SystemClock.uptimeMillis], which on Android uses
+     *  the same clock as [System.nanoTime]
+     */
+    @JvmStatic
+    fun onTouchEvent(eventTimeMillis: Long) {
+        val now = System.nanoTime()
+        val eventNanos = eventTimeMillis * 1_000_000
+        val start = if (eventNanos in now - MAX_DISPATCH_NANOS..now) {
+            record(Stage.TOUCH_DISPATCH, now - eventNanos)
+            eventNanos
+        } else now
+        touchToKeyStart.set(start)
+        touchToCommitStart.set(start)
+        touchToSuggestionsStart.set(start)
+    }
+
+    /** Called when the keyboard action listener receives a key code. */
+    @JvmStatic
+    fun onKeyCode() = recordSinceTouch(Stage.TOUCH_TO_KEY, touchToKeyStart)
+
+    /** Called when text was committed or set as composing text. */
+    @JvmStatic
+    fun onTextSent() = recordSinceTouch(Stage.TOUCH_TO_COMMIT, touchToCommitStart)
+
+    /** Called when suggestions were set in the suggestion strip. */
+    @JvmStatic
+    fun onSuggestionsShown() = recordSinceTouch(Stage.TOUCH_TO_SUGGESTIONS, touchToSuggestionsStart)
+
+    private fun recordSinceTouch(stage: Stage, touchStart: AtomicLong) {
+        val start = touchStart.getAndSet(0)
+        if (start != 0L) record(stage, System.nanoTime() - start)
+    }
+
+    @JvmStatic
+    fun reset() {
+        histograms.forEach { it.reset() }
+    }
+
+    @JvmStatic
+    fun dump(): String {
+        val lines = Stage.entries.mapNotNull { stage ->
+            val h = histogram(stage)
+            if (h.count == 0L) return@mapNotNull null
+            String.format(Locale.ROOT, "%s: %d, p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+                stage.description, h.count, h.percentile(50) / 1000.0, h.percentile(95) / 1000.0,
+                h.percentile(99) / 1000.0, h.max / 1000.0)
+        }
+        return if (lines.isEmpty()) "no input recorded" else lines.joinToString("\n")
+    }
+
+    /** Tab separated values in microseconds, with the non-empty histogram buckets as lower bound:count. */
+    @JvmStatic
+    fun export(): String {
+        val sb = StringBuilder("stage\tcount\tmean\tp50\tp95\tp99\tmax\tbuckets\n")
+        Stage.entries.forEach { stage ->
+            val h = histogram(stage)
+            sb.append(String.format(Locale.ROOT, "%s\t%d\t%.1f\t%d\t%d\t%d\t%d\t", stage.name.lowercase(Locale.ROOT),
+                h.count, h.mean, h.percentile(50), h.percentile(95), h.percentile(99), h.max))
+            h.buckets().joinTo(sb, " ") { (lowerBound, count) -> "$lowerBound:$count" }
+            sb.append('\n')
+        }
+        return sb.toString()
+    }
+}
@@ -7,6 +7,7 @@ import helium314.keyboard.keyboard.KeyboardElement
 import helium314.keyboard.keyboard.KeyboardLayoutSet
 import helium314.keyboard.keyboard.KeyboardSwitcher
 import helium314.keyboard.keyboard.internal.KeyboardParams
+import helium314.keyboard.keyboard.internal.keyboard_parser.CompiledLayouts
 import helium314.keyboard.keyboard.internal.keyboard_parser.LayoutParser
 import helium314.keyboard.keyboard.internal.keyboard_parser.LocaleKeyboardInfos
 import helium314.keyboard.latin.common.Constants.Separators
@@ -111,6 +112,7 @@ object LayoutUtilsCustom {
 
     fun onLayoutFileChanged() {
         customLayoutMap.clear()
+        CompiledLayouts.onLayoutFileChanged()
     }
 
     fun deleteLayout(layoutName: String, layoutType: LayoutType, context: Context) {
@@ -0,0 +1,123 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.utils
+
+import java.lang.ref.PhantomReference
+import java.lang.ref.ReferenceQueue
+import java.util.Locale
+import java.util.TreeMap
+
+/**
+ * Keeps track of native memory owned by Java objects, i.e. dictionaries, traverse sessions and proximity info.
+ * Handles are released explicitly when the owner is closed. If the owner becomes unreachable before, the handle is
+ * released the next time a handle is registered or [releaseUnreachable] is called, without waiting for finalizers.
+ * For types that should be closed explicitly this is counted as leak, and shown in debug settings.
+ */
+object NativeHandles {
+    private const val TAG = "NativeHandles"
+
+    fun interface Releaser {
+        fun release(handle: Long)
+    }
+
+    class Handle internal constructor(
+        owner: Any,
+        val type: String,
+        val handle: Long,
+        val sizeBytes: Long,
+        val description: String,
+        internal val requiresClose: Boolean,
+        internal val releaser: Releaser,
+    ) : PhantomReference<Any>(owner, queue) {
+        internal var released = false // guarded by NativeHandles
+
+        /** Releases the native handle now, does nothing if it was already released. */
+        fun release() = release(this, false)
+    }
+
+    private class TypeStats {
+        var created = 0L
+        var closed = 0L
+        var collected = 0L
+        var leaked = 0L
+    }
+
+    private val queue = ReferenceQueue<Any>()
+    // phantom references must be reachable to be enqueued
+    private val live = LinkedHashSet<Handle>()
+    private val stats = TreeMap<String, TypeStats>()
+
+    /**
+     * Registers a native handle owned by [owner]. The [releaser] must not reference the owner, or it never becomes
+     * unreachable. Several owners may register the same handle if the releaser accounts for it.
+     * @param requiresClose whether the owner should release the handle explicitly, instead of relying on it being
+     *  released when the owner is unreachable
+     */
+    @JvmStatic
+    fun register(owner: Any, type: String, handle: Long, sizeBytes: Long, description: String,
+                 requiresClose: Boolean, releaser: Releaser): Handle {
+        releaseUnreachable()
+        val nativeHandle = Handle(owner, type, handle, sizeBytes, description, requiresClose, releaser)
+        synchronized(this) {
+            live.add(nativeHandle)
+            stats.getOrPut(type) { TypeStats() }.created++
+        }
+        return nativeHandle
+    }
+
+    /** Releases handles of owners that are not reachable any more. */
+    @JvmStatic
+    fun releaseUnreachable() {
+        while (true) {
+            val handle = queue.poll() as? Handle ?: return
+            release(handle, true)
+        }
+    }
+
+    // the releaser is called outside the lock, as it may need other locks
+    private fun release(handle: Handle, collected: Boolean) {
+        synchronized(this) {
+            live.remove(handle)
+            if (handle.released) return
+            handle.released = true
+            val typeStats = stats.getOrPut(handle.type) { TypeStats() }
+            if (!collected) typeStats.closed++
+            else if (!handle.requiresClose) typeStats.collected++
+            else {
+                typeStats.leaked++
+                Log.w(TAG, "${handle.type} ${handle.description} was not closed")
+            }
+        }
+        handle.clear()
+        handle.releaser.release(handle.handle)
+    }
+
+    /** Live handles by type with their sizes, and how handles were released. Handles shared by several owners are counted once. */
+    @JvmStatic
+    fun dump(): String {
+        releaseUnreachable()
+        val sb = StringBuilder()
+        synchronized(this) {
+            live.groupBy { it.type }.toSortedMap().forEach { (type, handles) ->
+                val distinct = handles.distinctBy { it.handle }
+                val bytes = distinct.map { it.sizeBytes }.sum()
+                sb.append(String.format(Locale.ROOT, "%s: %d live, %.1f KiB\n", type, distinct.size, bytes / 1024.0))
+                handles.groupBy { it.handle }.values.forEach { owners ->
+                    val handle = owners.first()
+                    sb.append(String.format(Locale.ROOT, "  %s, %.1f KiB%s\n", handle.description, handle.sizeBytes / 1024.0,
+                        if (owners.size > 1) ", ${owners.size} owners" else ""))
+                }
+            }
+            stats.forEach { (type, typeStats) ->
+                sb.append(String.format(Locale.ROOT, "%s: %d created, %d closed, %d collected, %d leaked\n",
+                    type, typeStats.created, typeStats.closed, typeStats.collected, typeStats.leaked))
+            }
+        }
+        return if (sb.isEmpty()) "no native handles" else sb.toString().trimEnd()
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun resetStats() {
+        stats.clear()
+    }
+}
@@ -54,6 +54,18 @@ public final class NgramContextUtils {
             return new NgramContext(WordInfo.BEGINNING_OF_SENTENCE_WORD_INFO);
         }
         final String[] w = SPACE_REGEX.split(lines[lines.length - 1]);
+        return getNgramContextFromNthPreviousWord(w, spacingAndPunctuations, n);
+    }
+
+    /**
+     * Same as {@link #getNgramContextFromNthPreviousWord(CharSequence, SpacingAndPunctuations, int)},
+     * but with the text already split into words.
+     *
+     * @param w the words of the last line of the text before the cursor, split on whitespace
+     */
+    @NonNull
+    public static NgramContext getNgramContextFromNthPreviousWord(final String[] w,
+            final SpacingAndPunctuations spacingAndPunctuations, final int n) {
         final WordInfo[] prevWordsInfo =
                 new WordInfo[DecoderSpecificConstants.MAX_PREV_WORD_COUNT_FOR_N_GRAM];
         Arrays.fill(prevWordsInfo, WordInfo.EMPTY_WORD_INFO);
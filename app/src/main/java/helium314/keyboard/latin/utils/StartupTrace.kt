@@ -0,0 +1,95 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.utils
+
+import android.os.Trace
+import java.util.Locale
+
+/**
+ * Records how long the phases of starting the keyboard take, from creating the app to drawing the keyboard.
+ * The spans are kept in a ring buffer that is frozen once the keyboard is drawn, so phases that are repeated later
+ * (e.g. loading a keyboard) neither make it grow nor replace the startup spans shown in debug settings.
+ * Spans are still visible as sections in system traces after that.
+ */
+object StartupTrace {
+    class Span(val name: String, val threadName: String, val startNanos: Long, val durationNanos: Long) {
+        val durationMillis get() = durationNanos / 1_000_000.0
+    }
+
+    private const val CAPACITY = 64
+    private const val TAG = "StartupTrace"
+
+    // reference for the start times, this object is first used when the app is created
+    private val originNanos = System.nanoTime()
+    private val spans = arrayOfNulls<Span>(CAPACITY)
+    private var nextIndex = 0
+    private var size = 0
+    @Volatile private var frozen = false
+
+    /** Whether the keyboard was drawn, so no more spans are recorded. Cheap enough to check on every draw. */
+    @JvmStatic
+    val isFrozen get() = frozen
+
+    /** Starts a span, which must be ended with [end] on the same thread. Returns the start time to pass to [end]. */
+    @JvmStatic
+    fun begin(name: String): Long {
+        Trace.beginSection(name)
+        return System.nanoTime()
+    }
+
+    @JvmStatic
+    fun end(name: String, startNanos: Long) {
+        val endNanos = System.nanoTime()
+        Trace.endSection()
+        record(Span(name, Thread.currentThread().name, startNanos - originNanos, endNanos - startNanos))
+    }
+
+    inline fun <T> trace(name: String, block: () -> T): T {
+        val start = begin(name)
+        try {
+            return block()
+        } finally {
+            end(name, start)
+        }
+    }
+
+    /** Records the time from app start until the keyboard is drawn for the first time, and logs all spans. */
+    @JvmStatic
+    fun onKeyboardDrawn() {
+        if (frozen) return
+        synchronized(this) {
+            if (frozen) return
+            record(Span("first keyboard draw", Thread.currentThread().name, 0, System.nanoTime() - originNanos))
+            frozen = true
+        }
+        Log.i(TAG, dump())
+    }
+
+    @Synchronized
+    private fun record(span: Span) {
+        if (frozen) return
+        spans[nextIndex] = span
+        nextIndex = (nextIndex + 1) % CAPACITY
+        if (size < CAPACITY) size++
+    }
+
+    /** The recorded spans, oldest first. */
+    @Synchronized
+    fun getSpans(): List<Span> = List(size) { spans[(nextIndex - size + it + CAPACITY) % CAPACITY]!! }
+
+    fun dump(): String {
+        val spans = getSpans()
+        if (spans.isEmpty()) return "no spans recorded"
+        return spans.joinToString("\n") {
+            String.format(Locale.ROOT, "%s: %.1f ms (at %.1f ms, %s)",
+                it.name, it.durationMillis, it.startNanos / 1_000_000.0, it.threadName)
+        }
+    }
+
+    @Synchronized
+    fun reset() {
+        spans.fill(null)
+        nextIndex = 0
+        size = 0
+        frozen = false
+    }
+}
@@ -6,38 +6,43 @@
 
 package helium314.keyboard.latin.utils;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import helium314.keyboard.latin.SuggestedWords;
 import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo;
 import helium314.keyboard.latin.define.ProductionFlags;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * A TreeSet of SuggestedWordInfo that is bounded in size and throws everything that's smaller
- * than its limit
+ * A set of SuggestedWordInfo that is bounded in size and throws everything that's smaller than
+ * its limit. Only the best suggestion for each word is kept.
+ * The suggestions are kept in a sorted array, so adding a suggestion that doesn't make it into the
+ * results only needs a single comparison, and doesn't allocate anything.
  */
-public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
+public final class SuggestionResults extends AbstractSet<SuggestedWordInfo> {
     public final ArrayList<SuggestedWordInfo> mRawSuggestions;
     // TODO: Instead of a boolean , we may want to include the context of this suggestion results,
     // such as {@link NgramContext}.
     public final boolean mIsBeginningOfSentence;
     public final boolean mFirstSuggestionExceedsConfidenceThreshold;
     private final int mCapacity;
+    // sorted, best suggestion first
+    private SuggestedWordInfo[] mSuggestions;
+    private int mSize = 0;
+    private int mModCount = 0;
 
     public SuggestionResults(final int capacity, final boolean isBeginningOfSentence,
             final boolean firstSuggestionExceedsConfidenceThreshold) {
-        this(sSuggestedWordInfoComparator, capacity, isBeginningOfSentence,
-                firstSuggestionExceedsConfidenceThreshold);
-    }
-
-    private SuggestionResults(final Comparator<SuggestedWordInfo> comparator, final int capacity,
-            final boolean isBeginningOfSentence,
-            final boolean firstSuggestionExceedsConfidenceThreshold) {
-        super(comparator);
         mCapacity = capacity;
+        mSuggestions = new SuggestedWordInfo[Math.min(capacity, SuggestedWords.MAX_SUGGESTIONS)];
         if (ProductionFlags.INCLUDE_RAW_SUGGESTIONS) {
             mRawSuggestions = new ArrayList<>();
         } else {
@@ -49,17 +54,161 @@ public final class SuggestionResults extends TreeSet<SuggestedWordInfo> {
 
     @Override
     public boolean add(final SuggestedWordInfo e) {
-        if (size() < mCapacity) return super.add(e);
-        if (comparator().compare(e, last()) > 0) return false;
-        super.add(e);
-        pollLast(); // removes the last element
+        if (mSize >= mCapacity
+                && (mSize == 0 || sSuggestedWordInfoComparator.compare(e, mSuggestions[mSize - 1]) >= 0))
+            return false;
+        final int sameWordIndex = indexOfWord(e.mWord);
+        if (sameWordIndex >= 0) {
+            if (sSuggestedWordInfoComparator.compare(e, mSuggestions[sameWordIndex]) >= 0)
+                return false;
+            removeAt(sameWordIndex);
+        } else if (mSize >= mCapacity) {
+            removeAt(mSize - 1);
+        }
+        final int index = insertionIndex(e);
+        if (mSize == mSuggestions.length) {
+            mSuggestions = Arrays.copyOf(mSuggestions, mSize * 2);
+        }
+        System.arraycopy(mSuggestions, index, mSuggestions, index + 1, mSize - index);
+        mSuggestions[index] = e;
+        ++mSize;
+        ++mModCount;
         return true;
     }
 
     @Override
     public boolean addAll(@Nullable final Collection<? extends SuggestedWordInfo> e) {
         if (null == e) return false;
-        return super.addAll(e);
+        boolean changed = false;
+        for (final SuggestedWordInfo info : e) {
+            changed |= add(info);
+        }
+        return changed;
+    }
+
+    /** Adds the suggestions of other results, like {@link #addAll(Collection)} but without creating an iterator. */
+    public boolean addAll(@NonNull final SuggestionResults other) {
+        boolean changed = false;
+        for (int i = 0; i < other.mSize; ++i) {
+            changed |= add(other.mSuggestions[i]);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns whether a suggestion with the given score could be added without being thrown away
+     * immediately. Allows skipping the creation of suggestions that would not be kept.
+     */
+    public boolean canAdd(final int score) {
+        return mSize < mCapacity || (mSize > 0 && score >= mSuggestions[mSize - 1].mScore);
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        final int index = indexOf(o);
+        if (index < 0) return false;
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(mSuggestions, 0, mSize, null);
+        mSize = 0;
+        ++mModCount;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns the best suggestion. */
+    @NonNull
+    public SuggestedWordInfo first() {
+        if (mSize == 0) throw new NoSuchElementException();
+        return mSuggestions[0];
+    }
+
+    /** Returns the worst suggestion. */
+    @NonNull
+    public SuggestedWordInfo last() {
+        if (mSize == 0) throw new NoSuchElementException();
+        return mSuggestions[mSize - 1];
+    }
+
+    @NonNull
+    @Override
+    public Iterator<SuggestedWordInfo> iterator() {
+        return new Iterator<>() {
+            private int mNext = 0;
+            private int mLast = -1;
+            private int mExpectedModCount = mModCount;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < mSize;
+            }
+
+            @Override
+            public SuggestedWordInfo next() {
+                if (mExpectedModCount != mModCount) throw new ConcurrentModificationException();
+                if (mNext >= mSize) throw new NoSuchElementException();
+                mLast = mNext++;
+                return mSuggestions[mLast];
+            }
+
+            @Override
+            public void remove() {
+                if (mLast < 0) throw new IllegalStateException();
+                if (mExpectedModCount != mModCount) throw new ConcurrentModificationException();
+                removeAt(mLast);
+                mNext = mLast;
+                mLast = -1;
+                mExpectedModCount = mModCount;
+            }
+        };
+    }
+
+    private int indexOfWord(final String word) {
+        for (int i = 0; i < mSize; ++i) {
+            if (mSuggestions[i].mWord.equals(word)) return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(final Object o) {
+        if (!(o instanceof SuggestedWordInfo info)) return -1;
+        final int index = indexOfWord(info.mWord);
+        if (index < 0 || sSuggestedWordInfoComparator.compare(info, mSuggestions[index]) != 0)
+            return -1;
+        return index;
+    }
+
+    // index of the first suggestion that is worse than the given one
+    private int insertionIndex(final SuggestedWordInfo e) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (sSuggestedWordInfoComparator.compare(mSuggestions[mid], e) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void removeAt(final int index) {
+        System.arraycopy(mSuggestions, index + 1, mSuggestions, index, mSize - index - 1);
+        mSuggestions[--mSize] = null;
+        ++mModCount;
     }
 
     static final class SuggestedWordInfoComparator implements Comparator<SuggestedWordInfo> {
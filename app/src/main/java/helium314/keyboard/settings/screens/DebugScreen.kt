@@ -1,27 +1,43 @@
 // SPDX-License-Identifier: GPL-3.0-only
 package helium314.keyboard.settings.screens
 
+import android.content.ClipData
+import android.content.ClipboardManager
 import android.content.Context
 import android.content.Intent
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.items
 import androidx.compose.material3.Surface
+import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.saveable.rememberSaveable
+import androidx.compose.runtime.setValue
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.tooling.preview.Preview
+import helium314.keyboard.keyboard.KeyboardLayoutSet
 import helium314.keyboard.keyboard.KeyboardSwitcher
 import helium314.keyboard.latin.BuildConfig
 import helium314.keyboard.latin.DictionaryDumpBroadcastReceiver
 import helium314.keyboard.latin.DictionaryFacilitator
+import helium314.keyboard.latin.EditorLatency
+import helium314.keyboard.latin.NextWordSuggestionsCache
 import helium314.keyboard.latin.R
+import helium314.keyboard.latin.dictionary.DictionaryLookupStats
 import helium314.keyboard.latin.settings.DebugSettings
 import helium314.keyboard.latin.settings.Defaults
+import helium314.keyboard.latin.utils.InputLatency
+import helium314.keyboard.latin.utils.NativeHandles
+import helium314.keyboard.latin.utils.StartupTrace
 import helium314.keyboard.latin.utils.prefs
 import helium314.keyboard.settings.Setting
 import helium314.keyboard.settings.preferences.Preference
 import helium314.keyboard.settings.SearchSettingsScreen
 import helium314.keyboard.settings.preferences.SwitchPreference
+import helium314.keyboard.settings.preferences.SliderPreference
+import helium314.keyboard.settings.dialogs.ConfirmationDialog
 import helium314.keyboard.latin.utils.Theme
 import helium314.keyboard.settings.initPreview
 import helium314.keyboard.settings.preferences.PreferenceCategory
@@ -40,6 +56,17 @@ fun DebugScreen(
         DebugSettings.PREF_SHOW_SUGGESTION_INFOS,
         DebugSettings.PREF_FORCE_NON_DISTINCT_MULTITOUCH,
         DebugSettings.PREF_SLIDING_KEY_INPUT_PREVIEW,
+        DebugSettings.PREF_GESTURE_TRAIL_RENDER_THREAD,
+        R.string.prefs_debug_performance,
+        DebugSettings.PREF_PARALLEL_DICTIONARY_LOOKUP,
+        DebugSettings.PREF_DICTIONARY_LOOKUP_TIMEOUT,
+        DebugSettings.PREF_DICTIONARY_LOOKUP_STATS,
+        DebugSettings.PREF_INPUT_LATENCY,
+        DebugSettings.PREF_EDITOR_LATENCY,
+        DebugSettings.PREF_NEXT_WORD_CACHE_STATS,
+        DebugSettings.PREF_STARTUP_TRACE,
+        DebugSettings.PREF_KEYBOARD_CACHE_STATS,
+        DebugSettings.PREF_NATIVE_HANDLES,
         R.string.prefs_dump_dynamic_dicts
     ) + DictionaryFacilitator.DYNAMIC_DICTIONARY_TYPES.map { DebugSettings.PREF_KEY_DUMP_DICT_PREFIX + it }
     SearchSettingsScreen(
@@ -94,6 +121,117 @@ private fun createDebugSettings(context: Context) = listOf(
     Setting(context, DebugSettings.PREF_SLIDING_KEY_INPUT_PREVIEW, R.string.sliding_key_input_preview, R.string.sliding_key_input_preview_summary) { def ->
         SwitchPreference(def, Defaults.PREF_SLIDING_KEY_INPUT_PREVIEW)
     },
+    Setting(context, DebugSettings.PREF_GESTURE_TRAIL_RENDER_THREAD, R.string.prefs_gesture_trail_render_thread,
+        R.string.prefs_gesture_trail_render_thread_summary) {
+        SwitchPreference(it, Defaults.PREF_GESTURE_TRAIL_RENDER_THREAD)
+    },
+    Setting(context, DebugSettings.PREF_PARALLEL_DICTIONARY_LOOKUP, R.string.prefs_parallel_dictionary_lookup,
+        R.string.prefs_parallel_dictionary_lookup_summary) {
+        SwitchPreference(it, Defaults.PREF_PARALLEL_DICTIONARY_LOOKUP)
+    },
+    Setting(context, DebugSettings.PREF_DICTIONARY_LOOKUP_TIMEOUT, R.string.prefs_dictionary_lookup_timeout) { setting ->
+        SliderPreference(
+            name = setting.title,
+            key = setting.key,
+            default = Defaults.PREF_DICTIONARY_LOOKUP_TIMEOUT,
+            range = 20f..500f,
+            description = { stringResource(R.string.abbreviation_unit_milliseconds, it.toString()) }
+        )
+    },
+    Setting(context, DebugSettings.PREF_DICTIONARY_LOOKUP_STATS, R.string.prefs_dictionary_lookup_stats) { setting ->
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(DictionaryLookupStats.dump()) },
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { DictionaryLookupStats.reset() }
+            )
+    },
+    Setting(context, DebugSettings.PREF_INPUT_LATENCY, R.string.prefs_input_latency) { setting ->
+        val ctx = LocalContext.current
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = {
+                    val cm = ctx.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
+                    cm.setPrimaryClip(ClipData.newPlainText("HeliBoard input latency", InputLatency.export()))
+                },
+                content = { Text(InputLatency.dump()) },
+                confirmButtonText = stringResource(R.string.copy_to_clipboard),
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { InputLatency.reset() }
+            )
+    },
+    Setting(context, DebugSettings.PREF_EDITOR_LATENCY, R.string.prefs_editor_latency) { setting ->
+        val ctx = LocalContext.current
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(EditorLatency.dump(ctx)) },
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { EditorLatency.reset(ctx) }
+            )
+    },
+    Setting(context, DebugSettings.PREF_NEXT_WORD_CACHE_STATS, R.string.prefs_next_word_cache_stats) { setting ->
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(NextWordSuggestionsCache.current()?.dumpStats() ?: "keyboard not running") },
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { NextWordSuggestionsCache.current()?.resetStats() }
+            )
+    },
+    Setting(context, DebugSettings.PREF_STARTUP_TRACE, R.string.prefs_startup_trace) { setting ->
+        val ctx = LocalContext.current
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(StartupTrace.dump()) },
+                neutralButtonText = stringResource(R.string.copy_to_clipboard),
+                onNeutral = {
+                    val cm = ctx.getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
+                    cm.setPrimaryClip(ClipData.newPlainText("HeliBoard startup trace", StartupTrace.dump()))
+                }
+            )
+    },
+    Setting(context, DebugSettings.PREF_KEYBOARD_CACHE_STATS, R.string.prefs_keyboard_cache_stats) { setting ->
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(KeyboardLayoutSet.dumpCacheStats()) },
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { KeyboardLayoutSet.resetCacheStats() }
+            )
+    },
+    Setting(context, DebugSettings.PREF_NATIVE_HANDLES, R.string.prefs_native_handles) { setting ->
+        var showDialog by rememberSaveable { mutableStateOf(false) }
+        Preference(name = setting.title, onClick = { showDialog = true })
+        if (showDialog)
+            ConfirmationDialog(
+                onDismissRequest = { showDialog = false },
+                onConfirmed = { },
+                content = { Text(NativeHandles.dump()) },
+                neutralButtonText = stringResource(R.string.prefs_debug_reset_stats),
+                onNeutral = { NativeHandles.resetStats() }
+            )
+    },
 ) + DictionaryFacilitator.DYNAMIC_DICTIONARY_TYPES.map { type ->
     Setting(context, DebugSettings.PREF_KEY_DUMP_DICT_PREFIX + type, R.string.button_default) {
         val ctx = LocalContext.current
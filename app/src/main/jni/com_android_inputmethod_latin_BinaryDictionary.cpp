@@ -498,12 +498,12 @@ static int latinime_BinaryDictionary_updateEntriesForInputEvents(JNIEnv *env, jc
         dictionary->updateEntriesForWordWithNgramContext(&ngramContext,
                 CodePointArrayView(wordCodePoints, wordLength), isValid,
                 HistoricalInfo(timestamp, 0 /* level */, 1 /* count */));
-        if (dictionary->needsToRunGC(true /* mindsBlockByGC */)) {
-            return i + 1;
-        }
         env->DeleteLocalRef(prevWordArray);
         env->DeleteLocalRef(isPrevWordBeginningOfSentenceArray);
         env->DeleteLocalRef(inputEvent);
+        if (dictionary->needsToRunGC(true /* mindsBlockByGC */)) {
+            return i + 1;
+        }
     }
     return inputEventCount;
 }
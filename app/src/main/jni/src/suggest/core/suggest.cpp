@@ -83,7 +83,12 @@ void Suggest::initializeSearch(DicTraverseSession *traverseSession) const {
         return;
     }
 
-    if (traverseSession->getInputSize() > MIN_CONTINUOUS_SUGGESTION_INPUT_SIZE
+    // For typing, the coordinates alone can't tell whether the input extends the previous one
+    // (e.g. words picked from suggestions have no real coordinates), so we also require the
+    // explicit resume option. Gesture input keeps relying on the sampled coordinates only.
+    const SuggestOptions *const suggestOptions = traverseSession->getSuggestOptions();
+    const bool mayResume = suggestOptions->isGesture() || suggestOptions->resumeTypingSearch();
+    if (traverseSession->getInputSize() > MIN_CONTINUOUS_SUGGESTION_INPUT_SIZE && mayResume
             && traverseSession->isContinuousSuggestionPossible()) {
         // Continue suggestion
         traverseSession->getDicTraverseCache()->continueSearch();
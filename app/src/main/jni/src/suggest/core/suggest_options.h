@@ -48,6 +48,12 @@ class SuggestOptions{
         return static_cast<float>(getIntOption(WEIGHT_FOR_LOCALE_IN_THOUSANDS)) / 1000.0f;
     }
 
+    // Typing searches only resume from the cached dic nodes if the Java side verified that the
+    // input extends the input of the previous search in the same session.
+    AK_FORCE_INLINE bool resumeTypingSearch() const {
+        return getBoolOption(RESUME_TYPING_SEARCH);
+    }
+
     AK_FORCE_INLINE bool getAdditionalFeaturesBoolOption(const int key) const {
         return getBoolOption(key + ADDITIONAL_FEATURES_OPTIONS);
     }
@@ -62,9 +68,10 @@ class SuggestOptions{
     static const int BLOCK_OFFENSIVE_WORDS = 2;
     static const int SPACE_AWARE_GESTURE_ENABLED = 3;
     static const int WEIGHT_FOR_LOCALE_IN_THOUSANDS = 4;
+    static const int RESUME_TYPING_SEARCH = 5;
     // Additional features options are stored after the other options and used as setting values of
     // experimental features.
-    static const int ADDITIONAL_FEATURES_OPTIONS = 5;
+    static const int ADDITIONAL_FEATURES_OPTIONS = 6;
 
     const int *const mOptions;
     const int mLength;
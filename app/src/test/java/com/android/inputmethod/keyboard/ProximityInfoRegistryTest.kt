@@ -0,0 +1,92 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package com.android.inputmethod.keyboard
+
+import helium314.keyboard.latin.utils.NativeHandles
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Uses a fake creator instead of native code, so the registry can be tested on the JVM. */
+class ProximityInfoRegistryTest {
+    private val created = AtomicInteger()
+    private val released = mutableListOf<Long>()
+    private val creator = ProximityInfoRegistry.NativeCreator { HANDLE_BASE + created.incrementAndGet() }
+    private val releaser = NativeHandles.Releaser { handle -> synchronized(released) { released.add(handle) } }
+    // owners that are dropped by the test, to make them unreachable
+    private val owners = mutableListOf<Any>()
+
+    @Test fun equalKeysShareTheHandle() {
+        val handle = acquire(key(1))
+        assertEquals(handle, acquire(key(1)), "equal keys, but not the same buffer")
+        assertNotEquals(handle, acquire(key(2)))
+        assertEquals(2, created.get())
+    }
+
+    @Test fun releasedWhenAllOwnersAreUnreachable() {
+        val handle = acquire(key(3))
+        acquire(key(3))
+        assertEquals(1, created.get())
+
+        owners.removeAt(0)
+        awaitReleased { false }
+        assertTrue(released.isEmpty(), "released while an owner is still reachable")
+
+        owners.clear()
+        awaitReleased { it.isNotEmpty() }
+        assertEquals(listOf(handle), released)
+
+        // released entries are not shared any more
+        assertNotEquals(handle, acquire(key(3)))
+    }
+
+    @Test fun releasedWhenAllOwnersAreClosed() {
+        val first = acquireHandle(key(5))
+        val second = acquireHandle(key(5))
+        first.release()
+        first.release() // releasing twice must not release the reference of the other owner
+        assertTrue(released.isEmpty())
+        second.release()
+        assertEquals(listOf(first.handle), released)
+    }
+
+    @Test fun failedCreationIsNotRegistered() {
+        val failingCreator = ProximityInfoRegistry.NativeCreator { created.incrementAndGet(); 0L }
+        assertNull(ProximityInfoRegistry.acquire(Any(), key(4), SIZE_BYTES, "test", failingCreator, releaser))
+        assertNull(ProximityInfoRegistry.acquire(Any(), key(4), SIZE_BYTES, "test", failingCreator, releaser))
+        // nothing was cached, so each attempt calls the creator
+        assertEquals(2, created.get())
+        assertTrue(released.isEmpty())
+        assertEquals(HANDLE_BASE + 3, acquire(key(4)))
+    }
+
+    private fun acquire(key: ByteBuffer) = acquireHandle(key).handle
+
+    private fun acquireHandle(key: ByteBuffer): NativeHandles.Handle {
+        val owner = Any()
+        owners.add(owner)
+        return ProximityInfoRegistry.acquire(owner, key, SIZE_BYTES, "test", creator, releaser)!!
+    }
+
+    // the registry is shared by all tests, so each test uses its own keys
+    private fun key(id: Int) = ProximityInfoRegistry.KeyBuilder().add(System.identityHashCode(this)).add(id).build()
+
+    // collecting is not guaranteed by System.gc(), so this retries a few times
+    private fun awaitReleased(done: (List<Long>) -> Boolean) {
+        repeat(GC_ATTEMPTS) {
+            System.gc()
+            Thread.sleep(10)
+            NativeHandles.releaseUnreachable()
+            if (synchronized(released) { done(released) }) return
+        }
+    }
+
+    companion object {
+        private const val HANDLE_BASE = 1000L
+        private const val SIZE_BYTES = 100L
+        private const val GC_ATTEMPTS = 20
+    }
+}
@@ -0,0 +1,129 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.view.MotionEvent
+import helium314.keyboard.keyboard.KeyDetector
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.latin.LatinIME
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Locale
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertSame
+
+/**
+ * Replays touch event streams (taps on all keys, and slides across the keyboard) through PointerTracker,
+ * and prints the time for detecting the keys with and without the key hit map.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class KeyHitTestBenchmark {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val keyboardSwitcher = KeyboardSwitcher.getInstance()
+
+    init {
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+
+    private val keyboard = keyboardSwitcher.keyboard!!
+
+    private class Event(val action: Int, val x: Int, val y: Int, val time: Long)
+
+    @AfterTest fun enableHitMap() = KeyDetector.setHitMapEnabled(true)
+
+    @Test fun hitMapFindsSameKeys() {
+        val detector = KeyDetector()
+        detector.setKeyboard(keyboard, 0f, 0f)
+        for (y in -20..keyboard.mOccupiedHeight + 20 step 2) {
+            for (x in -20..keyboard.mOccupiedWidth + 20 step 2) {
+                KeyDetector.setHitMapEnabled(false)
+                val expected = detector.detectHitKey(x, y)
+                KeyDetector.setHitMapEnabled(true)
+                assertSame(expected, detector.detectHitKey(x, y), "at $x, $y")
+            }
+        }
+    }
+
+    @Test fun replayTouchEvents() {
+        val streams = recordStreams()
+        val detector = KeyDetector()
+        detector.setKeyboard(keyboard, 0f, 0f)
+        val points = streams.flatten()
+
+        fun detect(useHitMap: Boolean): LongArray {
+            KeyDetector.setHitMapEnabled(useHitMap)
+            return LongArray(RUNS) {
+                val start = System.nanoTime()
+                points.forEach { detector.detectHitKey(it.x, it.y) }
+                System.nanoTime() - start
+            }
+        }
+
+        fun replay(useHitMap: Boolean): LongArray {
+            KeyDetector.setHitMapEnabled(useHitMap)
+            val view = keyboardSwitcher.mainKeyboardView
+            return LongArray(streams.size) { i ->
+                val events = streams[i].map { MotionEvent.obtain(streams[i].first().time, it.time, it.action, it.x.toFloat(), it.y.toFloat(), 0) }
+                val start = System.nanoTime()
+                events.forEach { view.onTouchEvent(it) }
+                val time = System.nanoTime() - start
+                events.forEach { it.recycle() }
+                time
+            }
+        }
+
+        detect(false); detect(true) // warm up
+        println("${points.size} touch points, key detection without hit map: ${stats(detect(false))}")
+        println("${points.size} touch points, key detection with hit map:    ${stats(detect(true))}")
+        replay(false) // warm up
+        println("${streams.size} event streams through PointerTracker without hit map: ${stats(replay(false))}")
+        println("${streams.size} event streams through PointerTracker with hit map:    ${stats(replay(true))}")
+    }
+
+    // a tap on every key, and slides between distant keys with a move event every 8 ms, like on a device
+    private fun recordStreams(): List<List<Event>> {
+        val keys = keyboard.sortedKeys.filterNot { it.isSpacer }
+        var time = 0L
+        val taps = keys.map { key ->
+            time += 200
+            val x = key.x + key.width / 2
+            val y = key.y + key.height / 2
+            listOf(Event(MotionEvent.ACTION_DOWN, x, y, time), Event(MotionEvent.ACTION_UP, x, y, time + 50))
+        }
+        val slides = keys.indices.map { i ->
+            val from = keys[i]
+            val to = keys[(i + keys.size / 2) % keys.size]
+            val fromX = from.x + from.width / 2
+            val fromY = from.y + from.height / 2
+            val toX = to.x + to.width / 2
+            val toY = to.y + to.height / 2
+            time += 1000
+            val start = time
+            val moves = (1 until SLIDE_MOVES).map {
+                Event(MotionEvent.ACTION_MOVE, fromX + (toX - fromX) * it / SLIDE_MOVES,
+                    fromY + (toY - fromY) * it / SLIDE_MOVES, start + it * 8L)
+            }
+            listOf(Event(MotionEvent.ACTION_DOWN, fromX, fromY, start)) + moves +
+                Event(MotionEvent.ACTION_UP, toX, toY, start + SLIDE_MOVES * 8L)
+        }
+        return taps + slides
+    }
+
+    private fun stats(timesNs: LongArray): String {
+        val sorted = timesNs.sorted()
+        val mean = timesNs.average() / 1000
+        val p95 = sorted[(sorted.size * 95 / 100).coerceAtMost(sorted.lastIndex)] / 1000
+        return String.format(Locale.ROOT, "%d runs, mean %.1f µs, p95 %d µs", timesNs.size, mean, p95)
+    }
+
+    companion object {
+        private const val RUNS = 200
+        private const val SLIDE_MOVES = 40
+    }
+}
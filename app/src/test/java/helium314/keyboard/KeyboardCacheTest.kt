@@ -0,0 +1,109 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.content.ComponentCallbacks2
+import android.view.inputmethod.EditorInfo
+import helium314.keyboard.keyboard.KeyboardCache
+import helium314.keyboard.keyboard.KeyboardElement
+import helium314.keyboard.keyboard.KeyboardLayoutSet
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.RichInputMethodManager
+import helium314.keyboard.latin.utils.ExecutorUtils
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertContains
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class KeyboardCacheTest {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val keyboardSwitcher = KeyboardSwitcher.getInstance()
+
+    init {
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+
+    private val keyboard = keyboardSwitcher.keyboard!!
+    private val alphabet = KeyboardLayoutSet.getFakeKeyboardId(KeyboardElement.ALPHABET)
+    private val symbols = KeyboardLayoutSet.getFakeKeyboardId(KeyboardElement.SYMBOLS)
+    private val others = listOf(KeyboardElement.NUMPAD, KeyboardElement.NUMBER, KeyboardElement.PHONE)
+        .map { KeyboardLayoutSet.getFakeKeyboardId(it) }
+
+    @Test fun evictsLeastRecentlyUsedButKeepsPinned() {
+        val bytes = KeyboardCache.estimateBytes(keyboard)
+        val cache = KeyboardCache(bytes * 2) // pinned keyboards don't count
+        cache.pin(setOf(alphabet))
+        cache.put(alphabet, keyboard)
+        cache.put(symbols, keyboard)
+        cache.put(others[0], keyboard)
+        cache[symbols] // symbols becomes most recently used, alphabet is least recently used but pinned
+        cache.put(others[1], keyboard)
+        assertEquals(3, cache.size())
+        assertNotNull(cache[alphabet])
+        assertNotNull(cache[symbols])
+        assertNull(cache[others[0]])
+    }
+
+    @Test fun keepsPinnedKeyboardsWhenMemoryIsCritical() {
+        val cache = KeyboardCache()
+        cache.pin(setOf(alphabet, symbols))
+        (others + alphabet + symbols).forEach { cache.put(it, keyboard) }
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        assertEquals(5, cache.size())
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+        assertEquals(2, cache.size())
+        assertNotNull(cache[alphabet])
+        assertEquals("2 keyboards (2 pinned)", cache.dumpStats().substringBefore(","))
+    }
+
+    @Test fun pinnedKeyboardsDontCountTowardsSize() {
+        val cache = KeyboardCache(KeyboardCache.estimateBytes(keyboard))
+        cache.pin(setOf(alphabet, symbols))
+        (listOf(alphabet, symbols) + others).forEach { cache.put(it, keyboard) }
+        assertEquals(3, cache.size())
+        assertNotNull(cache[others.last()])
+
+        // keyboards that are not pinned any more count again
+        cache.pin(emptySet())
+        assertEquals(1, cache.size())
+        assertNotNull(cache[others.last()])
+    }
+
+    @Test fun prebuiltKeyboardIsReturnedWithoutRebuilding() {
+        val executor = Executors.newSingleThreadScheduledExecutor()
+        ExecutorUtils.setExecutorServiceForTests(executor)
+        try {
+            // a width that is not used by other tests, so the keyboards are not in the cache yet
+            val layoutSet = KeyboardLayoutSet.Builder(latinIME, EditorInfo())
+                .setKeyboardGeometry(1234, 567)
+                .setSubtype(RichInputMethodManager.getInstance().currentSubtype)
+                .build()
+            KeyboardLayoutSet.resetCacheStats()
+            layoutSet.prebuildKeyboards()
+            executor.shutdown() // delayed tasks still run after shutdown
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+
+            val symbols = layoutSet.getKeyboard(KeyboardElement.SYMBOLS)
+            assertSame(symbols, layoutSet.getKeyboard(KeyboardElement.SYMBOLS))
+            val stats = KeyboardLayoutSet.dumpCacheStats()
+            assertContains(stats, "2 warm, 0 cold keyboard switches")
+            assertContains(stats, "6 keyboards prebuilt")
+        } finally {
+            ExecutorUtils.setExecutorServiceForTests(null)
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.keyboard.internal.ShiftMode
+import helium314.keyboard.latin.LatinIME
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Locale
+import kotlin.test.Test
+
+/**
+ * Toggles shift on the default QWERTY layout and prints the time for drawing each frame on a canvas that
+ * pretends to be hardware accelerated, once with and once without the per-key picture cache.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class KeyboardDrawBenchmark {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val keyboardSwitcher = KeyboardSwitcher.getInstance()
+
+    init {
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+
+    @Test fun toggleShift() {
+        val view = keyboardSwitcher.mainKeyboardView
+        val keyboard = keyboardSwitcher.keyboard!!
+        val bitmap = Bitmap.createBitmap(keyboard.mOccupiedWidth, keyboard.mOccupiedHeight, Bitmap.Config.ARGB_8888)
+        val canvas = object : Canvas(bitmap) {
+            override fun isHardwareAccelerated() = true
+        }
+
+        fun toggleShift(usePictures: Boolean): LongArray {
+            view.setKeyPicturesEnabled(usePictures)
+            return LongArray(FRAMES) {
+                keyboardSwitcher.setAlphabetKeyboard(if (it % 2 == 0) ShiftMode.MANUAL else ShiftMode.UNSHIFT)
+                val start = System.nanoTime()
+                view.draw(canvas)
+                System.nanoTime() - start
+            }
+        }
+
+        toggleShift(false) // warm up
+        val withoutPictures = toggleShift(false)
+        val withPictures = toggleShift(true)
+        println("${keyboard.sortedKeys.size} keys, frame time without key pictures: ${stats(withoutPictures)}")
+        println("${keyboard.sortedKeys.size} keys, frame time with key pictures:    ${stats(withPictures)}")
+    }
+
+    private fun stats(timesNs: LongArray): String {
+        val sorted = timesNs.sorted()
+        val mean = timesNs.average() / 1000
+        val p95 = sorted[(sorted.size * 95 / 100).coerceAtMost(sorted.lastIndex)] / 1000
+        return String.format(Locale.ROOT, "%d frames, mean %.1f µs, p95 %d µs", timesNs.size, mean, p95)
+    }
+
+    companion object {
+        private const val FRAMES = 200
+    }
+}
@@ -22,6 +22,7 @@ import helium314.keyboard.keyboard.internal.keyboard_parser.floris.KeyCode
 import helium314.keyboard.latin.LatinIME
 import helium314.keyboard.latin.RichInputMethodSubtype
 import helium314.keyboard.latin.utils.LayoutUtilsCustom
+import helium314.keyboard.latin.utils.NativeHandles
 import helium314.keyboard.latin.utils.POPUP_KEYS_LAYOUT
 import helium314.keyboard.latin.utils.SubtypeUtilsAdditional
 import org.junit.runner.RunWith
@@ -603,5 +604,5 @@ f""", // no newline at the end
 @Implements(ProximityInfo::class)
 class ShadowProximityInfo {
     @Implementation
-    fun createNativeProximityInfo(tpc: TouchPositionCorrection): Long = 0
+    fun createNativeProximityInfo(tpc: TouchPositionCorrection): NativeHandles.Handle? = null
 }
@@ -0,0 +1,117 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import helium314.keyboard.event.CombinerChain
+import helium314.keyboard.event.Event
+import helium314.keyboard.event.KhiproEngine
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.common.Constants
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.util.Locale
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Types long Bengali words key by key through a Khipro [CombinerChain], checks that the incremental conversion
+ * gives the same composing text as converting the whole input, and prints the time per key for both.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class KhiproBenchmark {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val specText = latinIME.assets.open("bn-khipro.mim").bufferedReader().readText()
+
+    @Test fun incrementalConversionMatchesFullConversion() {
+        val reference = KhiproEngine(specText)
+        WORDS.forEach { word ->
+            type(word) { prefix, composing -> assertEquals(reference.convertFully(prefix), composing, "typing $prefix") }
+        }
+        // deleting and continuing must not resume from a stale state
+        val engine = KhiproEngine(specText)
+        WORDS.forEach { word ->
+            for (end in word.length downTo 1) {
+                val prefix = word.substring(0, end)
+                assertEquals(reference.convertFully(prefix), engine.convert(prefix), "deleting to $prefix")
+            }
+        }
+    }
+
+    @Test fun deleteAndRetypeMatchesFullConversion() {
+        val reference = KhiproEngine(specText)
+        val engine = KhiproEngine(specText)
+        val random = Random(1)
+        var input = ""
+        repeat(20000) {
+            input = if (input.isNotEmpty() && random.nextInt(3) == 0) input.dropLast(random.nextInt(1, minOf(3, input.length) + 1))
+                else if (input.length < 20) input + KEYS_TO_TYPE[random.nextInt(KEYS_TO_TYPE.length)]
+                else ""
+            assertEquals(reference.convertFully(input), engine.convert(input), "converting $input")
+        }
+    }
+
+    @Test fun doesNotResumeAfterCharsLookedAtBeforeCheckpoint() {
+        // converting "abcq" looks at "abcq" for the first step, but the step for "cq" may still change
+        val spec = """(map (m ("ab" "X") ("abcd" "Y") ("cq" "Q") ("cqr" "R") ("d" "D"))) (state (init (m)))"""
+        val engine = KhiproEngine(spec)
+        listOf("a", "ab", "abc", "abcq").forEach { engine.convert(it) }
+        assertEquals("Xc", engine.convert("abc"))
+        assertEquals("Y", engine.convert("abcd"))
+    }
+
+    @Test fun typeLongWords() {
+        val reference = KhiproEngine(specText)
+        fun full() = LongArray(RUNS) {
+            val start = System.nanoTime()
+            WORDS.forEach { word -> for (end in 1..word.length) reference.convertFully(word.substring(0, end)) }
+            (System.nanoTime() - start) / KEYS
+        }
+        fun chain() = LongArray(RUNS) {
+            val start = System.nanoTime()
+            WORDS.forEach { word -> type(word) { _, _ -> } }
+            (System.nanoTime() - start) / KEYS
+        }
+        full(); chain() // warm up
+        println("$KEYS keys, full conversion per key:              ${stats(full())}")
+        println("$KEYS keys, incremental conversion through chain: ${stats(chain())}")
+    }
+
+    private fun type(word: String, onKey: (String, String) -> Unit) {
+        val chain = CombinerChain("", "bn_khipro")
+        val events = ArrayList<Event>()
+        word.forEachIndexed { i, c ->
+            val event = Event.createSoftwareKeypressEvent(c.code, 0, Constants.NOT_A_COORDINATE, Constants.NOT_A_COORDINATE, false)
+            chain.applyProcessedEvent(chain.processEvent(events, event))
+            events.add(event)
+            onKey(word.substring(0, i + 1), chain.composingWordWithCombiningFeedback.toString())
+        }
+    }
+
+    private fun stats(timesNs: LongArray): String {
+        val sorted = timesNs.sorted()
+        val mean = timesNs.average() / 1000
+        val p95 = sorted[(sorted.size * 95 / 100).coerceAtMost(sorted.lastIndex)] / 1000.0
+        return String.format(Locale.ROOT, "%d runs, mean %.1f µs, p95 %.1f µs", timesNs.size, mean, p95)
+    }
+
+    companion object {
+        private const val RUNS = 50
+        private val WORDS = listOf(
+            "bishshobiddaloyer",
+            "ontorjatikbhabe",
+            "sangskritikpoddhotigulor",
+            "porjobekkhonkorichhilam",
+            "kkhomotayonerproyojoniyota",
+            "prottotattikobhabeuddhharkrito",
+            "sworoborno/byanjonborno/juktoborno",
+            "ssthhanioshorkarprotishthhansomuhe",
+        )
+        private val KEYS = WORDS.sumOf { it.length }
+        private const val KEYS_TO_TYPE = "aeiouqwkgcjtdnpbmrlshyzxfv/.,ABCDEGHKLNRST;"
+    }
+}
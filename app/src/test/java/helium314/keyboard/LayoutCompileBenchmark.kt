@@ -0,0 +1,91 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import helium314.keyboard.keyboard.KeyboardElement
+import helium314.keyboard.keyboard.KeyboardLayoutSet
+import helium314.keyboard.keyboard.internal.KeyboardParams
+import helium314.keyboard.keyboard.internal.keyboard_parser.CompiledLayouts
+import helium314.keyboard.keyboard.internal.keyboard_parser.LayoutParser
+import helium314.keyboard.keyboard.internal.keyboard_parser.LocaleKeyboardInfos
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.utils.POPUP_KEYS_LAYOUT
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import java.nio.ByteBuffer
+import java.util.Locale
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Parses all layouts in assets/layouts from text and from compiled layouts, checks that both result in the
+ * same keys, and prints the time for parsing and for reading the compiled layouts.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+    ShadowProximityInfo::class,
+])
+class LayoutCompileBenchmark {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val params = KeyboardParams()
+
+    init {
+        params.mId = KeyboardLayoutSet.getFakeKeyboardId(KeyboardElement.ALPHABET)
+        params.mPopupKeyOrder.add(POPUP_KEYS_LAYOUT)
+        params.mPopupKeyHintOrder.add(POPUP_KEYS_LAYOUT)
+        LocaleKeyboardInfos.addLocaleKeyTextsToParams(latinIME, params, LocaleKeyboardInfos.POPUP_KEYS_NORMAL)
+    }
+
+    @Test fun parseAllLayouts() {
+        val files = File("src/main/assets/layouts").walk().filter { it.isFile }.toList()
+        val contents = files.map { it.readText() }
+
+        fun parse() = contents.mapIndexed { i, content ->
+            if (files[i].name.endsWith(".json")) CompiledLayouts.CompiledLayout(true, LayoutParser.parseJsonString(content))
+            else CompiledLayouts.CompiledLayout(false, LayoutParser.parseSimpleString(content))
+        }
+
+        val layouts = parse()
+        val compiled = layouts.map { CompiledLayouts.encode(it) }
+        layouts.forEachIndexed { i, layout ->
+            val decoded = CompiledLayouts.decode(ByteBuffer.wrap(compiled[i]))
+            assertEquals(layout.isJson, decoded.isJson)
+            assertEquals(describe(layout), describe(decoded), files[i].path)
+        }
+
+        repeat(WARMUP_RUNS) { parse(); compiled.forEach { CompiledLayouts.decode(ByteBuffer.wrap(it)) } }
+        val parseTimes = LongArray(RUNS) { measure { parse() } }
+        val decodeTimes = LongArray(RUNS) { measure { compiled.forEach { CompiledLayouts.decode(ByteBuffer.wrap(it)) } } }
+        println("${files.size} layouts, ${compiled.sumOf { it.size } / 1024} KiB compiled")
+        println("parsing text layouts:      ${stats(parseTimes)}")
+        println("reading compiled layouts:  ${stats(decodeTimes)}")
+    }
+
+    // the computed keys with popups, which is what the keyboard is built from
+    private fun describe(layout: CompiledLayouts.CompiledLayout) = layout.rows.map { row ->
+        row.mapNotNull { it.compute(params) }.map { key ->
+            "${key.type} ${key.code} ${key.label} ${key.groupId} ${key.width} ${key.labelFlags} ${key.popup.getPopupKeyLabels(params)}"
+        }
+    }
+
+    private inline fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+
+    private fun stats(timesNs: LongArray): String {
+        val sorted = timesNs.sorted()
+        val mean = timesNs.average() / 1_000_000
+        val p95 = sorted[(sorted.size * 95 / 100).coerceAtMost(sorted.lastIndex)] / 1_000_000.0
+        return String.format(Locale.ROOT, "%d runs, mean %.2f ms, p95 %.2f ms", timesNs.size, mean, p95)
+    }
+
+    companion object {
+        private const val WARMUP_RUNS = 5
+        private const val RUNS = 20
+    }
+}
@@ -0,0 +1,8 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+/**
+ * JUnit category for benchmarks that only print measurements and take long, so they are excluded from the unit tests.
+ * Run them with `./gradlew testDebugUnitTest -PmanualBenchmarks --tests <class>`.
+ */
+interface ManualBenchmark
@@ -26,6 +26,8 @@ import helium314.keyboard.latin.common.StringUtils
 import org.robolectric.annotation.Implementation
 import org.robolectric.annotation.Implements
 import org.robolectric.shadows.ShadowInputMethodManager
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
 import java.util.*
 
 @Implements(LocaleManagerCompat::class)
@@ -133,6 +135,9 @@ class ShadowInputMethodService {
         var composingStart = -1
         var composingEnd = -1
         var currentInputType = InputType.TYPE_CLASS_TEXT
+        // calls to the input connection by method name, on a device each call is an IPC to the editor
+        val ipcCalls = mutableMapOf<String, Int>()
+        val ipcCount get() = ipcCalls.values.sum()
 
         // convenience for access
         val textBeforeCursor get() = text.substring(0, selectionStart)
@@ -152,6 +157,7 @@ class ShadowInputMethodService {
             composingStart = -1
             composingEnd = -1
             currentInputType = InputType.TYPE_CLASS_TEXT
+            ipcCalls.clear()
         }
     }
 
@@ -161,10 +167,21 @@ class ShadowInputMethodService {
         // anything else?
     }
     @Implementation
-    fun getCurrentInputConnection() = ic
+    fun getCurrentInputConnection() = countingIc
     @Implementation
     fun isInputViewShown() = true // otherwise selection updates will do nothing
 
+    // counts calls to ic in ipcCalls, calls of ic to itself are not counted
+    private val countingIc = Proxy.newProxyInstance(InputConnection::class.java.classLoader, arrayOf(InputConnection::class.java)) { _, method, args ->
+        if (method.declaringClass != Any::class.java)
+            ipcCalls[method.name] = (ipcCalls[method.name] ?: 0) + 1
+        try {
+            method.invoke(ic, *(args ?: emptyArray()))
+        } catch (e: InvocationTargetException) {
+            throw e.targetException
+        }
+    } as InputConnection
+
     // essentially this is the text field we're editing in
     private val ic = object : InputConnection {
         // pretty clear (though this may be slow depending on the editor)
@@ -0,0 +1,98 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard
+
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.latin.LatinIME
+import helium314.keyboard.latin.utils.StartupTrace
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.robolectric.shadows.ShadowLooper
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+    ShadowLooper::class,
+])
+class StartupTraceTest {
+    // budgets are generous because Robolectric is much slower than a device, and the first test also loads the classes
+    // they are meant to catch things like accidentally loading dictionaries or all emojis on the main thread
+    private val budgetsMillis = mapOf(
+        "Settings.init" to 1000,
+        "SubtypeSettings.init" to 1000,
+        "LatinIME.onCreate" to 3000,
+        "Settings.loadSettings" to 1000,
+        "KeyboardSwitcher.loadKeyboard" to 3000,
+        "KeyboardBuilder" to 3000,
+    )
+
+    @Test fun startupPhasesAreWithinBudget() {
+        startKeyboard()
+        val spans = StartupTrace.getSpans()
+        budgetsMillis.keys.filterNot { it.endsWith(".init") } // app may be created before the reset
+            .forEach { phase -> assertTrue(spans.any { it.name.startsWith(phase) }, "$phase not traced") }
+        assertWithinBudget(spans)
+    }
+
+    @Test fun phaseOverBudgetFails() {
+        StartupTrace.reset()
+        StartupTrace.trace("Settings.loadSettings") { Thread.sleep(1100) }
+        assertFailsWith<AssertionError> { assertWithinBudget(StartupTrace.getSpans()) }
+    }
+
+    @Test fun startupPhasesAreTracedInOrder() {
+        startKeyboard()
+        val spans = StartupTrace.getSpans()
+        fun span(phase: String) = assertNotNull(spans.firstOrNull { it.name.startsWith(phase) }, "$phase not traced\n${StartupTrace.dump()}")
+        fun StartupTrace.Span.contains(other: StartupTrace.Span) = startNanos <= other.startNanos
+                && other.startNanos + other.durationNanos <= startNanos + durationNanos
+        val onCreate = span("LatinIME.onCreate")
+        val loadSettings = span("Settings.loadSettings")
+        val loadKeyboard = span("KeyboardSwitcher.loadKeyboard")
+        val buildKeyboard = span("KeyboardBuilder")
+
+        assertTrue(onCreate.contains(loadSettings), StartupTrace.dump())
+        assertTrue(loadKeyboard.startNanos >= onCreate.startNanos, StartupTrace.dump())
+        assertTrue(buildKeyboard.startNanos >= loadKeyboard.startNanos, StartupTrace.dump())
+    }
+
+    @Test fun stopsRecordingAfterFirstDraw() {
+        StartupTrace.reset()
+        StartupTrace.trace("before draw") { }
+        StartupTrace.onKeyboardDrawn()
+        StartupTrace.trace("after draw") { }
+        StartupTrace.onKeyboardDrawn()
+        assertEquals(listOf("before draw", "first keyboard draw"), StartupTrace.getSpans().map { it.name })
+        assertTrue(StartupTrace.isFrozen)
+    }
+
+    @Test fun keepsOnlyLatestSpans() {
+        StartupTrace.reset()
+        repeat(100) { StartupTrace.trace("span $it") { } }
+        val spans = StartupTrace.getSpans()
+        assertEquals(64, spans.size)
+        assertEquals("span 36", spans.first().name)
+        assertEquals("span 99", spans.last().name)
+    }
+
+    private fun assertWithinBudget(spans: List<StartupTrace.Span>) {
+        spans.forEach { span ->
+            val budget = budgetsMillis.entries.firstOrNull { span.name.startsWith(it.key) }?.value ?: return@forEach
+            assertTrue(span.durationMillis <= budget, "${span.name} took ${span.durationMillis} ms, budget is $budget ms\n${StartupTrace.dump()}")
+        }
+    }
+
+    private fun startKeyboard() {
+        StartupTrace.reset()
+        val latinIME = Robolectric.setupService(LatinIME::class.java)
+        val keyboardSwitcher = KeyboardSwitcher.getInstance()
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+}
@@ -0,0 +1,47 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.keyboard.internal
+
+import kotlin.concurrent.thread
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class GestureTrailPointQueueTest {
+    @Test fun rejectsPointsWhenFull() {
+        val queue = GestureTrailPointQueue(3)
+        assertEquals(4, queue.capacity)
+        repeat(4) { assertTrue(queue.offer(0, it, it, it, GestureTrailPointQueue.CONTINUE_STROKE)) }
+        assertFalse(queue.offer(0, 4, 4, 4, GestureTrailPointQueue.CONTINUE_STROKE))
+        val xs = mutableListOf<Int>()
+        assertEquals(4, queue.drain { _, x, _, _, _ -> xs.add(x) })
+        assertEquals(listOf(0, 1, 2, 3), xs)
+        assertTrue(queue.offer(0, 4, 4, 4, 100))
+        queue.drain { _, x, _, _, downTime -> assertEquals(4, x); assertEquals(100, downTime) }
+    }
+
+    @Test fun passesAllPointsInOrderBetweenThreads() {
+        val queue = GestureTrailPointQueue(64)
+        val count = 200_000
+        val producer = thread {
+            var i = 0
+            while (i < count) {
+                if (queue.offer(i % 3, i, -i, i * 2, if (i % 100 == 0) i.toLong() else GestureTrailPointQueue.CONTINUE_STROKE))
+                    i++
+            }
+        }
+        var expected = 0
+        while (expected < count) {
+            queue.drain { pointerId, x, y, time, downTime ->
+                assertEquals(expected % 3, pointerId)
+                assertEquals(expected, x)
+                assertEquals(-expected, y)
+                assertEquals(expected * 2, time)
+                assertEquals(if (expected % 100 == 0) expected.toLong() else GestureTrailPointQueue.CONTINUE_STROKE, downTime)
+                expected++
+            }
+        }
+        producer.join()
+        assertEquals(0, queue.drain { _, _, _, _, _ -> })
+    }
+}
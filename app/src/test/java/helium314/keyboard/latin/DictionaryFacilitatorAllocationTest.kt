@@ -0,0 +1,108 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.ShadowInputMethodService
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
+import helium314.keyboard.latin.common.ComposedData
+import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion
+import helium314.keyboard.latin.utils.SuggestionResults
+import org.junit.Assume.assumeTrue
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.lang.management.ManagementFactory
+import java.util.Locale
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Counts the memory allocated by [DictionaryFacilitatorImpl.getSuggestionResults] when typing. Collectors, result
+ * sets and synchronizers are reused, so apart from the returned results nothing should be created per call.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class DictionaryFacilitatorAllocationTest {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val keyboardSwitcher = KeyboardSwitcher.getInstance()
+
+    init {
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+
+    private val keyboard = keyboardSwitcher.keyboard!!
+    // keeps the created objects reachable, so they can't be optimized away
+    private var sink: Any? = null
+
+    @Test fun getSuggestionResultsOnlyAllocatesTheResults() {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue("allocation counting not supported", threadBean?.isThreadAllocatedMemorySupported == true)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+        val facilitator = DictionaryFacilitatorImpl()
+        facilitator.setMainDictionariesForTests(listOf(FixedDictionary(Locale.US)))
+        val codePoints = StringUtils.toCodePointArray("word")
+        val composedData = WordComposer().apply { setComposingWord(codePoints, keyboard.getCoordinates(codePoints)) }
+            .composedDataSnapshot
+        val settings = SettingsValuesForSuggestion(false, false)
+        fun lookup() = facilitator.getSuggestionResults(composedData, NgramContext.BEGINNING_OF_SENTENCE, keyboard,
+            settings, Suggest.SESSION_ID_TYPING, SuggestedWords.INPUT_STYLE_TYPING)
+
+        assertEquals(SuggestedWords.MAX_SUGGESTIONS, lookup().size)
+        repeat(WARMUP_ITERATIONS) {
+            sink = lookup()
+            sink = SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, true, false)
+        }
+
+        val threadId = Thread.currentThread().id
+        var before = threadBean.getThreadAllocatedBytes(threadId)
+        repeat(ITERATIONS) { sink = SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, true, false) }
+        val resultsBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS
+
+        before = threadBean.getThreadAllocatedBytes(threadId)
+        repeat(ITERATIONS) { sink = lookup() }
+        val lookupBytes = (threadBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS
+        println("getSuggestionResults allocates $lookupBytes bytes per call, the returned results $resultsBytes bytes")
+        // the slack allows for an iterator or two when merging the results
+        assertTrue(lookupBytes <= resultsBytes + SLACK_BYTES,
+            "allocated $lookupBytes bytes per call, only $resultsBytes bytes for the results are expected")
+    }
+
+    /** Offers the same suggestions on every lookup, created only once like the candidates a dictionary would keep. */
+    private class FixedDictionary(locale: Locale) : Dictionary(TYPE_MAIN, locale) {
+        private val suggestions = (0 until SuggestedWords.MAX_SUGGESTIONS * 2).map {
+            SuggestedWordInfo("word$it", "", 1000 - it, SuggestedWordInfo.KIND_CORRECTION, this, 0, 0)
+        }.toTypedArray()
+
+        override fun collectSuggestions(
+            composedData: ComposedData?, ngramContext: NgramContext?, proximityInfoHandle: Long,
+            settingsValuesForSuggestion: SettingsValuesForSuggestion?, sessionId: Int, weightForLocale: Float,
+            inOutWeightOfLangModelVsSpatialModel: FloatArray?, collector: SuggestionCollector
+        ) {
+            for (info in suggestions) {
+                if (collector.wouldAdd(this, info.mScore)) collector.add(info)
+            }
+        }
+
+        override fun getSuggestions(
+            composedData: ComposedData?, ngramContext: NgramContext?, proximityInfoHandle: Long,
+            settingsValuesForSuggestion: SettingsValuesForSuggestion?, sessionId: Int, weightForLocale: Float,
+            inOutWeightOfLangModelVsSpatialModel: FloatArray?
+        ): ArrayList<SuggestedWordInfo> = ArrayList(suggestions.asList())
+
+        override fun isInDictionary(word: String?) = suggestions.any { it.mWord == word }
+    }
+
+    companion object {
+        private const val WARMUP_ITERATIONS = 20000
+        private const val ITERATIONS = 20000
+        private const val SLACK_BYTES = 96
+    }
+}
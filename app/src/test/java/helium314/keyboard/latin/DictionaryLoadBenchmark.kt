@@ -0,0 +1,158 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.ManualBenchmark
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.latin.common.FileUtils
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.dictionary.ReadOnlyBinaryDictionary
+import helium314.keyboard.latin.makedict.FormatSpec
+import org.junit.experimental.categories.Category
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.util.Locale
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+import kotlin.test.Test
+import kotlin.test.assertTrue
+
+/**
+ * Packs the bundled main dictionaries into a zip like the APK, once compressed and once stored, and prints the
+ * disk use and the time needed before a dictionary can be used the first time: extracting it from the compressed
+ * entry and opening the file, or opening the stored entry at its offset in the zip like DictionaryFactory does.
+ * Opening uses [ReadOnlyBinaryDictionary] if the native library can be loaded on the host. Otherwise only the
+ * memory mapping done by the native code is timed, which leaves out reading the header and setting up the
+ * dictionary structure. That part is the same in both cases, so the difference is still what is saved.
+ * Getting the offset from the asset manager is not included, as it is not available on the host.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+])
+@Category(ManualBenchmark::class)
+class DictionaryLoadBenchmark {
+    private val dicts = File("src/main/assets/dicts").listFiles { f -> f.name.startsWith("main_") }!!.sortedBy { it.name }
+
+    @Test fun extractVsOpenFromApk() {
+        val dir = Files.createTempDirectory("dicts").toFile()
+        try {
+            extractVsOpenFromApk(dir)
+        } finally {
+            dir.deleteRecursively()
+        }
+    }
+
+    private fun extractVsOpenFromApk(dir: File) {
+        val compressedApk = File(dir, "compressed.apk")
+        val storedApk = File(dir, "stored.apk")
+        writeZip(compressedApk, false)
+        val offsets = writeZip(storedApk, true)
+        val nativeAvailable = openNative(dicts.first(), 0, dicts.first().length()) != null
+        fun open(file: File, offset: Long, length: Long) = assertTrue(
+            if (nativeAvailable) openNative(file, offset, length) == true
+            else map(file, offset, length) == FormatSpec.MAGIC_NUMBER,
+            "could not open ${file.name} at $offset"
+        )
+
+        val extractTimes = LongArray(dicts.size)
+        val openTimes = LongArray(dicts.size)
+        var extractedBytes = 0L
+        ZipFile(compressedApk).use { zip ->
+            dicts.forEachIndexed { i, dict ->
+                val target = File(dir, dict.name)
+                extractTimes[i] = measure {
+                    FileUtils.copyStreamToNewFile(zip.getInputStream(zip.getEntry(dict.name)), target)
+                    open(target, 0, target.length())
+                }
+                extractedBytes += target.length()
+                target.delete()
+            }
+        }
+        dicts.forEachIndexed { i, dict ->
+            openTimes[i] = measure { open(storedApk, offsets[i], dict.length()) }
+        }
+
+        val largest = dicts.indices.maxBy { dicts[it].length() }
+        println("${dicts.size} dictionaries, ${mib(dicts.sumOf { it.length() })} uncompressed")
+        println(if (nativeAvailable) "opening with the native library"
+            else "native library not available, only memory mapping is timed")
+        println("compressed in APK, extracted on first use:")
+        println("  disk: ${mib(compressedApk.length())} APK + ${mib(extractedBytes)} extracted if all languages are used")
+        println("  before first use: ${stats(extractTimes)}, ${ms(extractTimes[largest])} for ${dicts[largest].name}")
+        println("stored in APK, opened at offset:")
+        println("  disk: ${mib(storedApk.length())} APK, nothing extracted")
+        println("  before first use: ${stats(openTimes)}, ${ms(openTimes[largest])} for ${dicts[largest].name}")
+    }
+
+    // returns the offset of each dictionary's data in the zip file
+    private fun writeZip(file: File, stored: Boolean): LongArray {
+        val offsets = LongArray(dicts.size)
+        val counter = CountingOutputStream(BufferedOutputStream(FileOutputStream(file)))
+        ZipOutputStream(counter).use { zip ->
+            dicts.forEachIndexed { i, dict ->
+                val bytes = dict.readBytes()
+                val entry = ZipEntry(dict.name)
+                if (stored) {
+                    entry.method = ZipEntry.STORED
+                    entry.size = bytes.size.toLong()
+                    entry.crc = CRC32().apply { update(bytes) }.value
+                }
+                zip.putNextEntry(entry)
+                offsets[i] = counter.count
+                zip.write(bytes)
+                zip.closeEntry()
+            }
+        }
+        return offsets
+    }
+
+    // opens the dictionary like the app, returns null if the native library is not available
+    private fun openNative(file: File, offset: Long, length: Long): Boolean? = try {
+        val dictionary = ReadOnlyBinaryDictionary(file.absolutePath, offset, length, false, Locale.ROOT, Dictionary.TYPE_MAIN)
+        dictionary.isValidDictionary.also { dictionary.close() }
+    } catch (_: UnsatisfiedLinkError) {
+        null
+    }
+
+    // maps the dictionary like MmappedBuffer in native code and returns the magic number at its start
+    private fun map(file: File, offset: Long, length: Long) = RandomAccessFile(file, "r").use {
+        it.channel.map(FileChannel.MapMode.READ_ONLY, offset, length).getInt(0)
+    }
+
+    private class CountingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+        var count = 0L
+
+        override fun write(b: Int) {
+            out.write(b)
+            count++
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            out.write(b, off, len)
+            count += len
+        }
+    }
+
+    private inline fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+
+    private fun stats(timesNs: LongArray) = String.format(Locale.ROOT, "mean %.2f ms", timesNs.average() / 1_000_000)
+
+    private fun ms(timeNs: Long) = String.format(Locale.ROOT, "%.2f ms", timeNs / 1_000_000.0)
+
+    private fun mib(bytes: Long) = String.format(Locale.ROOT, "%.1f MiB", bytes / 1024.0 / 1024)
+}
@@ -0,0 +1,84 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.ShadowInputMethodService
+import helium314.keyboard.latin.EditorLatency.Strategy
+import helium314.keyboard.latin.common.Constants
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class EditorLatencyTest {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+
+    @BeforeTest fun reset() {
+        ShadowInputMethodService.reset()
+        EditorLatency.reset(latinIME)
+    }
+
+    @Test fun strategiesAreChosenAndRemembered() {
+        val model = EditorLatency.forEditor(latinIME, SLOW_EDITOR)
+        repeat(4) { model.record(latinIME, RichInputConnection.OPERATION_RELOAD_TEXT_CACHE, 150) }
+        assertTrue(Strategy.entries.none { model.uses(it) }) // not enough samples
+        model.record(latinIME, RichInputConnection.OPERATION_RELOAD_TEXT_CACHE, 150)
+        assertEquals(setOf(Strategy.DEFER_WRITES, Strategy.KEEP_TEXT_ON_CURSOR_MOVE, Strategy.SMALL_RELOADS),
+            Strategy.entries.filter { model.uses(it) }.toSet())
+        assertEquals(EditorLatency.SMALL_RELOAD_SIZE, model.reloadSize())
+
+        val remembered = EditorLatency.forEditor(latinIME, SLOW_EDITOR)
+        assertTrue(remembered.uses(Strategy.SMALL_RELOADS))
+        assertFalse(EditorLatency.forEditor(latinIME, "other.editor").uses(Strategy.SMALL_RELOADS))
+
+        // strategies are only dropped when the average is below half the threshold
+        repeat(10) { remembered.record(latinIME, RichInputConnection.OPERATION_RELOAD_TEXT_CACHE, 60) }
+        assertTrue(remembered.uses(Strategy.SMALL_RELOADS))
+        repeat(15) { remembered.record(latinIME, RichInputConnection.OPERATION_RELOAD_TEXT_CACHE, 5) }
+        assertTrue(Strategy.entries.none { remembered.uses(it) })
+        assertEquals(Constants.EDITOR_CONTENTS_CACHE_SIZE, remembered.reloadSize())
+
+        EditorLatency.reset(latinIME)
+        assertEquals("no measurements", EditorLatency.dump(latinIME))
+    }
+
+    @Test fun cursorMoveLeftDoesNotReloadTextInSlowEditor() {
+        ShadowInputMethodService.text = "some text. hello world"
+        ShadowInputMethodService.selectionStart = 22
+        ShadowInputMethodService.selectionEnd = 22
+        val connection = RichInputConnection(latinIME)
+        connection.resetCachesUponCursorMoveAndReturnSuccess(22, 22, false)
+
+        val model = EditorLatency.forEditor(latinIME, SLOW_EDITOR)
+        repeat(5) { model.record(latinIME, RichInputConnection.OPERATION_RELOAD_TEXT_CACHE, 80) }
+        RichInputConnection::class.java.getDeclaredField("mEditorLatency")
+            .apply { isAccessible = true }.set(connection, model)
+
+        ShadowInputMethodService.selectionStart = 16
+        ShadowInputMethodService.selectionEnd = 16
+        ShadowInputMethodService.ipcCalls.clear()
+        connection.resetCachesUponCursorMoveAndReturnSuccess(16, 16, false)
+        assertEquals(0, ShadowInputMethodService.ipcCount)
+        assertEquals("some text. hello", connection.getTextBeforeCursor(40, 0).toString())
+        assertEquals(16, connection.expectedSelectionStart)
+
+        // moving right needs the text from the editor
+        ShadowInputMethodService.selectionStart = 19
+        ShadowInputMethodService.selectionEnd = 19
+        connection.resetCachesUponCursorMoveAndReturnSuccess(19, 19, false)
+        assertTrue(ShadowInputMethodService.ipcCalls.containsKey("getTextBeforeCursor"))
+        assertEquals("some text. hello wo", connection.getTextBeforeCursor(40, 0).toString())
+    }
+
+    companion object {
+        private const val SLOW_EDITOR = "slow.editor"
+    }
+}
@@ -0,0 +1,162 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import com.android.inputmethod.latin.BinaryDictionary
+import helium314.keyboard.ShadowInputMethodService
+import helium314.keyboard.keyboard.KeyboardSwitcher
+import helium314.keyboard.latin.common.ComposedData
+import helium314.keyboard.latin.common.StringUtils
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.settings.SettingsValuesForSuggestion
+import org.junit.Assume.assumeTrue
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.File
+import java.util.Locale
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Types a small corpus key by key, with some corrections, and checks that resuming the previous search when
+ * [Suggest] flags the input as extending the previous one gives the same suggestions as searching from scratch.
+ * The native search is only checked if the native library can be loaded on the host. Otherwise, and in
+ * addition, a prefix search that resumes from its previous matches checks the inputs flagged by [Suggest].
+ * With the native library, the per-key latency of the native search with and without resuming is also printed.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class IncrementalSuggestionTest {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val keyboardSwitcher = KeyboardSwitcher.getInstance()
+
+    init {
+        keyboardSwitcher.onCreateInputView(latinIME, true)
+        keyboardSwitcher.reloadMainKeyboard()
+    }
+
+    private val keyboard = keyboardSwitcher.keyboard!!
+    private val suggest get() = latinIME.mInputLogic.mSuggest
+
+    @Test fun resumedPrefixSearchMatchesFullSearch() {
+        val resumed = PrefixSearch()
+        val full = PrefixSearch()
+        var resumedCount = 0
+        typeCorpus { composedData, ngramContext ->
+            if (composedData.mExtendsPreviousInput) resumedCount++
+            assertEquals(full.search(ComposedData(composedData.mInputPointers, false, composedData.mTypedWord), ngramContext),
+                resumed.search(composedData, ngramContext), "typing ${composedData.mTypedWord} after $ngramContext")
+        }
+        assertTrue(resumedCount > 0, "no input was flagged as extending the previous input")
+    }
+
+    @Test fun resumedNativeSearchMatchesFullSearch() {
+        val proximityInfo = keyboard.proximityInfo.nativeProximityInfo
+        val (resumed, full) = openDictionaries()
+        val settings = SettingsValuesForSuggestion(false, false)
+        fun BinaryDictionary.words(composedData: ComposedData, ngramContext: NgramContext) =
+            getSuggestions(composedData, ngramContext, proximityInfo, settings, 0, 1f, null)?.map { it.mWord }
+        typeCorpus { composedData, ngramContext ->
+            val fullData = ComposedData(composedData.mInputPointers, false, composedData.mTypedWord)
+            assertEquals(full.words(fullData, ngramContext), resumed.words(composedData, ngramContext),
+                "typing ${composedData.mTypedWord} after $ngramContext")
+        }
+        resumed.close()
+        full.close()
+    }
+
+    @Test fun perKeyLatencyWithAndWithoutResuming() {
+        val proximityInfo = keyboard.proximityInfo.nativeProximityInfo
+        val (resumed, full) = openDictionaries()
+        val settings = SettingsValuesForSuggestion(false, false)
+        val inputs = ArrayList<Pair<ComposedData, NgramContext>>()
+        typeCorpus { composedData, ngramContext -> inputs.add(composedData to ngramContext) }
+
+        fun measure(dictionary: BinaryDictionary, resume: Boolean) = LongArray(inputs.size) {
+            val (composedData, ngramContext) = inputs[it]
+            val data = if (resume) composedData else ComposedData(composedData.mInputPointers, false, composedData.mTypedWord)
+            val start = System.nanoTime()
+            dictionary.getSuggestions(data, ngramContext, proximityInfo, settings, 0, 1f, null)
+            System.nanoTime() - start
+        }
+        repeat(WARMUP_RUNS) {
+            measure(full, false)
+            measure(resumed, true)
+        }
+        val withoutResume = (1..RUNS).map { measure(full, false) }.reduce { all, run -> all + run }
+        val withResume = (1..RUNS).map { measure(resumed, true) }.reduce { all, run -> all + run }
+        println("per-key latency without resuming: ${stats(withoutResume)}")
+        println("per-key latency with resuming:    ${stats(withResume)}")
+        resumed.close()
+        full.close()
+    }
+
+    // two instances of the English main dictionary, so one can resume its search while the other searches from scratch
+    private fun openDictionaries(): Pair<BinaryDictionary, BinaryDictionary> {
+        val dictFile = File("src/main/assets/dicts/main_en-US.dict")
+        assumeTrue("native library not available", keyboard.proximityInfo.nativeProximityInfo != 0L && dictFile.isFile)
+        fun openDictionary() = try {
+            BinaryDictionary(dictFile.absolutePath, 0, dictFile.length(), false, Locale.US, Dictionary.TYPE_MAIN, false)
+                .takeIf { it.isValidDictionary }
+        } catch (e: UnsatisfiedLinkError) {
+            null
+        }
+        val first = openDictionary()
+        val second = openDictionary()
+        assumeTrue("could not open dictionary", first != null && second != null)
+        return first!! to second!!
+    }
+
+    private fun stats(timesNs: LongArray): String {
+        val sorted = timesNs.sorted()
+        val mean = timesNs.average() / 1000
+        val p95 = sorted[(sorted.size * 95 / 100).coerceAtMost(sorted.lastIndex)] / 1000
+        return String.format(Locale.ROOT, "%d keys, mean %.1f µs, p95 %d µs", timesNs.size, mean, p95)
+    }
+
+    // passes the composed data for each key, as flagged by suggest, to onKey
+    private fun typeCorpus(onKey: (ComposedData, NgramContext) -> Unit) {
+        var ngramContext = NgramContext.BEGINNING_OF_SENTENCE
+        CORPUS.split(" ").forEachIndexed { i, word ->
+            val typed = (1..word.length).map { word.substring(0, it) }.toMutableList()
+            if (i % 3 == 0 && word.length > 3) {
+                // delete the third letter and type another one, then delete it and continue with the word
+                typed.addAll(3, listOf(word.substring(0, 2), word.substring(0, 2) + "x", word.substring(0, 2)))
+            }
+            for (text in typed) {
+                val codePoints = StringUtils.toCodePointArray(text)
+                val wordComposer = WordComposer().apply { setComposingWord(codePoints, keyboard.getCoordinates(codePoints)) }
+                onKey(suggest.getComposedDataForTyping(wordComposer, ngramContext), ngramContext)
+            }
+            ngramContext = ngramContext.getNextNgramContext(NgramContext.WordInfo(word))
+        }
+    }
+
+    /**
+     * Finds the words starting with the typed word, where which words are found and their scores depend on the
+     * previous word. Like the native search, it continues from the matches of the previous search if the input
+     * is flagged as extending it, so wrongly flagged input gives different results.
+     */
+    private class PrefixSearch {
+        private var matches = WORDS
+
+        fun search(composedData: ComposedData, ngramContext: NgramContext): List<Pair<String, Int>> {
+            val previousWord = ngramContext.extractPrevWordsContext()
+            val candidates = if (composedData.mExtendsPreviousInput) matches else WORDS
+            matches = candidates.filter { it.startsWith(composedData.mTypedWord) && (it + previousWord).hashCode() % 4 != 0 }
+            return matches.map { it to Math.floorMod((it + previousWord).hashCode(), 1000) }.sortedByDescending { it.second }
+        }
+    }
+
+    companion object {
+        private const val CORPUS = "their friends were thinking about something different when the weather " +
+                "changed yesterday and everybody remembered the beautiful mountains around the village"
+        private val WORDS = CORPUS.split(" ").distinct() + listOf("there", "then", "thin", "differ", "weathered", "thex")
+        private const val WARMUP_RUNS = 2
+        private const val RUNS = 5
+    }
+}
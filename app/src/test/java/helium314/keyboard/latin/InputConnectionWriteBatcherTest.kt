@@ -0,0 +1,144 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import android.os.Looper
+import android.os.SystemClock
+import android.view.KeyEvent
+import android.view.inputmethod.InputConnection
+import helium314.keyboard.ShadowInputMethodService
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodService::class,
+])
+class InputConnectionWriteBatcherTest {
+    private val latinIME = Robolectric.setupService(LatinIME::class.java)
+    private val ic: InputConnection get() = latinIME.currentInputConnection
+    private val editorState get() = with(ShadowInputMethodService) { listOf(text, selectionStart, selectionEnd, composingStart, composingEnd) }
+
+    @BeforeTest fun reset() {
+        ShadowInputMethodService.reset()
+    }
+
+    @Test fun mergedWritesResultInSameText() {
+        fun writeAll(setComposing: (String) -> Unit, commit: (String) -> Unit, delete: (Int) -> Unit, key: (Int) -> Unit) {
+            setComposing("he")
+            setComposing("hel")
+            commit("hello")
+            commit(" ")
+            commit("wrold")
+            delete(5)
+            commit("world")
+            key(KeyEvent.KEYCODE_ENTER)
+            delete(1)
+            delete(1)
+            commit("d!")
+            commit("ab")
+            delete(1)
+            delete(1)
+            setComposing("x")
+        }
+        writeAll({ ic.setComposingText(it, 1) }, { ic.commitText(it, 1) }, { ic.deleteSurroundingText(it, 0) },
+            { ic.sendKeyEvent(KeyEvent(KeyEvent.ACTION_DOWN, it)) })
+        val expected = editorState
+        val directCalls = ShadowInputMethodService.ipcCount
+        assertEquals("hello world!x", ShadowInputMethodService.text)
+
+        reset()
+        val batcher = InputConnectionWriteBatcher()
+        writeAll({ batcher.setComposingText(ic, it, 1) }, { batcher.commitText(ic, it, 1) }, { batcher.deleteTextBeforeCursor(ic, it) },
+            { batcher.sendKeyEvent(ic, KeyEvent(KeyEvent.ACTION_DOWN, it)) })
+        assertEquals(0, ShadowInputMethodService.ipcCount)
+        batcher.flush(false)
+        assertEquals(expected, editorState)
+        // commitText, sendKeyEvent, deleteSurroundingText, commitText, setComposingText, and the batch edit
+        assertEquals(7, ShadowInputMethodService.ipcCount)
+        assertTrue(ShadowInputMethodService.ipcCount < directCalls)
+    }
+
+    @Test fun keyRepeatIsMergedUntilNextFrameOnSlowConnection() {
+        ShadowInputMethodService.text = "hello world"
+        ShadowInputMethodService.selectionStart = 11
+        ShadowInputMethodService.selectionEnd = 11
+        val connection = RichInputConnection(latinIME)
+        connection.resetCachesUponCursorMoveAndReturnSuccess(11, 11, false)
+
+        ShadowInputMethodService.ipcCalls.clear()
+        repeat(3) { deleteInBatchEdit(connection) }
+        assertEquals("hello wo", ShadowInputMethodService.text)
+        assertEquals(3, ShadowInputMethodService.ipcCount) // one deleteSurroundingText per event
+
+        ShadowInputMethodService.ipcCalls.clear()
+        RichInputConnection::class.java.getDeclaredField("mLastSlowInputConnectionTime")
+            .apply { isAccessible = true }.setLong(connection, SystemClock.uptimeMillis())
+        repeat(3) { deleteInBatchEdit(connection) }
+        assertEquals("hello wo", ShadowInputMethodService.text)
+        assertEquals(0, ShadowInputMethodService.ipcCount)
+        assertEquals("hello", connection.getTextBeforeCursor(5, 0).toString()) // cached text is up to date
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+        assertEquals("hello", ShadowInputMethodService.text)
+        assertEquals(mapOf("deleteSurroundingText" to 1), ShadowInputMethodService.ipcCalls)
+    }
+
+    @Test fun unexpectedCursorMoveDropsDeferredWrites() {
+        ShadowInputMethodService.text = "hello world"
+        ShadowInputMethodService.selectionStart = 11
+        ShadowInputMethodService.selectionEnd = 11
+        val connection = RichInputConnection(latinIME)
+        connection.resetCachesUponCursorMoveAndReturnSuccess(11, 11, false)
+        RichInputConnection::class.java.getDeclaredField("mLastSlowInputConnectionTime")
+            .apply { isAccessible = true }.setLong(connection, SystemClock.uptimeMillis())
+        repeat(3) { deleteInBatchEdit(connection) }
+        assertEquals("hello wo", connection.getTextBeforeCursor(8, 0).toString())
+
+        // the user moves the cursor before the deferred writes are sent
+        ShadowInputMethodService.selectionStart = 5
+        ShadowInputMethodService.selectionEnd = 5
+        ShadowInputMethodService.ipcCalls.clear()
+        connection.discardPendingWrites()
+        connection.resetCachesUponCursorMoveAndReturnSuccess(5, 5, false)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100))
+        assertEquals("hello world", ShadowInputMethodService.text)
+        assertEquals(null, ShadowInputMethodService.ipcCalls["deleteSurroundingText"])
+        assertEquals("hello", connection.getTextBeforeCursor(5, 0).toString())
+    }
+
+    @Test fun writesAndFlushesOnDifferentThreadsKeepOrder() {
+        val batcher = InputConnectionWriteBatcher()
+        val inputConnection = ic
+        val writing = AtomicBoolean(true)
+        // flushes like reads on the InputLogicHandler thread do
+        val reader = thread {
+            while (writing.get()) batcher.flush(false)
+        }
+        repeat(2000) {
+            batcher.commitText(inputConnection, "ab", 1)
+            batcher.deleteTextBeforeCursor(inputConnection, 1)
+            batcher.setComposingText(inputConnection, "c", 1)
+            batcher.finishComposingText(inputConnection)
+        }
+        writing.set(false)
+        reader.join()
+        batcher.flush(false)
+        assertEquals("ac".repeat(2000), ShadowInputMethodService.text)
+        assertEquals(4000, ShadowInputMethodService.selectionStart)
+    }
+
+    private fun deleteInBatchEdit(connection: RichInputConnection) {
+        connection.beginBatchEdit()
+        connection.deleteTextBeforeCursor(1)
+        connection.endBatchEdit()
+    }
+}
@@ -0,0 +1,41 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.utils.InputLatency
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class InputLatencyTest {
+    @Test fun percentilesAreWithinBucketPrecision() {
+        val histogram = InputLatency.Histogram()
+        for (micros in 1L..10_000L) histogram.record(micros)
+        assertEquals(10_000, histogram.count)
+        assertEquals(10_000, histogram.max)
+        assertEquals(5000.5, histogram.mean)
+        for ((percent, expected) in listOf(50 to 5000L, 95 to 9500L, 99 to 9900L)) {
+            val value = histogram.percentile(percent)
+            assertTrue(value >= expected && value <= expected * 1.13, "p$percent: $value")
+        }
+        assertEquals(10_000, histogram.percentile(100))
+    }
+
+    @Test fun smallValuesAreExact() {
+        val histogram = InputLatency.Histogram()
+        listOf(0L, 3L, 3L, 7L).forEach { histogram.record(it) }
+        assertEquals(3, histogram.percentile(50))
+        assertEquals(7, histogram.percentile(99))
+        assertEquals(listOf(0L to 1L, 3L to 2L, 7L to 1L), histogram.buckets())
+    }
+
+    @Test fun touchStagesAreRecordedOncePerTouch() {
+        InputLatency.reset()
+        InputLatency.onTouchEvent(System.nanoTime() / 1_000_000)
+        InputLatency.onTextSent()
+        InputLatency.onTextSent()
+        assertEquals(1, InputLatency.histogram(InputLatency.Stage.TOUCH_TO_COMMIT).count)
+        assertEquals(0, InputLatency.histogram(InputLatency.Stage.TOUCH_TO_SUGGESTIONS).count)
+        InputLatency.onSuggestionsShown()
+        assertEquals(1, InputLatency.histogram(InputLatency.Stage.TOUCH_TO_SUGGESTIONS).count)
+    }
+}
@@ -63,10 +63,9 @@ class InputLogicTest {
     private val composer get() = composerReader.get(inputLogic) as WordComposer
     private val spaceStateReader = InputLogic::class.java.getDeclaredField("mSpaceState").apply { isAccessible = true }
     private val spaceState get() = spaceStateReader.get(inputLogic) as Int
-    private val beforeComposingReader = RichInputConnection::class.java.getDeclaredField("mCommittedTextBeforeComposingText").apply { isAccessible = true }
-    private val connectionTextBeforeComposingText get() = (beforeComposingReader.get(connection) as CharSequence).toString()
-    private val composingReader = RichInputConnection::class.java.getDeclaredField("mComposingText").apply { isAccessible = true }
-    private val connectionComposingText get() = (composingReader.get(connection) as CharSequence).toString()
+    private val textMirrorReader = RichInputConnection::class.java.getDeclaredField("mTextBeforeCursor").apply { isAccessible = true }
+    private val connectionTextBeforeComposingText get() = (textMirrorReader.get(connection) as TextMirror).snapshot().committed().toString()
+    private val connectionComposingText get() = (textMirrorReader.get(connection) as TextMirror).snapshot().composing()
 
     private val textBeforeCursor get() = ShadowInputMethodService.textBeforeCursor
     private val textAfterCursor get() = ShadowInputMethodService.textAfterCursor
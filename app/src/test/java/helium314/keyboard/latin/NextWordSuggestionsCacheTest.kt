@@ -0,0 +1,76 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.NgramContext.WordInfo
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.utils.SuggestionResults
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+class NextWordSuggestionsCacheTest {
+    @Test fun equalContextsFindSameEntry() {
+        val cache = NextWordSuggestionsCache()
+        val results = results("b")
+        cache.put(NgramContext(WordInfo("a"), WordInfo.EMPTY_WORD_INFO), results)
+        assertSame(results, cache[NgramContext(WordInfo(StringBuilder("a")))])
+        assertNull(cache[NgramContext(WordInfo("a"), WordInfo("x"))])
+    }
+
+    @Test fun evictsLeastRecentlyUsedWhenFull() {
+        val results = results("word1", "word2", "word3")
+        val cache = NextWordSuggestionsCache(1)
+        cache.put(context("x"), results) // too large for the cache
+        assertEquals(0, cache.size())
+
+        val bounded = NextWordSuggestionsCache(2500)
+        (0 until 10).forEach { bounded.put(context("word$it"), results) }
+        val size = bounded.size()
+        assertTrue(size in 1..9)
+        bounded[context("word${10 - size}")] // least recently used entry becomes most recently used
+        bounded.put(context("new"), results)
+        assertNotNull(bounded[context("word${10 - size}")])
+        assertNull(bounded[context("word${11 - size}")])
+    }
+
+    @Test fun invalidate() {
+        val cache = NextWordSuggestionsCache()
+        cache.put(context("a"), results("b"))
+        cache.put(context("c"), results("d"))
+        cache.invalidate(context("a"))
+        assertNull(cache[context("a")])
+        assertNotNull(cache[context("c")])
+        assertEquals("1 entries", cache.dumpStats().substringBefore(","))
+    }
+
+    @Test fun invalidateAgainWhenUserHistoryIsApplied() {
+        val cache = NextWordSuggestionsCache()
+        cache.invalidate(context("a"))
+        // fetched before the learned word is applied to the dictionary
+        cache.put(context("a"), results("b"))
+        cache.put(context("c"), results("d"))
+        cache.onUserHistoryApplied()
+        assertNull(cache[context("a")])
+        assertNotNull(cache[context("c")])
+
+        // only invalidated once
+        cache.put(context("a"), results("b"))
+        cache.onUserHistoryApplied()
+        assertNotNull(cache[context("a")])
+    }
+
+    private fun context(word: String) = NgramContext(WordInfo(word), WordInfo.BEGINNING_OF_SENTENCE_WORD_INFO)
+
+    private fun results(vararg words: String) = SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, false, false).apply {
+        words.forEachIndexed { i, word ->
+            add(SuggestedWordInfo(word, "", 100 - i, SuggestedWordInfo.KIND_PREDICTION, Dictionary.DICTIONARY_USER_TYPED, 0, 0))
+        }
+    }
+}
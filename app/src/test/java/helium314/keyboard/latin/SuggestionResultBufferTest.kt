@@ -0,0 +1,91 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.dictionary.SuggestionResultBuffer
+import helium314.keyboard.latin.utils.SuggestionResults
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+class SuggestionResultBufferTest {
+    private val dict = Dictionary.DICTIONARY_USER_TYPED
+
+    @Test fun onlyCreatesSuggestionsThatCanBeAdded() {
+        val buffer = filledBuffer(listOf("high" to 1000, "mid" to 500, "low" to 10))
+        val collector = ResultsCollector(2)
+        buffer.collectSuggestions(1f, dict, collector)
+        assertEquals(listOf("high", "mid"), collector.results.map { it.mWord })
+        assertEquals(2, collector.created) // "low" is not created, the results are full when it's passed
+    }
+
+    @Test fun appliesLocaleWeight() {
+        val buffer = filledBuffer(listOf("word" to 1000))
+        val collector = ResultsCollector(2)
+        buffer.collectSuggestions(0.5f, dict, collector)
+        val info = collector.results.first()
+        assertEquals(500, info.mScore)
+        assertEquals(1000, info.mOriginalScore)
+    }
+
+    @Test fun keepsBestInOrderAndEvictsWorst() {
+        val buffer = filledBuffer(listOf("mid" to 1000, "low" to 10, "better" to 1500, "best" to 2000))
+        val collector = ResultsCollector(2)
+        buffer.collectSuggestions(1f, dict, collector)
+        assertEquals(listOf("best", "better"), collector.results.map { it.mWord })
+        // the results are not full for the first two, and each of the others is better than the worst kept one
+        assertEquals(4, collector.created)
+    }
+
+    @Test fun doesNotCreateWorseSuggestionsWhenFull() {
+        // results already full with better suggestions, as is the case for most dictionaries and keystrokes
+        val collector = ResultsCollector(SuggestedWords.MAX_SUGGESTIONS)
+        val good = (0 until SuggestedWords.MAX_SUGGESTIONS).map {
+            SuggestedWordInfo("good$it", "", 10000 + it, SuggestedWordInfo.KIND_CORRECTION, dict, 0, 0)
+        }
+        collector.results.addAll(good)
+        val buffer = filledBuffer((0 until SuggestedWords.MAX_SUGGESTIONS).map { "candidate$it" to 100 + it })
+        repeat(3) { buffer.collectSuggestions(1f, dict, collector) }
+        assertEquals(0, collector.created)
+        assertEquals(good.reversed().map { it.mWord }, collector.results.map { it.mWord })
+    }
+
+    @Test fun keepsBestScoreOfWordFromSeveralSearches() {
+        val collector = ResultsCollector(3)
+        filledBuffer(listOf("word" to 100, "other" to 50)).collectSuggestions(1f, dict, collector)
+        val buffer = filledBuffer(listOf("word" to 300))
+        buffer.collectSuggestions(1f, dict, collector)
+        assertEquals(listOf("word" to 300, "other" to 50), collector.results.map { it.mWord to it.mScore })
+        // a cleared buffer has no results
+        buffer.clear()
+        buffer.collectSuggestions(1f, dict, collector)
+        assertEquals(3, collector.created)
+    }
+
+    private fun filledBuffer(words: List<Pair<String, Int>>): SuggestionResultBuffer {
+        val buffer = SuggestionResultBuffer(SuggestedWords.MAX_SUGGESTIONS, MAX_WORD_LENGTH)
+        buffer.mOutputCodePoints.fill(0)
+        words.forEachIndexed { i, (word, score) ->
+            val codePoints = word.codePoints().toArray()
+            System.arraycopy(codePoints, 0, buffer.mOutputCodePoints, i * MAX_WORD_LENGTH, codePoints.size)
+            buffer.mOutputScores[i] = score
+            buffer.mOutputTypes[i] = SuggestedWordInfo.KIND_CORRECTION
+        }
+        buffer.mOutputSuggestionCount[0] = words.size
+        return buffer
+    }
+
+    private class ResultsCollector(capacity: Int) : Dictionary.SuggestionCollector {
+        val results = SuggestionResults(capacity, false, false)
+        var created = 0
+        override fun wouldAdd(sourceDict: Dictionary, score: Int) = results.canAdd(score)
+        override fun add(info: SuggestedWordInfo) {
+            ++created
+            results.add(info)
+        }
+    }
+
+    companion object {
+        private const val MAX_WORD_LENGTH = 48
+    }
+}
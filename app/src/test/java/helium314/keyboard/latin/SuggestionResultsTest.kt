@@ -0,0 +1,63 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import helium314.keyboard.latin.SuggestedWords.SuggestedWordInfo
+import helium314.keyboard.latin.dictionary.Dictionary
+import helium314.keyboard.latin.utils.SuggestionResults
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class SuggestionResultsTest {
+    @Test fun keepsBestSuggestionsInOrder() {
+        val results = SuggestionResults(3, false, false)
+        listOf("d" to 1, "a" to 50, "c" to 10, "b" to 30, "e" to 5).forEach { results.add(info(it.first, it.second)) }
+        assertEquals(listOf("a", "b", "c"), results.map { it.mWord })
+        assertEquals("a", results.first().mWord)
+        assertEquals("c", results.last().mWord)
+    }
+
+    @Test fun tiesAreOrderedByLengthAndWord() {
+        val results = SuggestionResults(5, false, false)
+        listOf("bb", "ab", "a", "ccc").forEach { results.add(info(it, 10)) }
+        assertEquals(listOf("a", "ab", "bb", "ccc"), results.map { it.mWord })
+    }
+
+    @Test fun keepsOnlyBestSuggestionForWord() {
+        val results = SuggestionResults(3, false, false)
+        results.add(info("word", 10))
+        results.add(info("other", 20))
+        assertTrue(results.add(info("word", 30)))
+        assertFalse(results.add(info("word", 5)))
+        assertEquals(listOf("word" to 30, "other" to 20), results.map { it.mWord to it.mScore })
+    }
+
+    @Test fun rejectsWorseSuggestionsWhenFull() {
+        val results = SuggestionResults(2, false, false)
+        results.add(info("a", 20))
+        results.add(info("b", 10))
+        assertTrue(results.canAdd(10))
+        assertFalse(results.canAdd(9))
+        assertFalse(results.add(info("c", 9)))
+        assertTrue(results.add(info("c", 15)))
+        assertEquals(listOf("a", "c"), results.map { it.mWord })
+    }
+
+    @Test fun remove() {
+        val results = SuggestionResults(5, false, false)
+        val infos = listOf(info("a", 3), info("b", 2), info("c", 1))
+        results.addAll(infos)
+        assertTrue(infos[1] in results)
+        assertTrue(results.remove(infos[1]))
+        assertFalse(infos[1] in results)
+        assertFalse(info("a", 1) in results) // same word, but different suggestion
+        val iterator = results.iterator()
+        iterator.next()
+        iterator.remove()
+        assertEquals(listOf("c"), results.map { it.mWord })
+    }
+
+    private fun info(word: String, score: Int) =
+        SuggestedWordInfo(word, "", score, SuggestedWordInfo.KIND_CORRECTION, Dictionary.DICTIONARY_USER_TYPED, 0, 0)
+}
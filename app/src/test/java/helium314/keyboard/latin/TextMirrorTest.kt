@@ -0,0 +1,117 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.concurrent.thread
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class TextMirrorTest {
+    @Test fun snapshotsAreNotChangedByLaterEdits() {
+        val mirror = TextMirror()
+        mirror.appendCommitted("hello ")
+        mirror.setComposing("wor")
+        val first = mirror.snapshot()
+        mirror.truncateCommitted(3)
+        mirror.appendCommitted("p! ")
+        mirror.setComposing("x")
+        assertEquals("hello wor", first.toString())
+        assertEquals("hello ", first.committed().toString())
+        assertEquals("hel", mirror.snapshot().committed().subSequence(0, 3).toString())
+        assertEquals("help! x", mirror.snapshot().toString())
+        mirror.finishComposing()
+        assertEquals("help! x", mirror.snapshot().committed().toString())
+        assertEquals("", mirror.snapshot().composing())
+    }
+
+    @Test fun subSequencesAcrossComposingText() {
+        val mirror = TextMirror()
+        mirror.set("some text", 4)
+        val text = mirror.snapshot()
+        assertEquals("text", text.composing())
+        assertEquals("e te", text.subSequence(3, 7).toString())
+        assertEquals("te", text.subSequence(3, 7).subSequence(2, 4).toString())
+        assertEquals("ex", text.subSequence(6, 8).toString())
+        assertEquals("ome text", text.takeLast(8).toString())
+        assertEquals('t', text[5])
+        repeat(300) { mirror.appendCommitted("a") } // grows the array
+        assertEquals("some text", text.toString())
+        assertEquals(305, mirror.committedLength())
+    }
+
+    @Test fun lastLineWordsAreTrackedIncrementally() {
+        val mirror = TextMirror()
+        mirror.set("some text", 0)
+        assertEquals(listOf("some", "text"), mirror.snapshot().lastLineWords(1, true)?.toList())
+        assertNull(mirror.snapshot().lastLineWords(1, false)) // the line may start before the known text
+        mirror.set("first line\nsome text", 0)
+        assertEquals(listOf("some", "text"), mirror.snapshot().lastLineWords(1, false)?.toList())
+        mirror.appendCommitted(" he")
+        mirror.setComposing("llo")
+        assertEquals(listOf("some", "text", "hello"), mirror.snapshot().lastLineWords(2, true)?.toList())
+        mirror.finishComposing()
+        mirror.appendCommitted(" a b c d e f g")
+        assertEquals(listOf("b", "c", "d", "e", "f", "g"), mirror.snapshot().lastLineWords(1, false)?.takeLast(6))
+        mirror.truncateCommitted(mirror.committedLength() - 6) // removes " e f g"
+        assertEquals(listOf("d"), mirror.snapshot().lastLineWords(1, true)?.takeLast(1))
+        mirror.appendCommitted("\n")
+        assertEquals(listOf("d"), mirror.snapshot().lastLineWords(1, true)?.takeLast(1)) // empty lines are ignored
+        mirror.setComposing("new")
+        assertEquals(listOf("new"), mirror.snapshot().lastLineWords(2, false)?.toList())
+        mirror.setComposing("two words")
+        assertNull(mirror.snapshot().lastLineWords(2, true))
+    }
+
+    @Test fun snapshotsAreConsistentOnOtherThreads() {
+        val mirror = TextMirror()
+        val done = AtomicBoolean(false)
+        val inconsistent = AtomicReference<String>()
+        val reader = thread {
+            while (!done.get()) {
+                // the text always consists of blocks of 10 equal digits, and the composing text starts a new block
+                val text = mirror.snapshot().toString()
+                if (text.indices.any { text[it - it % 10] != text[it] }) inconsistent.set(text)
+            }
+        }
+        repeat(20_000) { i ->
+            val digit = ('0' + i % 10).toString()
+            mirror.setComposing(digit.repeat(i % 7))
+            mirror.setComposing("")
+            mirror.appendCommitted(digit.repeat(10))
+            if (i % 3 == 0) mirror.truncateCommitted(mirror.committedLength() - 10)
+            if (i % 100 == 0) mirror.clear()
+        }
+        done.set(true)
+        reader.join()
+        assertNull(inconsistent.get())
+    }
+
+    @Test fun committingComposingTextIsAtomicForOtherThreads() {
+        val mirror = TextMirror()
+        val done = AtomicBoolean(false)
+        val inconsistent = AtomicReference<String>()
+        val reader = thread {
+            while (!done.get()) {
+                // block n of 10 chars consists of digit n % 10, so text committed twice is noticed
+                val text = mirror.snapshot().toString()
+                if (text.indices.any { text[it] != '0' + it / 10 % 10 }) inconsistent.set(text)
+            }
+        }
+        repeat(200_000) { i ->
+            if (i % 100 == 0) mirror.clear()
+            val block = ('0' + mirror.committedLength() / 10 % 10).toString().repeat(10)
+            mirror.setComposing(block.substring(0, i % 7))
+            if (i % 2 == 0) {
+                mirror.setComposing(block)
+                mirror.finishComposing()
+            } else {
+                mirror.commit(block)
+            }
+        }
+        done.set(true)
+        reader.join()
+        assertNull(inconsistent.get())
+    }
+}
@@ -0,0 +1,119 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin
+
+import androidx.test.core.app.ApplicationProvider
+import helium314.keyboard.ShadowInputMethodManager2
+import helium314.keyboard.latin.settings.SpacingAndPunctuations
+import helium314.keyboard.latin.utils.NgramContextUtils
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Compares the previous words found with the [TextState] of [TextMirror] snapshots with splitting the whole text
+ * in [NgramContextUtils], for random edits. Uses a fixed seed, so failures can be reproduced.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+])
+class TextStateTest {
+    private val sp = SpacingAndPunctuations(ApplicationProvider.getApplicationContext<App>().resources, false)
+    private var compared = 0
+    private var skipped = 0
+
+    @Test fun previousWordsMatchSplittingTheText() {
+        val random = Random(SEED)
+        repeat(SEQUENCES) { sequence ->
+            val mirror = TextMirror()
+            repeat(EDITS) { edit ->
+                when (random.nextInt(12)) {
+                    // unknown text state, which is scanned when needed
+                    0 -> {
+                        val composing = if (random.nextBoolean()) word(random) else ""
+                        mirror.set(text(random) + composing, composing.length)
+                    }
+                    1, 2 -> mirror.truncateCommitted(mirror.committedLength() - 1 - random.nextInt(6))
+                    3, 4 -> mirror.setComposing(word(random))
+                    5 -> mirror.truncateComposing(mirror.composingLength() - 1)
+                    6 -> mirror.finishComposing()
+                    7 -> mirror.commit(word(random) + separator(random))
+                    else -> mirror.appendCommitted(text(random))
+                }
+                check(mirror.snapshot(), random, "sequence $sequence, edit $edit")
+            }
+        }
+        // the tracked words must actually be used for most texts
+        assertTrue(compared > 10 * skipped, "compared $compared texts, skipped $skipped")
+    }
+
+    @Test fun previousWordsInSpecialLines() {
+        val random = Random(SEED)
+        val texts = listOf(
+            "  leading whitespace", "line\n   ", "line\n   \nmore", "first\r\nsecond", "first\r\n", "\r\n\r\n",
+            "one two three four five six seven eight nine ten", "a b c d e f g h\ni j", "\t\u000Bx\u000Cy",
+            "end. ", "it's over-", "line\n", "words  \n  \n",
+        )
+        for (text in texts) {
+            for (composing in listOf("", "word", "next'", ".")) {
+                val mirror = TextMirror()
+                mirror.set(text, 0)
+                mirror.setComposing(composing)
+                check(mirror.snapshot(), random, "scanned '$text'")
+                // the same text, but with states derived by appending each char
+                val appended = TextMirror()
+                text.forEach { appended.appendCommitted(it.toString()) }
+                appended.setComposing(composing)
+                check(appended.snapshot(), random, "appended '$text'")
+            }
+        }
+    }
+
+    private fun check(text: TextMirror.Snapshot, random: Random, description: String) {
+        val string = text.toString()
+        // text before the known text must not change the result if the text start is not known
+        val unknownStart = if (random.nextBoolean()) "before" else "before\n"
+        for (n in 1..2) {
+            val words = text.lastLineWords(n, true)
+            if (words == null) {
+                skipped++
+            } else {
+                compared++
+                assertEquals(NgramContextUtils.getNgramContextFromNthPreviousWord(string, sp, n),
+                    NgramContextUtils.getNgramContextFromNthPreviousWord(words, sp, n),
+                    "$description, n = $n, text '${escape(string)}'")
+            }
+            val wordsWithoutStart = text.lastLineWords(n, false) ?: continue
+            assertEquals(NgramContextUtils.getNgramContextFromNthPreviousWord(unknownStart + string, sp, n),
+                NgramContextUtils.getNgramContextFromNthPreviousWord(wordsWithoutStart, sp, n),
+                "$description, n = $n, text '${escape(unknownStart + string)}'")
+        }
+    }
+
+    private fun text(random: Random) = buildString {
+        repeat(1 + random.nextInt(12)) {
+            append(if (random.nextInt(3) == 0) separator(random) else word(random))
+        }
+    }
+
+    private fun word(random: Random) = buildString {
+        repeat(1 + random.nextInt(4)) { append(WORD_CHARS[random.nextInt(WORD_CHARS.length)]) }
+    }
+
+    private fun separator(random: Random) = SEPARATORS[random.nextInt(SEPARATORS.size)]
+
+    private fun escape(text: String) = text.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t")
+
+    companion object {
+        private const val SEED = 25L
+        private const val SEQUENCES = 300
+        private const val EDITS = 200
+        private const val WORD_CHARS = "abcdeABC.,'-!?"
+        // several spaces, lines consisting of spaces, and windows line breaks
+        private val SEPARATORS = listOf(" ", " ", " ", "  ", "\t", "\n", "\n\n", "\r\n", "\n  ", "  \n", "\n \n ", ". ")
+    }
+}
@@ -0,0 +1,129 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.personalization
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.android.inputmethod.latin.utils.WordInputEventForPersonalization
+import helium314.keyboard.latin.App
+import helium314.keyboard.latin.NextWordSuggestionsCache
+import helium314.keyboard.latin.NgramContext
+import helium314.keyboard.latin.SuggestedWords
+import helium314.keyboard.latin.utils.ExecutorUtils
+import helium314.keyboard.latin.utils.SuggestionResults
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.Collections
+import java.util.Locale
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+@RunWith(RobolectricTestRunner::class)
+class UserHistoryDictionaryTest {
+    private val context = ApplicationProvider.getApplicationContext<App>()
+
+    @AfterTest fun reset() {
+        ExecutorUtils.setExecutorServiceForTests(null)
+    }
+
+    @Test fun serialExecutorKeepsOrderOnMultipleThreads() {
+        val pool = Executors.newScheduledThreadPool(4)
+        ExecutorUtils.setExecutorServiceForTests(pool)
+        val executor = ExecutorUtils.newSerialExecutor(ExecutorUtils.KEYBOARD)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val done = CountDownLatch(500)
+        repeat(500) {
+            executor.execute {
+                if (it % 7 == 0) Thread.sleep(1) // give other pool threads a chance to overtake
+                order.add(it)
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        assertEquals((0 until 500).toList(), order)
+        pool.shutdown()
+    }
+
+    @Test fun pendingWordsAreAppliedInBatches() {
+        val dictionary = RecordingUserHistoryDictionary(context)
+        (1..3).forEach { dictionary.learn("a$it") }
+        assertEquals(emptyList(), dictionary.batches)
+
+        // switching input fields finishes input
+        dictionary.onFinishInput()
+        assertEquals(listOf(listOf("a1", "a2", "a3")), dictionary.batches)
+
+        (1..MAX_PENDING).forEach { dictionary.learn("b$it") }
+        assertEquals((1..MAX_PENDING).map { "b$it" }, dictionary.batches.last())
+
+        dictionary.learn("d1")
+        dictionary.learn("d2")
+        dictionary.close()
+        assertEquals(listOf("d1", "d2"), dictionary.batches.last())
+        assertEquals(3, dictionary.batches.size)
+    }
+
+    @Test fun pendingWordsAreAppliedAfterDelay() {
+        val applied = CountDownLatch(1)
+        val dictionary = RecordingUserHistoryDictionary(context)
+        dictionary.learn("word") { applied.countDown() }
+        assertEquals(emptyList(), dictionary.batches)
+        assertTrue(applied.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(listOf("word")), dictionary.batches)
+    }
+
+    @Test fun nextWordSuggestionsAreInvalidatedWhenDelayedWordsAreApplied() {
+        val cache = NextWordSuggestionsCache()
+        val applied = CountDownLatch(1)
+        val dictionary = RecordingUserHistoryDictionary(context)
+        cache.invalidate(NgramContext.BEGINNING_OF_SENTENCE)
+        dictionary.learn("word") {
+            cache.onUserHistoryApplied()
+            applied.countDown()
+        }
+        // suggestions fetched before the word is applied don't know it yet
+        cache.put(NgramContext.BEGINNING_OF_SENTENCE, SuggestionResults(SuggestedWords.MAX_SUGGESTIONS, true, false))
+        assertNotNull(cache[NgramContext.BEGINNING_OF_SENTENCE])
+        assertTrue(applied.await(5, TimeUnit.SECONDS))
+        assertNull(cache[NgramContext.BEGINNING_OF_SENTENCE])
+    }
+
+    @Test fun listenerRunsOncePerBatch() {
+        val dictionary = RecordingUserHistoryDictionary(context)
+        var applied = 0
+        val listener = Runnable { applied++ }
+        (1..3).forEach { dictionary.learn("a$it", listener) }
+        dictionary.onFinishInput()
+        assertEquals(1, applied)
+
+        // words applied without a listener don't call the one of the previous batch
+        dictionary.learn("b")
+        dictionary.onFinishInput()
+        assertEquals(1, applied)
+    }
+
+    // records the batches instead of applying them to a native dictionary, Locale.ROOT avoids loading one
+    private class RecordingUserHistoryDictionary(context: Context) : UserHistoryDictionary(context, Locale.ROOT) {
+        val batches: MutableList<List<String>> = Collections.synchronizedList(mutableListOf())
+
+        fun learn(word: String, onApplied: Runnable? = null) =
+            UserHistoryDictionary.addToDictionary(this, NgramContext.BEGINNING_OF_SENTENCE, word, true, 0, onApplied)
+
+        override fun updateEntriesForInputEvents(
+            inputEvents: Array<WordInputEventForPersonalization>, onApplied: Runnable?
+        ) {
+            batches.add(inputEvents.map { String(it.mTargetWord, 0, it.mTargetWord.size) })
+            onApplied?.run()
+        }
+    }
+
+    companion object {
+        private const val MAX_PENDING = 8
+    }
+}
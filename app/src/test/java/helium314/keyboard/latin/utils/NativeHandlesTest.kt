@@ -0,0 +1,95 @@
+// SPDX-License-Identifier: GPL-3.0-only
+package helium314.keyboard.latin.utils
+
+import helium314.keyboard.ShadowInputMethodManager2
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/** Each test uses its own handle types, as the handles and stats are shared by all tests. */
+@RunWith(RobolectricTestRunner::class)
+@Config(shadows = [
+    ShadowInputMethodManager2::class,
+])
+class NativeHandlesTest {
+    private val released = mutableListOf<Long>()
+    private val releaser = NativeHandles.Releaser { handle -> synchronized(released) { released.add(handle) } }
+    // owners that are dropped by the test, to make them unreachable
+    private val owners = mutableListOf<Any>()
+
+    @Test fun explicitReleaseIsCountedAsClosed() {
+        val handle = register("Closed", 1, true)
+        assertTrue(NativeHandles.dump().contains("Closed: 1 live"))
+        handle.release()
+        handle.release()
+        assertEquals(listOf(1L), released)
+        assertStats("Closed: 1 created, 1 closed, 0 collected, 0 leaked")
+        assertFalse(NativeHandles.dump().contains("Closed: 1 live"))
+
+        // a released handle is not released again when the owner is collected
+        owners.clear()
+        awaitReleased { false }
+        assertEquals(listOf(1L), released)
+    }
+
+    @Test fun unreachableOwnersAreReleasedAsCollectedOrLeaked() {
+        register("Collected", 2, false)
+        register("Leaked", 3, true)
+        owners.clear()
+        awaitReleased { it.size == 2 }
+        assertEquals(setOf(2L, 3L), released.toSet())
+        assertStats("Collected: 1 created, 0 closed, 1 collected, 0 leaked")
+        assertStats("Leaked: 1 created, 0 closed, 0 collected, 1 leaked")
+    }
+
+    @Test fun registeringDrainsTheQueue() {
+        register("Drained", 4, false)
+        owners.clear()
+        // only registering, no explicit draining
+        for (i in 0 until GC_ATTEMPTS) {
+            if (synchronized(released) { released.isNotEmpty() }) break
+            System.gc()
+            Thread.sleep(10)
+            register("Draining", 100L + i, false)
+        }
+        assertEquals(listOf(4L), released)
+    }
+
+    @Test fun sharedHandlesAreListedOnce() {
+        register("Shared", 16, false)
+        register("Shared", 16, false)
+        val dump = NativeHandles.dump()
+        assertTrue(dump.contains("Shared: 1 live, 1.0 KiB"), dump)
+        assertTrue(dump.contains("2 owners"), dump)
+    }
+
+    private fun register(type: String, handle: Long, requiresClose: Boolean): NativeHandles.Handle {
+        val owner = Any()
+        owners.add(owner)
+        return NativeHandles.register(owner, type, handle, SIZE_BYTES, "test", requiresClose, releaser)
+    }
+
+    private fun assertStats(line: String) {
+        val dump = NativeHandles.dump()
+        assertTrue(dump.lines().contains(line), dump)
+    }
+
+    // collecting is not guaranteed by System.gc(), so this retries a few times
+    private fun awaitReleased(done: (List<Long>) -> Boolean) {
+        repeat(GC_ATTEMPTS) {
+            System.gc()
+            Thread.sleep(10)
+            NativeHandles.releaseUnreachable()
+            if (synchronized(released) { done(released) }) return
+        }
+    }
+
+    companion object {
+        private const val SIZE_BYTES = 1024L
+        private const val GC_ATTEMPTS = 20
+    }
+}